@@ -0,0 +1,38 @@
+package org.nc.IELTSChecker.benchmarks;
+
+import org.nc.IELTSChecker.services.CsvIeltsTask2Loader;
+import org.nc.IELTSChecker.services.EssayPreprocessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning the dataset's Task 2 rows into documents, as the loader does before embedding them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvParseBenchmark {
+
+    private final CsvIeltsTask2Loader loader = new CsvIeltsTask2Loader();
+    private List<String[]> rows;
+
+    @Setup
+    public void setUp() {
+        ReflectionTestUtils.setField(loader, "preprocessor", new EssayPreprocessor());
+        rows = Dataset.task2Rows();
+    }
+
+    @Benchmark
+    public void parseRows(Blackhole blackhole) {
+        for (int i = 0; i < rows.size(); i++) {
+            blackhole.consume(loader.parseRow(rows.get(i), i + 2));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.nc.IELTSChecker.benchmarks;
+
+import com.opencsv.CSVReader;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The bundled IELTS dataset, read once per benchmark trial.
+ */
+final class Dataset {
+
+    private Dataset() {
+    }
+
+    /**
+     * @return every data row of the CSV, without the header
+     */
+    static List<String[]> rows() {
+        try (CSVReader reader = new CSVReader(new InputStreamReader(
+                Dataset.class.getResourceAsStream("/data/ielts_writing_dataset.csv"), StandardCharsets.UTF_8))) {
+            List<String[]> rows = new ArrayList<>(reader.readAll());
+            rows.remove(0);
+            return rows;
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not read the dataset", e);
+        }
+    }
+
+    /**
+     * @return the complete Task 2 rows
+     */
+    static List<String[]> task2Rows() {
+        return rows().stream()
+                .filter(row -> row.length >= 9 && row[0].trim().equals("2"))
+                .filter(row -> !row[1].isBlank() && !row[2].isBlank() && !row[8].isBlank())
+                .toList();
+    }
+}
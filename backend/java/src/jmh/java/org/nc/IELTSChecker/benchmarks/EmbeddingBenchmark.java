@@ -0,0 +1,45 @@
+package org.nc.IELTSChecker.benchmarks;
+
+import org.nc.IELTSChecker.embedding.HashingEmbeddingModel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The in-process embedding model: fitting it on the dataset, and embedding one scoring query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EmbeddingBenchmark {
+
+    private List<String> corpus;
+    private String[] queries;
+    private HashingEmbeddingModel model;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        List<String[]> rows = Dataset.rows();
+        corpus = rows.stream().filter(row -> row.length >= 4)
+                .map(row -> row[1] + "\n" + row[2] + "\n" + row[3]).toList();
+        queries = Dataset.task2Rows().stream().map(row -> row[1] + "\n" + row[2]).toArray(String[]::new);
+        model = HashingEmbeddingModel.fit(corpus, 384);
+    }
+
+    @Benchmark
+    public float[] embedQuery() {
+        next = (next + 1) % queries.length;
+        return model.embed(queries[next]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public HashingEmbeddingModel fit() {
+        return HashingEmbeddingModel.fit(corpus, 384);
+    }
+}
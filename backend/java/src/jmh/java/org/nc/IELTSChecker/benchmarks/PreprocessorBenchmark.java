@@ -0,0 +1,53 @@
+package org.nc.IELTSChecker.benchmarks;
+
+import org.nc.IELTSChecker.services.EssayPreprocessor;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Essay normalization over every Task 2 essay and question of the dataset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PreprocessorBenchmark {
+
+    private final EssayPreprocessor preprocessor = new EssayPreprocessor();
+    private String[] essays;
+    private String[] cleanedEssays;
+    private String[] questions;
+
+    @Setup
+    public void setUp() {
+        List<String[]> rows = Dataset.task2Rows();
+        essays = rows.stream().map(row -> row[2]).toArray(String[]::new);
+        questions = rows.stream().map(row -> row[1]).toArray(String[]::new);
+        cleanedEssays = rows.stream().map(row -> preprocessor.cleanEssay(row[2])).toArray(String[]::new);
+    }
+
+    @Benchmark
+    public void cleanEssay(Blackhole blackhole) {
+        for (String essay : essays) blackhole.consume(preprocessor.cleanEssay(essay));
+    }
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        for (String essay : essays) blackhole.consume(preprocessor.normalize(essay));
+    }
+
+    @Benchmark
+    public void countWords(Blackhole blackhole) {
+        for (String essay : cleanedEssays) blackhole.consume(preprocessor.countWords(essay));
+    }
+
+    @Benchmark
+    public void extractMainTopic(Blackhole blackhole) {
+        for (String question : questions) blackhole.consume(preprocessor.extractMainTopic(question));
+    }
+}
@@ -0,0 +1,45 @@
+package org.nc.IELTSChecker.benchmarks;
+
+import org.nc.IELTSChecker.dto.EvaluationResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.nc.IELTSChecker.services.IeltsScoringService;
+import org.nc.IELTSChecker.services.ScoringMetrics;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing model answers in the shapes models actually return them: bare JSON, JSON in a Markdown
+ * fence, JSON after a sentence of preamble, and a truncated answer that takes the fallback path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseParsingBenchmark {
+
+    @Param({"plain", "fenced", "preamble", "truncated"})
+    public String answer;
+
+    private final IeltsScoringService service = new IeltsScoringService(new StubChatModel());
+    private String aiResponse;
+
+    @Setup
+    public void setUp() {
+        ReflectionTestUtils.setField(service, "metrics", new ScoringMetrics(new SimpleMeterRegistry()));
+        aiResponse = switch (answer) {
+            case "plain" -> StubChatModel.EVALUATION.replace("```json", "").replace("```", "").trim();
+            case "fenced" -> StubChatModel.EVALUATION;
+            case "preamble" -> "Here is my evaluation of the essay:\n\n" + StubChatModel.EVALUATION;
+            default -> StubChatModel.EVALUATION.substring(0, 400);
+        };
+    }
+
+    @Benchmark
+    public EvaluationResponse parseAiResponse() {
+        return service.parseAiResponse(aiResponse);
+    }
+}
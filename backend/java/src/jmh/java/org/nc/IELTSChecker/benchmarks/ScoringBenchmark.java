@@ -0,0 +1,128 @@
+package org.nc.IELTSChecker.benchmarks;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.nc.IELTSChecker.dto.EssayRequest;
+import org.nc.IELTSChecker.services.CsvIeltsTask2Loader;
+import org.nc.IELTSChecker.services.EssayPreprocessor;
+import org.nc.IELTSChecker.services.IeltsScoringService;
+import org.nc.IELTSChecker.services.ScoringExecutor;
+import org.nc.IELTSChecker.services.ScoringMetrics;
+import org.nc.IELTSChecker.services.ScoringPromptBuilder;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The scoring path with stub models: prompt assembly, the lexical lookups of retrieval, and a whole
+ * uncached evaluation against the dataset loaded into a flat vector store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScoringBenchmark {
+
+    private final ScoringPromptBuilder promptBuilder = new ScoringPromptBuilder(2500);
+    private final EssayPreprocessor preprocessor = new EssayPreprocessor();
+    private IeltsScoringService service;
+    private MappedVectorStore vectorStore;
+    private ScoringExecutor scoringExecutor;
+    private File storeDirectory;
+    private List<EssayRequest> requests;
+    private List<Document> examples;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        CsvIeltsTask2Loader loader = new CsvIeltsTask2Loader();
+        ReflectionTestUtils.setField(loader, "preprocessor", preprocessor);
+        List<String[]> rows = Dataset.task2Rows();
+        List<Document> documents = new ArrayList<>();
+        requests = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            documents.add(loader.parseRow(rows.get(i), i + 2));
+            requests.add(new EssayRequest(rows.get(i)[1], rows.get(i)[2], "2"));
+        }
+        documents.removeIf(Objects::isNull);
+        examples = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            Document document = documents.get(i * 97);
+            examples.add(Document.builder().id(document.getId()).text(document.getText())
+                    .metadata(document.getMetadata()).score(0.9 - i * 0.04).build());
+        }
+
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel(256);
+        storeDirectory = Files.createTempDirectory("scoring-benchmark").toFile();
+        vectorStore = new MappedVectorStore(embeddingModel, new File(storeDirectory, "store.bin"));
+        vectorStore.load();
+        vectorStore.add(documents);
+
+        scoringExecutor = new ScoringExecutor(new ScoringExecutor.Settings(4, 100, 8, Duration.ofSeconds(1),
+                Duration.ofSeconds(10), Duration.ofSeconds(10), Duration.ofSeconds(10)));
+        service = new IeltsScoringService(new StubChatModel());
+        ReflectionTestUtils.setField(service, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(service, "embeddingModel", embeddingModel);
+        ReflectionTestUtils.setField(service, "preprocessor", preprocessor);
+        ReflectionTestUtils.setField(service, "scoringExecutor", scoringExecutor);
+        ReflectionTestUtils.setField(service, "promptBuilder", promptBuilder);
+        ReflectionTestUtils.setField(service, "metrics", new ScoringMetrics(new SimpleMeterRegistry()));
+        // Measure evaluations, not cache hits
+        ReflectionTestUtils.setField(service, "evaluationCacheSize", 0L);
+        ReflectionTestUtils.setField(service, "evaluationCacheTtlMinutes", 1L);
+        ReflectionTestUtils.setField(service, "batchConcurrency", 1);
+        ReflectionTestUtils.setField(service, "minQuestionMatches", 3);
+        ReflectionTestUtils.invokeMethod(service, "initEvaluationCache");
+    }
+
+    @TearDown
+    public void tearDown() {
+        ReflectionTestUtils.invokeMethod(service, "shutdownBatchExecutor");
+        scoringExecutor.close();
+        File[] files = storeDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) file.delete();
+        }
+        storeDirectory.delete();
+    }
+
+    @Benchmark
+    public String buildScoringPrompt() {
+        EssayRequest request = nextRequest();
+        return promptBuilder.build(request.question(), preprocessor.cleanEssay(request.essay()), examples);
+    }
+
+    @Benchmark
+    public List<Document> questionMatches() {
+        EssayRequest request = nextRequest();
+        return vectorStore.questionMatches(request.question(), request.question() + "\n" + request.essay(), 5, 0.9);
+    }
+
+    @Benchmark
+    public List<Document> lexicalSearch() {
+        EssayRequest request = nextRequest();
+        return vectorStore.lexicalSearch(request.question() + "\n" + request.essay(), 20);
+    }
+
+    @Benchmark
+    public Object scoreEssay() {
+        return service.scoreEssay(nextRequest());
+    }
+
+    private EssayRequest nextRequest() {
+        EssayRequest request = requests.get(next);
+        next = (next + 1) % requests.size();
+        return request;
+    }
+}
@@ -0,0 +1,56 @@
+package org.nc.IELTSChecker.benchmarks;
+
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Answers every prompt with the same evaluation, streamed in small chunks like a real model.
+ */
+class StubChatModel implements ChatModel {
+
+    static final String EVALUATION = """
+            ```json
+            {
+              "taskResponse": 6.5,
+              "coherenceCohesion": 7,
+              "lexicalResource": 6,
+              "grammaticalRangeAccuracy": 6.5,
+              "overallBand": 6.5,
+              "examinerFeedback": "The essay addresses both views and gives a clear opinion, although the second body paragraph lacks a developed example. Paragraphing is logical and linking devices are used appropriately, if somewhat mechanically.",
+              "suggestions": {
+                "taskResponse": "Support the second view with a specific, relevant example.",
+                "coherenceCohesion": "Vary linking phrases instead of starting paragraphs with 'Firstly' and 'Secondly'.",
+                "lexicalResource": "Replace repeated words such as 'important' with precise alternatives.",
+                "grammaticalRangeAccuracy": "Check subject-verb agreement in complex sentences."
+              }
+            }
+            ```
+            """;
+
+    private static final int CHUNK_CHARACTERS = 12;
+
+    @Override
+    public ChatResponse call(Prompt prompt) {
+        return response(EVALUATION);
+    }
+
+    @Override
+    public Flux<ChatResponse> stream(Prompt prompt) {
+        List<ChatResponse> chunks = new ArrayList<>();
+        for (int i = 0; i < EVALUATION.length(); i += CHUNK_CHARACTERS) {
+            chunks.add(response(EVALUATION.substring(i, Math.min(EVALUATION.length(), i + CHUNK_CHARACTERS))));
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+}
@@ -0,0 +1,57 @@
+package org.nc.IELTSChecker.benchmarks;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic offline embedding: words are hashed into buckets and the vector is normalized,
+ * so the cost of a call is proportional to the text and not to a network round trip.
+ */
+class StubEmbeddingModel implements EmbeddingModel {
+
+    private final int dimensions;
+
+    StubEmbeddingModel(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> embeddings = new ArrayList<>();
+        List<String> texts = request.getInstructions();
+        for (int i = 0; i < texts.size(); i++) {
+            embeddings.add(new Embedding(vector(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return vector(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private float[] vector(String text) {
+        float[] vector = new float[dimensions];
+        for (String word : text.toLowerCase().split("\\W+")) {
+            if (!word.isEmpty()) vector[Math.floorMod(word.hashCode(), dimensions)] += 1f;
+        }
+        double norm = 0;
+        for (float value : vector) norm += value * value;
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < vector.length; i++) vector[i] *= scale;
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,151 @@
+package org.nc.IELTSChecker.benchmarks;
+
+import org.nc.IELTSChecker.store.HnswIndex;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import org.nc.IELTSChecker.store.QuantizedVectors;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-5 search over synthetic embeddings at increasing store sizes, with the HNSW index and with
+ * the exhaustive scan it approximates, plus band-filtered and band-stratified searches, which scan
+ * only the matching band partitions. With {@code quantization} other than {@code none} the rows are
+ * ranked by int8 or product-quantized codes and the best candidates rescored at full precision.
+ *
+ * <p>Vectors are drawn around 200 fixed centroids with a fixed seed, so every run searches the same
+ * data. Building the larger stores takes minutes; they are kept under {@code target/jmh-stores} and
+ * loaded on later runs. Use {@code -p dimensions=1536} to match the production embedding size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class VectorSearchBenchmark {
+
+    private static final int CENTROIDS = 200;
+    private static final int QUERIES = 256;
+    private static final int BATCH = 5_000;
+    private static final int TOP_K = 5;
+    private static final Filter.Expression BAND_SEVEN = new FilterExpressionBuilder().eq("band", 7).build();
+    private static final double[] STRATA = {5, 6, 7, 8};
+
+    @Param({"5000", "50000", "500000"})
+    public int documents;
+
+    @Param({"384"})
+    public int dimensions;
+
+    @Param({"none", "int8", "pq"})
+    public String quantization;
+
+    private MappedVectorStore store;
+    private float[][] queries;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        float[][] centroids = new float[CENTROIDS][];
+        for (int i = 0; i < CENTROIDS; i++) centroids[i] = gaussian(random, 1f);
+
+        File directory = new File("target/jmh-stores");
+        directory.mkdirs();
+        File storeFile = new File(directory, "store-" + documents + "-" + dimensions + ".bin");
+        HnswIndex.Settings settings = new HnswIndex.Settings(16, 200, 64);
+        store = new MappedVectorStore(new StubEmbeddingModel(dimensions), storeFile, settings);
+        try {
+            store.load();
+        } catch (IOException e) {
+            // Written by an incompatible version; rebuild it
+            storeFile.delete();
+            store.load();
+        }
+        if (store.size() != documents || store.dimensions() != dimensions) {
+            build(storeFile, settings, centroids, random);
+        }
+        // Codes of the other types are replaced; a matching codes file is reused
+        store = new MappedVectorStore(new StubEmbeddingModel(dimensions), storeFile, settings,
+                QuantizedVectors.Settings.of(quantization, 0, 0));
+        store.load();
+        System.out.printf("%n%s codes: %d KB on the heap, full vectors %d KB%n", quantization,
+                store.quantizedBytes() / 1024, 4L * documents * (dimensions + 1) / 1024);
+
+        // Independent of whether the store was built or loaded
+        Random queryRandom = new Random(7);
+        queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = near(centroids[queryRandom.nextInt(CENTROIDS)], queryRandom);
+        }
+    }
+
+    private void build(File storeFile, HnswIndex.Settings settings, float[][] centroids, Random random)
+            throws IOException {
+        storeFile.delete();
+        new File(storeFile.getPath() + ".hnsw").delete();
+        new File(storeFile.getPath() + ".log").delete();
+        store = new MappedVectorStore(new StubEmbeddingModel(dimensions), storeFile, settings);
+        store.load();
+        for (int start = 0; start < documents; start += BATCH) {
+            List<Document> batch = new ArrayList<>();
+            List<float[]> embeddings = new ArrayList<>();
+            for (int i = start; i < Math.min(documents, start + BATCH); i++) {
+                int centroid = random.nextInt(CENTROIDS);
+                batch.add(Document.builder().id("doc-" + i).text("Synthetic essay " + i)
+                        .metadata(Map.of("band", String.valueOf(4 + centroid % 6))).build());
+                embeddings.add(near(centroids[centroid], random));
+            }
+            store.add(batch, embeddings);
+        }
+        store.save();
+    }
+
+    @Benchmark
+    public List<Document> hnswSearch() {
+        return store.similaritySearch(nextQuery(), TOP_K, 0.0, null);
+    }
+
+    @Benchmark
+    public List<Document> exactSearch() {
+        return store.exactSearch(nextQuery(), TOP_K, 0.0, null);
+    }
+
+    @Benchmark
+    public List<Document> bandFilteredSearch() {
+        return store.similaritySearch(nextQuery(), TOP_K, 0.0, BAND_SEVEN);
+    }
+
+    @Benchmark
+    public List<Document> stratifiedSearch() {
+        return store.stratifiedSearch(nextQuery(), STRATA, 1, 0.0);
+    }
+
+    private float[] nextQuery() {
+        float[] query = queries[next];
+        next = (next + 1) % QUERIES;
+        return query;
+    }
+
+    private float[] near(float[] centroid, Random random) {
+        float[] vector = gaussian(random, 0.35f);
+        for (int i = 0; i < vector.length; i++) vector[i] += centroid[i];
+        return vector;
+    }
+
+    private float[] gaussian(Random random, float scale) {
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < vector.length; i++) vector[i] = (float) random.nextGaussian() * scale;
+        return vector;
+    }
+}
@@ -0,0 +1,35 @@
+package org.nc.IELTSChecker.loadtest;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A log-normal latency distribution given by its median and 99th percentile, the usual shape of
+ * remote API latencies: most calls near the median and a long tail.
+ * @param medianMs the median latency
+ * @param p99Ms the 99th percentile latency, at least the median
+ */
+record Latency(double medianMs, double p99Ms) {
+
+    /** The 99th percentile of the standard normal distribution. */
+    private static final double Z_99 = 2.326;
+
+    Latency {
+        if (medianMs < 0 || p99Ms < medianMs) {
+            throw new IllegalArgumentException("Need 0 <= median <= p99, got " + medianMs + " and " + p99Ms);
+        }
+    }
+
+    /**
+     * Reads {@code <prefix>.median-ms} and {@code <prefix>.p99-ms} from the system properties.
+     */
+    static Latency fromSystemProperties(String prefix, double medianMs, double p99Ms) {
+        return new Latency(Double.parseDouble(System.getProperty(prefix + ".median-ms", String.valueOf(medianMs))),
+                Double.parseDouble(System.getProperty(prefix + ".p99-ms", String.valueOf(p99Ms))));
+    }
+
+    long sampleMs() {
+        if (medianMs == 0) return 0;
+        double sigma = Math.log(p99Ms / medianMs) / Z_99;
+        return Math.round(medianMs * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+}
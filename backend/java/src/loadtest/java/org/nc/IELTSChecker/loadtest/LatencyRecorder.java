@@ -0,0 +1,56 @@
+package org.nc.IELTSChecker.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the latencies and failures of one kind of call; every latency is kept, which is fine
+ * for the thousands of calls of a load test run.
+ */
+final class LatencyRecorder {
+
+    /**
+     * @param count the calls
+     * @param errors the failed calls, included in the latencies
+     * @param p50Ms median latency
+     * @param p95Ms 95th percentile latency
+     * @param p99Ms 99th percentile latency
+     * @param maxMs the slowest call
+     */
+    record Summary(long count, long errors, double p50Ms, double p95Ms, double p99Ms, double maxMs) {
+
+        double errorRate() {
+            return count == 0 ? 0 : errors / (double) count;
+        }
+    }
+
+    private long[] nanos = new long[1024];
+    private int count;
+    private long errors;
+
+    synchronized void record(long latencyNanos, boolean failed) {
+        if (count == nanos.length) nanos = Arrays.copyOf(nanos, count * 2);
+        nanos[count++] = latencyNanos;
+        if (failed) errors++;
+    }
+
+    synchronized Summary summary() {
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        return new Summary(count, errors, percentileMs(sorted, 0.50), percentileMs(sorted, 0.95),
+                percentileMs(sorted, 0.99), count == 0 ? 0 : toMs(sorted[count - 1]));
+    }
+
+    /**
+     * Nearest-rank percentile.
+     */
+    private static double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0;
+        int rank = (int) Math.ceil(percentile * sorted.length);
+        return toMs(sorted[Math.max(0, rank - 1)]);
+    }
+
+    private static double toMs(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
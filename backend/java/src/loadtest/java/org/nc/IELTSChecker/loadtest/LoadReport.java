@@ -0,0 +1,99 @@
+package org.nc.IELTSChecker.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.HistogramSnapshot;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What one load test run measured, from three vantage points: the client (end-to-end latency by
+ * endpoint), the application (its per-stage timers and error counters, and how requests were
+ * answered) and the stub (the latency the application saw from the remote APIs).
+ * @param rate requests started per second
+ * @param seconds from the first request to the last answer
+ * @param throughput answered requests per second
+ * @param client latencies and errors by endpoint
+ * @param statuses responses by HTTP status, 0 for no response
+ * @param stages the application's {@code scoring.stage.duration} and {@code scoring.stage.errors} by stage
+ * @param outcomes the application's {@code scoring.evaluations} by outcome, plus rejected requests and stage timeouts
+ * @param stub the stub's latencies and injected errors by endpoint
+ */
+record LoadReport(double rate, double seconds, double throughput, Map<String, LatencyRecorder.Summary> client,
+                  Map<Integer, Long> statuses, Map<String, LatencyRecorder.Summary> stages,
+                  Map<String, Double> outcomes, Map<String, LatencyRecorder.Summary> stub) {
+
+    static LoadReport of(double rate, OpenLoadGenerator.Result result, MeterRegistry registry, StubOpenAiServer stub) {
+        Map<String, LatencyRecorder.Summary> stages = new LinkedHashMap<>();
+        for (Timer timer : registry.find("scoring.stage.duration").timers()) {
+            if (timer.count() == 0) continue;
+            String stage = timer.getId().getTag("stage");
+            Counter errors = registry.find("scoring.stage.errors").tag("stage", stage).counter();
+            HistogramSnapshot snapshot = timer.takeSnapshot();
+            stages.put(stage, new LatencyRecorder.Summary(timer.count(), errors != null ? (long) errors.count() : 0,
+                    percentile(snapshot, 0.50), percentile(snapshot, 0.95), percentile(snapshot, 0.99),
+                    timer.max(TimeUnit.MILLISECONDS)));
+        }
+
+        Map<String, Double> outcomes = new LinkedHashMap<>();
+        for (Counter counter : registry.find("scoring.evaluations").counters()) {
+            outcomes.put(counter.getId().getTag("outcome"), counter.count());
+        }
+        for (String name : new String[]{"scoring.rejected", "scoring.stage.timeouts"}) {
+            FunctionCounter counter = registry.find(name).functionCounter();
+            if (counter != null) outcomes.put(name.substring("scoring.".length()), counter.count());
+        }
+
+        Map<String, LatencyRecorder.Summary> stubCalls = new LinkedHashMap<>();
+        stubCalls.put("chat", stub.chatSummary());
+        stubCalls.put("embeddings", stub.embeddingSummary());
+        return new LoadReport(rate, result.seconds(), result.throughput(), result.endpoints(), result.statuses(),
+                stages, outcomes, stubCalls);
+    }
+
+    /**
+     * The percentile published by the timer, which needs
+     * {@code management.metrics.distribution.percentiles.scoring.stage.duration}.
+     */
+    private static double percentile(HistogramSnapshot snapshot, double percentile) {
+        for (ValueAtPercentile value : snapshot.percentileValues()) {
+            if (value.percentile() == percentile) return value.value(TimeUnit.MILLISECONDS);
+        }
+        return Double.NaN;
+    }
+
+    void print(PrintStream out) {
+        out.printf("%nLoad test: %.1f requests/s offered, %.1f/s answered over %.1f s; statuses %s%n",
+                rate, throughput, seconds, statuses);
+        table(out, "Client", client);
+        table(out, "Application stages", stages);
+        table(out, "Stub OpenAI API", stub);
+        out.println("Outcomes: " + outcomes);
+    }
+
+    private static void table(PrintStream out, String title, Map<String, LatencyRecorder.Summary> rows) {
+        out.printf("%n%-28s %8s %8s %10s %10s %10s %10s%n", title, "count", "errors", "p50 ms", "p95 ms", "p99 ms",
+                "max ms");
+        rows.forEach((name, row) -> out.printf("%-28s %8d %7.2f%% %10.1f %10.1f %10.1f %10.1f%n", name, row.count(),
+                row.errorRate() * 100, row.p50Ms(), row.p95Ms(), row.p99Ms(), row.maxMs()));
+    }
+
+    /**
+     * Writes the report as JSON, to compare runs across commits.
+     */
+    void write(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(file.toFile(), this);
+    }
+}
@@ -0,0 +1,120 @@
+package org.nc.IELTSChecker.loadtest;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntFunction;
+
+/**
+ * Sends requests at a constant arrival rate whether or not earlier ones have been answered, an
+ * open workload like independent users, so a slow server builds a queue instead of slowing the
+ * load down. Each latency is measured from the moment its request was due, not from when it was
+ * sent, so delays in the generator itself do not hide queueing (coordinated omission).
+ */
+final class OpenLoadGenerator {
+
+    /**
+     * @param path the endpoint, such as {@code /ai/scoreEssay}
+     * @param body the JSON body
+     * @param stream whether the endpoint answers with Server-Sent Events, where an "error" event is a failure
+     */
+    record Request(String path, String body, boolean stream) {
+    }
+
+    /**
+     * @param sent the requests sent
+     * @param unanswered the requests still outstanding when the run was cut off
+     * @param seconds from the first request due to the last answer
+     * @param endpoints latencies and errors by endpoint
+     * @param statuses responses by HTTP status
+     */
+    record Result(long sent, long unanswered, double seconds, Map<String, LatencyRecorder.Summary> endpoints,
+                  Map<Integer, Long> statuses) {
+
+        double throughput() {
+            return seconds == 0 ? 0 : (sent - unanswered) / seconds;
+        }
+    }
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final URI baseUri;
+    private final Duration requestTimeout;
+
+    OpenLoadGenerator(URI baseUri, Duration requestTimeout) {
+        this.baseUri = baseUri;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Runs the load and waits for the outstanding requests, up to the request timeout.
+     * @param ratePerSecond requests started per second
+     * @param duration how long requests are started for
+     * @param requests the request to send for each sequence number
+     */
+    Result run(double ratePerSecond, Duration duration, IntFunction<Request> requests) throws InterruptedException {
+        Map<String, LatencyRecorder> endpoints = new ConcurrentHashMap<>();
+        Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        List<CompletableFuture<?>> inFlight = new ArrayList<>();
+
+        long intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+        long total = duration.toNanos() / intervalNanos;
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long due = start + i * intervalNanos;
+            long wait = due - System.nanoTime();
+            if (wait > 0) LockSupport.parkNanos(wait);
+            if (Thread.interrupted()) throw new InterruptedException();
+
+            Request request = requests.apply(i);
+            LatencyRecorder recorder = endpoints.computeIfAbsent(request.path(), path -> new LatencyRecorder());
+            HttpRequest httpRequest = HttpRequest.newBuilder(baseUri.resolve(request.path()))
+                    .timeout(requestTimeout)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(request.body()))
+                    .build();
+            inFlight.add(client.sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString())
+                    .whenComplete((response, error) -> {
+                        long latency = System.nanoTime() - due;
+                        int status = response != null ? response.statusCode() : 0;
+                        statuses.computeIfAbsent(status, key -> new LongAdder()).increment();
+                        boolean failed = status != 200
+                                || (request.stream() && response.body().contains("event:error"));
+                        recorder.record(latency, failed);
+                    }));
+        }
+
+        long unanswered = 0;
+        long drainDeadline = System.nanoTime() + requestTimeout.toNanos();
+        for (CompletableFuture<?> future : inFlight) {
+            try {
+                future.get(Math.max(0, drainDeadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                unanswered++;
+            } catch (Exception e) {
+                // Recorded as a failure with status 0
+            }
+        }
+        double seconds = (System.nanoTime() - start) / (double) TimeUnit.SECONDS.toNanos(1);
+
+        Map<String, LatencyRecorder.Summary> summaries = new TreeMap<>();
+        endpoints.forEach((path, recorder) -> summaries.put(path, recorder.summary()));
+        Map<Integer, Long> counts = new TreeMap<>();
+        statuses.forEach((status, count) -> counts.put(status, count.sum()));
+        return new Result(total, unanswered, seconds, summaries, counts);
+    }
+}
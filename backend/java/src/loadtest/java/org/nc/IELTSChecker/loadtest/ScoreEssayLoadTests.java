@@ -0,0 +1,150 @@
+package org.nc.IELTSChecker.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.opencsv.CSVReader;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.nc.IELTSChecker.dto.EssayRequest;
+import org.nc.IELTSChecker.services.VectorStoreInitializer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Boots the whole application against {@link StubOpenAiServer} and scores essays at a constant
+ * arrival rate, then prints and writes ({@code target/loadtest/report.json}) throughput, latency
+ * percentiles and error rates for the client, each scoring stage and the stubbed APIs.
+ *
+ * <p>Run with {@code mvn -Pload-test test}; the load and the stub are shaped with system properties:
+ * {@code loadtest.rate} (requests/s), {@code loadtest.duration-s}, {@code loadtest.stream-fraction}
+ * (share sent to the streaming endpoint), {@code loadtest.repeat-fraction} (share repeating an
+ * earlier essay, answered from the evaluation cache), {@code loadtest.max-error-rate}, and the
+ * settings of {@link StubOpenAiServer.Settings#fromSystemProperties()}. Application properties
+ * such as {@code scoring.executor.threads} can be passed with {@code -Dscoring.executor.threads=...}.
+ */
+@Tag("load")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class ScoreEssayLoadTests {
+
+    private static final double RATE = Double.parseDouble(System.getProperty("loadtest.rate", "5"));
+    private static final Duration DURATION = Duration.ofSeconds(Long.getLong("loadtest.duration-s", 30));
+    private static final double STREAM_FRACTION =
+            Double.parseDouble(System.getProperty("loadtest.stream-fraction", "0.2"));
+    private static final double REPEAT_FRACTION =
+            Double.parseDouble(System.getProperty("loadtest.repeat-fraction", "0.1"));
+    private static final double MAX_ERROR_RATE =
+            Double.parseDouble(System.getProperty("loadtest.max-error-rate", "0.05"));
+
+    private static StubOpenAiServer stub;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private VectorStoreInitializer storeInitializer;
+
+    @Autowired
+    private MeterRegistry registry;
+
+    @DynamicPropertySource
+    static void stubOpenAi(DynamicPropertyRegistry registry) throws IOException {
+        stub = new StubOpenAiServer(StubOpenAiServer.Settings.fromSystemProperties());
+        Path data = Files.createTempDirectory("loadtest");
+        registry.add("spring.ai.openai.base-url", stub::baseUrl);
+        registry.add("spring.ai.openai.api-key", () -> "stub");
+        // Retry injected failures once, quickly, instead of backing off for seconds
+        registry.add("spring.ai.retry.max-attempts", () -> 2);
+        registry.add("spring.ai.retry.backoff.initial-interval", () -> "100ms");
+        registry.add("vector.store.path", () -> data.resolve("vector_store.bin").toString());
+        registry.add("vector.store.legacy-json-path", () -> data.resolve("vector_store.json").toString());
+        registry.add("vector.store.watch", () -> false);
+        registry.add("embedding.cache.path", () -> data.resolve("embedding_cache.bin").toString());
+        registry.add("management.metrics.distribution.percentiles.scoring.stage.duration", () -> "0.5,0.95,0.99");
+        registry.add("scoring.log.sample-rate", () -> 0);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        if (stub != null) stub.close();
+    }
+
+    @Test
+    void scoresEssaysAtAConstantArrivalRate() throws Exception {
+        long deadline = System.nanoTime() + Duration.ofMinutes(5).toNanos();
+        while (!storeInitializer.isReady()) {
+            assertNotEquals(VectorStoreInitializer.State.FAILED, storeInitializer.getState());
+            assertTrue(System.nanoTime() < deadline, "The vector store did not load");
+            Thread.sleep(200);
+        }
+
+        List<EssayRequest> essays = task2Essays();
+        ObjectMapper mapper = new ObjectMapper();
+        Random random = new Random(7);
+        List<String> sent = new ArrayList<>();
+        OpenLoadGenerator generator = new OpenLoadGenerator(URI.create("http://localhost:" + port),
+                Duration.ofMinutes(2));
+        OpenLoadGenerator.Result result = generator.run(RATE, DURATION, i -> {
+            String body;
+            if (!sent.isEmpty() && random.nextDouble() < REPEAT_FRACTION) {
+                body = sent.get(random.nextInt(sent.size()));
+            } else {
+                EssayRequest essay = essays.get(random.nextInt(essays.size()));
+                // A unique closing sentence keeps the evaluation cache from answering
+                EssayRequest request = new EssayRequest(essay.question(),
+                        essay.essay() + "\nThis is submission " + i + ".", essay.taskType());
+                try {
+                    body = mapper.writeValueAsString(request);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                sent.add(body);
+            }
+            boolean stream = random.nextDouble() < STREAM_FRACTION;
+            return new OpenLoadGenerator.Request(stream ? "/ai/scoreEssay/stream" : "/ai/scoreEssay", body, stream);
+        });
+
+        LoadReport report = LoadReport.of(RATE, result, registry, stub);
+        report.print(System.out);
+        report.write(Path.of("target/loadtest/report.json"));
+
+        assertEquals(0, result.unanswered(), "Requests still unanswered after the timeout");
+        long requests = report.client().values().stream().mapToLong(LatencyRecorder.Summary::count).sum();
+        long errors = report.client().values().stream().mapToLong(LatencyRecorder.Summary::errors).sum();
+        assertTrue(errors <= MAX_ERROR_RATE * requests,
+                errors + " of " + requests + " requests failed, more than " + MAX_ERROR_RATE * 100 + "%");
+    }
+
+    private static List<EssayRequest> task2Essays() throws Exception {
+        List<EssayRequest> essays = new ArrayList<>();
+        try (CSVReader reader = new CSVReader(new InputStreamReader(
+                ScoreEssayLoadTests.class.getResourceAsStream("/data/ielts_writing_dataset.csv"),
+                StandardCharsets.UTF_8))) {
+            reader.readNext();
+            for (String[] row : reader) {
+                // Within the request size limits, with room for the closing sentence
+                if (row.length >= 9 && row[0].trim().equals("2") && row[1].length() >= 10 && row[1].length() <= 2000
+                        && row[2].length() >= 100 && row[2].length() <= 5900) {
+                    essays.add(new EssayRequest(row[1], row[2], "2"));
+                }
+            }
+        }
+        return essays;
+    }
+}
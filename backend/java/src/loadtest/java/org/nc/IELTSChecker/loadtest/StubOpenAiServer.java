@@ -0,0 +1,254 @@
+package org.nc.IELTSChecker.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A local stand-in for the OpenAI chat completion and embedding endpoints, so the application can
+ * be loaded without a key or a bill.
+ *
+ * <p>Every call waits for a latency drawn from its endpoint's distribution and fails with a 500
+ * at the configured rate. Chat completions answer with a fixed evaluation, streamed in chunks
+ * spread over the latency when the request asks for a stream. Embeddings are random unit vectors
+ * seeded by the text, so the same text always gets the same vector.
+ */
+final class StubOpenAiServer implements AutoCloseable {
+
+    /**
+     * @param chatLatency time until a chat completion is complete
+     * @param chatErrorRate share of chat calls answered with a 500
+     * @param embeddingLatency time until an embedding call is answered
+     * @param embeddingErrorRate share of embedding calls answered with a 500
+     * @param dimensions length of the embeddings
+     * @param streamChunks chunks a streamed completion is split into
+     */
+    record Settings(Latency chatLatency, double chatErrorRate, Latency embeddingLatency, double embeddingErrorRate,
+                    int dimensions, int streamChunks) {
+
+        /**
+         * Reads the {@code loadtest.chat.*}, {@code loadtest.embedding.*} and {@code loadtest.stream.*}
+         * system properties.
+         */
+        static Settings fromSystemProperties() {
+            return new Settings(
+                    Latency.fromSystemProperties("loadtest.chat.latency", 800, 3000),
+                    Double.parseDouble(System.getProperty("loadtest.chat.error-rate", "0.01")),
+                    Latency.fromSystemProperties("loadtest.embedding.latency", 40, 200),
+                    Double.parseDouble(System.getProperty("loadtest.embedding.error-rate", "0")),
+                    Integer.getInteger("loadtest.embedding.dimensions", 256),
+                    Integer.getInteger("loadtest.stream.chunks", 40));
+        }
+    }
+
+    static final String EVALUATION = """
+            {
+              "taskResponse": 6.5,
+              "coherenceCohesion": 7,
+              "lexicalResource": 6,
+              "grammaticalRangeAccuracy": 6.5,
+              "overallBand": 6.5,
+              "examinerFeedback": "The essay addresses both views and gives a clear opinion, although the second body paragraph lacks a developed example.",
+              "suggestions": {
+                "taskResponse": "Support the second view with a specific, relevant example.",
+                "coherenceCohesion": "Vary linking phrases instead of starting paragraphs with 'Firstly' and 'Secondly'.",
+                "lexicalResource": "Replace repeated words such as 'important' with precise alternatives.",
+                "grammaticalRangeAccuracy": "Check subject-verb agreement in complex sentences."
+              }
+            }
+            """;
+
+    private final Settings settings;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "stub-openai");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LatencyRecorder chatCalls = new LatencyRecorder();
+    private final LatencyRecorder embeddingCalls = new LatencyRecorder();
+
+    StubOpenAiServer(Settings settings) throws IOException {
+        this.settings = settings;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        server.createContext("/v1/chat/completions", exchange -> handle(exchange, this::chat, chatCalls));
+        server.createContext("/v1/embeddings", exchange -> handle(exchange, this::embeddings, embeddingCalls));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return the base URL to configure as {@code spring.ai.openai.base-url}
+     */
+    String baseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+    }
+
+    LatencyRecorder.Summary chatSummary() {
+        return chatCalls.summary();
+    }
+
+    LatencyRecorder.Summary embeddingSummary() {
+        return embeddingCalls.summary();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private interface Handler {
+        /**
+         * @return false if the call was answered with an error
+         */
+        boolean handle(HttpExchange exchange, JsonNode request) throws Exception;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler, LatencyRecorder recorder) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try (exchange) {
+            JsonNode request = mapper.readTree(exchange.getRequestBody());
+            failed = !handler.handle(exchange, request);
+        } catch (Exception e) {
+            // The client went away or the request was malformed; the call counts as failed
+        } finally {
+            recorder.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    private boolean chat(HttpExchange exchange, JsonNode request) throws Exception {
+        long latencyMs = settings.chatLatency().sampleMs();
+        if (ThreadLocalRandom.current().nextDouble() < settings.chatErrorRate()) {
+            Thread.sleep(latencyMs);
+            return error(exchange);
+        }
+        if (request.path("stream").asBoolean()) {
+            streamChat(exchange, latencyMs);
+        } else {
+            Thread.sleep(latencyMs);
+            ObjectNode message = mapper.createObjectNode().put("role", "assistant").put("content", EVALUATION);
+            ObjectNode response = completion("chat.completion");
+            response.putArray("choices").addObject()
+                    .put("index", 0)
+                    .<ObjectNode>set("message", message)
+                    .put("finish_reason", "stop");
+            int promptTokens = request.path("messages").toString().length() / 4;
+            int completionTokens = EVALUATION.length() / 4;
+            response.putObject("usage")
+                    .put("prompt_tokens", promptTokens)
+                    .put("completion_tokens", completionTokens)
+                    .put("total_tokens", promptTokens + completionTokens);
+            json(exchange, 200, response);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the evaluation as Server-Sent Events, one chunk after each equal share of the latency.
+     */
+    private void streamChat(HttpExchange exchange, long latencyMs) throws Exception {
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream body = exchange.getResponseBody();
+        int chunks = Math.max(1, settings.streamChunks());
+        int chunkLength = (EVALUATION.length() + chunks - 1) / chunks;
+        for (int i = 0; i < EVALUATION.length(); i += chunkLength) {
+            Thread.sleep(latencyMs / chunks);
+            String content = EVALUATION.substring(i, Math.min(EVALUATION.length(), i + chunkLength));
+            ObjectNode chunk = completion("chat.completion.chunk");
+            chunk.putArray("choices").addObject()
+                    .put("index", 0)
+                    .<ObjectNode>set("delta", mapper.createObjectNode().put("content", content))
+                    .putNull("finish_reason");
+            event(body, mapper.writeValueAsString(chunk));
+        }
+        ObjectNode last = completion("chat.completion.chunk");
+        last.putArray("choices").addObject()
+                .put("index", 0)
+                .<ObjectNode>set("delta", mapper.createObjectNode())
+                .put("finish_reason", "stop");
+        event(body, mapper.writeValueAsString(last));
+        event(body, "[DONE]");
+    }
+
+    private boolean embeddings(HttpExchange exchange, JsonNode request) throws Exception {
+        Thread.sleep(settings.embeddingLatency().sampleMs());
+        if (ThreadLocalRandom.current().nextDouble() < settings.embeddingErrorRate()) return error(exchange);
+
+        List<String> inputs = new ArrayList<>();
+        JsonNode input = request.path("input");
+        if (input.isArray()) {
+            input.forEach(text -> inputs.add(text.asText()));
+        } else {
+            inputs.add(input.asText());
+        }
+        ObjectNode response = mapper.createObjectNode().put("object", "list").put("model", request.path("model").asText());
+        ArrayNode data = response.putArray("data");
+        int tokens = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            ArrayNode vector = data.addObject().put("object", "embedding").put("index", i).putArray("embedding");
+            for (float value : embed(inputs.get(i))) vector.add(value);
+            tokens += inputs.get(i).length() / 4;
+        }
+        response.putObject("usage").put("prompt_tokens", tokens).put("total_tokens", tokens);
+        json(exchange, 200, response);
+        return true;
+    }
+
+    private float[] embed(String text) {
+        Random random = new Random(text.hashCode());
+        float[] vector = new float[settings.dimensions()];
+        double norm = 0;
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        for (int i = 0; i < vector.length; i++) vector[i] /= (float) Math.sqrt(norm);
+        return vector;
+    }
+
+    private ObjectNode completion(String object) {
+        return mapper.createObjectNode()
+                .put("id", "stub-" + System.nanoTime())
+                .put("object", object)
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", "stub");
+    }
+
+    private boolean error(HttpExchange exchange) throws IOException {
+        ObjectNode error = mapper.createObjectNode();
+        error.putObject("error").put("message", "Injected failure").put("type", "server_error");
+        json(exchange, 500, error);
+        return false;
+    }
+
+    private void json(HttpExchange exchange, int status, JsonNode body) throws IOException {
+        byte[] bytes = mapper.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void event(OutputStream body, String data) throws IOException {
+        body.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+        body.flush();
+    }
+}
@@ -0,0 +1,84 @@
+package org.nc.IELTSChecker.config;
+
+import com.opencsv.exceptions.CsvValidationException;
+import org.nc.IELTSChecker.embedding.CachingEmbeddingModel;
+import org.nc.IELTSChecker.embedding.HashingEmbeddingModel;
+import org.nc.IELTSChecker.services.CsvIeltsTask2Loader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+@Configuration
+public class EmbeddingCacheConfig {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingCacheConfig.class);
+    private static final Profiles LOCAL_PROFILES = Profiles.of("dev", "test");
+
+    @Value("${embedding.provider:openai}")
+    private String provider;
+
+    @Value("${embedding.local.dimensions:384}")
+    private int localDimensions;
+
+    @Value("${ingest.dataset:classpath:/data/ielts_writing_dataset.csv}")
+    private Resource corpus;
+
+    @Value("${spring.ai.openai.embedding.options.model:text-embedding-ada-002}")
+    private String embeddingModelId;
+
+    @Value("${embedding.cache.max-entries:10000}")
+    private long maxEntries;
+
+    @Value("${embedding.cache.path:data/embedding_cache.bin}")
+    private String cachePath;
+
+    /**
+     * Puts the embedding cache in front of the configured model, so every component that injects an
+     * {@link org.springframework.ai.embedding.EmbeddingModel} goes through it.
+     * With {@code embedding.provider=local} the in-process {@link HashingEmbeddingModel} is used,
+     * fitted on the bundled dataset, and only the in-memory tier is kept: a local embedding is
+     * cheaper than a disk lookup. The local vectors retrieve essays on the same question, but those
+     * carry no more band signal than the dataset mean, so the provider is for development and tests
+     * only and refuses to start unless the {@code dev} or {@code test} profile is active.
+     * @param openAiEmbeddingModel the remote model
+     * @param environment the active profiles
+     * @return the caching model
+     * @throws IllegalStateException if the local provider is selected outside a dev or test profile
+     */
+    @Bean(destroyMethod = "close")
+    @Primary
+    public CachingEmbeddingModel cachingEmbeddingModel(ObjectProvider<OpenAiEmbeddingModel> openAiEmbeddingModel,
+                                                       Environment environment)
+            throws IOException, CsvValidationException {
+        if ("local".equalsIgnoreCase(provider)) {
+            if (!environment.acceptsProfiles(LOCAL_PROFILES)) {
+                throw new IllegalStateException("embedding.provider=local is for development and tests only: "
+                        + "its retrieved essays carry no band signal beyond the dataset mean. "
+                        + "Use embedding.provider=openai, or activate the dev or test profile");
+            }
+            long start = System.nanoTime();
+            HashingEmbeddingModel local = HashingEmbeddingModel.fit(CsvIeltsTask2Loader.corpusTexts(corpus), localDimensions);
+            log.warn("Local embedding model {} fitted in {} ms; scoring runs with development-grade retrieval",
+                    local.getModelId(), (System.nanoTime() - start) / 1_000_000);
+            return new CachingEmbeddingModel(local, local.getModelId(), maxEntries, null);
+        }
+
+        Path diskFile = cachePath.isBlank() ? null : Paths.get(cachePath).toAbsolutePath().normalize();
+        CachingEmbeddingModel model = new CachingEmbeddingModel(openAiEmbeddingModel.getObject(), embeddingModelId,
+                maxEntries, diskFile);
+        log.info("Embedding cache: {} entries on disk{}", model.stats().diskEntries(),
+                diskFile != null ? " at " + diskFile : "");
+        return model;
+    }
+}
@@ -0,0 +1,91 @@
+package org.nc.IELTSChecker.config;
+
+import org.nc.IELTSChecker.services.LlmGovernor;
+import org.nc.IELTSChecker.services.ScoringExecutor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class ScoringConfig {
+    @Value("${scoring.executor.threads:64}")
+    private int requestThreads;
+
+    @Value("${scoring.executor.queue-capacity:100}")
+    private int requestQueueCapacity;
+
+    @Value("${scoring.bulkhead.max-concurrent-llm-calls:32}")
+    private int maxConcurrentLlmCalls;
+
+    @Value("${scoring.bulkhead.max-wait-ms:2000}")
+    private long llmPermitWaitMs;
+
+    @Value("${scoring.governor.initial-concurrency:8}")
+    private int initialConcurrency;
+
+    @Value("${scoring.governor.min-concurrency:1}")
+    private int minConcurrency;
+
+    @Value("${scoring.governor.target-latency-ms:20000}")
+    private long targetLatencyMs;
+
+    @Value("${scoring.governor.tokens-per-minute:0}")
+    private int tokensPerMinute;
+
+    @Value("${scoring.governor.requests-per-minute:0}")
+    private int requestsPerMinute;
+
+    @Value("${scoring.governor.completion-tokens:600}")
+    private int completionTokens;
+
+    @Value("${scoring.governor.max-queued:500}")
+    private int maxQueued;
+
+    @Value("${scoring.governor.batch-max-wait-ms:120000}")
+    private long batchMaxWaitMs;
+
+    @Value("${scoring.governor.throttle-cooldown-ms:2000}")
+    private long throttleCooldownMs;
+
+    @Value("${scoring.governor.max-throttle-retries:2}")
+    private int maxThrottleRetries;
+
+    @Value("${scoring.timeout.embedding-ms:10000}")
+    private long embeddingTimeoutMs;
+
+    @Value("${scoring.timeout.retrieval-ms:2000}")
+    private long retrievalTimeoutMs;
+
+    @Value("${scoring.timeout.chat-ms:60000}")
+    private long chatTimeoutMs;
+
+    @Bean(destroyMethod = "close")
+    public ScoringExecutor scoringExecutor() {
+        return new ScoringExecutor(new ScoringExecutor.Settings(
+                requestThreads,
+                requestQueueCapacity,
+                maxConcurrentLlmCalls,
+                Duration.ofMillis(llmPermitWaitMs),
+                Duration.ofMillis(embeddingTimeoutMs),
+                Duration.ofMillis(retrievalTimeoutMs),
+                Duration.ofMillis(chatTimeoutMs)), llmGovernor());
+    }
+
+    private LlmGovernor llmGovernor() {
+        return new LlmGovernor(new LlmGovernor.Settings(
+                Math.min(initialConcurrency, maxConcurrentLlmCalls),
+                Math.min(minConcurrency, maxConcurrentLlmCalls),
+                maxConcurrentLlmCalls,
+                Duration.ofMillis(targetLatencyMs),
+                tokensPerMinute,
+                requestsPerMinute,
+                completionTokens,
+                maxQueued,
+                Duration.ofMillis(llmPermitWaitMs),
+                Duration.ofMillis(batchMaxWaitMs),
+                Duration.ofMillis(throttleCooldownMs),
+                maxThrottleRetries));
+    }
+}
@@ -1,8 +1,12 @@
 package org.nc.IELTSChecker.config;
 
+import org.nc.IELTSChecker.services.VectorStoreInitializer;
+import org.nc.IELTSChecker.store.HnswIndex;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import org.nc.IELTSChecker.store.QuantizedVectors;
 import org.springframework.ai.embedding.EmbeddingModel;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.HealthIndicator;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -11,26 +15,50 @@ import java.nio.file.Paths;
 
 @Configuration
 public class VectorStoreConfig {
-    @Value("${vector.store.path:data/vector_store.json}")
-
+    @Value("${vector.store.path:data/vector_store.bin}")
     private String vectorStorePath;
 
+    @Value("${vector.store.index:hnsw}")
+    private String indexType;
+
+    @Value("${vector.store.hnsw.m:16}")
+    private int hnswM;
+
+    @Value("${vector.store.hnsw.ef-construction:200}")
+    private int hnswEfConstruction;
+
+    @Value("${vector.store.hnsw.ef-search:64}")
+    private int hnswEfSearch;
+
+    @Value("${vector.store.quantization.type:none}")
+    private String quantizationType;
+
+    @Value("${vector.store.quantization.rescore-factor:0}")
+    private int rescoreFactor;
+
+    @Value("${vector.store.quantization.pq-subspaces:0}")
+    private int pqSubspaces;
+
+    @Value("${vector.store.read-only:false}")
+    private boolean readOnly;
+
     @Bean
-    public SimpleVectorStore simpleVectorStore(EmbeddingModel embeddingModel) {
-        SimpleVectorStore vectorStore =  SimpleVectorStore.builder(embeddingModel).build();
+    public MappedVectorStore mappedVectorStore(EmbeddingModel embeddingModel) {
         File vectorStoreFile = getVectorStoreFile();
+        HnswIndex.Settings hnswSettings = "hnsw".equalsIgnoreCase(indexType)
+                ? new HnswIndex.Settings(hnswM, hnswEfConstruction, hnswEfSearch)
+                : null;
+        QuantizedVectors.Settings quantization = QuantizedVectors.Settings.of(quantizationType, rescoreFactor, pqSubspaces);
+        // Mapped in the background by VectorStoreInitializer once the application has started
+        return new MappedVectorStore(embeddingModel, vectorStoreFile, hnswSettings, quantization, readOnly);
+    }
 
-        try {
-            if (vectorStoreFile.exists() && vectorStoreFile.length() > 0) {
-                vectorStore.load(vectorStoreFile);
-                System.out.println("Loaded existing vector store from: "
-                        + vectorStoreFile.getAbsolutePath());
-            }
-        } catch (Exception e) {
-            System.err.println("Error loading vector store: " + e.getMessage());
-        }
-
-        return vectorStore;
+    /**
+     * Reports whether the store is loaded; part of the readiness group.
+     */
+    @Bean
+    public HealthIndicator vectorStoreHealthIndicator(VectorStoreInitializer initializer) {
+        return initializer::health;
     }
 
     @Bean
@@ -43,4 +71,4 @@ public class VectorStoreConfig {
         file.getParentFile().mkdirs();
         return file;
     }
-}
\ No newline at end of file
+}
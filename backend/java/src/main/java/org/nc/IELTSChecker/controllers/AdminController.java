@@ -0,0 +1,63 @@
+package org.nc.IELTSChecker.controllers;
+
+import org.nc.IELTSChecker.services.VectorStoreReloader;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+
+/**
+ * Operations endpoints. Every request must carry the {@code admin.token} property in the
+ * {@code X-Admin-Token} header; without a configured token the endpoints are disabled.
+ */
+@RestController
+@RequestMapping("/ai/admin")
+public class AdminController {
+
+    private static final String TOKEN_HEADER = "X-Admin-Token";
+
+    private final VectorStoreReloader reloader;
+
+    @Value("${admin.token:}")
+    private String adminToken;
+
+    @Autowired
+    public AdminController(VectorStoreReloader reloader) {
+        this.reloader = reloader;
+    }
+
+    /**
+     * Rebuilds the vector store from the dataset, or remaps a shared read-only store, in the
+     * background; searches keep using the current store until the new one is swapped in.
+     * @return 202 with the reload status, or 409 while the store is still being loaded at startup
+     */
+    @PostMapping("/vectorStore/reload")
+    public ResponseEntity<Object> reloadVectorStore(@RequestHeader(value = TOKEN_HEADER, required = false) String token) {
+        if (!authorized(token)) return forbidden();
+        if (!reloader.requestReload("admin request")) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Map.of("error", "The vector store is still being loaded"));
+        }
+        return ResponseEntity.accepted().body(reloader.status());
+    }
+
+    @GetMapping("/vectorStore")
+    public ResponseEntity<Object> vectorStoreStatus(@RequestHeader(value = TOKEN_HEADER, required = false) String token) {
+        if (!authorized(token)) return forbidden();
+        return ResponseEntity.ok(reloader.status());
+    }
+
+    private boolean authorized(String token) {
+        return !adminToken.isBlank() && token != null && MessageDigest.isEqual(
+                adminToken.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ResponseEntity<Object> forbidden() {
+        return ResponseEntity.status(HttpStatus.FORBIDDEN).body(Map.of("error", "Admin token required"));
+    }
+}
@@ -1,48 +1,241 @@
 package org.nc.IELTSChecker.controllers;
 
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.nc.IELTSChecker.dto.BatchEvaluationItem;
 import org.nc.IELTSChecker.dto.EssayRequest;
+import org.nc.IELTSChecker.dto.EvaluationEvent;
 import org.nc.IELTSChecker.dto.EvaluationResponse;
+import org.nc.IELTSChecker.services.BandPreScorer;
 import org.nc.IELTSChecker.services.IeltsScoringService;
+import org.nc.IELTSChecker.services.ScoringExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import reactor.core.Disposable;
 
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/ai")
 @CrossOrigin
 public class ChatController {
 
+    private static final Logger log = LoggerFactory.getLogger(ChatController.class);
+
     private final IeltsScoringService scoringService;
 
+    private final Validator validator;
+
+    private final ScoringExecutor scoringExecutor;
+
+    private final BandPreScorer preScorer;
+
+    @Value("${scoring.stream.timeout-ms:120000}")
+    private long streamTimeoutMs;
+
+    @Value("${scoring.batch.max-size:100}")
+    private int maxBatchSize;
+
     @Autowired
-    public ChatController(IeltsScoringService scoringService) {
+    public ChatController(IeltsScoringService scoringService, Validator validator, ScoringExecutor scoringExecutor,
+                          BandPreScorer preScorer) {
         this.scoringService = scoringService;
+        this.validator = validator;
+        this.scoringExecutor = scoringExecutor;
+        this.preScorer = preScorer;
     }
 
+    /**
+     * Scores an essay. The evaluation runs on the scoring executor, so no servlet thread waits for the model.
+     * @param request the essay and question
+     * @return the evaluation, 503 when the server is saturated, or 504 when a stage timed out
+     */
     @PostMapping("/scoreEssay")
-    public ResponseEntity<Object> scoreEssay(@Valid @RequestBody EssayRequest request, BindingResult bindingResult) {
+    public CompletableFuture<ResponseEntity<Object>> scoreEssay(@Valid @RequestBody EssayRequest request,
+                                                                BindingResult bindingResult) {
         if (bindingResult.hasErrors()) {
             // Handle the validation errors
+            Map<String, String> errors = new HashMap<>();
+            for (FieldError fieldError : bindingResult.getFieldErrors()) {
+                errors.put(fieldError.getField(), fieldError.getDefaultMessage());
+            }
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(errors));
+        }
+
+        return scoringExecutor.submit(() -> scoringService.scoreEssay(request))
+                .thenApply(evaluation -> ResponseEntity.ok((Object) evaluation))
+                .exceptionally(this::failureResponse);
+    }
+
+    /**
+     * Estimates the bands of an essay from its surface features, in milliseconds and without the LLM.
+     * @param request the essay and question
+     * @return the provisional evaluation, or 503 if the pre-scorer could not be trained
+     */
+    @PostMapping("/scoreEssay/provisional")
+    public ResponseEntity<Object> provisionalScore(@Valid @RequestBody EssayRequest request,
+                                                   BindingResult bindingResult) {
+        if (bindingResult.hasErrors()) {
             Map<String, String> errors = new HashMap<>();
             for (FieldError fieldError : bindingResult.getFieldErrors()) {
                 errors.put(fieldError.getField(), fieldError.getDefaultMessage());
             }
             return ResponseEntity.badRequest().body(errors);
         }
+        if (!preScorer.isTrained()) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "The band pre-scorer is not available"));
+        }
+        return ResponseEntity.ok(scoringService.provisional(request));
+    }
 
-        try {
-            EvaluationResponse evaluation = scoringService.scoreEssay(request);
+    /**
+     * Scores an essay and streams the evaluation as Server-Sent Events: a "provisional" event with the
+     * pre-scorer's estimate, "score" events as each band is
+     * known, "feedback" and "suggestion" events carrying text as it is written, then a "result" event
+     * with the full evaluation, or an "error" event.
+     * The body is declared as an emitter, which Spring only streams when the declared type says so.
+     * @param request the essay and question
+     * @return the event stream, or a 400 with one "error" event carrying the validation errors
+     */
+    @PostMapping("/scoreEssay/stream")
+    public ResponseEntity<SseEmitter> streamEssay(@Valid @RequestBody EssayRequest request,
+                                                  BindingResult bindingResult) throws IOException {
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        if (bindingResult.hasErrors()) {
+            Map<String, String> errors = new HashMap<>();
+            for (FieldError fieldError : bindingResult.getFieldErrors()) {
+                errors.put(fieldError.getField(), fieldError.getDefaultMessage());
+            }
+            emitter.send(SseEmitter.event().name("error")
+                    .data(new EvaluationEvent("error", null, errors), MediaType.APPLICATION_JSON));
+            emitter.complete();
+            return ResponseEntity.badRequest().body(emitter);
+        }
+
+        Disposable subscription = scoringService.streamEssay(request).subscribe(
+                event -> {
+                    try {
+                        emitter.send(SseEmitter.event().name(event.type()).data(event, MediaType.APPLICATION_JSON));
+                    } catch (IOException e) {
+                        // Client went away; onError/onCompletion below cancels the stream
+                        throw new UncheckedIOException(e);
+                    }
+                },
+                error -> {
+                    try {
+                        emitter.send(SseEmitter.event().name("error")
+                                .data(new EvaluationEvent("error", null, "Evaluation failed: " + error.getMessage()),
+                                        MediaType.APPLICATION_JSON));
+                        emitter.complete();
+                    } catch (Exception e) {
+                        emitter.completeWithError(error);
+                    }
+                },
+                emitter::complete);
+        emitter.onTimeout(subscription::dispose);
+        emitter.onError(e -> subscription.dispose());
+        emitter.onCompletion(subscription::dispose);
+        return ResponseEntity.ok(emitter);
+    }
+
+    /**
+     * Scores several essays in one request. Invalid items get a per-item error and do not stop the others.
+     * @param requests the essays, at most {@code scoring.batch.max-size}
+     * @return one result per essay, in request order
+     */
+    @PostMapping("/scoreEssays")
+    public CompletableFuture<ResponseEntity<Object>> scoreEssays(@RequestBody List<EssayRequest> requests) {
+        if (requests == null || requests.isEmpty()) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of("essays", "At least one essay is required")));
+        }
+        if (requests.size() > maxBatchSize) {
+            return CompletableFuture.completedFuture(
+                    ResponseEntity.badRequest().body(Map.of("essays", "At most " + maxBatchSize + " essays per request")));
+        }
 
-            return ResponseEntity.ok(evaluation);
-        } catch (Exception e) {
-            return ResponseEntity.status(500).build();
+        BatchEvaluationItem[] results = new BatchEvaluationItem[requests.size()];
+        List<EssayRequest> valid = new ArrayList<>();
+        List<Integer> validIndexes = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            EssayRequest request = requests.get(i);
+            if (request == null) {
+                results[i] = BatchEvaluationItem.failure(i, "Essay request cannot be null");
+                continue;
+            }
+            Set<ConstraintViolation<EssayRequest>> violations = validator.validate(request);
+            if (violations.isEmpty()) {
+                valid.add(request);
+                validIndexes.add(i);
+            } else {
+                results[i] = BatchEvaluationItem.failure(i, violations.stream()
+                        .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                        .sorted()
+                        .collect(Collectors.joining("; ")));
+            }
         }
+
+        return scoringExecutor.submit(() -> valid.isEmpty() ? List.<BatchEvaluationItem>of() : scoringService.scoreEssays(valid))
+                .thenApply(evaluated -> {
+                    for (int j = 0; j < evaluated.size(); j++) {
+                        int index = validIndexes.get(j);
+                        BatchEvaluationItem item = evaluated.get(j);
+                        results[index] = new BatchEvaluationItem(index, item.evaluation(), item.error(), item.retryable());
+                    }
+                    return ResponseEntity.ok((Object) List.of(results));
+                })
+                .exceptionally(this::failureResponse);
     }
 
+    /**
+     * Maps a failed scoring request to its HTTP response.
+     */
+    private ResponseEntity<Object> failureResponse(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof ScoringExecutor.OverloadedException overloaded) {
+            long retryAfterSeconds = Math.max(1, (overloaded.getRetryAfter().toMillis() + 999) / 1000);
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                    .body(Map.of("error", cause.getMessage()));
+        }
+        if (cause instanceof ScoringExecutor.StageTimeoutException) {
+            return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(Map.of("error", cause.getMessage()));
+        }
+        log.warn("Scoring failed: {}", cause.getMessage(), cause);
+        return ResponseEntity.status(500).build();
+    }
+
+    /**
+     * @return the pre-scorer's cross-validated error against the dataset's examiner scores
+     */
+    @GetMapping("/preScorer/stats")
+    public ResponseEntity<Object> preScorerStats() {
+        BandPreScorer.Report report = preScorer.report();
+        if (report == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .body(Map.of("error", "The band pre-scorer is not available"));
+        }
+        return ResponseEntity.ok(report);
+    }
 }
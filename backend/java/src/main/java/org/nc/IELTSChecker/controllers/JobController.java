@@ -0,0 +1,116 @@
+package org.nc.IELTSChecker.controllers;
+
+import org.nc.IELTSChecker.dto.EssayRequest;
+import org.nc.IELTSChecker.dto.ScoringJob;
+import org.nc.IELTSChecker.services.ScoringExecutor;
+import org.nc.IELTSChecker.services.ScoringJobQueue;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.BindingResult;
+import org.springframework.validation.FieldError;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.validation.Valid;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous scoring: a submitted essay is answered with a job at once, and the evaluation is
+ * fetched by polling the job or by subscribing to its events.
+ */
+@RestController
+@RequestMapping("/ai/jobs")
+@CrossOrigin
+public class JobController {
+
+    private final ScoringJobQueue jobQueue;
+
+    @Value("${scoring.stream.timeout-ms:120000}")
+    private long streamTimeoutMs;
+
+    @Autowired
+    public JobController(ScoringJobQueue jobQueue) {
+        this.jobQueue = jobQueue;
+    }
+
+    /**
+     * Queues an essay for scoring.
+     * @param request the essay and question
+     * @return 202 with the queued job and its location, or 503 when too many jobs are queued
+     */
+    @PostMapping
+    public ResponseEntity<Object> submit(@Valid @RequestBody EssayRequest request, BindingResult bindingResult) {
+        if (bindingResult.hasErrors()) {
+            Map<String, String> errors = new HashMap<>();
+            for (FieldError fieldError : bindingResult.getFieldErrors()) {
+                errors.put(fieldError.getField(), fieldError.getDefaultMessage());
+            }
+            return ResponseEntity.badRequest().body(errors);
+        }
+        try {
+            ScoringJob job = jobQueue.submit(request);
+            return ResponseEntity.accepted().location(URI.create("/ai/jobs/" + job.id())).body(job);
+        } catch (ScoringExecutor.OverloadedException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfter().toSeconds()))
+                    .body(Map.of("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * @return the job with its evaluation once it has ended, or 404 if it is unknown or expired
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<Object> job(@PathVariable String id) {
+        ScoringJob job = jobQueue.get(id);
+        if (job == null) return notFound(id);
+        return ResponseEntity.ok(job);
+    }
+
+    /**
+     * Streams the job as Server-Sent Events: a "status" event at once and, if it has not ended yet,
+     * a "result" event when it does.
+     * @return the event stream, or 404 if the job is unknown or expired
+     */
+    @GetMapping("/{id}/events")
+    public ResponseEntity<SseEmitter> events(@PathVariable String id) throws IOException {
+        ScoringJob job = jobQueue.get(id);
+        CompletableFuture<ScoringJob> done = jobQueue.whenDone(id);
+        if (job == null || done == null) return ResponseEntity.notFound().build();
+
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        emitter.send(SseEmitter.event().name("status").data(job, MediaType.APPLICATION_JSON));
+        if (job.isDone()) {
+            emitter.complete();
+            return ResponseEntity.ok(emitter);
+        }
+        CompletableFuture<Void> subscription = done.thenAccept(result -> {
+            try {
+                emitter.send(SseEmitter.event().name("result").data(result, MediaType.APPLICATION_JSON));
+                emitter.complete();
+            } catch (Exception e) {
+                emitter.completeWithError(e);
+            }
+        });
+        emitter.onTimeout(() -> subscription.cancel(false));
+        emitter.onError(e -> subscription.cancel(false));
+        return ResponseEntity.ok(emitter);
+    }
+
+    @GetMapping("/stats")
+    public ScoringJobQueue.Stats stats() {
+        return jobQueue.stats();
+    }
+
+    private static ResponseEntity<Object> notFound(String id) {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of("error", "No scoring job " + id));
+    }
+}
@@ -0,0 +1,24 @@
+package org.nc.IELTSChecker.dto;
+
+/**
+ * @param retryable whether the error was transient, such as an overloaded server or a throttling
+ *                  provider, so the essay may be scored if submitted again
+ */
+public record BatchEvaluationItem(
+        int index,
+        EvaluationResponse evaluation,
+        String error,
+        boolean retryable
+) {
+    public static BatchEvaluationItem success(int index, EvaluationResponse evaluation) {
+        return new BatchEvaluationItem(index, evaluation, null, false);
+    }
+
+    public static BatchEvaluationItem failure(int index, String error) {
+        return new BatchEvaluationItem(index, null, error, false);
+    }
+
+    public static BatchEvaluationItem retryableFailure(int index, String error) {
+        return new BatchEvaluationItem(index, null, error, true);
+    }
+}
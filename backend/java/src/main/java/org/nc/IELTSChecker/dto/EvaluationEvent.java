@@ -0,0 +1,13 @@
+package org.nc.IELTSChecker.dto;
+
+/**
+ * One Server-Sent Event of a streamed evaluation.
+ * @param type "provisional", "score", "feedback", "suggestion", "result" or "error"
+ * @param field the criterion or JSON field the value belongs to, null for "provisional", "result" and "error"
+ * @param value a band score, a piece of text, the provisional or final EvaluationResponse or an error message
+ */
+public record EvaluationEvent(
+        String type,
+        String field,
+        Object value
+) {}
@@ -0,0 +1,21 @@
+package org.nc.IELTSChecker.dto;
+
+import java.time.Instant;
+
+/**
+ * The state of an asynchronous scoring job; the evaluation or the error is set once it has ended.
+ */
+public record ScoringJob(
+        String id,
+        Status status,
+        Instant submittedAt,
+        Instant completedAt,
+        EvaluationResponse evaluation,
+        String error
+) {
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    public boolean isDone() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+}
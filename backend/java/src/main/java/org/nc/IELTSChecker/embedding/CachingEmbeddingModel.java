@@ -0,0 +1,265 @@
+package org.nc.IELTSChecker.embedding;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptions;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.EmbeddingResponseMetadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * {@link EmbeddingModel} decorator that only sends texts it has not embedded before to the delegate.
+ *
+ * <p>Entries are keyed by a SHA-256 of the model id and the normalized text (Unicode NFC, whitespace
+ * collapsed and trimmed). Lookups go to a bounded in-memory W-TinyLFU cache first, then to an
+ * append-only file that survives restarts. Only the misses of a request are sent to the delegate,
+ * in one call.
+ *
+ * <p>As a {@link MeterBinder} bean it publishes the in-memory tier's Caffeine statistics under
+ * {@code cache.*} (tagged {@code cache=embeddings}), lookups by result under
+ * {@code embedding.cache.lookups} and the size of the on-disk tier under {@code embedding.cache.disk.entries}.
+ */
+public class CachingEmbeddingModel implements EmbeddingModel, MeterBinder, Closeable {
+
+    /**
+     * Cache counters since startup.
+     * @param memoryHits texts served from the in-memory tier
+     * @param diskHits texts served from the on-disk tier
+     * @param misses texts sent to the delegate
+     * @param evictions entries evicted from the in-memory tier
+     * @param memoryEntries entries currently held in memory
+     * @param diskEntries entries currently held on disk
+     */
+    public record Stats(long memoryHits, long diskHits, long misses, long evictions,
+                        long memoryEntries, long diskEntries) {
+
+        /**
+         * @return the share of texts that did not need a delegate call
+         */
+        public double hitRate() {
+            long requests = memoryHits + diskHits + misses;
+            return requests == 0 ? 0 : (double) (memoryHits + diskHits) / requests;
+        }
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(CachingEmbeddingModel.class);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final EmbeddingModel delegate;
+    private final String modelId;
+    private final Cache<EmbeddingDiskCache.Key, float[]> memory;
+    private final EmbeddingDiskCache disk;
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private volatile int dimensions = -1;
+
+    /**
+     * @param delegate the model that computes embeddings on a miss
+     * @param modelId the delegate's default model, part of every cache key
+     * @param maxMemoryEntries bound of the in-memory tier
+     * @param diskFile the on-disk tier, or null to keep the cache in memory only
+     */
+    public CachingEmbeddingModel(EmbeddingModel delegate, String modelId, long maxMemoryEntries, Path diskFile)
+            throws IOException {
+        this.delegate = delegate;
+        this.modelId = modelId;
+        this.memory = Caffeine.newBuilder()
+                .maximumSize(maxMemoryEntries)
+                .recordStats()
+                .build();
+        this.disk = diskFile == null ? null : new EmbeddingDiskCache(diskFile);
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        String model = modelFor(request.getOptions());
+        float[][] vectors = new float[texts.size()][];
+
+        // Misses grouped by key, so a text repeated within the request is embedded once
+        Map<EmbeddingDiskCache.Key, List<Integer>> missing = new LinkedHashMap<>();
+        List<String> missingTexts = new ArrayList<>();
+        for (int i = 0; i < texts.size(); i++) {
+            EmbeddingDiskCache.Key key = key(model, texts.get(i));
+            float[] cached = lookup(key);
+            if (cached != null) {
+                vectors[i] = cached.clone();
+                continue;
+            }
+            List<Integer> positions = missing.get(key);
+            if (positions == null) {
+                positions = new ArrayList<>(1);
+                missing.put(key, positions);
+                missingTexts.add(texts.get(i));
+            }
+            positions.add(i);
+        }
+
+        EmbeddingResponseMetadata metadata = new EmbeddingResponseMetadata();
+        if (!missingTexts.isEmpty()) {
+            misses.add(missingTexts.size());
+            EmbeddingResponse response = delegate.call(new EmbeddingRequest(missingTexts, request.getOptions()));
+            metadata = response.getMetadata();
+            List<EmbeddingDiskCache.Key> keys = new ArrayList<>(missing.keySet());
+            List<Embedding> results = response.getResults();
+            for (int j = 0; j < results.size(); j++) {
+                Embedding embedding = results.get(j);
+                int index = embedding.getIndex() != null ? embedding.getIndex() : j;
+                float[] vector = embedding.getOutput();
+                store(keys.get(index), vector);
+                for (int position : missing.get(keys.get(index))) {
+                    vectors[position] = vector.clone();
+                }
+            }
+        }
+
+        List<Embedding> embeddings = new ArrayList<>(vectors.length);
+        for (int i = 0; i < vectors.length; i++) {
+            embeddings.add(new Embedding(vectors[i], i));
+        }
+        return new EmbeddingResponse(embeddings, metadata);
+    }
+
+    /**
+     * Embeds a document the way the OpenAI model does, from its text plus embeddable metadata.
+     */
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        if (dimensions < 0) dimensions = delegate.dimensions();
+        return dimensions;
+    }
+
+    /**
+     * @return the delegate's default model
+     */
+    public String getModelId() {
+        return modelId;
+    }
+
+    /**
+     * @return hit, miss and eviction counters of both tiers
+     */
+    public Stats stats() {
+        // Evictions run asynchronously; settle them so the counters are current
+        memory.cleanUp();
+        return new Stats(memoryHits.sum(), diskHits.sum(), misses.sum(),
+                memory.stats().evictionCount(), memory.estimatedSize(), disk == null ? 0 : disk.size());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, memory, "embeddings");
+        lookupCounter(registry, "memory_hit", memoryHits);
+        lookupCounter(registry, "disk_hit", diskHits);
+        lookupCounter(registry, "miss", misses);
+        if (disk != null) {
+            Gauge.builder("embedding.cache.disk.entries", disk, EmbeddingDiskCache::size)
+                    .description("Embeddings held in the on-disk cache tier")
+                    .register(registry);
+        }
+    }
+
+    private static void lookupCounter(MeterRegistry registry, String result, LongAdder count) {
+        FunctionCounter.builder("embedding.cache.lookups", count, LongAdder::sum)
+                .description("Texts looked up in the embedding cache; misses are sent to the model")
+                .tag("result", result)
+                .register(registry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (disk != null) disk.close();
+    }
+
+    private float[] lookup(EmbeddingDiskCache.Key key) {
+        float[] vector = memory.getIfPresent(key);
+        if (vector != null) {
+            memoryHits.increment();
+            return vector;
+        }
+        if (disk == null) return null;
+        try {
+            vector = disk.get(key);
+        } catch (IOException e) {
+            // The cache only saves delegate calls: drop the unreadable entry and embed the text again
+            log.warn("Could not read embedding cache entry, embedding the text again: {}", e.toString());
+            disk.remove(key);
+            return null;
+        }
+        if (vector != null) {
+            diskHits.increment();
+            memory.put(key, vector);
+        }
+        return vector;
+    }
+
+    private void store(EmbeddingDiskCache.Key key, float[] vector) {
+        float[] copy = vector.clone();
+        memory.put(key, copy);
+        if (disk == null) return;
+        try {
+            disk.put(key, copy);
+        } catch (IOException e) {
+            // The in-memory tier still has the entry; a failing disk only costs a re-embed after restart
+            log.warn("Could not write embedding cache: {}", e.toString());
+        }
+    }
+
+    /**
+     * @return the model id the request resolves to, with its output dimensions when they are overridden
+     */
+    private String modelFor(EmbeddingOptions options) {
+        if (options == null) return modelId;
+        String model = options.getModel() != null ? options.getModel() : modelId;
+        return options.getDimensions() != null ? model + ":" + options.getDimensions() : model;
+    }
+
+    /**
+     * Hashes the model id and the normalized text.
+     */
+    static EmbeddingDiskCache.Key key(String model, String text) {
+        String normalized = WHITESPACE.matcher(Normalizer.normalize(text == null ? "" : text, Normalizer.Form.NFC))
+                .replaceAll(" ")
+                .trim();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(normalized.getBytes(StandardCharsets.UTF_8));
+            return new EmbeddingDiskCache.Key(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
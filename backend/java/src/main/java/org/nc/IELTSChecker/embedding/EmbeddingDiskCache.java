@@ -0,0 +1,151 @@
+package org.nc.IELTSChecker.embedding;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of embeddings keyed by a 32-byte content hash.
+ *
+ * <p>Each entry is one frame {@code [int length][int crc32][key][floats]}. On open the file is scanned
+ * once to build an in-memory key to offset index, and a torn tail left by a crash is truncated.
+ * Lookups are positional reads, so they do not block each other or the appender.
+ */
+final class EmbeddingDiskCache implements Closeable {
+
+    static final int KEY_BYTES = 32;
+    private static final int FRAME_OVERHEAD = 2 * Integer.BYTES;
+
+    private final FileChannel channel;
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+    private long end;
+
+    private record Entry(long vectorOffset, int dimensions) {
+    }
+
+    /**
+     * Wraps a raw hash so it can be used as a map key.
+     */
+    record Key(byte[] bytes) {
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && Arrays.equals(bytes, key.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+
+    /**
+     * Opens (or creates) the cache file and indexes its entries.
+     * @param file the cache file
+     */
+    EmbeddingDiskCache(Path file) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.end = scan();
+        channel.truncate(end);
+    }
+
+    /**
+     * @return the cached vector, or null if the key is not on disk
+     */
+    float[] get(Key key) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry == null) return null;
+        ByteBuffer buffer = ByteBuffer.allocate(entry.dimensions() * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, entry.vectorOffset() + buffer.position()) < 0) return null;
+        }
+        buffer.flip();
+        float[] vector = new float[entry.dimensions()];
+        buffer.asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    /**
+     * Appends an entry unless the key is already present. Entries are not forced to disk one by one;
+     * a torn tail only loses the entries written last.
+     */
+    synchronized void put(Key key, float[] vector) throws IOException {
+        if (entries.containsKey(key)) return;
+        int length = KEY_BYTES + vector.length * Float.BYTES;
+        ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(key.bytes());
+        for (float value : vector) payload.putFloat(value);
+        payload.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_OVERHEAD + length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(length).putInt((int) crc.getValue()).put(payload).flip();
+        long position = end;
+        while (frame.hasRemaining()) {
+            position += channel.write(frame, position);
+        }
+        entries.put(key, new Entry(end + FRAME_OVERHEAD + KEY_BYTES, vector.length));
+        end = position;
+    }
+
+    /**
+     * Forgets an entry, so a later {@link #put} appends it again. The old frame stays in the file.
+     */
+    void remove(Key key) {
+        entries.remove(key);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.force(false);
+        channel.close();
+    }
+
+    /**
+     * @return the end of the last intact frame
+     */
+    private long scan() throws IOException {
+        long size = channel.size();
+        long position = 0;
+        ByteBuffer header = ByteBuffer.allocate(FRAME_OVERHEAD).order(ByteOrder.LITTLE_ENDIAN);
+        while (position + FRAME_OVERHEAD <= size) {
+            header.clear();
+            channel.read(header, position);
+            int length = header.getInt(0);
+            int expectedCrc = header.getInt(Integer.BYTES);
+            if (length <= KEY_BYTES || (length - KEY_BYTES) % Float.BYTES != 0
+                    || position + FRAME_OVERHEAD + length > size) break;
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            while (payload.hasRemaining()) {
+                if (channel.read(payload, position + FRAME_OVERHEAD + payload.position()) < 0) break;
+            }
+            payload.flip();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != expectedCrc) break;
+
+            byte[] key = new byte[KEY_BYTES];
+            payload.get(key);
+            entries.put(new Key(key), new Entry(position + FRAME_OVERHEAD + KEY_BYTES,
+                    (length - KEY_BYTES) / Float.BYTES));
+            position += FRAME_OVERHEAD + length;
+        }
+        return position;
+    }
+}
@@ -0,0 +1,212 @@
+package org.nc.IELTSChecker.embedding;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.document.MetadataMode;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * In-process {@link EmbeddingModel}: hashed TF-IDF over words, word bigrams and character
+ * 3- to 5-grams, reduced to a dense vector by a sparse random projection.
+ *
+ * <p>Every feature is hashed once. The low bits select its IDF weight, fitted on a corpus with
+ * {@link #fit}; the other bits select the two output dimensions it adds to, each with a random
+ * sign, which preserves inner products between the sparse TF-IDF vectors in expectation. Output vectors are
+ * L2-normalized. Embedding an essay takes well under a millisecond and needs no network.
+ */
+public class HashingEmbeddingModel implements EmbeddingModel {
+
+    /**
+     * Identifies the feature scheme; part of {@link #getModelId()} so cached vectors of an older
+     * scheme are never reused.
+     */
+    public static final String MODEL_NAME = "hashing-ngram-v1";
+
+    private static final int FEATURE_BITS = 18;
+    private static final int FEATURE_MASK = (1 << FEATURE_BITS) - 1;
+    private static final int MIN_CHAR_GRAM = 3;
+    private static final int MAX_CHAR_GRAM = 5;
+    private static final float WORD_WEIGHT = 1.0f;
+    private static final float BIGRAM_WEIGHT = 0.8f;
+    private static final float CHAR_GRAM_WEIGHT = 0.25f;
+    private static final long WORD_SEED = 0x9E3779B97F4A7C15L;
+    private static final long BIGRAM_SEED = 0xC2B2AE3D27D4EB4FL;
+    private static final long CHAR_SEED = 0x165667B19E3779F9L;
+    private static final long PROJECTION_SEED = 0x27D4EB2F165667C5L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final int MAX_WORD = 64;
+
+    private final int dimensions;
+    private final float[] idf;
+    private final String modelId;
+
+    /**
+     * Creates a model without IDF weights: every feature counts by its term frequency only.
+     * @param dimensions the output dimensions
+     */
+    public HashingEmbeddingModel(int dimensions) {
+        this(dimensions, null);
+    }
+
+    private HashingEmbeddingModel(int dimensions, float[] idf) {
+        if (dimensions < 2) throw new IllegalArgumentException("dimensions must be at least 2");
+        this.dimensions = dimensions;
+        this.idf = idf;
+        this.modelId = MODEL_NAME + "-" + dimensions + "-" + (idf == null ? "tf" : fingerprint(idf));
+    }
+
+    /**
+     * Fits the IDF weights on a corpus.
+     * @param corpus the texts the model will embed, or a representative sample of them
+     * @param dimensions the output dimensions
+     * @return the fitted model
+     */
+    public static HashingEmbeddingModel fit(Iterable<String> corpus, int dimensions) {
+        int[] documentFrequency = new int[FEATURE_MASK + 1];
+        int[] lastSeen = new int[FEATURE_MASK + 1];
+        int[] documents = {0};
+        for (String text : corpus) {
+            int document = ++documents[0];
+            forEachFeature(text, (hash, weight) -> {
+                int feature = (int) hash & FEATURE_MASK;
+                if (lastSeen[feature] != document) {
+                    lastSeen[feature] = document;
+                    documentFrequency[feature]++;
+                }
+            });
+        }
+        float[] idf = new float[FEATURE_MASK + 1];
+        for (int i = 0; i < idf.length; i++) {
+            idf[i] = (float) (Math.log((documents[0] + 1.0) / (documentFrequency[i] + 1.0)) + 1.0);
+        }
+        return new HashingEmbeddingModel(dimensions, idf);
+    }
+
+    /**
+     * @return the scheme, dimensions and a fingerprint of the fitted weights
+     */
+    public String getModelId() {
+        return modelId;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<String> texts = request.getInstructions();
+        List<Embedding> embeddings = new ArrayList<>(texts.size());
+        for (int i = 0; i < texts.size(); i++) {
+            embeddings.add(new Embedding(embed(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(String text) {
+        float[] vector = new float[dimensions];
+        forEachFeature(text, (hash, weight) -> {
+            float value = idf == null ? weight : weight * idf[(int) hash & FEATURE_MASK];
+            // Two output dimensions per feature, each with its own sign
+            int first = (int) (hash >>> 32);
+            vector[Math.floorMod(first >> 1, dimensions)] += (first & 1) == 0 ? value : -value;
+            int second = (int) mix(hash ^ PROJECTION_SEED);
+            vector[Math.floorMod(second >> 1, dimensions)] += (second & 1) == 0 ? value : -value;
+        });
+        normalize(vector);
+        return vector;
+    }
+
+    /**
+     * Embeds a document from its text plus embeddable metadata, like the remote model.
+     */
+    @Override
+    public float[] embed(Document document) {
+        return embed(document.getFormattedContent(MetadataMode.EMBED));
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    private interface FeatureSink {
+        void accept(long hash, float weight);
+    }
+
+    /**
+     * Lower-cases the text, splits it into words of letters and digits, and reports every word,
+     * word bigram and character n-gram of the words padded with boundary markers.
+     */
+    private static void forEachFeature(String text, FeatureSink sink) {
+        if (text == null) return;
+        char[] word = new char[MAX_WORD + 2];
+        int length = 0;
+        long previousWord = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? Character.toLowerCase(text.charAt(i)) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (length < MAX_WORD) word[++length] = c;
+                continue;
+            }
+            if (length == 0) continue;
+
+            long wordHash = fnv(word, 1, length, WORD_SEED);
+            sink.accept(mix(wordHash), WORD_WEIGHT);
+            if (previousWord != 0) sink.accept(mix(previousWord * 31 + wordHash ^ BIGRAM_SEED), BIGRAM_WEIGHT);
+            previousWord = wordHash;
+
+            word[0] = '<';
+            word[length + 1] = '>';
+            int padded = length + 2;
+            for (int start = 0; start + MIN_CHAR_GRAM <= padded; start++) {
+                long hash = CHAR_SEED;
+                for (int end = start; end < Math.min(padded, start + MAX_CHAR_GRAM); end++) {
+                    hash = (hash ^ word[end]) * FNV_PRIME;
+                    if (end - start + 1 >= MIN_CHAR_GRAM) sink.accept(mix(hash), CHAR_GRAM_WEIGHT);
+                }
+            }
+            length = 0;
+        }
+    }
+
+    private static long fnv(char[] chars, int from, int length, long seed) {
+        long hash = seed;
+        for (int i = from; i < from + length; i++) {
+            hash = (hash ^ chars[i]) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * SplitMix64 finalizer, so that every bit of the hash depends on every input character.
+     */
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+        return hash ^ (hash >>> 31);
+    }
+
+    private static void normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) norm += value * value;
+        if (norm == 0) return;
+        float scale = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) vector[i] *= scale;
+    }
+
+    private static String fingerprint(float[] idf) {
+        CRC32 crc = new CRC32();
+        for (float weight : idf) {
+            int bits = Float.floatToIntBits(weight);
+            crc.update(bits >>> 24);
+            crc.update(bits >>> 16);
+            crc.update(bits >>> 8);
+            crc.update(bits);
+        }
+        return Long.toHexString(crc.getValue());
+    }
+}
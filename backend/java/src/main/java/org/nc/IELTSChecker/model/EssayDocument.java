@@ -16,6 +16,14 @@ public class EssayDocument extends Document {
         this.topic = topic;
     }
 
+    public EssayDocument(String id, String content, Map<String, Object> metadata,
+                         String bandScore, String question, String topic) {
+        super(id, content, metadata);
+        this.bandScore = bandScore;
+        this.question = question;
+        this.topic = topic;
+    }
+
     public String getBandScore() { return bandScore; }
     public String getQuestion() { return question; }
     public String getTopic() { return topic; }
@@ -0,0 +1,155 @@
+package org.nc.IELTSChecker.services;
+
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limit for calls to a rate-limited remote API, adjusted with AIMD:
+ * the limit grows by one for each window of {@code limit} calls that finish within the target latency,
+ * shrinks slightly when calls get slow, and halves when the provider throttles us.
+ *
+ * <p>Callers {@link #acquire()} a permit before the call and report the outcome through exactly one of
+ * {@link #onSuccess(long)}, {@link #onThrottled()} or {@link #onFailure()}, which also release the permit.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private static final double SLOW_DECREASE = 0.9;
+    private static final double THROTTLE_DECREASE = 0.5;
+    private static final String RATE_LIMITED_PREFIX = HttpStatus.TOO_MANY_REQUESTS.value() + " - ";
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition permitReleased = lock.newCondition();
+    private double limit;
+    private int inFlight;
+
+    /**
+     * @param initialLimit the starting number of concurrent calls
+     * @param minLimit the limit never drops below this
+     * @param maxLimit the limit never grows above this
+     * @param targetLatency calls slower than this count as a congestion signal
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration targetLatency) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = Math.max(this.minLimit, Math.min(this.maxLimit, initialLimit));
+        this.targetLatencyNanos = targetLatency.toNanos();
+    }
+
+    /**
+     * Blocks until a call may start.
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                permitReleased.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits up to the given time for a call slot.
+     * @return true if a permit was acquired
+     */
+    public boolean tryAcquire(long timeout, TimeUnit unit) throws InterruptedException {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                if (remaining <= 0) return false;
+                remaining = permitReleased.awaitNanos(remaining);
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases a permit after a successful call.
+     * @param latencyNanos how long the call took
+     */
+    public void onSuccess(long latencyNanos) {
+        // 1/limit per call adds one per window of limit calls, however many complete under load
+        release(latencyNanos <= targetLatencyNanos ? limit + 1.0 / limit : limit * SLOW_DECREASE);
+    }
+
+    /**
+     * Releases a permit after the provider rejected the call with a rate-limit error.
+     */
+    public void onThrottled() {
+        release(limit * THROTTLE_DECREASE);
+    }
+
+    /**
+     * Releases a permit after a call failed for a reason unrelated to load.
+     */
+    public void onFailure() {
+        release(limit);
+    }
+
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Tells whether an exception (or one of its causes) is a provider rate-limit response. Only
+     * structured signals count: a 429 from a Spring HTTP client, or the {@link NonTransientAiException}
+     * Spring AI's retry handling raises for one, whose message starts with the status code.
+     * Matching "429" anywhere in a message would also match essay text, ids or token counts in an
+     * error body, and each false positive halves the limit.
+     */
+    public static boolean isRateLimited(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof HttpClientErrorException.TooManyRequests
+                    || t instanceof WebClientResponseException.TooManyRequests) {
+                return true;
+            }
+            if (t instanceof NonTransientAiException && t.getMessage() != null
+                    && t.getMessage().startsWith(RATE_LIMITED_PREFIX)) {
+                return true;
+            }
+            if (t.getCause() == t) break;
+        }
+        return false;
+    }
+
+    private void release(double newLimit) {
+        lock.lock();
+        try {
+            inFlight--;
+            limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+            permitReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
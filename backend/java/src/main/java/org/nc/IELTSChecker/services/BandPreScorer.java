@@ -0,0 +1,432 @@
+package org.nc.IELTSChecker.services;
+
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import jakarta.annotation.PostConstruct;
+import org.nc.IELTSChecker.dto.EvaluationResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Estimates band scores in-process from the {@link EssayFeatures surface features} of an essay,
+ * in well under a millisecond, so a provisional result can be shown before the LLM answers.
+ *
+ * <p>At startup one ridge regression per criterion is fitted on the dataset's Task 2 essays
+ * ({@code ingest.dataset}) against the examiners' scores. A criterion with too few scores in the
+ * dataset is estimated from the overall band instead. The error of each model is measured by
+ * cross-validation and reported next to that of always guessing the mean band. Features are
+ * clamped to the range seen in training, and under-length essays, which the dataset lacks, have
+ * their task response and overall bands capped in proportion to their length.
+ *
+ * <p>With {@code scoring.prescore.short-circuit.enabled}, essays the features alone rate with
+ * confidence (far under length, or not about the question) are answered with the estimate and
+ * never sent to the LLM.
+ */
+@Service
+public class BandPreScorer {
+
+    static final String[] CRITERIA = {
+            "taskResponse", "coherenceCohesion", "lexicalResource", "grammaticalRangeAccuracy", "overallBand"
+    };
+    private static final int[] CRITERION_COLUMNS = {4, 5, 6, 7, 8};
+    private static final int OVERALL = 4;
+    private static final int MIN_LABELLED_ESSAYS = 30;
+    private static final int FOLDS = 5;
+
+    /**
+     * Cross-validated error of the estimates, rounded to half bands like the estimates themselves.
+     * @param essays the essays with an examiner score for the criterion
+     * @param meanAbsoluteError mean distance from the examiner's band
+     * @param rootMeanSquaredError root mean squared distance from the examiner's band
+     * @param withinHalfBand share of estimates at most half a band from the examiner's
+     * @param baselineMeanAbsoluteError mean distance when always guessing the mean band of the training essays
+     */
+    public record Accuracy(int essays, double meanAbsoluteError, double rootMeanSquaredError,
+                           double withinHalfBand, double baselineMeanAbsoluteError) {
+    }
+
+    /**
+     * @param essays the Task 2 essays trained on
+     * @param accuracy the error of each criterion with its own model
+     * @param fromOverall the criteria without enough examiner scores, estimated as the overall band
+     */
+    public record Report(int essays, Map<String, Accuracy> accuracy, List<String> fromOverall) {
+    }
+
+    /**
+     * An essay's features with the examiner's scores, NaN where the dataset has none.
+     */
+    record Sample(EssayFeatures features, double[] bands) {
+    }
+
+    private record Models(RidgeModel[] byCriterion, Report report) {
+    }
+
+    @Value("${ingest.dataset:classpath:/data/ielts_writing_dataset.csv}")
+    private Resource dataset;
+
+    /**
+     * Strength of the ridge penalty on the standardized feature weights.
+     */
+    @Value("${scoring.prescore.ridge-lambda:1.0}")
+    private double lambda;
+
+    @Value("${scoring.prescore.short-circuit.enabled:false}")
+    private boolean shortCircuit;
+
+    /**
+     * Essays with fewer words are answered with the estimate.
+     */
+    @Value("${scoring.prescore.short-circuit.max-words:150}")
+    private int shortCircuitMaxWords;
+
+    /**
+     * Essays using a smaller share of the question's keywords are answered with the estimate.
+     */
+    @Value("${scoring.prescore.short-circuit.min-question-overlap:0.2}")
+    private double shortCircuitMinQuestionOverlap;
+
+    @Autowired
+    private EssayPreprocessor preprocessor;
+
+    private volatile Models models;
+
+    @PostConstruct
+    public void train() {
+        long start = System.nanoTime();
+        try {
+            List<Sample> samples = samples(dataset, preprocessor);
+            models = fit(samples, lambda);
+            Accuracy overall = models.report().accuracy().get(CRITERIA[OVERALL]);
+            System.out.printf("Trained band pre-scorer on %d essays in %d ms: overall band MAE %.2f "
+                            + "(mean-band baseline %.2f), %.0f%% within half a band%n",
+                    samples.size(), (System.nanoTime() - start) / 1_000_000, overall.meanAbsoluteError(),
+                    overall.baselineMeanAbsoluteError(), overall.withinHalfBand() * 100);
+        } catch (Exception e) {
+            System.err.println("Band pre-scorer not available: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return whether the models were trained
+     */
+    public boolean isTrained() {
+        return models != null;
+    }
+
+    /**
+     * @return the cross-validated error of the models, or null if they are not trained
+     */
+    public Report report() {
+        Models current = models;
+        return current != null ? current.report() : null;
+    }
+
+    /**
+     * Estimates the bands of an essay from its features.
+     * @param question the task the essay answers
+     * @param essay the essay
+     * @return a provisional evaluation, with suggestions derived from the features
+     * @throws IllegalStateException if the models are not trained
+     */
+    public EvaluationResponse estimate(String question, String essay) {
+        return estimate(preprocessor.features(question, essay), null);
+    }
+
+    /**
+     * Estimates the bands of an essay that should not be sent to the LLM, when short-circuiting is on.
+     * @return the provisional evaluation, or null if the essay needs a full evaluation
+     */
+    public EvaluationResponse shortCircuit(String question, String essay) {
+        if (!shortCircuit || models == null) return null;
+        EssayFeatures features = preprocessor.features(question, essay);
+        String reason = null;
+        if (features.wordCount() < shortCircuitMaxWords) {
+            reason = "it has only " + features.wordCount() + " words, far below the "
+                    + EssayFeatures.MINIMUM_WORDS + " required";
+        } else if (features.questionOverlap() < shortCircuitMinQuestionOverlap) {
+            reason = "it hardly uses the key words of the question, so it may not address it";
+        }
+        return reason != null ? estimate(features, reason) : null;
+    }
+
+    private EvaluationResponse estimate(EssayFeatures features, String shortCircuitReason) {
+        Models current = models;
+        if (current == null) throw new IllegalStateException("The band pre-scorer is not trained");
+
+        double[] x = features.vector();
+        double[] bands = new double[CRITERIA.length];
+        // The reference essays are all long enough, so the models cannot have learnt the length penalty
+        double lengthCap = features.wordCount() < EssayFeatures.MINIMUM_WORDS
+                ? halfBand(1 + 8.0 * features.wordCount() / EssayFeatures.MINIMUM_WORDS) : 9;
+        bands[OVERALL] = Math.min(lengthCap, halfBand(current.byCriterion()[OVERALL].predict(x)));
+        for (int c = 0; c < OVERALL; c++) {
+            RidgeModel model = current.byCriterion()[c];
+            bands[c] = model != null ? halfBand(model.predict(x)) : bands[OVERALL];
+        }
+        bands[0] = Math.min(lengthCap, bands[0]);
+
+        Accuracy overall = current.report().accuracy().get(CRITERIA[OVERALL]);
+        StringBuilder feedback = new StringBuilder(String.format(Locale.ROOT,
+                "Provisional estimate from the essay's length, vocabulary, sentence structure, linking and "
+                        + "relevance to the question, not an examiner's assessment. On the reference essays it "
+                        + "is on average %.1f bands from the examiner's overall band.",
+                overall.meanAbsoluteError()));
+        if (shortCircuitReason != null) {
+            feedback.append(" The essay was not sent for a full evaluation because ").append(shortCircuitReason).append('.');
+        }
+        return new EvaluationResponse(bands[0], bands[1], bands[2], bands[3], bands[OVERALL],
+                feedback.toString(), suggestions(features));
+    }
+
+    /**
+     * Rule-based advice on features that fall among the lowest tenth of the reference essays.
+     */
+    private static Map<String, String> suggestions(EssayFeatures features) {
+        Map<String, String> suggestions = new LinkedHashMap<>();
+        if (features.wordCount() < EssayFeatures.MINIMUM_WORDS) {
+            suggestions.put("taskResponse", "Write at least " + EssayFeatures.MINIMUM_WORDS + " words; this essay has "
+                    + features.wordCount() + ".");
+        } else if (features.questionOverlap() < 0.4) {
+            suggestions.put("taskResponse", "Address every part of the question directly and refer to its key ideas.");
+        }
+        if (features.linkingDevicesPer100Words() < 1.2) {
+            suggestions.put("coherenceCohesion", "Connect ideas with linking devices such as \"however\", "
+                    + "\"as a result\" or \"on the other hand\".");
+        } else if (features.linkingDevicesPer100Words() > 6) {
+            suggestions.put("coherenceCohesion", "Use fewer linking words; mechanical linking lowers the score.");
+        }
+        if (features.rootTypeTokenRatio() < 8 || features.longWordRatio() < 0.2) {
+            suggestions.put("lexicalResource", "Vary your vocabulary and use more precise, less common words.");
+        }
+        if (features.sentenceLengthStdDev() < 5 || features.commasPerSentence() < 0.6) {
+            suggestions.put("grammaticalRangeAccuracy", "Mix simple and complex sentences, "
+                    + "for example with relative or conditional clauses.");
+        }
+        return suggestions;
+    }
+
+    /**
+     * Reads the Task 2 essays of the dataset with their examiner scores.
+     */
+    static List<Sample> samples(Resource csv, EssayPreprocessor preprocessor) throws IOException, CsvValidationException {
+        List<Sample> samples = new ArrayList<>();
+        try (CSVReader reader = new CSVReader(new InputStreamReader(csv.getInputStream(), StandardCharsets.UTF_8))) {
+            reader.readNext();
+            for (String[] line : reader) {
+                if (line.length < 9 || !line[0].trim().equals("2") || line[2].isBlank()) continue;
+                double[] bands = new double[CRITERIA.length];
+                boolean scored = false;
+                for (int c = 0; c < CRITERIA.length; c++) {
+                    bands[c] = band(line[CRITERION_COLUMNS[c]]);
+                    scored |= !Double.isNaN(bands[c]);
+                }
+                if (scored) samples.add(new Sample(preprocessor.features(line[1], line[2]), bands));
+            }
+        }
+        return samples;
+    }
+
+    private static double band(String value) {
+        try {
+            double band = Double.parseDouble(value.trim());
+            return band >= 0 && band <= 9 ? band : Double.NaN;
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Fits one model per criterion with enough examiner scores and cross-validates it.
+     * @throws IllegalArgumentException if too few essays have an overall band
+     */
+    private static Models fit(List<Sample> samples, double lambda) {
+        RidgeModel[] models = new RidgeModel[CRITERIA.length];
+        Map<String, Accuracy> accuracy = new LinkedHashMap<>();
+        List<String> fromOverall = new ArrayList<>();
+        for (int c = 0; c < CRITERIA.length; c++) {
+            List<double[]> x = new ArrayList<>();
+            List<Double> y = new ArrayList<>();
+            for (Sample sample : samples) {
+                if (Double.isNaN(sample.bands()[c])) continue;
+                x.add(sample.features().vector());
+                y.add(sample.bands()[c]);
+            }
+            if (x.size() < MIN_LABELLED_ESSAYS) {
+                if (c == OVERALL) {
+                    throw new IllegalArgumentException("only " + x.size() + " essays have an overall band");
+                }
+                fromOverall.add(CRITERIA[c]);
+                continue;
+            }
+            double[][] features = x.toArray(new double[0][]);
+            double[] bands = y.stream().mapToDouble(Double::doubleValue).toArray();
+            models[c] = RidgeModel.fit(features, bands, lambda);
+            accuracy.put(CRITERIA[c], crossValidate(features, bands, lambda, FOLDS));
+        }
+        return new Models(models, new Report(samples.size(), accuracy, fromOverall));
+    }
+
+    /**
+     * Measures the error of models fitted without the essays they are tested on. Essays are
+     * assigned to folds in a fixed random order, so the dataset's grouping by question does not
+     * leave whole questions out of the training folds.
+     */
+    static Accuracy crossValidate(double[][] x, double[] y, double lambda, int folds) {
+        int n = y.length;
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < n; i++) order.add(i);
+        Collections.shuffle(order, new Random(42));
+
+        double absoluteError = 0;
+        double squaredError = 0;
+        double baselineError = 0;
+        int withinHalfBand = 0;
+        for (int fold = 0; fold < folds; fold++) {
+            List<double[]> trainX = new ArrayList<>();
+            List<Double> trainY = new ArrayList<>();
+            List<Integer> test = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                int row = order.get(i);
+                if (i % folds == fold) {
+                    test.add(row);
+                } else {
+                    trainX.add(x[row]);
+                    trainY.add(y[row]);
+                }
+            }
+            double[] trainBands = trainY.stream().mapToDouble(Double::doubleValue).toArray();
+            RidgeModel model = RidgeModel.fit(trainX.toArray(new double[0][]), trainBands, lambda);
+            double meanBand = halfBand(Arrays.stream(trainBands).average().orElse(0));
+            for (int row : test) {
+                double error = Math.abs(halfBand(model.predict(x[row])) - y[row]);
+                absoluteError += error;
+                squaredError += error * error;
+                if (error <= 0.5) withinHalfBand++;
+                baselineError += Math.abs(meanBand - y[row]);
+            }
+        }
+        return new Accuracy(n, absoluteError / n, Math.sqrt(squaredError / n), withinHalfBand / (double) n,
+                baselineError / n);
+    }
+
+    /**
+     * Rounds to the nearest half band, within the band scale.
+     */
+    static double halfBand(double band) {
+        return Math.min(9, Math.max(1, Math.round(band * 2) / 2.0));
+    }
+
+    /**
+     * Linear regression with an L2 penalty on standardized features, solved in closed form.
+     */
+    static final class RidgeModel {
+        private final double[] min;
+        private final double[] max;
+        private final double[] mean;
+        private final double[] scale;
+        private final double[] weights;
+        private final double intercept;
+
+        private RidgeModel(double[] min, double[] max, double[] mean, double[] scale, double[] weights,
+                           double intercept) {
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.scale = scale;
+            this.weights = weights;
+            this.intercept = intercept;
+        }
+
+        /**
+         * Solves {@code (ZᵀZ + λI) w = Zᵀ(y - ȳ)} for the standardized features Z; the intercept is
+         * the mean target and is not penalized.
+         */
+        static RidgeModel fit(double[][] x, double[] y, double lambda) {
+            int n = y.length;
+            int d = x[0].length;
+            double[] min = x[0].clone();
+            double[] max = x[0].clone();
+            double[] mean = new double[d];
+            double[] scale = new double[d];
+            for (double[] row : x) {
+                for (int j = 0; j < d; j++) {
+                    min[j] = Math.min(min[j], row[j]);
+                    max[j] = Math.max(max[j], row[j]);
+                    mean[j] += row[j] / n;
+                }
+            }
+            for (double[] row : x) {
+                for (int j = 0; j < d; j++) scale[j] += (row[j] - mean[j]) * (row[j] - mean[j]) / n;
+            }
+            for (int j = 0; j < d; j++) {
+                scale[j] = scale[j] > 0 ? Math.sqrt(scale[j]) : 1;
+            }
+            double intercept = Arrays.stream(y).average().orElse(0);
+
+            double[][] gram = new double[d][d];
+            double[] moment = new double[d];
+            double[] z = new double[d];
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < d; j++) z[j] = (x[i][j] - mean[j]) / scale[j];
+                for (int j = 0; j < d; j++) {
+                    moment[j] += z[j] * (y[i] - intercept);
+                    for (int k = 0; k < d; k++) gram[j][k] += z[j] * z[k];
+                }
+            }
+            for (int j = 0; j < d; j++) gram[j][j] += lambda;
+            return new RidgeModel(min, max, mean, scale, solve(gram, moment), intercept);
+        }
+
+        /**
+         * @param x the features, each clamped to the range seen in training
+         */
+        double predict(double[] x) {
+            double prediction = intercept;
+            for (int j = 0; j < weights.length; j++) {
+                double value = Math.min(max[j], Math.max(min[j], x[j]));
+                prediction += weights[j] * (value - mean[j]) / scale[j];
+            }
+            return prediction;
+        }
+
+        /**
+         * Gaussian elimination with partial pivoting; the matrix is symmetric positive definite
+         * for any positive lambda.
+         */
+        private static double[] solve(double[][] a, double[] b) {
+            int d = b.length;
+            for (int col = 0; col < d; col++) {
+                int pivot = col;
+                for (int row = col + 1; row < d; row++) {
+                    if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) pivot = row;
+                }
+                double[] pivotRow = a[col];
+                a[col] = a[pivot];
+                a[pivot] = pivotRow;
+                double pivotValue = b[col];
+                b[col] = b[pivot];
+                b[pivot] = pivotValue;
+                for (int row = col + 1; row < d; row++) {
+                    double factor = a[row][col] / a[col][col];
+                    for (int k = col; k < d; k++) a[row][k] -= factor * a[col][k];
+                    b[row] -= factor * b[col];
+                }
+            }
+            double[] solution = new double[d];
+            for (int row = d - 1; row >= 0; row--) {
+                double sum = b[row];
+                for (int k = row + 1; k < d; k++) sum -= a[row][k] * solution[k];
+                solution[row] = sum / a[row][row];
+            }
+            return solution;
+        }
+    }
+}
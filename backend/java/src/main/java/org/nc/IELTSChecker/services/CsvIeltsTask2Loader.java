@@ -1,150 +1,335 @@
 package org.nc.IELTSChecker.services;
 
 import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
 import org.nc.IELTSChecker.model.EssayDocument;
+import org.nc.IELTSChecker.store.MappedVectorStore;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.vectorstore.SimpleVectorStore;
-import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 public class CsvIeltsTask2Loader {
 
-    @Value("classpath:/data/ielts_writing_dataset.csv")
+    @Value("${ingest.dataset:classpath:/data/ielts_writing_dataset.csv}")
     private Resource csvFile;
 
-    private static final int BATCH_SIZE = 100;
-    private static final int DELAY_MS = 5000;
+    @Value("${ingest.queue-capacity:256}")
+    private int queueCapacity;
 
-    @Autowired
-    private File vectorStoreFile;
+    @Value("${ingest.preprocess-threads:2}")
+    private int preprocessThreads;
+
+    @Value("${ingest.embedding.initial-batch-size:100}")
+    private int initialBatchSize;
+
+    @Value("${ingest.embedding.max-batch-size:500}")
+    private int maxBatchSize;
+
+    @Value("${ingest.embedding.max-concurrency:4}")
+    private int maxEmbeddingConcurrency;
+
+    @Value("${ingest.embedding.target-latency-ms:5000}")
+    private long targetLatencyMs;
+
+    @Value("${ingest.dedup.enabled:true}")
+    private boolean dedupEnabled = true;
+
+    @Value("${ingest.dedup.threshold:0.8}")
+    private double dedupThreshold = 0.8;
 
     @Autowired
-    private VectorStore vectorStore;
+    private MappedVectorStore vectorStore;
 
     @Autowired
     private EssayPreprocessor preprocessor;
 
+    @Autowired
+    private EmbeddingModel embeddingModel;
+
+    public CsvIeltsTask2Loader() {
+    }
+
+    /**
+     * Creates a loader that only parses rows, for building the prebuilt index outside the application.
+     */
+    CsvIeltsTask2Loader(EssayPreprocessor preprocessor) {
+        this.preprocessor = preprocessor;
+    }
 
     /**
      * Loads essays from a CSV file and processes them into a vector store.
+     * Rows are streamed through an {@link IngestionPipeline}, so parsing, preprocessing,
+     * embedding and storing overlap instead of running one after the other.
+     *
+     * <p>Each row's document id is a hash of its question, essay and score, so rows already in the
+     * store are skipped and only new or changed rows are embedded. Every stored batch is committed to
+     * the store's append-only log, so an interrupted run resumes after the last committed batch.
+     * Documents whose row no longer exists are deleted, and the store is compacted once at the end.
+     *
+     * <p>Near-duplicate essays are stored once: see {@link #planRows}.
      * @throws Exception If an error occurs during file reading or processing.
      */
     public void loadCsvEssays() throws Exception {
-        List<Document> documents = new ArrayList<>();
+        loadCsvEssays(vectorStore);
+    }
+
+    /**
+     * Syncs another store with the dataset, as {@link #loadCsvEssays()} does the application's store.
+     * @param vectorStore the store to update, typically a staged copy of the application's store
+     * @throws Exception If an error occurs during file reading or processing.
+     */
+    public void loadCsvEssays(MappedVectorStore vectorStore) throws Exception {
         System.out.println("Starting IELTS Dataset loading process...");
 
         if (!csvFile.exists()) {
             throw new IllegalStateException("CSV file not found at: " + csvFile.getURI());
         }
-        if(isVectorStoreAlreadyLoaded()) {
-            System.out.println("Vector store already loaded, skipping CSV processing.");
-            return;
+
+        if (vectorStore.dimensions() > 0 && vectorStore.dimensions() != embeddingModel.dimensions()) {
+            // Stored vectors come from another embedding model; they cannot be compared with its queries
+            System.out.printf("Vector store holds %d-dimensional embeddings but the model produces %d; rebuilding%n",
+                    vectorStore.dimensions(), embeddingModel.dimensions());
+            vectorStore.clear();
         }
 
-        try (CSVReader reader = new CSVReader(new InputStreamReader(csvFile.getInputStream()))) {
+        Set<String> existingIds = vectorStore.ids();
+        Set<String> seenIds = ConcurrentHashMap.newKeySet();
+        AtomicInteger unchangedCount = new AtomicInteger();
+        AtomicInteger collapsedCount = new AtomicInteger();
+        Map<Integer, Integer> plan = planRows(csvFile);
+
+        try (CSVReader reader = new CSVReader(new InputStreamReader(csvFile.getInputStream(), StandardCharsets.UTF_8))) {
             String[] header = reader.readNext();
             System.out.println("CSV Header: " + Arrays.toString(header));
 
-            int lineNumber = 1;
-            int processedCount = 0;
-            int skippedCount = 0;
+            IngestionPipeline pipeline = new IngestionPipeline(embeddingModel, new IngestionPipeline.Settings(
+                    queueCapacity, preprocessThreads, initialBatchSize, maxBatchSize,
+                    maxEmbeddingConcurrency, Duration.ofMillis(targetLatencyMs)));
 
-            String[] line;
-            while ((line = reader.readNext()) != null) {
-                lineNumber++;
-                try {
-                    if (line.length < 9) {
-                        System.out.printf("Line %d: Skipped - Only %d columns found%n", lineNumber, line.length);
-                        skippedCount++;
-                        continue;
-                    }
+            IngestionPipeline.Report report = pipeline.run(reader, (line, lineNumber) -> {
+                String id = rowId(line);
+                if (id == null) return parseRow(line, lineNumber);
 
-                    // Only process Task 2 essays
-                    String taskType = line[0].trim();
-                    if (!taskType.equalsIgnoreCase("2")) {
-                        skippedCount++;
-                        continue;
-                    }
+                Integer duplicates = plan.get(lineNumber);
+                if (duplicates == null) {
+                    collapsedCount.incrementAndGet();
+                    return null;
+                }
+                String documentId = documentId(id, duplicates);
+                seenIds.add(documentId);
+                if (existingIds.contains(documentId)) {
+                    unchangedCount.incrementAndGet();
+                    return null;
+                }
+                return parseRow(line, lineNumber, duplicates);
+            }, vectorStore::add);
 
-                    // Validate fields
-                    String question = line[1].trim();
-                    String rawEssay = line[2].trim();
-                    String overallScore = line[8].trim();
+            Set<String> staleIds = new HashSet<>(existingIds);
+            staleIds.removeAll(seenIds);
+            if (!staleIds.isEmpty()) vectorStore.delete(new ArrayList<>(staleIds));
+            if (vectorStore.hasUncompactedChanges()) saveVectorStore(vectorStore);
 
-                    if (question.isEmpty() || rawEssay.isEmpty() || overallScore.isEmpty()) {
-                        System.out.printf("Line %d: Skipped - Missing required fields%n", lineNumber);
-                        skippedCount++;
-                        continue;
-                    }
+            long totalLines = report.stages().get(0).items();
+            long processedCount = report.stages().get(1).items();
+            System.out.printf("Processing Summary:%n");
+            System.out.printf(" - Total lines processed: %d%n", totalLines);
+            System.out.printf(" - Unchanged (already stored): %d%n", unchangedCount.get());
+            System.out.printf(" - New or changed, embedded: %d%n", processedCount);
+            System.out.printf(" - Near-duplicates collapsed: %d%n", collapsedCount.get());
+            System.out.printf(" - Removed from store: %d%n", staleIds.size());
+            System.out.printf(" - Skipped lines: %d%n", report.skipped() - unchangedCount.get() - collapsedCount.get());
+            System.out.printf(" - Throttled embedding calls: %d%n", report.throttled());
+            System.out.printf("Stage throughput:%n");
+            for (IngestionPipeline.StageStats stage : report.stages()) {
+                System.out.printf(" - %-10s %6d docs in %6.2f s (%.1f docs/s)%n",
+                        stage.name(), stage.items(), stage.seconds(), stage.docsPerSecond());
+            }
 
-                    String cleanEssay = preprocessor.cleanEssay(rawEssay);
-                    String topic = preprocessor.extractMainTopic(question);
-                    int wordCount = preprocessor.countWords(cleanEssay);
-
-                    String content = buildDocumentContent(
-                            question,
-                            cleanEssay,
-                            line[3],    // Examiner comment
-                            overallScore
-                    );
-
-                    // Create metadata
-                    Map<String, Object> metadata = new HashMap<>();
-                    metadata.put("type", "task2_essay");
-                    metadata.put("band", overallScore);
-                    metadata.put("question", question);
-                    metadata.put("topic", topic);
-                    metadata.put("word_count", wordCount);
-                    metadata.put("source_line", lineNumber);
-
-                    // Create and store document
-                    documents.add(new EssayDocument(content, metadata, overallScore, question, topic));
-                    processedCount++;
-
-                } catch (Exception e) {
-                    System.err.printf("Error processing line %d: %s%n", lineNumber, e.getMessage());
-                    System.err.println("Problematic line: " + Arrays.toString(line));
-                    skippedCount++;
-                }
+            if (vectorStore.size() == 0) throw new IllegalStateException("Error: No valid documents found in the CSV file.");
+        } catch (Exception e) {
+            System.err.println("Critical error during CSV processing: " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * @return the dataset the store is synced with
+     */
+    public Resource getDataset() {
+        return csvFile;
+    }
+
+    /**
+     * Reads the texts the local embedding model is fitted on.
+     * @param csv the dataset
+     * @return question, essay and examiner comment of every dataset row
+     */
+    public static List<String> corpusTexts(Resource csv) throws IOException, CsvValidationException {
+        List<String> texts = new ArrayList<>();
+        try (CSVReader reader = new CSVReader(new InputStreamReader(csv.getInputStream(), StandardCharsets.UTF_8))) {
+            reader.readNext();
+            for (String[] line : reader) {
+                if (line.length >= 4) texts.add(line[1] + "\n" + line[2] + "\n" + line[3]);
             }
+        }
+        return texts;
+    }
 
-            System.out.printf("Processing Summary:%n");
-            System.out.printf(" - Total lines processed: %d%n", lineNumber - 1);
-            System.out.printf(" - Successfully processed: %d%n", processedCount);
-            System.out.printf(" - Skipped lines: %d%n", skippedCount);
+    /**
+     * Decides which rows of the dataset are stored. Rows are read in file order; a row whose essay is a
+     * near-duplicate (estimated Jaccard similarity of its shingles at least {@code ingest.dedup.threshold})
+     * of an earlier row with the same band is collapsed into that row, as is an exact repeat.
+     * @param csv the dataset
+     * @return by line number, the number of rows each stored row stands for; rows not in it are not stored
+     */
+    Map<Integer, Integer> planRows(Resource csv) throws IOException, CsvValidationException {
+        Map<Integer, Integer> plan = new HashMap<>();
+        Map<String, Integer> lineOfRow = new HashMap<>();
+        Map<String, NearDuplicates> indexByBand = new HashMap<>();
+        try (CSVReader reader = new CSVReader(new InputStreamReader(csv.getInputStream(), StandardCharsets.UTF_8))) {
+            reader.readNext();
+            String[] line;
+            int lineNumber = 1;
+            while ((line = reader.readNext()) != null) {
+                lineNumber++;
+                String id = rowId(line);
+                if (id == null) continue;
+
+                String representative = id;
+                if (dedupEnabled && !lineOfRow.containsKey(id)) {
+                    int[] signature = NearDuplicates.signature(preprocessor.shingles(line[2]));
+                    if (signature != null) {
+                        NearDuplicates index = indexByBand.computeIfAbsent(line[8].trim(),
+                                band -> new NearDuplicates(dedupThreshold));
+                        String duplicate = index.add(id, signature);
+                        if (duplicate != null) representative = duplicate;
+                    }
+                }
+                Integer representativeLine = lineOfRow.get(representative);
+                if (representativeLine != null) {
+                    plan.merge(representativeLine, 1, Integer::sum);
+                } else {
+                    lineOfRow.put(id, lineNumber);
+                    plan.put(lineNumber, 1);
+                }
+            }
+        }
+        return plan;
+    }
 
+    /**
+     * @param rowId the row's content hash, see {@link #rowId}
+     * @param duplicates the number of rows the row stands for
+     * @return the id of the row's document; it changes with the count, so a changed count is stored again
+     */
+    static String documentId(String rowId, int duplicates) {
+        if (duplicates == 1) return rowId;
+        return UUID.nameUUIDFromBytes((rowId + '\u0000' + duplicates).getBytes(StandardCharsets.UTF_8)).toString();
+    }
 
-            if (documents.isEmpty()) throw new IllegalStateException("Error: No valid documents found in the CSV file.");
+    /**
+     * Validates and preprocesses one CSV row into an essay document.
+     * @param line the CSV columns
+     * @param lineNumber the line number in the file, for metadata and error messages
+     * @return the document, or null if the row is skipped
+     */
+    public Document parseRow(String[] line, int lineNumber) {
+        return parseRow(line, lineNumber, 1);
+    }
 
-            // Process documents in batches
-            System.out.println("Processing documents in batches...");
-            int total = documents.size();
-            for (int i = 0; i < total; i += BATCH_SIZE) {
-                int end = Math.min(i + BATCH_SIZE, total);
-                List<Document> batch = documents.subList(i, end);
+    /**
+     * Validates and preprocesses one CSV row into an essay document that stands for several rows.
+     * @param line the CSV columns
+     * @param lineNumber the line number in the file, for metadata and error messages
+     * @param duplicates the number of rows it stands for, itself included
+     * @return the document, or null if the row is skipped
+     */
+    public Document parseRow(String[] line, int lineNumber, int duplicates) {
+        try {
+            if (line.length < 9) {
+                System.out.printf("Line %d: Skipped - Only %d columns found%n", lineNumber, line.length);
+                return null;
+            }
 
-                vectorStore.accept(batch);
-                saveVectorStore();
+            // Only process Task 2 essays
+            String taskType = line[0].trim();
+            if (!taskType.equalsIgnoreCase("2")) {
+                return null;
+            }
 
-                System.out.printf("Processed %d/%d documents (%.1f%%)%n",
-                        end, total, (end * 100.0) / total);
+            // Validate fields
+            String question = line[1].trim();
+            String rawEssay = line[2].trim();
+            String overallScore = line[8].trim();
 
-                Thread.sleep(DELAY_MS);
+            if (question.isEmpty() || rawEssay.isEmpty() || overallScore.isEmpty()) {
+                System.out.printf("Line %d: Skipped - Missing required fields%n", lineNumber);
+                return null;
             }
+
+            EssayPreprocessor.NormalizedEssay normalized = preprocessor.normalize(rawEssay);
+            String cleanEssay = normalized.text();
+            String topic = preprocessor.extractMainTopic(question);
+            int wordCount = normalized.wordCount();
+
+            String content = buildDocumentContent(
+                    question,
+                    cleanEssay,
+                    line[3],    // Examiner comment
+                    overallScore
+            );
+
+            // Create metadata
+            Map<String, Object> metadata = new HashMap<>();
+            metadata.put("type", "task2_essay");
+            metadata.put("band", overallScore);
+            metadata.put("question", question);
+            metadata.put("topic", topic);
+            metadata.put("word_count", wordCount);
+            metadata.put("source_line", lineNumber);
+            metadata.put(ExemplarSummarizer.METADATA_KEY,
+                    ExemplarSummarizer.summarize(overallScore, question, cleanEssay, line[3].trim()));
+            metadata.put(NearDuplicates.COUNT_METADATA_KEY, duplicates);
+            int[] signature = NearDuplicates.signature(preprocessor.shingles(cleanEssay));
+            if (signature != null) metadata.put(NearDuplicates.METADATA_KEY, NearDuplicates.encode(signature));
+
+            return new EssayDocument(documentId(rowId(line), duplicates), content, metadata, overallScore, question, topic);
+
         } catch (Exception e) {
-            System.err.println("Critical error during CSV processing: " + e.getMessage());
-            throw e;
+            System.err.printf("Error processing line %d: %s%n", lineNumber, e.getMessage());
+            System.err.println("Problematic line: " + Arrays.toString(line));
+            return null;
         }
     }
 
+    /**
+     * Computes the content hash that identifies a row in the vector store.
+     * @param line the CSV columns
+     * @return a UUID derived from the question, essay and overall score, or null for rows that are not stored
+     */
+    public String rowId(String[] line) {
+        if (line.length < 9 || !line[0].trim().equalsIgnoreCase("2")) return null;
+        String question = line[1].trim();
+        String essay = line[2].trim();
+        String overallScore = line[8].trim();
+        if (question.isEmpty() || essay.isEmpty() || overallScore.isEmpty()) return null;
+
+        String key = question + '\u0000' + essay + '\u0000' + overallScore;
+        return UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
     /**
      * Builds the content string for the essay document.
      * @param question
@@ -171,27 +356,15 @@ public class CsvIeltsTask2Loader {
 
 
     /**
-     * Saves the vector store to a file.
+     * Compacts the vector store log into the store file.
      */
-    private void saveVectorStore() {
-        if (!(vectorStore instanceof SimpleVectorStore))
-            throw new IllegalStateException("Vector store is misconfigured. Expected SimpleVectorStore.");
-
-
+    private static void saveVectorStore(MappedVectorStore vectorStore) {
         try {
-            ((SimpleVectorStore) vectorStore).save(vectorStoreFile);
-            System.out.println("Saved vector store to: " + vectorStoreFile.getAbsolutePath());
+            vectorStore.save();
+            System.out.println("Saved vector store to: " + vectorStore.getStoreFile().getAbsolutePath());
         } catch (Exception e) {
             System.err.println("Error saving vector store: " + e.getMessage());
             throw new RuntimeException("Vector store persistence failed", e);
         }
     }
-
-    /**
-     * Checks if the vector store is already loaded.
-     * @return Returns true if the vector store file exists and is not empty.
-     */
-    public boolean isVectorStoreAlreadyLoaded() {
-        return vectorStoreFile.exists() && vectorStoreFile.length() > 0;
-    }
-}
\ No newline at end of file
+}
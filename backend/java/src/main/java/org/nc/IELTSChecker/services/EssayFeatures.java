@@ -0,0 +1,57 @@
+package org.nc.IELTSChecker.services;
+
+/**
+ * Surface features of an essay, measured by {@link EssayPreprocessor#features} and used by the
+ * {@link BandPreScorer}.
+ * @param wordCount words in the normalized essay
+ * @param typeTokenRatio distinct words over words
+ * @param rootTypeTokenRatio distinct words over the square root of words, which depends less on length
+ * @param meanSentenceLength words per sentence
+ * @param sentenceLengthStdDev standard deviation of the sentence lengths
+ * @param linkingDevicesPer100Words connectives such as "however" or "on the other hand" per 100 words
+ * @param questionOverlap share of the question's keywords that appear in the essay, 1 if it has none
+ * @param meanWordLength letters per word
+ * @param longWordRatio share of words with seven letters or more
+ * @param commasPerSentence commas per sentence
+ */
+public record EssayFeatures(
+        int wordCount,
+        double typeTokenRatio,
+        double rootTypeTokenRatio,
+        double meanSentenceLength,
+        double sentenceLengthStdDev,
+        double linkingDevicesPer100Words,
+        double questionOverlap,
+        double meanWordLength,
+        double longWordRatio,
+        double commasPerSentence
+) {
+
+    /** The Task 2 minimum; shorter essays lose Task Response marks. */
+    public static final int MINIMUM_WORDS = 250;
+
+    static final String[] NAMES = {
+            "log_words", "shortfall", "type_token_ratio", "root_type_token_ratio", "mean_sentence_length",
+            "sentence_length_stddev", "linking_devices", "question_overlap", "mean_word_length",
+            "long_word_ratio", "commas_per_sentence"
+    };
+
+    /**
+     * @return the regression inputs, in the order of {@link #NAMES}
+     */
+    double[] vector() {
+        return new double[]{
+                Math.log1p(wordCount),
+                Math.max(0, MINIMUM_WORDS - wordCount) / (double) MINIMUM_WORDS,
+                typeTokenRatio,
+                rootTypeTokenRatio,
+                meanSentenceLength,
+                sentenceLengthStdDev,
+                linkingDevicesPer100Words,
+                questionOverlap,
+                meanWordLength,
+                longWordRatio,
+                commasPerSentence
+        };
+    }
+}
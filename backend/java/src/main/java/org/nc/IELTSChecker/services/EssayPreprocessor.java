@@ -1,19 +1,71 @@
 package org.nc.IELTSChecker.services;
 
 import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.regex.Pattern;
 
+/**
+ * Normalizes essays and questions before they are embedded, stored or scored.
+ *
+ * <p>Each method scans its input once, character by character, into a reusable per-thread buffer
+ * and allocates at most the resulting string; input that is already normalized is returned as is.
+ * The output is identical to the regular expression rules it replaces: whitespace runs collapse to
+ * one space, a space before {@code . , ; : ! ?} is dropped, and words are counted the way
+ * {@code text.split("\\s+")} counts them.
+ */
 @Service
 public class EssayPreprocessor {
 
-    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
-    private static final Pattern PUNCTUATION_PATTERN = Pattern.compile("\\s([.,;:!?])");
-    private static final List<String> QUESTION_WORDS = Arrays.asList(
+    private static final Pattern SENTENCE_SEPARATOR = Pattern.compile("[.,]");
+    private static final String[] QUESTION_WORDS = {
             "discuss", "to what extent", "advantages", "disadvantages",
             "opinion", "view", "agree", "disagree"
+    };
+    private static final char[][] QUESTION_WORD_CHARS = new char[QUESTION_WORDS.length][];
+    private static final Set<String> LINKING_WORDS = Set.of(
+            "however", "moreover", "furthermore", "therefore", "thus", "hence", "consequently",
+            "nevertheless", "nonetheless", "additionally", "firstly", "secondly", "thirdly", "finally",
+            "because", "although", "whereas", "despite", "overall", "similarly", "likewise", "meanwhile",
+            "instead", "otherwise", "besides", "also"
+    );
+    private static final String[][] LINKING_PHRASES = {
+            {"in", "addition"}, {"on", "the", "other", "hand"}, {"in", "contrast"}, {"for", "example"},
+            {"for", "instance"}, {"such", "as"}, {"in", "conclusion"}, {"to", "conclude"}, {"to", "sum", "up"},
+            {"as", "a", "result"}, {"in", "my", "opinion"}, {"on", "the", "contrary"}
+    };
+    /** Words of a question that say nothing about its topic. */
+    private static final Set<String> PROMPT_WORDS = Set.of(
+            "this", "that", "these", "those", "there", "their", "they", "them", "with", "from", "have", "what",
+            "which", "when", "where", "whether", "while", "should", "would", "could", "some", "other", "others",
+            "more", "most", "than", "such", "many", "much", "your", "about", "into", "been", "were", "will", "also",
+            "only", "very", "both", "extent", "agree", "disagree", "discuss", "views", "give", "reasons", "answer",
+            "include", "relevant", "examples", "knowledge", "experience", "opinion", "think", "believe",
+            "advantages", "disadvantages", "outweigh", "people", "write", "least", "words"
     );
+    /** Words per shingle: long enough that unrelated essays on one prompt share few of them. */
+    static final int SHINGLE_WORDS = 5;
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[4096]);
+
+    static {
+        for (int i = 0; i < QUESTION_WORDS.length; i++) {
+            QUESTION_WORD_CHARS[i] = QUESTION_WORDS[i].toCharArray();
+        }
+    }
+
+    /**
+     * A cleaned essay together with its word count.
+     * @param text the cleaned essay
+     * @param wordCount the number of words in it
+     */
+    public record NormalizedEssay(String text, int wordCount) {
+    }
 
     /**
      * Cleans the essay by removing extra whitespace and punctuation.
@@ -21,11 +73,56 @@ public class EssayPreprocessor {
      * @return
      */
     public String cleanEssay(String essay) {
-        if (essay == null) return "";
+        return normalize(essay).text();
+    }
 
-        String cleaned = WHITESPACE_PATTERN.matcher(essay).replaceAll(" ");
-        cleaned = PUNCTUATION_PATTERN.matcher(cleaned).replaceAll("$1");
-        return cleaned.trim();
+    /**
+     * Cleans the essay and counts its words in the same pass; equivalent to
+     * {@code countWords(cleanEssay(essay))}.
+     * @param essay the raw essay
+     * @return the cleaned essay and its word count
+     */
+    public NormalizedEssay normalize(String essay) {
+        if (essay == null) return new NormalizedEssay("", 0);
+
+        int length = essay.length();
+        char[] out = buffer(length);
+        int written = 0;
+        int words = 0;
+        boolean pendingSpace = false;
+        boolean changed = false;
+        boolean controlChars = false;
+        for (int i = 0; i < length; i++) {
+            char c = essay.charAt(i);
+            if (isWhitespace(c)) {
+                if (pendingSpace || c != ' ') changed = true;
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace) {
+                pendingSpace = false;
+                if (isPunctuation(c)) {
+                    changed = true;
+                } else {
+                    out[written++] = ' ';
+                }
+            }
+            if (written == 0 || out[written - 1] == ' ') words++;
+            if (c < ' ') controlChars = true;
+            out[written++] = c;
+        }
+        if (pendingSpace) out[written++] = ' ';
+
+        // Same as String.trim(): strip everything up to and including U+0020 at both ends
+        int start = 0;
+        int end = written;
+        while (start < end && out[start] <= ' ') start++;
+        while (end > start && out[end - 1] <= ' ') end--;
+        // Control characters are words to split() but trim() drops them at the edges
+        if (controlChars) words = countWords(out, start, end);
+
+        if (!changed && start == 0 && end == length) return new NormalizedEssay(essay, words);
+        return new NormalizedEssay(new String(out, start, end - start), words);
     }
 
     /**
@@ -35,7 +132,19 @@ public class EssayPreprocessor {
      */
     public int countWords(String text) {
         if (text == null || text.isEmpty()) return 0;
-        return text.split("\\s+").length;
+
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (isWhitespace(text.charAt(i))) {
+                inWord = false;
+            } else if (!inWord) {
+                inWord = true;
+                words++;
+            }
+        }
+        // split() keeps the empty token in front of leading whitespace
+        return words > 0 && isWhitespace(text.charAt(0)) ? words + 1 : words;
     }
 
     /**
@@ -46,13 +155,254 @@ public class EssayPreprocessor {
     public String extractMainTopic(String question) {
         if (question == null) return "general";
 
+        // Question words never contain a separator, so only the first clause needs processing
+        int clauseEnd = 0;
+        boolean ascii = true;
+        while (clauseEnd < question.length()) {
+            char c = question.charAt(clauseEnd);
+            if (c == '.' || c == ',') break;
+            if (c >= 0x80) ascii = false;
+            clauseEnd++;
+        }
+        if (!ascii || hasSpecialAsciiCasing(Locale.getDefault())) return extractMainTopicByLocale(question);
+
+        char[] clause = buffer(clauseEnd);
+        for (int i = 0; i < clauseEnd; i++) {
+            char c = question.charAt(i);
+            clause[i] = c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        }
+        // Remove the words one after another, as successive String.replace calls would
+        int length = clauseEnd;
+        for (char[] word : QUESTION_WORD_CHARS) {
+            length = removeAll(clause, length, word);
+        }
+
+        int start = 0;
+        int end = length;
+        while (start < end && clause[start] <= ' ') start++;
+        while (end > start && clause[end - 1] <= ' ') end--;
+        return start == end ? "general" : new String(clause, start, end - start);
+    }
+
+    /**
+     * Locale-aware path for questions whose first clause is not plain ASCII, where lower-casing
+     * may change the length of the text.
+     */
+    private String extractMainTopicByLocale(String question) {
         String lowercase = question.toLowerCase();
         for (String word : QUESTION_WORDS) {
             lowercase = lowercase.replace(word, "");
         }
 
-        String[] sentences = lowercase.split("[.,]");
+        String[] sentences = SENTENCE_SEPARATOR.split(lowercase);
         String firstSentence = sentences.length > 0 ? sentences[0] : "";
         return firstSentence.trim().isEmpty() ? "general" : firstSentence.trim();
     }
-}
\ No newline at end of file
+
+    /**
+     * Measures the surface features of an essay that the pre-scorer rates it by.
+     * @param question the task the essay answers, may be null
+     * @param essay the raw essay
+     * @return the features of the normalized essay
+     */
+    public EssayFeatures features(String question, String essay) {
+        NormalizedEssay normalized = normalize(essay);
+        List<String> words = new ArrayList<>();
+        List<Integer> sentenceLengths = new ArrayList<>();
+        String text = normalized.text().toLowerCase(Locale.ROOT);
+        int commas = 0;
+        int sentenceStart = 0;
+        int wordStart = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetter(c) || (c == '\'' && wordStart >= 0)) {
+                if (wordStart < 0) wordStart = i;
+                continue;
+            }
+            if (wordStart >= 0) {
+                words.add(text.substring(wordStart, i));
+                wordStart = -1;
+            }
+            if (c == ',') commas++;
+            if ((c == '.' || c == '!' || c == '?' || i == text.length()) && words.size() > sentenceStart) {
+                sentenceLengths.add(words.size() - sentenceStart);
+                sentenceStart = words.size();
+            }
+        }
+
+        int count = words.size();
+        int sentences = Math.max(1, sentenceLengths.size());
+        double meanSentence = count / (double) sentences;
+        double variance = 0;
+        for (int length : sentenceLengths) variance += (length - meanSentence) * (length - meanSentence);
+
+        Set<String> distinct = new HashSet<>();
+        Set<String> stems = new HashSet<>();
+        long letters = 0;
+        int longWords = 0;
+        int linking = 0;
+        for (int i = 0; i < count; i++) {
+            String word = words.get(i);
+            distinct.add(word);
+            stems.add(stem(word));
+            letters += word.length();
+            if (word.length() >= 7) longWords++;
+            if (LINKING_WORDS.contains(word) || startsPhrase(words, i)) linking++;
+        }
+
+        return new EssayFeatures(
+                normalized.wordCount(),
+                count == 0 ? 0 : distinct.size() / (double) count,
+                count == 0 ? 0 : distinct.size() / Math.sqrt(count),
+                meanSentence,
+                Math.sqrt(variance / sentences),
+                count == 0 ? 0 : 100.0 * linking / count,
+                questionOverlap(question, stems),
+                count == 0 ? 0 : letters / (double) count,
+                count == 0 ? 0 : longWords / (double) count,
+                commas / (double) sentences);
+    }
+
+    /**
+     * Hashes the overlapping runs of {@value #SHINGLE_WORDS} words of an essay, lowercased and without
+     * punctuation, for near-duplicate detection; an essay shorter than that is one shingle.
+     * @param essay the raw or cleaned essay
+     * @return the distinct 64-bit shingle hashes, empty for an essay without words
+     */
+    public long[] shingles(String essay) {
+        String text = normalize(essay).text().toLowerCase(Locale.ROOT);
+        List<Long> wordHashes = new ArrayList<>();
+        int wordStart = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c) || (c == '\'' && wordStart >= 0)) {
+                if (wordStart < 0) wordStart = i;
+                continue;
+            }
+            if (wordStart >= 0) {
+                wordHashes.add(mix(text.substring(wordStart, i).hashCode()));
+                wordStart = -1;
+            }
+        }
+        if (wordHashes.isEmpty()) return new long[0];
+
+        int count = Math.max(1, wordHashes.size() - SHINGLE_WORDS + 1);
+        long[] shingles = new long[count];
+        for (int i = 0; i < count; i++) {
+            long hash = 0;
+            for (int j = i; j < Math.min(wordHashes.size(), i + SHINGLE_WORDS); j++) {
+                hash = mix(hash * 31 + wordHashes.get(j));
+            }
+            shingles[i] = hash;
+        }
+        return Arrays.stream(shingles).distinct().toArray();
+    }
+
+    /**
+     * The SplitMix64 finalizer, which spreads similar inputs over all 64 bits.
+     */
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * @return the share of the question's topic words whose stem occurs in the essay, 1 when it has none
+     */
+    private static double questionOverlap(String question, Set<String> essayStems) {
+        if (question == null) return 1;
+        Set<String> keywords = new HashSet<>();
+        for (String word : question.toLowerCase(Locale.ROOT).split("[^\\p{L}]+")) {
+            if (word.length() >= 4 && !PROMPT_WORDS.contains(word)) keywords.add(stem(word));
+        }
+        if (keywords.isEmpty()) return 1;
+        int found = 0;
+        for (String keyword : keywords) {
+            if (essayStems.contains(keyword)) found++;
+        }
+        return found / (double) keywords.size();
+    }
+
+    /**
+     * A crude stem that lets "children" match "child" and "technology" match "technological".
+     */
+    private static String stem(String word) {
+        return word.length() > 5 ? word.substring(0, 5) : word;
+    }
+
+    private static boolean startsPhrase(List<String> words, int offset) {
+        for (String[] phrase : LINKING_PHRASES) {
+            if (offset + phrase.length > words.size()) continue;
+            boolean matches = true;
+            for (int i = 0; i < phrase.length && matches; i++) {
+                matches = phrase[i].equals(words.get(offset + i));
+            }
+            if (matches) return true;
+        }
+        return false;
+    }
+
+    private static int removeAll(char[] text, int length, char[] word) {
+        int read = 0;
+        int write = 0;
+        while (read < length) {
+            if (startsWith(text, read, length, word)) {
+                read += word.length;
+            } else {
+                text[write++] = text[read++];
+            }
+        }
+        return write;
+    }
+
+    private static boolean startsWith(char[] text, int offset, int length, char[] word) {
+        if (length - offset < word.length) return false;
+        for (int i = 0; i < word.length; i++) {
+            if (text[offset + i] != word[i]) return false;
+        }
+        return true;
+    }
+
+    private static int countWords(char[] text, int start, int end) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = start; i < end; i++) {
+            if (isWhitespace(text[i])) {
+                inWord = false;
+            } else if (!inWord) {
+                inWord = true;
+                words++;
+            }
+        }
+        return words;
+    }
+
+    /**
+     * The characters matched by {@code \s} in a regular expression without UNICODE_CHARACTER_CLASS.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c == '.' || c == ',' || c == ';' || c == ':' || c == '!' || c == '?';
+    }
+
+    /**
+     * Turkish, Azerbaijani and Lithuanian lower-case some ASCII letters differently.
+     */
+    private static boolean hasSpecialAsciiCasing(Locale locale) {
+        String language = locale.getLanguage();
+        return language.equals("tr") || language.equals("az") || language.equals("lt");
+    }
+
+    private static char[] buffer(int length) {
+        char[] buffer = BUFFER.get();
+        if (buffer.length > length) return buffer;
+        // Room for the trailing space; unusually long input gets a buffer that is not retained
+        char[] grown = new char[Math.max(length + 1, buffer.length * 2)];
+        if (grown.length <= MAX_RETAINED_BUFFER) BUFFER.set(grown);
+        return grown;
+    }
+}
@@ -0,0 +1,95 @@
+package org.nc.IELTSChecker.services;
+
+import org.springframework.ai.document.Document;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds the compact form of a reference essay that goes into scoring prompts: its band, the
+ * question, the opening and closing of the essay and the start of the examiner comment.
+ * Summaries are computed once at ingest and stored under the {@value #METADATA_KEY} metadata key.
+ */
+public final class ExemplarSummarizer {
+
+    public static final String METADATA_KEY = "summary";
+
+    private static final int QUESTION_WORDS = 30;
+    private static final int OPENING_WORDS = 45;
+    private static final int CLOSING_WORDS = 35;
+    private static final int COMMENT_WORDS = 50;
+    private static final Pattern SENTENCE_END = Pattern.compile("(?<=[.!?])\\s+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern BAND = Pattern.compile("\\(Band ([^)]+)\\)");
+    private static final Pattern QUESTION_SECTION = Pattern.compile("Question:\\R(.*?)\\R\\REssay:", Pattern.DOTALL);
+    private static final Pattern ESSAY_SECTION = Pattern.compile(
+            "Essay:\\R(.*?)(?:\\R\\RExaminer Comments:|\\R\\RScores:|$)", Pattern.DOTALL);
+    private static final Pattern COMMENT_SECTION = Pattern.compile(
+            "Examiner Comments:\\R(.*?)(?:\\R\\RScores:|$)", Pattern.DOTALL);
+
+    private ExemplarSummarizer() {
+    }
+
+    /**
+     * Summarizes a reference essay.
+     * @param band the overall band
+     * @param question the task question
+     * @param essay the cleaned essay
+     * @param examinerComment the examiner comment, may be empty
+     * @return the summary
+     */
+    public static String summarize(String band, String question, String essay, String examinerComment) {
+        StringBuilder summary = new StringBuilder();
+        summary.append("Band ").append(band.trim()).append('\n');
+        if (question != null && !question.isBlank()) {
+            summary.append("Question: ").append(limitWords(question, QUESTION_WORDS)).append('\n');
+        }
+
+        String[] sentences = SENTENCE_END.split(essay.trim());
+        summary.append("Opening: ").append(limitWords(sentences[0], OPENING_WORDS)).append('\n');
+        if (sentences.length > 2) {
+            summary.append("Closing: ").append(limitWords(sentences[sentences.length - 1], CLOSING_WORDS)).append('\n');
+        }
+
+        if (examinerComment != null && !examinerComment.isBlank()) {
+            String[] commentSentences = SENTENCE_END.split(examinerComment.trim());
+            String start = String.join(" ", Arrays.copyOf(commentSentences, Math.min(2, commentSentences.length)));
+            summary.append("Examiner: ").append(limitWords(start, COMMENT_WORDS)).append('\n');
+        }
+        return summary.toString().trim();
+    }
+
+    /**
+     * Returns the stored summary of a retrieved document, or derives one from its content for
+     * documents ingested before summaries were stored.
+     * @param document a document built by the CSV loader
+     * @return the summary
+     */
+    public static String summaryOf(Document document) {
+        Object stored = document.getMetadata().get(METADATA_KEY);
+        if (stored instanceof String summary && !summary.isBlank()) return summary;
+
+        String text = document.getText() == null ? "" : document.getText();
+        Object band = document.getMetadata().get("band");
+        if (band == null) band = section(BAND, text);
+        String essay = section(ESSAY_SECTION, text);
+        if (essay.isEmpty()) return limitWords(text, OPENING_WORDS + CLOSING_WORDS + COMMENT_WORDS);
+        return summarize(band == null || band.toString().isEmpty() ? "unknown" : band.toString(),
+                section(QUESTION_SECTION, text), essay, section(COMMENT_SECTION, text));
+    }
+
+    /**
+     * Keeps the first {@code maxWords} words, marking a cut with an ellipsis.
+     */
+    static String limitWords(String text, int maxWords) {
+        String[] words = WHITESPACE.split(text.trim());
+        if (words.length <= maxWords) return String.join(" ", words);
+        return String.join(" ", Arrays.copyOf(words, maxWords)) + " ...";
+    }
+
+    private static String section(Pattern pattern, String text) {
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1).trim() : "";
+    }
+}
@@ -2,126 +2,644 @@ package org.nc.IELTSChecker.services;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.nc.IELTSChecker.dto.BatchEvaluationItem;
 import org.nc.IELTSChecker.dto.EssayRequest;
+import org.nc.IELTSChecker.dto.EvaluationEvent;
 import org.nc.IELTSChecker.dto.EvaluationResponse;
+import org.nc.IELTSChecker.services.LlmGovernor.Priority;
+import org.nc.IELTSChecker.services.ScoringMetrics.Outcome;
+import org.nc.IELTSChecker.services.ScoringMetrics.Stage;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.document.Document;
-import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 @Service
 public class IeltsScoringService {
 
+    private static final Logger log = LoggerFactory.getLogger(IeltsScoringService.class);
+
     @Autowired
     private VectorStore vectorStore;
 
     @Autowired
-    private final OpenAiChatModel chatModel;
+    private final ChatModel chatModel;
 
     @Autowired
     private EssayPreprocessor preprocessor;
 
+    @Autowired
+    private EmbeddingModel embeddingModel;
+
+    @Autowired
+    private ScoringExecutor scoringExecutor;
+
+    @Autowired
+    private ScoringPromptBuilder promptBuilder;
+
+    @Autowired
+    private ScoringMetrics metrics;
+
+    @Autowired
+    private VectorStoreInitializer storeInitializer;
+
+    @Autowired
+    private BandPreScorer preScorer;
+
+    /**
+     * While the vector store is loading, essays are scored without reference essays and the
+     * evaluations are not cached; when off, such requests are refused with a 503 instead.
+     */
+    @Value("${scoring.startup.degraded:true}")
+    private boolean degradedWhileLoading;
+
+    /**
+     * Fraction of evaluations logged with their timings; the prompt and answer are logged for
+     * sampled evaluations at DEBUG only.
+     */
+    @Value("${scoring.log.sample-rate:0.01}")
+    private double logSampleRate;
+
+    @Value("${scoring.batch.max-concurrency:8}")
+    private int batchConcurrency;
+
+    @Value("${evaluation.cache.max-entries:1000}")
+    private long evaluationCacheSize;
+
+    @Value("${evaluation.cache.ttl-minutes:60}")
+    private long evaluationCacheTtlMinutes;
+
+    /**
+     * Reference essays on the submitted question needed to skip the embedding call; with fewer the
+     * hybrid search runs instead.
+     */
+    @Value("${retrieval.question-match.min-examples:3}")
+    private int minQuestionMatches;
+
+    /**
+     * "similar" for the nearest reference essays, "stratified" for the nearest essays of each band
+     * range in {@code retrieval.stratified.bands}, so the model sees the whole scale.
+     */
+    @Value("${retrieval.mode:similar}")
+    private String retrievalMode;
+
+    @Value("${retrieval.stratified.bands:5,6,7,8}")
+    private double[] stratifiedBands;
+
+    @Value("${retrieval.stratified.per-band:1}")
+    private int examplesPerBand;
+
+    /**
+     * Drop reference essays that nearly duplicate a better match, so the example slots hold distinct
+     * essays; the candidates are over-fetched to make up for them.
+     */
+    @Value("${retrieval.dedup.enabled:true}")
+    private boolean dedupResults = true;
+
+    @Value("${ingest.dedup.threshold:0.8}")
+    private double dedupThreshold = 0.8;
+
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+    private static final int SIMILAR_ESSAYS = 5;
+    private static final double SIMILARITY_THRESHOLD = 0.7;
+    private static final double QUESTION_MATCH_SIMILARITY = 0.9;
+
+    private ExecutorService batchExecutor;
+
+    /**
+     * Finished and in-flight evaluations by content hash. An in-flight entry is shared by every
+     * identical request that arrives while it runs; failed evaluations are dropped, not cached.
+     */
+    private AsyncCache<String, EvaluationResponse> evaluations;
+
 
     @Autowired
-    public IeltsScoringService(OpenAiChatModel chatModel) {
+    public IeltsScoringService(ChatModel chatModel) {
         this.chatModel = chatModel;
     }
 
+    @PostConstruct
+    void initEvaluationCache() {
+        evaluations = Caffeine.newBuilder()
+                .maximumSize(evaluationCacheSize)
+                .expireAfterWrite(Duration.ofMinutes(evaluationCacheTtlMinutes))
+                .buildAsync();
+        AtomicInteger threadCount = new AtomicInteger();
+        batchExecutor = Executors.newFixedThreadPool(batchConcurrency, runnable -> {
+            Thread thread = new Thread(runnable, "scoring-batch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void shutdownBatchExecutor() {
+        batchExecutor.shutdownNow();
+    }
+
     /**
      * Scores an essay based on the provided request.
+     * Identical submissions (same question, essay and task type after whitespace normalization) are
+     * answered from the evaluation cache, and concurrent identical submissions share one evaluation.
      * @param request the EssayRequest containing the essay and question
      * @return EvaluationResponse containing the scores and feedback
      */
     public EvaluationResponse scoreEssay(EssayRequest request) {
-        System.out.println("***************************************************************************************");
-        System.out.println("***************************************************************************************");
+        String cleanedEssay = preprocessor.cleanEssay(request.essay());
+        return scoreCached(request, cleanedEssay, Priority.INTERACTIVE,
+                () -> findSimilarEssays(request, cleanedEssay));
+    }
+
+    /**
+     * Estimates the bands of an essay from its surface features alone, without retrieval or an LLM call.
+     * @param request the EssayRequest containing the essay and question
+     * @return the provisional evaluation
+     * @throws IllegalStateException if the pre-scorer could not be trained
+     */
+    public EvaluationResponse provisional(EssayRequest request) {
+        return estimate(request, preprocessor.cleanEssay(request.essay()));
+    }
 
+    /**
+     * Scores a class worth of essays at once. The search queries of all essays not already in the
+     * evaluation cache and not on a stored question are embedded in one call, or one by one if that
+     * call fails, then retrieval and the LLM calls run in parallel on the batch executor, bounded by {@code scoring.batch.max-concurrency}.
+     * The LLM calls are admitted after any waiting interactive request.
+     * @param requests the essays to score
+     * @return one result per request, in request order, each holding either an evaluation or an error,
+     * marked retryable if the error was transient
+     */
+    public List<BatchEvaluationItem> scoreEssays(List<EssayRequest> requests) {
+        List<String> cleanedEssays = new ArrayList<>(requests.size());
+        List<List<Document>> questionMatches = new ArrayList<>(requests.size());
+        List<Integer> toEmbed = new ArrayList<>();
+        boolean loading = !storeInitializer.isReady();
+        for (int i = 0; i < requests.size(); i++) {
+            String cleanedEssay = preprocessor.cleanEssay(requests.get(i).essay());
+            cleanedEssays.add(cleanedEssay);
+            List<Document> matches = null;
+            if (!loading && evaluations.getIfPresent(evaluationKey(requests.get(i), cleanedEssay)) == null
+                    && vectorStore instanceof MappedVectorStore mappedStore) {
+                matches = questionMatches(mappedStore, requests.get(i).question());
+                if (matches == null) toEmbed.add(i);
+            }
+            questionMatches.add(matches);
+        }
 
-        String cleanedEssay = preprocessor.cleanEssay(request.essay());
-        String searchQuery = request.question() + "\n" + cleanedEssay;
+        float[][] queryEmbeddings = new float[requests.size()][];
+        if (!toEmbed.isEmpty() && vectorStore instanceof MappedVectorStore) {
+            try {
+                List<String> queries = toEmbed.stream()
+                        .map(i -> searchQuery(requests.get(i), cleanedEssays.get(i)))
+                        .toList();
+                List<float[]> embeddings = scoringExecutor.embedding(() ->
+                        metrics.time(Stage.EMBEDDING, () -> embeddingModel.embed(queries)));
+                for (int j = 0; j < toEmbed.size(); j++) queryEmbeddings[toEmbed.get(j)] = embeddings.get(j);
+            } catch (RuntimeException e) {
+                // Each essay then embeds its own query, so one bad input or a passing error fails only its item
+                log.warn("Embedding a batch of {} queries failed, embedding them one by one: {}",
+                        toEmbed.size(), e.getMessage());
+            }
+        }
+        log.debug("Scoring batch of {} essays ({} not cached)", requests.size(), toEmbed.size());
+
+        List<CompletableFuture<EvaluationResponse>> futures = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            EssayRequest request = requests.get(i);
+            String cleanedEssay = cleanedEssays.get(i);
+            float[] queryEmbedding = queryEmbeddings[i];
+            List<Document> matches = questionMatches.get(i);
+            futures.add(CompletableFuture.supplyAsync(() -> scoreCached(request, cleanedEssay, Priority.BATCH, () -> {
+                if (matches != null) return matches;
+                return queryEmbedding != null
+                        ? search((MappedVectorStore) vectorStore, searchQuery(request, cleanedEssay), queryEmbedding)
+                        : findSimilarEssays(request, cleanedEssay);
+            }), batchExecutor));
+        }
 
-        // RAG
-        List<Document> similarEssays = vectorStore.similaritySearch(
-                SearchRequest.builder()
-                        .query(searchQuery)
-                        .topK(5)
-                        .similarityThreshold(0.7)
-                        .build()
-        );
+        List<BatchEvaluationItem> results = new ArrayList<>(requests.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(BatchEvaluationItem.success(i, futures.get(i).join()));
+            } catch (CompletionException e) {
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                log.warn("Batch item {} failed: {}", i, cause.getMessage());
+                String error = "Evaluation failed: " + cause.getMessage();
+                results.add(ScoringExecutor.isTransient(cause)
+                        ? BatchEvaluationItem.retryableFailure(i, error)
+                        : BatchEvaluationItem.failure(i, error));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Scores an essay while streaming the model's answer. Band scores are emitted as soon as each
+     * one is complete in the partial JSON, examiner feedback and suggestions as they are written,
+     * and a final "result" event carries the full evaluation, which is then cached like a blocking one.
+     * A "provisional" event with the pre-scorer's estimate comes first. A cached evaluation, or one
+     * the pre-scorer answers without the LLM, is replayed immediately.
+     * @param request the EssayRequest containing the essay and question
+     * @return the evaluation events, in order
+     */
+    public Flux<EvaluationEvent> streamEssay(EssayRequest request) {
+        return Flux.defer(() -> {
+            String cleanedEssay = preprocessor.cleanEssay(request.essay());
+            String key = evaluationKey(request, cleanedEssay);
+            CompletableFuture<EvaluationResponse> cached = evaluations.getIfPresent(key);
+            if (cached != null && cached.isDone() && !cached.isCompletedExceptionally()) {
+                metrics.evaluation(Outcome.CACHED);
+                return Flux.fromIterable(replayEvents(cached.join()));
+            }
+            EvaluationResponse preScored = shortCircuit(request, cleanedEssay);
+            if (preScored != null) return Flux.fromIterable(replayEvents(preScored));
+            Flux<EvaluationEvent> provisional = preScorer.isTrained()
+                    ? Flux.just(new EvaluationEvent("provisional", null, estimate(request, cleanedEssay)))
+                    : Flux.empty();
+
+            boolean degraded = !storeInitializer.isReady();
+            List<Document> similarEssays = findSimilarEssays(request, cleanedEssay);
+            String prompt = metrics.time(Stage.PROMPT, () ->
+                    promptBuilder.build(request.question(), cleanedEssay, similarEssays));
+
+            StringBuilder aiResponse = new StringBuilder();
+            List<EvaluationEvent> events = new ArrayList<>();
+            PartialJsonScanner scanner = new PartialJsonScanner(new EvaluationEventCollector(events));
+            long llmStart = System.nanoTime();
+            return provisional.concatWith(scoringExecutor.chatStream(Priority.INTERACTIVE,
+                            promptBuilder.countTokens(prompt), () -> chatModel.stream(new Prompt(prompt)))
+                    .doOnNext(response -> metrics.tokens(usage(response)))
+                    .map(IeltsScoringService::text)
+                    .doOnComplete(() -> metrics.record(Stage.LLM, System.nanoTime() - llmStart))
+                    .doOnError(e -> {
+                        metrics.stageFailed(Stage.LLM);
+                        metrics.evaluation(Outcome.FAILED);
+                    })
+                    .concatMapIterable(chunk -> {
+                        aiResponse.append(chunk);
+                        scanner.feed(chunk);
+                        List<EvaluationEvent> ready = List.copyOf(events);
+                        events.clear();
+                        return ready;
+                    })
+                    .concatWith(Mono.fromCallable(() ->
+                            new EvaluationEvent("result", null, finishStream(key, prompt, aiResponse.toString(), degraded)))));
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Parses a completed streamed answer and caches it if it is valid.
+     * @param degraded whether it was scored without reference essays, which is not cached
+     */
+    private EvaluationResponse finishStream(String key, String prompt, String aiResponse, boolean degraded) {
+        logSampled(prompt, aiResponse);
+        EvaluationResponse evaluation;
+        try {
+            evaluation = parse(aiResponse);
+        } catch (UnparseableEvaluationException e) {
+            metrics.evaluation(Outcome.FALLBACK);
+            return errorResponse(e.getCause());
+        }
+        if (!degraded) evaluations.put(key, CompletableFuture.completedFuture(evaluation));
+        metrics.evaluation(Outcome.SCORED);
+        return evaluation;
+    }
+
+    /**
+     * Turns a finished evaluation into the events a live stream would have produced.
+     */
+    private static List<EvaluationEvent> replayEvents(EvaluationResponse evaluation) {
+        List<EvaluationEvent> events = new ArrayList<>();
+        events.add(new EvaluationEvent("score", "taskResponse", evaluation.taskResponse()));
+        events.add(new EvaluationEvent("score", "coherenceCohesion", evaluation.coherenceCohesion()));
+        events.add(new EvaluationEvent("score", "lexicalResource", evaluation.lexicalResource()));
+        events.add(new EvaluationEvent("score", "grammaticalRangeAccuracy", evaluation.grammaticalRangeAccuracy()));
+        events.add(new EvaluationEvent("score", "overallBand", evaluation.overallBand()));
+        events.add(new EvaluationEvent("feedback", "examinerFeedback", evaluation.examinerFeedback()));
+        evaluation.suggestions().forEach((criterion, text) ->
+                events.add(new EvaluationEvent("suggestion", criterion, text)));
+        events.add(new EvaluationEvent("result", null, evaluation));
+        return events;
+    }
+
+    /**
+     * Maps values found by the {@link PartialJsonScanner} in the scoring JSON to evaluation events.
+     */
+    private static class EvaluationEventCollector implements PartialJsonScanner.Listener {
+        private static final List<String> SCORE_FIELDS = List.of(
+                "taskResponse", "coherenceCohesion", "lexicalResource", "grammaticalRangeAccuracy", "overallBand");
+
+        private final List<EvaluationEvent> events;
+
+        EvaluationEventCollector(List<EvaluationEvent> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void onScalar(List<String> path, String value) {
+            if (path.size() != 1 || !SCORE_FIELDS.contains(path.get(0))) return;
+            try {
+                events.add(new EvaluationEvent("score", path.get(0), Double.parseDouble(value)));
+            } catch (NumberFormatException e) {
+                // Left to the final result, which falls back to defaults
+            }
+        }
 
+        @Override
+        public void onStringPart(List<String> path, String part) {
+            if (path.size() == 1 && path.get(0).equals("examinerFeedback")) {
+                events.add(new EvaluationEvent("feedback", "examinerFeedback", part));
+            } else if (path.size() == 2 && path.get(0).equals("suggestions")) {
+                events.add(new EvaluationEvent("suggestion", path.get(1), part));
+            }
+        }
+    }
 
+    /**
+     * Returns the cached or in-flight evaluation for this submission, or evaluates it.
+     * @param priority the admission priority of the LLM call
+     * @param retrieval finds the reference essays, only called on a cache miss
+     */
+    private EvaluationResponse scoreCached(EssayRequest request, String cleanedEssay, Priority priority,
+                                           Supplier<List<Document>> retrieval) {
+        EvaluationResponse preScored = shortCircuit(request, cleanedEssay);
+        if (preScored != null) return preScored;
+        String key = evaluationKey(request, cleanedEssay);
+
+        CompletableFuture<EvaluationResponse> evaluation = new CompletableFuture<>();
+        CompletableFuture<EvaluationResponse> existing = evaluations.asMap().putIfAbsent(key, evaluation);
+        if (existing != null) {
+            metrics.evaluation(Outcome.CACHED);
+            return await(existing);
+        }
 
-        System.out.println("Found similar essays: " + similarEssays.size());
-        System.out.println("---------------------------------------------------------------------------------------");
+        boolean degraded = !storeInitializer.isReady();
+        try {
+            evaluation.complete(evaluate(request, cleanedEssay, priority, retrieval.get()));
+            // Scored without reference essays; not reused once they are loaded
+            if (degraded) evaluations.asMap().remove(key, evaluation);
+            metrics.evaluation(Outcome.SCORED);
+        } catch (UnparseableEvaluationException e) {
+            evaluation.completeExceptionally(e);
+            metrics.evaluation(Outcome.FALLBACK);
+        } catch (RuntimeException | Error e) {
+            evaluation.completeExceptionally(e);
+            metrics.evaluation(Outcome.FAILED);
+        }
+        return await(evaluation);
+    }
 
+    /**
+     * @return the pre-scorer's estimate if the essay is not worth an LLM call, otherwise null
+     */
+    private EvaluationResponse shortCircuit(EssayRequest request, String cleanedEssay) {
+        EvaluationResponse estimate = preScorer.shortCircuit(request.question(), cleanedEssay);
+        if (estimate != null) metrics.evaluation(Outcome.PRESCORED);
+        return estimate;
+    }
+
+    private EvaluationResponse estimate(EssayRequest request, String cleanedEssay) {
+        return metrics.time(Stage.PRESCORE, () -> preScorer.estimate(request.question(), cleanedEssay));
+    }
+
+    /**
+     * Runs the LLM call for one essay.
+     * @param priority the admission priority of the LLM call
+     * @param similarEssays the reference essays found by retrieval
+     * @throws UnparseableEvaluationException if the model did not answer with the expected JSON
+     */
+    private EvaluationResponse evaluate(EssayRequest request, String cleanedEssay, Priority priority,
+                                        List<Document> similarEssays) {
         // Build prompt
-        String prompt = buildScoringPrompt(request, cleanedEssay, similarEssays);
+        String prompt = metrics.time(Stage.PROMPT, () ->
+                promptBuilder.build(request.question(), cleanedEssay, similarEssays));
 
-        System.out.println("Prompt for AI: " + prompt);
-        System.out.println("---------------------------------------------------------------------------------------");
         // Get Model response
-        String aiResponse = chatModel.call(prompt);
-
-        System.out.println("AI response: " + aiResponse);
+        ChatResponse response = scoringExecutor.chat(priority, promptBuilder.countTokens(prompt), () ->
+                metrics.time(Stage.LLM, () -> chatModel.call(new Prompt(prompt))));
+        metrics.tokens(usage(response));
+        String aiResponse = text(response);
+        logSampled(prompt, aiResponse);
 
         // Parse response
-        return parseAiResponse(aiResponse);
+        return parse(aiResponse);
+    }
+
+    /**
+     * Parses and times a complete model answer.
+     * @throws UnparseableEvaluationException if the model did not answer with the expected JSON
+     */
+    private EvaluationResponse parse(String aiResponse) {
+        long start = System.nanoTime();
+        try {
+            return parseEvaluation(aiResponse);
+        } catch (Exception e) {
+            metrics.parseFailure();
+            throw new UnparseableEvaluationException(e);
+        } finally {
+            metrics.record(Stage.PARSE, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Logs a sample of evaluations, with the prompt and answer at DEBUG, instead of every one.
+     * Output goes through the asynchronous appender, so the request thread never waits on it.
+     */
+    private void logSampled(String prompt, String aiResponse) {
+        if (ThreadLocalRandom.current().nextDouble() >= logSampleRate) return;
+        log.atInfo().setMessage("Sampled evaluation")
+                .addKeyValue("prompt_chars", prompt.length())
+                .addKeyValue("response_chars", aiResponse == null ? 0 : aiResponse.length())
+                .log();
+        log.atDebug().setMessage("Sampled evaluation text")
+                .addKeyValue("prompt", prompt)
+                .addKeyValue("response", aiResponse)
+                .log();
     }
 
+    private static String text(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) return "";
+        String text = response.getResult().getOutput().getText();
+        return text == null ? "" : text;
+    }
+
+    private static Usage usage(ChatResponse response) {
+        return response == null || response.getMetadata() == null ? null : response.getMetadata().getUsage();
+    }
+
+    private static String searchQuery(EssayRequest request, String cleanedEssay) {
+        return request.question() + "\n" + cleanedEssay;
+    }
 
     /**
-     * Builds the scoring prompt for the AI model.
-     * @param request the EssayRequest containing the essay and question
-     * @param essay the cleaned essay text
-     * @param examples the list of similar essays for reference (RAG)
-     * @return the constructed prompt string
-     */
-    private String buildScoringPrompt(EssayRequest request, String essay, List<Document> examples) {
-        StringBuilder prompt = new StringBuilder();
-        prompt.append("You are an experienced IELTS examiner. Evaluate this essay based on IELTS Writing Task 2 criteria.\n\n");
-        prompt.append("Question: ").append(request.question()).append("\n\n");
-        prompt.append("Essay to evaluate:\n").append(essay).append("\n\n");
-
-        prompt.append("Scoring Criteria:\n");
-        prompt.append("1. Task Response (TR): Address all parts, develop position, support ideas\n");
-        prompt.append("2. Coherence & Cohesion (CC): Logical organization, paragraphing, linking devices\n");
-        prompt.append("3. Lexical Resource (LR): Vocabulary range, accuracy, collocations\n");
-        prompt.append("4. Grammatical Range & Accuracy (GRA): Sentence structures, grammar, punctuation\n\n");
-
-        if (!examples.isEmpty()) {
-            prompt.append("Example Essays for Reference:\n");
-            examples.forEach(doc -> {
-                if (doc != null) {
-                    prompt.append(" Example ---\n").append(doc.getText()).append("\n\n");
-                }
-            });
+     * Finds reference essays similar to the submission (RAG). With the mapped store, the exemplars
+     * precomputed for the same question are taken first; only when there are too few is the
+     * query embedded and searched in a hybrid search, as two stages each under its own timeout.
+     * @return up to five similar essays
+     */
+    private List<Document> findSimilarEssays(EssayRequest request, String cleanedEssay) {
+        if (!storeInitializer.isReady()) return withoutReferences();
+        String searchQuery = searchQuery(request, cleanedEssay);
+        if (vectorStore instanceof MappedVectorStore mappedStore) {
+            List<Document> matches = questionMatches(mappedStore, request.question());
+            if (matches != null) return matches;
+            float[] queryEmbedding = scoringExecutor.embedding(() ->
+                    metrics.time(Stage.EMBEDDING, () -> embeddingModel.embed(searchQuery)));
+            return search(mappedStore, searchQuery, queryEmbedding);
         }
+        List<Document> similarEssays = scoringExecutor.retrieval(() -> metrics.time(Stage.RETRIEVAL, () ->
+                vectorStore.similaritySearch(SearchRequest.builder()
+                        .query(searchQuery)
+                        .topK(candidates())
+                        .similarityThreshold(SIMILARITY_THRESHOLD)
+                        .build())));
+        similarEssays = distinct(similarEssays);
+        metrics.retrieved(similarEssays.size());
+        return similarEssays;
+    }
+
+    /**
+     * Reference essays while the vector store is loading: none, so the prompt relies on the band
+     * descriptors alone, unless {@code scoring.startup.degraded} is off.
+     * @throws ScoringExecutor.OverloadedException if scoring has to wait for the store
+     */
+    private List<Document> withoutReferences() {
+        if (!degradedWhileLoading) throw new ScoringExecutor.OverloadedException("Reference essays are still loading");
+        metrics.degradedRetrieval();
+        return List.of();
+    }
+
+    /**
+     * Looks up the exemplars precomputed for the submitted question, matched exactly or nearly; the
+     * submission itself is neither embedded nor searched for.
+     * @return the best of them, or null if there are fewer than {@code retrieval.question-match.min-examples}
+     */
+    private List<Document> questionMatches(MappedVectorStore mappedStore, String question) {
+        if (question == null || question.isBlank() || stratified()) return null;
+        List<Document> matches = metrics.time(Stage.RETRIEVAL, () ->
+                distinct(mappedStore.questionExemplars(question, candidates(), QUESTION_MATCH_SIMILARITY)));
+        if (matches.size() < Math.max(1, Math.min(minQuestionMatches, SIMILAR_ESSAYS))) return null;
+        metrics.questionMatch();
+        metrics.retrieved(matches.size());
+        return matches;
+    }
+
+    /**
+     * Searches the mapped store with an already embedded query: a hybrid search, or in stratified
+     * mode a search of each configured band range.
+     */
+    private List<Document> search(MappedVectorStore mappedStore, String searchQuery, float[] queryEmbedding) {
+        List<Document> similarEssays = scoringExecutor.retrieval(() -> metrics.time(Stage.RETRIEVAL, () ->
+                stratified()
+                        ? mappedStore.stratifiedSearch(queryEmbedding, stratifiedBands, examplesPerBand,
+                                SIMILARITY_THRESHOLD)
+                        : mappedStore.hybridSearch(searchQuery, queryEmbedding, candidates(), SIMILARITY_THRESHOLD)));
+        similarEssays = stratified() ? distinct(similarEssays, similarEssays.size()) : distinct(similarEssays);
+        metrics.retrieved(similarEssays.size());
+        return similarEssays;
+    }
+
+    /**
+     * @return how many reference essays to retrieve for the {@value #SIMILAR_ESSAYS} example slots
+     */
+    private int candidates() {
+        return dedupResults ? 2 * SIMILAR_ESSAYS : SIMILAR_ESSAYS;
+    }
 
-        prompt.append("Provide evaluation in this exact JSON format:\n");
-        prompt.append("{\n");
-        prompt.append("  \"taskResponse\": [score 1-9],\n");
-        prompt.append("  \"coherenceCohesion\": [score 1-9],\n");
-        prompt.append("  \"lexicalResource\": [score 1-9],\n");
-        prompt.append("  \"grammaticalRangeAccuracy\": [score 1-9],\n");
-        prompt.append("  \"overallBand\": [score 1-9],\n");
-        prompt.append("  \"examinerFeedback\": \"[detailed feedback]\",\n");
-        prompt.append("  \"suggestions\": {\n");
-        prompt.append("    \"taskResponse\": \"[specific suggestions]\",\n");
-        prompt.append("    \"coherenceCohesion\": \"[specific suggestions]\",\n");
-        prompt.append("    \"lexicalResource\": \"[specific suggestions]\",\n");
-        prompt.append("    \"grammaticalRangeAccuracy\": \"[specific suggestions]\"\n");
-        prompt.append("  }\n");
-        prompt.append("}\n");
+    private List<Document> distinct(List<Document> ranked) {
+        return distinct(ranked, SIMILAR_ESSAYS);
+    }
+
+    private List<Document> distinct(List<Document> ranked, int limit) {
+        if (!dedupResults) return ranked;
+        return NearDuplicates.distinct(ranked, limit, dedupThreshold);
+    }
 
-        return prompt.toString();
+    private boolean stratified() {
+        return "stratified".equalsIgnoreCase(retrievalMode);
+    }
+
+    /**
+     * Waits for a possibly shared evaluation. Model failures are rethrown; an unparseable answer
+     * becomes the default error response.
+     */
+    private EvaluationResponse await(CompletableFuture<EvaluationResponse> evaluation) {
+        try {
+            return evaluation.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UnparseableEvaluationException unparseable) {
+                return errorResponse(unparseable.getCause());
+            }
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error error) throw error;
+            throw e;
+        }
+    }
+
+    /**
+     * Hashes the normalized question, essay and task type into an evaluation cache key.
+     */
+    private String evaluationKey(EssayRequest request, String cleanedEssay) {
+        String question = request.question() == null ? ""
+                : WHITESPACE_PATTERN.matcher(request.question()).replaceAll(" ").trim();
+        String taskType = request.taskType() == null ? "" : request.taskType().trim().toLowerCase();
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : List.of(taskType, question, cleanedEssay)) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
     }
 
+    /**
+     * Signals that the model answered but its response could not be parsed, so it must not be cached.
+     */
+    private static class UnparseableEvaluationException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnparseableEvaluationException(Throwable cause) {
+            super(cause);
+        }
+    }
 
 
     /**
@@ -131,47 +649,68 @@ public class IeltsScoringService {
      */
     public EvaluationResponse parseAiResponse(String aiResponse) {
         try {
-            // Remove any extraneous text before the first '{'
-            String json = aiResponse.trim();
-            int index = json.indexOf("{");
-            if (index > 0) {
-                json = json.substring(index);
-            }
-
-            Map<String, Object> responseMap = parseJsonResponse(json);
-
-            double taskResponse = getDoubleFromMap(responseMap, "taskResponse", 5.0);
-            double coherenceCohesion = getDoubleFromMap(responseMap, "coherenceCohesion", 5.0);
-            double lexicalResource = getDoubleFromMap(responseMap, "lexicalResource", 5.0);
-            double grammaticalRangeAccuracy = getDoubleFromMap(responseMap, "grammaticalRangeAccuracy", 5.0);
-            double overallBand = getDoubleFromMap(responseMap, "overallBand", 5.0);
-
-            // Get examiner feedback or a default string.
-            String examinerFeedback = responseMap.get("examinerFeedback") != null
-                    ? responseMap.get("examinerFeedback").toString()
-                    : "No feedback provided";
-
-            // Cast the suggestions object to Map<String, String>
-            Map<String, String> suggestions = castSuggestions(responseMap.get("suggestions"));
-
-            return new EvaluationResponse(
-                    taskResponse,
-                    coherenceCohesion,
-                    lexicalResource,
-                    grammaticalRangeAccuracy,
-                    overallBand,
-                    examinerFeedback,
-                    suggestions
-            );
+            return parseEvaluation(aiResponse);
         } catch (Exception e) {
-            return new EvaluationResponse(
-                    1.0, 1.0, 1.0, 1.0, 1.0,
-                    "Could not evaluate properly. " + e.getMessage(),
-                    Map.of("general", "Please check your essay format and try again.")
-            );
+            metrics.parseFailure();
+            return errorResponse(e);
         }
     }
 
+    /**
+     * Parses the AI response JSON into an EvaluationResponse.
+     * @param aiResponse the raw response from the AI model
+     * @return the parsed evaluation
+     * @throws Exception if the response is not valid JSON
+     */
+    private EvaluationResponse parseEvaluation(String aiResponse) throws Exception {
+        // Remove any extraneous text before the first '{'
+        String json = aiResponse.trim();
+        int index = json.indexOf("{");
+        if (index > 0) {
+            json = json.substring(index);
+        }
+
+        Map<String, Object> responseMap = parseJsonResponse(json);
+
+        double taskResponse = getDoubleFromMap(responseMap, "taskResponse", 5.0);
+        double coherenceCohesion = getDoubleFromMap(responseMap, "coherenceCohesion", 5.0);
+        double lexicalResource = getDoubleFromMap(responseMap, "lexicalResource", 5.0);
+        double grammaticalRangeAccuracy = getDoubleFromMap(responseMap, "grammaticalRangeAccuracy", 5.0);
+        double overallBand = getDoubleFromMap(responseMap, "overallBand", 5.0);
+
+        // Get examiner feedback or a default string.
+        String examinerFeedback = responseMap.get("examinerFeedback") != null
+                ? responseMap.get("examinerFeedback").toString()
+                : "No feedback provided";
+
+        // Cast the suggestions object to Map<String, String>
+        Map<String, String> suggestions = castSuggestions(responseMap.get("suggestions"));
+
+        return new EvaluationResponse(
+                taskResponse,
+                coherenceCohesion,
+                lexicalResource,
+                grammaticalRangeAccuracy,
+                overallBand,
+                examinerFeedback,
+                suggestions
+        );
+    }
+
+    /**
+     * Builds the default response returned when an evaluation could not be parsed.
+     * @param e the parsing error
+     * @return an EvaluationResponse with minimum scores and the error message
+     */
+    private EvaluationResponse errorResponse(Throwable e) {
+        metrics.fallbackResponse();
+        return new EvaluationResponse(
+                1.0, 1.0, 1.0, 1.0, 1.0,
+                "Could not evaluate properly. " + e.getMessage(),
+                Map.of("general", "Please check your essay format and try again.")
+        );
+    }
+
     /**
      * Parses the JSON response string into a Map<String, Object>.
      * @param json the JSON string to parse
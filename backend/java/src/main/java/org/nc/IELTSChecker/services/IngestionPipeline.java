@@ -0,0 +1,318 @@
+package org.nc.IELTSChecker.services;
+
+import com.opencsv.CSVReader;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Streams CSV rows into the vector store through four stages joined by bounded queues:
+ * parse, preprocess, embed and write.
+ *
+ * <p>The embed stage sends batches concurrently. Its concurrency is governed by an
+ * {@link AdaptiveConcurrencyLimiter} and its batch size follows the same signals: both grow while
+ * the provider answers within the target latency and back off on slow calls or 429 responses,
+ * replacing the fixed sleep between batches.
+ */
+public class IngestionPipeline {
+
+    /**
+     * @param queueCapacity capacity of each queue between stages
+     * @param preprocessThreads threads cleaning rows and building documents
+     * @param initialBatchSize documents per embedding call at start
+     * @param maxBatchSize upper bound for the adaptive batch size
+     * @param maxConcurrency upper bound for concurrent embedding calls
+     * @param targetLatency embedding calls slower than this make the pipeline back off
+     */
+    public record Settings(int queueCapacity, int preprocessThreads, int initialBatchSize, int maxBatchSize,
+                           int maxConcurrency, Duration targetLatency) {
+        public Settings {
+            if (queueCapacity < 1) throw new IllegalArgumentException("Queue capacity must be positive");
+            if (preprocessThreads < 1) throw new IllegalArgumentException("Preprocess threads must be positive");
+            if (initialBatchSize < 1) throw new IllegalArgumentException("Initial batch size must be positive");
+            if (maxBatchSize < initialBatchSize) {
+                throw new IllegalArgumentException("Max batch size " + maxBatchSize
+                        + " is below the initial batch size " + initialBatchSize);
+            }
+            if (maxConcurrency < 1) throw new IllegalArgumentException("Max concurrency must be positive");
+            if (targetLatency.isNegative() || targetLatency.isZero()) {
+                throw new IllegalArgumentException("Target latency must be positive");
+            }
+        }
+    }
+
+    /**
+     * Turns a CSV row into a document, or returns null if the row should be skipped.
+     */
+    @FunctionalInterface
+    public interface RowParser {
+        Document parse(String[] line, int lineNumber);
+    }
+
+    /**
+     * Persists a batch of embedded documents. Called from a single thread.
+     */
+    @FunctionalInterface
+    public interface BatchWriter {
+        void write(List<Document> documents, List<float[]> embeddings) throws Exception;
+    }
+
+    /**
+     * Per-stage counters: items handled and the wall-clock span between the first and last one.
+     */
+    public static final class StageStats {
+        private final String name;
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong firstNanos = new AtomicLong();
+        private final AtomicLong lastNanos = new AtomicLong();
+
+        StageStats(String name) {
+            this.name = name;
+        }
+
+        void record(long count) {
+            long now = System.nanoTime();
+            firstNanos.compareAndSet(0, now);
+            lastNanos.set(now);
+            items.addAndGet(count);
+        }
+
+        void start() {
+            firstNanos.compareAndSet(0, System.nanoTime());
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public long items() {
+            return items.get();
+        }
+
+        public double seconds() {
+            long first = firstNanos.get();
+            return first == 0 ? 0 : (lastNanos.get() - first) / 1e9;
+        }
+
+        public double docsPerSecond() {
+            double seconds = seconds();
+            return seconds > 0 ? items() / seconds : items();
+        }
+    }
+
+    public record Report(List<StageStats> stages, int skipped, int throttled) {
+    }
+
+    private record Row(int lineNumber, String[] line) {
+    }
+
+    private record EmbeddedBatch(List<Document> documents, List<float[]> embeddings) {
+    }
+
+    private static final Row END_OF_ROWS = new Row(-1, null);
+    private static final Document END_OF_DOCUMENTS = new Document("");
+    private static final EmbeddedBatch END_OF_BATCHES = new EmbeddedBatch(List.of(), List.of());
+    private static final int MIN_BATCH_SIZE = 10;
+    private static final long THROTTLE_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 30_000;
+
+    private final EmbeddingModel embeddingModel;
+    private final Settings settings;
+
+    public IngestionPipeline(EmbeddingModel embeddingModel, Settings settings) {
+        this.embeddingModel = embeddingModel;
+        this.settings = settings;
+    }
+
+    /**
+     * Runs the pipeline until the reader is exhausted and every embedded batch has been written.
+     * @param reader the CSV reader, positioned after the header
+     * @param parser turns rows into documents
+     * @param writer persists embedded batches
+     * @return per-stage throughput
+     * @throws Exception the first error raised by any stage
+     */
+    public Report run(CSVReader reader, RowParser parser, BatchWriter writer) throws Exception {
+        BlockingQueue<Row> rows = new ArrayBlockingQueue<>(settings.queueCapacity());
+        BlockingQueue<Document> documents = new ArrayBlockingQueue<>(settings.queueCapacity());
+        BlockingQueue<EmbeddedBatch> batches = new ArrayBlockingQueue<>(
+                Math.max(2, settings.queueCapacity() / settings.initialBatchSize()));
+
+        StageStats parseStats = new StageStats("parse");
+        StageStats preprocessStats = new StageStats("preprocess");
+        StageStats embedStats = new StageStats("embed");
+        StageStats writeStats = new StageStats("write");
+        AtomicInteger skipped = new AtomicInteger();
+        AtomicInteger throttled = new AtomicInteger();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        int preprocessThreads = Math.max(1, settings.preprocessThreads());
+        ExecutorService stages = Executors.newFixedThreadPool(preprocessThreads + 2, namedThreads("ingest-stage"));
+        ExecutorService embedders = Executors.newCachedThreadPool(namedThreads("ingest-embed"));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(
+                1, 1, settings.maxConcurrency(), settings.targetLatency());
+
+        try {
+            // Stage 1: streaming parse
+            stages.submit(stage(failure, () -> {
+                parseStats.start();
+                String[] line;
+                int lineNumber = 1;
+                while ((line = reader.readNext()) != null) {
+                    rows.put(new Row(++lineNumber, line));
+                    parseStats.record(1);
+                }
+                for (int i = 0; i < preprocessThreads; i++) rows.put(END_OF_ROWS);
+            }));
+
+            // Stage 2: preprocess
+            AtomicInteger runningPreprocessors = new AtomicInteger(preprocessThreads);
+            for (int i = 0; i < preprocessThreads; i++) {
+                stages.submit(stage(failure, () -> {
+                    preprocessStats.start();
+                    Row row;
+                    while ((row = rows.take()) != END_OF_ROWS) {
+                        Document document = parser.parse(row.line(), row.lineNumber());
+                        if (document == null) {
+                            skipped.incrementAndGet();
+                        } else {
+                            documents.put(document);
+                            preprocessStats.record(1);
+                        }
+                    }
+                    if (runningPreprocessors.decrementAndGet() == 0) documents.put(END_OF_DOCUMENTS);
+                }));
+            }
+
+            // Stage 4: single writer
+            Future<?> writing = stages.submit(stage(failure, () -> {
+                EmbeddedBatch batch;
+                while ((batch = batches.take()) != END_OF_BATCHES) {
+                    writer.write(batch.documents(), batch.embeddings());
+                    writeStats.record(batch.documents().size());
+                    System.out.printf("Stored %d documents (embed %.1f docs/s, concurrency %d)%n",
+                            writeStats.items(), embedStats.docsPerSecond(), limiter.getLimit());
+                }
+            }));
+
+            // Stage 3: adaptive concurrent embedding, dispatched from the calling thread
+            AtomicInteger batchSize = new AtomicInteger(settings.initialBatchSize());
+            List<Future<?>> inFlight = new ArrayList<>();
+            List<Document> batch = new ArrayList<>();
+            embedStats.start();
+            while (failure.get() == null) {
+                Document document = documents.poll(100, TimeUnit.MILLISECONDS);
+                if (document == null) continue;
+                boolean last = document == END_OF_DOCUMENTS;
+                if (!last) batch.add(document);
+                if (!batch.isEmpty() && (last || batch.size() >= batchSize.get())) {
+                    limiter.acquire();
+                    List<Document> toEmbed = batch;
+                    batch = new ArrayList<>();
+                    inFlight.add(embedders.submit(stage(failure, () ->
+                            embedBatch(toEmbed, limiter, batchSize, throttled, embedStats, batches, failure))));
+                }
+                if (last) break;
+            }
+            for (Future<?> future : inFlight) {
+                future.get();
+            }
+            if (failure.get() == null) {
+                batches.put(END_OF_BATCHES);
+                writing.get();
+            }
+        } catch (ExecutionException e) {
+            failure.compareAndSet(null, e.getCause());
+        } finally {
+            stages.shutdownNow();
+            embedders.shutdownNow();
+        }
+
+        Throwable error = failure.get();
+        if (error instanceof Exception exception) throw exception;
+        if (error != null) throw new IllegalStateException("Ingestion failed", error);
+        return new Report(List.of(parseStats, preprocessStats, embedStats, writeStats), skipped.get(), throttled.get());
+    }
+
+    /**
+     * Embeds one batch, retrying it after a back-off when the provider throttles.
+     * The limiter permit has already been acquired by the dispatcher.
+     */
+    private void embedBatch(List<Document> batch, AdaptiveConcurrencyLimiter limiter, AtomicInteger batchSize,
+                            AtomicInteger throttled, StageStats embedStats, BlockingQueue<EmbeddedBatch> batches,
+                            AtomicReference<Throwable> failure) throws InterruptedException {
+        while (true) {
+            long start = System.nanoTime();
+            try {
+                List<float[]> embeddings = embeddingModel.embed(batch,
+                        EmbeddingOptionsBuilder.builder().build(), new TokenCountBatchingStrategy());
+                long latency = System.nanoTime() - start;
+                limiter.onSuccess(latency);
+                if (latency <= settings.targetLatency().toNanos()) {
+                    batchSize.updateAndGet(size -> Math.min(settings.maxBatchSize(), size + MIN_BATCH_SIZE));
+                } else {
+                    batchSize.updateAndGet(size -> Math.max(MIN_BATCH_SIZE, size * 3 / 4));
+                }
+                embedStats.record(batch.size());
+                EmbeddedBatch embedded = new EmbeddedBatch(batch, embeddings);
+                // Give up waiting for queue space if the writer died
+                while (!batches.offer(embedded, 100, TimeUnit.MILLISECONDS)) {
+                    if (failure.get() != null) return;
+                }
+                return;
+            } catch (RuntimeException e) {
+                if (!AdaptiveConcurrencyLimiter.isRateLimited(e)) {
+                    limiter.onFailure();
+                    throw e;
+                }
+                throttled.incrementAndGet();
+                limiter.onThrottled();
+                batchSize.updateAndGet(size -> Math.max(MIN_BATCH_SIZE, size / 2));
+                System.out.printf("Embedding throttled, backing off (concurrency %d, batch size %d)%n",
+                        limiter.getLimit(), batchSize.get());
+                Thread.sleep(Math.min(MAX_BACKOFF_MS, THROTTLE_BACKOFF_MS * throttled.get()));
+                limiter.acquire();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    /**
+     * Wraps a stage so that its first error is recorded and interruption ends it quietly.
+     */
+    private static Callable<Void> stage(AtomicReference<Throwable> failure, StageBody body) {
+        return () -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception | Error e) {
+                failure.compareAndSet(null, e);
+                throw e;
+            }
+            return null;
+        };
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,179 @@
+package org.nc.IELTSChecker.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped log of scoring job records.
+ *
+ * <p>The file is mapped read-write at a fixed capacity. Each record is one frame
+ * {@code [int length][int crc32][byte type][long time][id][body]}, written into the mapping and
+ * forced to disk before {@link #append} returns. On open, frames are replayed in order up to the
+ * first empty or corrupt one, and a record torn by a crash mid-write is cleared. When the log is
+ * full the owner {@link #rewrite rewrites} it with only its live records.
+ */
+final class JobLog implements Closeable {
+
+    /**
+     * One record: a submission, or how a job ended.
+     * @param time when it happened, in epoch milliseconds
+     * @param body the JSON of the request, the evaluation or the error
+     */
+    record Entry(byte type, String jobId, long time, byte[] body) {
+    }
+
+    static final byte SUBMITTED = 1;
+    static final byte COMPLETED = 2;
+    static final byte FAILED = 3;
+    private static final int FRAME_OVERHEAD = 2 * Integer.BYTES;
+
+    private final Path file;
+    private final long minCapacity;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    private JobLog(Path file, long minCapacity) {
+        this.file = file;
+        this.minCapacity = minCapacity;
+    }
+
+    /**
+     * Opens (or creates) the log and replays its intact records.
+     * @param file the log file
+     * @param minCapacity the smallest mapping, in bytes
+     * @param replay receives the records in the order they were appended
+     * @return the open log, positioned after the last intact record
+     */
+    static JobLog open(Path file, long minCapacity, Consumer<Entry> replay) throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        JobLog log = new JobLog(file, minCapacity);
+        long size = Files.exists(file) ? Files.size(file) : 0;
+        log.map(Math.max(size, minCapacity));
+        log.replay(replay);
+        return log;
+    }
+
+    /**
+     * Durably appends a record.
+     * @return false if the log is full; nothing was written
+     */
+    synchronized boolean append(Entry entry) throws IOException {
+        if (channel == null) throw new IOException("The job log is closed");
+        byte[] id = entry.jobId().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + Long.BYTES + Integer.BYTES + id.length + entry.body().length;
+        if (buffer.remaining() < FRAME_OVERHEAD + length) return false;
+
+        ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(entry.type()).putLong(entry.time()).putInt(id.length).put(id).put(entry.body()).flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        int start = buffer.position();
+        buffer.putInt(length).putInt((int) crc.getValue()).put(payload);
+        buffer.force(start, FRAME_OVERHEAD + length);
+        return true;
+    }
+
+    /**
+     * Replaces the log with the given records, in a mapping at least twice their size. The new file is
+     * written next to the log and moved over it, so a crash leaves one complete log or the other.
+     */
+    synchronized void rewrite(List<Entry> live) throws IOException {
+        Path staging = file.resolveSibling(file.getFileName() + ".staging");
+        Files.deleteIfExists(staging);
+        JobLog copy = new JobLog(staging, minCapacity);
+        long needed = 0;
+        for (Entry entry : live) {
+            needed += FRAME_OVERHEAD + 1 + Long.BYTES + Integer.BYTES
+                    + entry.jobId().getBytes(StandardCharsets.UTF_8).length + entry.body().length;
+        }
+        copy.map(Math.max(minCapacity, 2 * needed));
+        try (copy) {
+            for (Entry entry : live) copy.append(entry);
+        }
+        close();
+        try {
+            Files.move(staging, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            map(Files.size(file));
+            replay(entry -> { });
+        }
+    }
+
+    /**
+     * @return bytes used by records
+     */
+    synchronized long size() {
+        return buffer.position();
+    }
+
+    /**
+     * @return bytes mapped
+     */
+    synchronized long capacity() {
+        return buffer.capacity();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) return;
+        buffer.force();
+        channel.close();
+        channel = null;
+    }
+
+    private void map(long capacity) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        // The mapping grows the file to its capacity
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.min(capacity, Integer.MAX_VALUE));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void replay(Consumer<Entry> replay) {
+        int position = 0;
+        while (position + FRAME_OVERHEAD <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            int expectedCrc = buffer.getInt(position + Integer.BYTES);
+            if (length <= 1 + Long.BYTES + Integer.BYTES || position + FRAME_OVERHEAD + length > buffer.capacity()) break;
+
+            ByteBuffer payload = buffer.slice(position + FRAME_OVERHEAD, length).order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != expectedCrc) break;
+
+            byte type = payload.get();
+            long time = payload.getLong();
+            byte[] id = new byte[payload.getInt()];
+            payload.get(id);
+            byte[] body = new byte[payload.remaining()];
+            payload.get(body);
+            replay.accept(new Entry(type, new String(id, StandardCharsets.UTF_8), time, body));
+            position += FRAME_OVERHEAD + length;
+        }
+        // Clear a torn record: appends are sequential, so nothing was written after it
+        if (position + FRAME_OVERHEAD <= buffer.capacity() && buffer.getLong(position) != 0) {
+            int length = buffer.getInt(position);
+            long end = length > 0 ? Math.min(buffer.capacity(), (long) position + FRAME_OVERHEAD + length)
+                    : buffer.capacity();
+            clear(position, (int) end);
+        }
+        buffer.position(position);
+    }
+
+    private void clear(int from, int to) {
+        byte[] zeros = new byte[8192];
+        for (int i = from; i < to; i += zeros.length) buffer.put(i, zeros, 0, Math.min(zeros.length, to - i));
+        buffer.force(from, to - from);
+    }
+}
@@ -0,0 +1,300 @@
+package org.nc.IELTSChecker.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admits outbound LLM calls within the provider's budgets: a concurrency limit adapted with
+ * {@link AdaptiveConcurrencyLimiter} (AIMD on latency and 429s), and token buckets for tokens and
+ * requests per minute. Each call is charged its prompt tokens plus an allowance for the answer.
+ *
+ * <p>Calls that cannot start yet wait in a queue ordered by {@link Priority}, then arrival, for up
+ * to the wait of their priority; only the head of the queue is admitted, so batch work never
+ * overtakes a waiting interactive request. A 429 halves the limit and pauses admission for the
+ * throttle cooldown, so the queue drains once the provider accepts calls again instead of every
+ * waiting call failing at once.
+ *
+ * <p>Callers {@link #acquire acquire} a {@link Permit} and report how the call ended through it.
+ */
+public class LlmGovernor implements MeterBinder {
+
+    /**
+     * Who waits for the answer: interactive requests are admitted before batch ones.
+     */
+    public enum Priority { INTERACTIVE, BATCH }
+
+    /**
+     * @param initialConcurrency the starting concurrency limit
+     * @param minConcurrency the limit never drops below this
+     * @param maxConcurrency the limit never grows above this
+     * @param targetLatency calls slower than this shrink the limit
+     * @param tokensPerMinute prompt and answer tokens the provider accepts per minute, 0 for no limit
+     * @param requestsPerMinute calls the provider accepts per minute, 0 for no limit
+     * @param completionTokens tokens charged for the answer of each call
+     * @param maxQueued calls waiting for admission; more are rejected at once
+     * @param interactiveWait how long an interactive call waits for admission before it is rejected
+     * @param batchWait how long a batch call waits for admission before it is rejected
+     * @param throttleCooldown admission pause after a 429
+     * @param maxThrottleRetries how often a throttled call is queued again before it fails
+     */
+    public record Settings(int initialConcurrency, int minConcurrency, int maxConcurrency, Duration targetLatency,
+                           int tokensPerMinute, int requestsPerMinute, int completionTokens, int maxQueued,
+                           Duration interactiveWait, Duration batchWait, Duration throttleCooldown,
+                           int maxThrottleRetries) {
+
+        /**
+         * A fixed concurrency limit without budgets or retries, which behaves like a plain bulkhead.
+         */
+        public static Settings bulkhead(int maxConcurrency, Duration maxWait) {
+            return new Settings(maxConcurrency, maxConcurrency, maxConcurrency, Duration.ofDays(1), 0, 0, 0,
+                    Integer.MAX_VALUE, maxWait, maxWait, Duration.ZERO, 0);
+        }
+    }
+
+    /**
+     * The right to make one call. Exactly one outcome counts; later reports are ignored, so a caller
+     * can report a failure in a finally block after reporting success.
+     */
+    public final class Permit {
+        private final long start = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit() {
+        }
+
+        public void onSuccess() {
+            if (released.compareAndSet(false, true)) {
+                limiter.onSuccess(System.nanoTime() - start);
+                signalChanged(0);
+            }
+        }
+
+        /**
+         * The provider rejected the call with a rate-limit error.
+         */
+        public void onThrottled() {
+            if (released.compareAndSet(false, true)) {
+                throttled.increment();
+                limiter.onThrottled();
+                signalChanged(settings.throttleCooldown().toNanos());
+            }
+        }
+
+        /**
+         * The call failed for a reason unrelated to load, or never started.
+         */
+        public void onFailure() {
+            if (released.compareAndSet(false, true)) {
+                limiter.onFailure();
+                signalChanged(0);
+            }
+        }
+    }
+
+    private record Waiter(Priority priority, long sequence) {
+    }
+
+    private final Settings settings;
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>(
+            Comparator.comparing(Waiter::priority).thenComparingLong(Waiter::sequence));
+    private final TokenBucket tokens;
+    private final TokenBucket requests;
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private long sequence;
+    private long pausedUntil;
+
+    public LlmGovernor(Settings settings) {
+        this.settings = settings;
+        this.limiter = new AdaptiveConcurrencyLimiter(settings.initialConcurrency(), settings.minConcurrency(),
+                settings.maxConcurrency(), settings.targetLatency());
+        long now = System.nanoTime();
+        this.tokens = settings.tokensPerMinute() > 0 ? new TokenBucket(settings.tokensPerMinute(), now) : null;
+        this.requests = settings.requestsPerMinute() > 0 ? new TokenBucket(settings.requestsPerMinute(), now) : null;
+        this.pausedUntil = now;
+    }
+
+    /**
+     * Waits until the call may start.
+     * @param priority whose call it is
+     * @param promptTokens the estimated tokens of the prompt
+     * @return the permit, to report the outcome through
+     * @throws ScoringExecutor.OverloadedException if the queue is full or the call was not admitted in time
+     */
+    public Permit acquire(Priority priority, int promptTokens) {
+        int cost = promptTokens + settings.completionTokens();
+        Duration maxWait = priority == Priority.INTERACTIVE ? settings.interactiveWait() : settings.batchWait();
+        long deadline = System.nanoTime() + maxWait.toNanos();
+        lock.lock();
+        try {
+            if (queue.size() >= settings.maxQueued()) throw overloaded("Too many evaluations waiting for the model");
+            Waiter waiter = new Waiter(priority, sequence++);
+            queue.add(waiter);
+            try {
+                while (true) {
+                    long now = System.nanoTime();
+                    long wait = queue.peek() == waiter ? admit(cost, now) : Long.MAX_VALUE;
+                    if (wait == 0) return new Permit();
+                    long remaining = deadline - now;
+                    if (remaining <= 0) throw overloaded("Too many evaluations in progress");
+                    changed.awaitNanos(Math.min(wait, remaining));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw overloaded("Interrupted while waiting for the model");
+            } finally {
+                queue.remove(waiter);
+                // The next waiter may be admissible now
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Admits the head of the queue if every budget allows it.
+     * @return 0 if admitted, otherwise how long until a budget may allow it (MAX_VALUE: until a call ends)
+     */
+    private long admit(int cost, long now) throws InterruptedException {
+        if (now < pausedUntil) return pausedUntil - now;
+        long wait = Math.max(tokens != null ? tokens.nanosUntil(cost, now) : 0,
+                requests != null ? requests.nanosUntil(1, now) : 0);
+        if (wait > 0) return wait;
+        if (!limiter.tryAcquire(0, TimeUnit.NANOSECONDS)) return Long.MAX_VALUE;
+        if (tokens != null) tokens.take(cost);
+        if (requests != null) requests.take(1);
+        return 0;
+    }
+
+    private void signalChanged(long pauseNanos) {
+        lock.lock();
+        try {
+            if (pauseNanos > 0) pausedUntil = Math.max(pausedUntil, System.nanoTime() + pauseNanos);
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ScoringExecutor.OverloadedException overloaded(String message) {
+        rejected.increment();
+        return new ScoringExecutor.OverloadedException(message, retryAfter());
+    }
+
+    /**
+     * @return how long clients should wait before retrying: the rest of a throttle pause, or a second
+     */
+    public Duration retryAfter() {
+        lock.lock();
+        try {
+            return Duration.ofNanos(Math.max(pausedUntil - System.nanoTime(), TimeUnit.SECONDS.toNanos(1)));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxThrottleRetries() {
+        return settings.maxThrottleRetries();
+    }
+
+    /**
+     * @return the highest concurrency limit, which bounds the calls in flight
+     */
+    public int getMaxConcurrency() {
+        return settings.maxConcurrency();
+    }
+
+    /**
+     * @return calls in flight
+     */
+    public int getInFlight() {
+        return limiter.getInFlight();
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public int getLimit() {
+        return limiter.getLimit();
+    }
+
+    /**
+     * @return calls waiting for admission
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return calls the provider rejected with a rate-limit error
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * @return calls rejected because the queue was full or they waited too long
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("scoring.llm.limit", this, LlmGovernor::getLimit)
+                .description("Adaptive limit of concurrent chat calls").register(registry);
+        Gauge.builder("scoring.llm.queued", this, LlmGovernor::getQueued)
+                .description("Chat calls waiting for admission").register(registry);
+        FunctionCounter.builder("scoring.llm.throttled", this, LlmGovernor::getThrottled)
+                .description("Chat calls rejected by the provider's rate limit").register(registry);
+    }
+
+    /**
+     * Refills continuously at the per-minute rate and holds at most a minute's worth; a call costing
+     * more than that waits for a full bucket.
+     */
+    private static final class TokenBucket {
+        private final double capacity;
+        private final double perNano;
+        private double available;
+        private long updated;
+
+        TokenBucket(int perMinute, long now) {
+            this.capacity = perMinute;
+            this.perNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.available = capacity;
+            this.updated = now;
+        }
+
+        long nanosUntil(double amount, long now) {
+            available = Math.min(capacity, available + (now - updated) * perNano);
+            updated = now;
+            double missing = Math.min(amount, capacity) - available;
+            return missing <= 0 ? 0 : (long) Math.ceil(missing / perNano);
+        }
+
+        void take(double amount) {
+            available -= Math.min(amount, capacity);
+        }
+    }
+}
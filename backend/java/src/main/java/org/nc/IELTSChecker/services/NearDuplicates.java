@@ -0,0 +1,176 @@
+package org.nc.IELTSChecker.services;
+
+import org.springframework.ai.document.Document;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * MinHash/LSH index of essays for near-duplicate detection.
+ *
+ * <p>An essay's signature is the minimum of each of {@value #HASHES} hash functions over its
+ * shingles (see {@link EssayPreprocessor#shingles}); the share of equal positions in two signatures
+ * estimates the Jaccard similarity of their shingle sets. The signature is split into
+ * {@value #BANDS} bands, and only essays that agree on a whole band are compared, so adding an
+ * essay costs a few lookups rather than a comparison with every essay indexed. Signatures are stored
+ * in document metadata under {@value #METADATA_KEY}, so retrieval results can be deduplicated too.
+ */
+public final class NearDuplicates {
+
+    public static final String METADATA_KEY = "minhash";
+    /** Metadata key of the number of dataset rows a stored essay stands for. */
+    public static final String COUNT_METADATA_KEY = "duplicates";
+
+    static final int HASHES = 128;
+    static final int BANDS = 16;
+    private static final int ROWS = HASHES / BANDS;
+    private static final long[] SEEDS = new SplittableRandom(0x5EED_1E75L).longs(HASHES).toArray();
+
+    private final double threshold;
+    private final List<Map<Long, List<Integer>>> buckets = new ArrayList<>(BANDS);
+    private final List<String> ids = new ArrayList<>();
+    private final List<int[]> signatures = new ArrayList<>();
+
+    /**
+     * @param threshold the estimated Jaccard similarity from which two essays are duplicates
+     */
+    public NearDuplicates(double threshold) {
+        this.threshold = threshold;
+        for (int i = 0; i < BANDS; i++) buckets.add(new HashMap<>());
+    }
+
+    /**
+     * @param shingles the shingle hashes of an essay
+     * @return its MinHash signature, or null if it has no shingles
+     */
+    public static int[] signature(long[] shingles) {
+        if (shingles.length == 0) return null;
+        int[] signature = new int[HASHES];
+        for (int i = 0; i < HASHES; i++) {
+            long min = Long.MAX_VALUE;
+            for (long shingle : shingles) min = Math.min(min, mix(shingle ^ SEEDS[i]));
+            signature[i] = (int) (min ^ (min >>> 32));
+        }
+        return signature;
+    }
+
+    /**
+     * @return the estimated Jaccard similarity of the essays with these signatures
+     */
+    public static double similarity(int[] a, int[] b) {
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return equal / (double) HASHES;
+    }
+
+    /**
+     * Finds a duplicate of an essay among those indexed, and indexes the essay if there is none.
+     * @param id the essay's id
+     * @param signature its signature
+     * @return the id of the first indexed essay it duplicates, or null if it was indexed as a new essay
+     */
+    public synchronized String add(String id, int[] signature) {
+        String duplicate = find(signature);
+        if (duplicate != null) return duplicate;
+
+        int index = ids.size();
+        ids.add(id);
+        signatures.add(signature);
+        for (int band = 0; band < BANDS; band++) {
+            buckets.get(band).computeIfAbsent(bandKey(signature, band), key -> new ArrayList<>(1)).add(index);
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of distinct essays indexed
+     */
+    public synchronized int size() {
+        return ids.size();
+    }
+
+    /**
+     * Drops results that duplicate a better-ranked one; results without a stored signature are kept.
+     * @param ranked the results, best first
+     * @param limit the most results to return
+     * @param threshold the estimated Jaccard similarity from which two results are duplicates
+     * @return the distinct results, in their original order
+     */
+    public static List<Document> distinct(List<Document> ranked, int limit, double threshold) {
+        List<Document> kept = new ArrayList<>(Math.min(limit, ranked.size()));
+        List<int[]> keptSignatures = new ArrayList<>();
+        for (Document document : ranked) {
+            if (kept.size() == limit) break;
+            int[] signature = decode(document.getMetadata().get(METADATA_KEY));
+            if (signature != null) {
+                boolean duplicate = false;
+                for (int[] other : keptSignatures) {
+                    if (similarity(signature, other) >= threshold) {
+                        duplicate = true;
+                        break;
+                    }
+                }
+                if (duplicate) continue;
+                keptSignatures.add(signature);
+            }
+            kept.add(document);
+        }
+        return kept;
+    }
+
+    /**
+     * @return the signature as a metadata value
+     */
+    public static String encode(int[] signature) {
+        ByteBuffer bytes = ByteBuffer.allocate(HASHES * Integer.BYTES);
+        bytes.asIntBuffer().put(signature);
+        return Base64.getEncoder().encodeToString(bytes.array());
+    }
+
+    /**
+     * @return the signature stored as a metadata value, or null if there is none or it is malformed
+     */
+    public static int[] decode(Object value) {
+        if (!(value instanceof String encoded)) return null;
+        byte[] bytes;
+        try {
+            bytes = Base64.getDecoder().decode(encoded);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (bytes.length != HASHES * Integer.BYTES) return null;
+        int[] signature = new int[HASHES];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(signature);
+        return signature;
+    }
+
+    private String find(int[] signature) {
+        for (int band = 0; band < BANDS; band++) {
+            List<Integer> candidates = buckets.get(band).get(bandKey(signature, band));
+            if (candidates == null) continue;
+            for (int candidate : candidates) {
+                if (similarity(signature, signatures.get(candidate)) >= threshold) return ids.get(candidate);
+            }
+        }
+        return null;
+    }
+
+    private static long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int i = band * ROWS; i < (band + 1) * ROWS; i++) key = mix(key * 31 + signature[i]);
+        return key;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+}
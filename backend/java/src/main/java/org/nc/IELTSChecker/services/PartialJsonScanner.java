@@ -0,0 +1,178 @@
+package org.nc.IELTSChecker.services;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Incremental scanner for a JSON object that arrives in arbitrary chunks, as streamed by a chat model.
+ *
+ * <p>Text before the first {@code '{'} (for example a Markdown code fence) and after the matching
+ * {@code '}'} is ignored. Scalar values are reported once they are complete; string values are
+ * reported piecewise, as far as each chunk reaches, so long text can be forwarded while it is
+ * still being generated. Values are identified by their path of object keys; array elements
+ * share the path of their array.
+ */
+class PartialJsonScanner {
+
+    /**
+     * Receives values as the scanner completes them.
+     */
+    interface Listener {
+        /**
+         * A number, boolean or null value is complete.
+         */
+        void onScalar(List<String> path, String value);
+
+        /**
+         * More characters of a string value are available.
+         */
+        void onStringPart(List<String> path, String part);
+    }
+
+    private enum Container { OBJECT, ARRAY }
+
+    private final Listener listener;
+    private final Deque<Container> containers = new ArrayDeque<>();
+    private final List<String> path = new ArrayList<>();
+    private final StringBuilder token = new StringBuilder();
+    private boolean started;
+    private boolean finished;
+    private boolean expectingKey;
+    private boolean inString;
+    private boolean inScalar;
+    private boolean escaped;
+    private int unicodeDigits = -1;
+    private int unicodeValue;
+
+    PartialJsonScanner(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * @return true once the root object has been closed
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Consumes the next chunk of model output.
+     */
+    void feed(CharSequence chunk) {
+        for (int i = 0; i < chunk.length() && !finished; i++) {
+            char c = chunk.charAt(i);
+            if (!started) {
+                if (c == '{') {
+                    started = true;
+                    open(Container.OBJECT);
+                }
+            } else if (inString) {
+                string(c);
+            } else if (inScalar && !isDelimiter(c)) {
+                token.append(c);
+            } else {
+                if (inScalar) endScalar();
+                structure(c);
+            }
+        }
+        // Forward whatever part of a string value this chunk carried
+        if (inString && !expectingKey && token.length() > 0) {
+            listener.onStringPart(List.copyOf(path), token.toString());
+            token.setLength(0);
+        }
+    }
+
+    private void structure(char c) {
+        switch (c) {
+            case '{' -> open(Container.OBJECT);
+            case '[' -> open(Container.ARRAY);
+            case '}', ']' -> close();
+            case ':' -> expectingKey = false;
+            case ',' -> {
+                if (containers.peek() == Container.OBJECT) {
+                    expectingKey = true;
+                    popKey();
+                }
+            }
+            case '"' -> {
+                inString = true;
+                token.setLength(0);
+            }
+            default -> {
+                if (!Character.isWhitespace(c)) {
+                    inScalar = true;
+                    token.setLength(0);
+                    token.append(c);
+                }
+            }
+        }
+    }
+
+    private void string(char c) {
+        if (unicodeDigits >= 0) {
+            unicodeValue = unicodeValue * 16 + Character.digit(c, 16);
+            if (++unicodeDigits == 4) {
+                token.append((char) unicodeValue);
+                unicodeDigits = -1;
+            }
+        } else if (escaped) {
+            escaped = false;
+            switch (c) {
+                case 'n' -> token.append('\n');
+                case 't' -> token.append('\t');
+                case 'r' -> token.append('\r');
+                case 'b' -> token.append('\b');
+                case 'f' -> token.append('\f');
+                case 'u' -> {
+                    unicodeDigits = 0;
+                    unicodeValue = 0;
+                }
+                default -> token.append(c);
+            }
+        } else if (c == '\\') {
+            escaped = true;
+        } else if (c == '"') {
+            inString = false;
+            if (expectingKey) {
+                path.add(token.toString());
+            } else if (token.length() > 0) {
+                listener.onStringPart(List.copyOf(path), token.toString());
+            }
+            token.setLength(0);
+        } else {
+            token.append(c);
+        }
+    }
+
+    private void endScalar() {
+        inScalar = false;
+        listener.onScalar(List.copyOf(path), token.toString());
+        token.setLength(0);
+    }
+
+    private void open(Container container) {
+        containers.push(container);
+        expectingKey = container == Container.OBJECT;
+    }
+
+    private void close() {
+        Container closed = containers.pop();
+        if (closed == Container.OBJECT && !expectingKey) popKey();
+        if (containers.isEmpty()) {
+            finished = true;
+            return;
+        }
+        // The value that just closed belonged to the key of the enclosing object
+        expectingKey = false;
+    }
+
+    private void popKey() {
+        if (!path.isEmpty()) path.remove(path.size() - 1);
+    }
+
+    private static boolean isDelimiter(char c) {
+        return c == ',' || c == '}' || c == ']' || Character.isWhitespace(c);
+    }
+}
@@ -0,0 +1,178 @@
+package org.nc.IELTSChecker.services;
+
+import com.opencsv.CSVReader;
+import org.nc.IELTSChecker.embedding.HashingEmbeddingModel;
+import org.nc.IELTSChecker.store.HnswIndex;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.DefaultResourceLoader;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Vector store compiled from the bundled dataset at build time, so that a fresh instance maps a
+ * ready store file and HNSW graph instead of embedding every essay on its first start.
+ *
+ * <p>The {@code prebuilt-index} build profile, active with {@code -Dembedding.provider=local}, runs
+ * {@link #main} in the {@code process-classes} phase, which writes the store
+ * file, its graph and a manifest to {@code prebuilt/} on the classpath. Embeddings come from the
+ * local {@link HashingEmbeddingModel} fitted on the same dataset, so the artifact is only
+ * installed when the application uses a model with the same id and dimensions, which only a dev or
+ * test profile running {@code embedding.provider=local} does.
+ */
+public final class PrebuiltIndex {
+
+    public static final String STORE_FILE = "vector_store.bin";
+    public static final String MANIFEST_FILE = "manifest.properties";
+
+    private static final int BATCH_SIZE = 256;
+    private static final HnswIndex.Settings HNSW = new HnswIndex.Settings(16, 200, 64);
+
+    /**
+     * What the artifact was built with.
+     * @param modelId the embedding model id, which includes the fitted IDF weights
+     * @param dimensions the embedding dimensions
+     * @param documents the number of stored essays
+     */
+    public record Manifest(String modelId, int dimensions, int documents) {
+
+        static Manifest read(InputStream in) throws IOException {
+            Properties properties = new Properties();
+            properties.load(in);
+            return new Manifest(properties.getProperty("embedding.model"),
+                    Integer.parseInt(properties.getProperty("embedding.dimensions")),
+                    Integer.parseInt(properties.getProperty("documents")));
+        }
+
+        void write(Path file) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("embedding.model", modelId);
+            properties.setProperty("embedding.dimensions", String.valueOf(dimensions));
+            properties.setProperty("documents", String.valueOf(documents));
+            try (OutputStream out = Files.newOutputStream(file)) {
+                properties.store(out, "Prebuilt vector store of the bundled IELTS dataset");
+            }
+        }
+    }
+
+    private PrebuiltIndex() {
+    }
+
+    /**
+     * Builds the artifact.
+     * @param args the dataset CSV, the output directory and optionally the embedding dimensions (384)
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: PrebuiltIndex <dataset.csv> <output-dir> [dimensions]");
+            System.exit(2);
+        }
+        int dimensions = args.length > 2 ? Integer.parseInt(args[2]) : 384;
+        long start = System.nanoTime();
+        Manifest manifest = build(new FileSystemResource(args[0]), Path.of(args[1]), dimensions);
+        System.out.printf("Prebuilt vector store: %d documents, %s, written to %s in %d ms%n", manifest.documents(),
+                manifest.modelId(), Path.of(args[1]).toAbsolutePath(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Embeds every Task 2 row of the dataset with a local model fitted on it, collapsing near-duplicates
+     * as the loader does, and writes the store file, its HNSW graph and the manifest.
+     * @param csv the dataset
+     * @param outputDir the directory to write to
+     * @param dimensions the embedding dimensions
+     * @return the manifest written
+     */
+    public static Manifest build(Resource csv, Path outputDir, int dimensions) throws Exception {
+        HashingEmbeddingModel model = HashingEmbeddingModel.fit(CsvIeltsTask2Loader.corpusTexts(csv), dimensions);
+        CsvIeltsTask2Loader loader = new CsvIeltsTask2Loader(new EssayPreprocessor());
+        Map<Integer, Integer> plan = loader.planRows(csv);
+
+        Files.createDirectories(outputDir);
+        File storeFile = outputDir.resolve(STORE_FILE).toFile();
+        MappedVectorStore store = new MappedVectorStore(model, storeFile, HNSW);
+        store.clear();
+
+        List<Document> batch = new ArrayList<>(BATCH_SIZE);
+        try (CSVReader reader = new CSVReader(new InputStreamReader(csv.getInputStream(), StandardCharsets.UTF_8))) {
+            reader.readNext();
+            String[] line;
+            int lineNumber = 1;
+            while ((line = reader.readNext()) != null) {
+                Integer duplicates = plan.get(++lineNumber);
+                if (duplicates == null) continue;
+                Document document = loader.parseRow(line, lineNumber, duplicates);
+                if (document == null) continue;
+                batch.add(document);
+                if (batch.size() == BATCH_SIZE) {
+                    store.add(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) store.add(batch);
+        if (store.size() == 0) throw new IllegalStateException("No valid documents found in " + csv.getDescription());
+        store.save();
+        // The log is empty after compaction; the application opens its own next to the installed file
+        Files.deleteIfExists(outputDir.resolve(STORE_FILE + ".log"));
+
+        Manifest manifest = new Manifest(model.getModelId(), dimensions, store.size());
+        manifest.write(outputDir.resolve(MANIFEST_FILE));
+        return manifest;
+    }
+
+    /**
+     * Copies the artifact to the store location if there is no store file yet and the artifact
+     * was built with the given embedding model.
+     * @param location resource location of the artifact directory, ending with a slash
+     * @param storeFile the application's store file
+     * @param modelId the id of the application's embedding model
+     * @param dimensions the dimensions of the application's embedding model
+     * @return the manifest of the installed artifact, or null if nothing was installed
+     * @throws IOException if the artifact cannot be copied
+     */
+    public static Manifest install(String location, File storeFile, String modelId, int dimensions) throws IOException {
+        if (storeFile.exists()) return null;
+        DefaultResourceLoader resources = new DefaultResourceLoader();
+        Resource manifestResource = resources.getResource(location + MANIFEST_FILE);
+        if (!manifestResource.exists()) return null;
+
+        Manifest manifest;
+        try (InputStream in = manifestResource.getInputStream()) {
+            manifest = Manifest.read(in);
+        }
+        if (!manifest.modelId().equals(modelId) || manifest.dimensions() != dimensions) {
+            System.out.printf("Prebuilt vector store was built with %s (%d dimensions); the application uses %s (%d); "
+                    + "not installed%n", manifest.modelId(), manifest.dimensions(), modelId, dimensions);
+            return null;
+        }
+
+        // The graph goes first: the store file is what marks the installation as done
+        Path target = storeFile.toPath();
+        Files.createDirectories(target.toAbsolutePath().getParent());
+        copy(resources.getResource(location + STORE_FILE + ".hnsw"), target.resolveSibling(storeFile.getName() + ".hnsw"));
+        copy(resources.getResource(location + STORE_FILE), target);
+        return manifest;
+    }
+
+    private static void copy(Resource resource, Path target) throws IOException {
+        if (!resource.exists()) return;
+        Path temp = Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName().toString(), ".tmp");
+        try (InputStream in = resource.getInputStream()) {
+            Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,396 @@
+package org.nc.IELTSChecker.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs scoring requests off the servlet threads and guards the remote calls they make.
+ *
+ * <p>Requests run on a fixed pool with a bounded queue; when both are full a request is rejected at
+ * once with {@link OverloadedException} instead of queueing without bound. Each remote stage
+ * (embedding, retrieval, chat) runs with its own timeout on a bounded pool as well: a stage that
+ * timed out may keep its thread until the remote call returns, so embedding and retrieval get as
+ * many threads and queue slots as requests, and are rejected the same way once those are taken by
+ * a slow provider. Chat calls get a thread per call the governor can admit, and additionally wait for
+ * admission by the {@link LlmGovernor}, which keeps them within the provider's concurrency and rate
+ * budgets. A chat permit is held until the call really ends, even if its caller already timed out,
+ * so the governor counts what the provider sees. A call the provider rejects with a 429 before it
+ * produced anything is queued again, up to the governor's retry limit.
+ */
+public class ScoringExecutor implements AutoCloseable, MeterBinder {
+
+    /**
+     * @param requestThreads threads running scoring requests
+     * @param requestQueueCapacity requests waiting for a thread before new ones are rejected
+     * @param maxConcurrentLlmCalls bulkhead size for chat calls, without an explicit governor
+     * @param llmPermitWait how long a request waits for a chat permit, without an explicit governor
+     * @param embeddingTimeout timeout of one embedding call
+     * @param retrievalTimeout timeout of one vector search
+     * @param chatTimeout timeout of one chat call
+     */
+    public record Settings(int requestThreads, int requestQueueCapacity, int maxConcurrentLlmCalls,
+                           Duration llmPermitWait, Duration embeddingTimeout, Duration retrievalTimeout,
+                           Duration chatTimeout) {
+    }
+
+    /**
+     * The server is saturated; the request should be retried later.
+     */
+    public static class OverloadedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final Duration retryAfter;
+
+        public OverloadedException(String message) {
+            this(message, Duration.ofSeconds(1));
+        }
+
+        public OverloadedException(String message, Duration retryAfter) {
+            super(message);
+            this.retryAfter = retryAfter;
+        }
+
+        /**
+         * @return how long the client should wait before retrying
+         */
+        public Duration getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    /**
+     * Marks a stream the provider throttled before it emitted anything, so it can be retried.
+     */
+    private static class ThrottledException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ThrottledException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * A remote stage did not answer in time.
+     */
+    public static class StageTimeoutException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public StageTimeoutException(String stage, Duration timeout) {
+            super(stage + " did not complete within " + timeout.toMillis() + " ms");
+        }
+    }
+
+    /**
+     * @return whether the error is one a later attempt may not hit: the server or the provider was
+     * saturated, a stage timed out, or a remote service could not be reached or failed on its side.
+     * Spring AI's clients report a provider's 5xx answers as {@link TransientAiException}.
+     */
+    public static boolean isTransient(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause()) {
+            if (t instanceof OverloadedException || t instanceof StageTimeoutException
+                    || t instanceof TransientAiException || t instanceof ResourceAccessException || t instanceof HttpServerErrorException
+                    || t instanceof IOException) {
+                return true;
+            }
+            if (t.getCause() == t) break;
+        }
+        return AdaptiveConcurrencyLimiter.isRateLimited(error);
+    }
+
+    private final Settings settings;
+    private final ThreadPoolExecutor requests;
+    private final ThreadPoolExecutor stages;
+    private final ThreadPoolExecutor chatCalls;
+    private final LlmGovernor governor;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+
+    /**
+     * Guards chat calls with a fixed bulkhead of {@code maxConcurrentLlmCalls}.
+     */
+    public ScoringExecutor(Settings settings) {
+        this(settings, new LlmGovernor(LlmGovernor.Settings.bulkhead(settings.maxConcurrentLlmCalls(),
+                settings.llmPermitWait())));
+    }
+
+    public ScoringExecutor(Settings settings, LlmGovernor governor) {
+        this.settings = settings;
+        this.governor = governor;
+        this.requests = new ThreadPoolExecutor(settings.requestThreads(), settings.requestThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, settings.requestQueueCapacity())),
+                namedThreads("scoring-request"), new ThreadPoolExecutor.AbortPolicy());
+        this.stages = new ThreadPoolExecutor(settings.requestThreads(), settings.requestThreads(),
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(Math.max(1, settings.requestQueueCapacity())),
+                namedThreads("scoring-stage"), new ThreadPoolExecutor.AbortPolicy());
+        // Permits are held until a call really ends, so the governor's limit bounds the busy threads
+        int maxChatCalls = Math.max(1, governor.getMaxConcurrency());
+        this.chatCalls = new ThreadPoolExecutor(maxChatCalls, maxChatCalls,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxChatCalls),
+                namedThreads("scoring-chat"), new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Runs a scoring request on the request pool.
+     * @param request the work to run
+     * @return its result, or a future failed with {@link OverloadedException} if the pool is saturated
+     */
+    public <T> CompletableFuture<T> submit(Supplier<T> request) {
+        try {
+            return CompletableFuture.supplyAsync(request, requests);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new OverloadedException("Too many scoring requests in progress"));
+        }
+    }
+
+    /**
+     * Runs an embedding call with the embedding timeout.
+     */
+    public <T> T embedding(Callable<T> call) {
+        return runStage(stages, "embedding", settings.embeddingTimeout(), call);
+    }
+
+    /**
+     * Runs a vector search with the retrieval timeout.
+     */
+    public <T> T retrieval(Callable<T> call) {
+        return runStage(stages, "retrieval", settings.retrievalTimeout(), call);
+    }
+
+    /**
+     * Runs an interactive chat call of unknown size; see {@link #chat(LlmGovernor.Priority, int, Callable)}.
+     */
+    public <T> T chat(Callable<T> call) {
+        return chat(LlmGovernor.Priority.INTERACTIVE, 0, call);
+    }
+
+    /**
+     * Runs a chat call once the governor admits it, with the chat timeout.
+     * @param priority whose call it is
+     * @param promptTokens the estimated tokens of the prompt
+     * @throws OverloadedException if the call is not admitted within its wait, or is still throttled
+     * after the retries
+     */
+    public <T> T chat(LlmGovernor.Priority priority, int promptTokens, Callable<T> call) {
+        for (int attempt = 0; ; attempt++) {
+            LlmGovernor.Permit permit = acquireLlmPermit(priority, promptTokens);
+            AtomicBoolean started = new AtomicBoolean();
+            try {
+                return runStage(chatCalls, "chat", settings.chatTimeout(), () -> {
+                    started.set(true);
+                    try {
+                        T result = call.call();
+                        permit.onSuccess();
+                        return result;
+                    } catch (Exception e) {
+                        if (AdaptiveConcurrencyLimiter.isRateLimited(e)) permit.onThrottled();
+                        throw e;
+                    } finally {
+                        permit.onFailure();
+                    }
+                });
+            } catch (RuntimeException e) {
+                if (!AdaptiveConcurrencyLimiter.isRateLimited(e)) throw e;
+                if (attempt >= governor.getMaxThrottleRetries()) throw throttled();
+            } finally {
+                // A call cancelled before it started will never release its permit itself
+                if (!started.get()) permit.onFailure();
+            }
+        }
+    }
+
+    /**
+     * Runs an interactive streamed chat call of unknown size; see
+     * {@link #chatStream(LlmGovernor.Priority, int, Supplier)}.
+     */
+    public <T> Flux<T> chatStream(Supplier<Flux<T>> call) {
+        return chatStream(LlmGovernor.Priority.INTERACTIVE, 0, call);
+    }
+
+    /**
+     * Runs a streamed chat call once the governor admits it. The permit is held until the stream ends
+     * or is cancelled, and the whole stream must finish within the chat timeout. Admission waits on a
+     * bounded-elastic thread, never on the subscriber's or the HTTP client's.
+     * @param priority whose call it is
+     * @param promptTokens the estimated tokens of the prompt
+     * @param call opens the stream
+     * @return the stream, failing with {@link OverloadedException} or {@link StageTimeoutException}
+     */
+    public <T> Flux<T> chatStream(LlmGovernor.Priority priority, int promptTokens, Supplier<Flux<T>> call) {
+        return Flux.defer(() -> {
+            LlmGovernor.Permit permit = acquireLlmPermit(priority, promptTokens);
+            AtomicBoolean emitted = new AtomicBoolean();
+            long deadline = System.nanoTime() + settings.chatTimeout().toNanos();
+            Supplier<Mono<Long>> untilDeadline = () ->
+                    Mono.delay(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+            Flux<T> stream;
+            try {
+                stream = call.get();
+            } catch (RuntimeException e) {
+                permit.onFailure();
+                throw e;
+            }
+            return stream
+                    .timeout(untilDeadline.get(), item -> untilDeadline.get())
+                    .onErrorMap(TimeoutException.class, e -> {
+                        timedOut.increment();
+                        return new StageTimeoutException("chat", settings.chatTimeout());
+                    })
+                    .doOnNext(item -> emitted.set(true))
+                    // Release before the terminal signal reaches subscribers; doFinally covers cancellation
+                    .doOnComplete(permit::onSuccess)
+                    .doOnError(e -> {
+                        if (AdaptiveConcurrencyLimiter.isRateLimited(e)) permit.onThrottled();
+                        permit.onFailure();
+                    })
+                    .doFinally(signal -> permit.onFailure())
+                    // Only a stream that produced nothing can be retried without repeating output
+                    .onErrorMap(e -> !emitted.get() && AdaptiveConcurrencyLimiter.isRateLimited(e),
+                            ThrottledException::new);
+        })
+                // Admission blocks; a retry resubscribes on the thread that delivered the 429, an event loop
+                .subscribeOn(Schedulers.boundedElastic())
+                .retryWhen(Retry.max(governor.getMaxThrottleRetries())
+                .filter(ThrottledException.class::isInstance)
+                .onRetryExhaustedThrow((spec, signal) -> throttled()));
+    }
+
+    private LlmGovernor.Permit acquireLlmPermit(LlmGovernor.Priority priority, int promptTokens) {
+        try {
+            return governor.acquire(priority, promptTokens);
+        } catch (OverloadedException e) {
+            rejected.increment();
+            throw e;
+        }
+    }
+
+    private OverloadedException throttled() {
+        return new OverloadedException("The model provider is throttling requests", governor.retryAfter());
+    }
+
+    /**
+     * @return chat calls currently in flight
+     */
+    public int getActiveLlmCalls() {
+        return governor.getInFlight();
+    }
+
+    /**
+     * @return requests waiting for a request thread
+     */
+    public int getQueuedRequests() {
+        return requests.getQueue().size();
+    }
+
+    /**
+     * @return embedding and retrieval stages waiting for a thread
+     */
+    public int getQueuedStages() {
+        return stages.getQueue().size();
+    }
+
+    /**
+     * @return requests, stages and chat calls rejected because of saturation
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return stages abandoned because they exceeded their timeout
+     */
+    public long getTimedOut() {
+        return timedOut.sum();
+    }
+
+    public LlmGovernor getGovernor() {
+        return governor;
+    }
+
+    /**
+     * Publishes the saturation of the pools and the governor.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        governor.bindTo(registry);
+        Gauge.builder("scoring.llm.active", this, ScoringExecutor::getActiveLlmCalls)
+                .description("Chat calls in flight").register(registry);
+        Gauge.builder("scoring.requests.queued", this, ScoringExecutor::getQueuedRequests)
+                .description("Scoring requests waiting for a thread").register(registry);
+        Gauge.builder("scoring.stages.queued", this, ScoringExecutor::getQueuedStages)
+                .description("Embedding and retrieval stages waiting for a thread").register(registry);
+        FunctionCounter.builder("scoring.rejected", this, ScoringExecutor::getRejected)
+                .description("Requests, stages and chat calls rejected because of saturation").register(registry);
+        FunctionCounter.builder("scoring.stage.timeouts", this, ScoringExecutor::getTimedOut)
+                .description("Stages abandoned after their timeout").register(registry);
+    }
+
+    @Override
+    public void close() {
+        requests.shutdownNow();
+        stages.shutdownNow();
+        chatCalls.shutdownNow();
+    }
+
+    private <T> T runStage(ThreadPoolExecutor pool, String stage, Duration timeout, Callable<T> call) {
+        Future<T> future;
+        try {
+            future = pool.submit(call);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new OverloadedException("Too many " + stage + " calls in progress");
+        }
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            // A stage that never started gives its queue slot back at once
+            pool.remove((Runnable) future);
+            timedOut.increment();
+            throw new StageTimeoutException(stage, timeout);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(stage + " was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) throw cause;
+            if (e.getCause() instanceof Error error) throw error;
+            throw new IllegalStateException(stage + " failed", e.getCause());
+        }
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,454 @@
+package org.nc.IELTSChecker.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.nc.IELTSChecker.dto.BatchEvaluationItem;
+import org.nc.IELTSChecker.dto.EssayRequest;
+import org.nc.IELTSChecker.dto.EvaluationResponse;
+import org.nc.IELTSChecker.dto.ScoringJob;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scores essays asynchronously: a submission is recorded in a durable {@link JobLog} and answered
+ * with a job id at once, and workers drain the queue in the background.
+ *
+ * <p>Each worker takes up to {@code scoring.jobs.batch-size} queued jobs at a time and scores them
+ * with {@link IeltsScoringService#scoreEssays}, which embeds their search queries in one call and
+ * makes the LLM calls at batch priority, so the {@link LlmGovernor} paces the queue to what the
+ * provider accepts after interactive requests. Workers wait for the vector store to load, so queued
+ * jobs are always scored against reference essays.
+ *
+ * <p>A job that fails with a transient error, such as an overloaded server, a stage timeout or a
+ * throttling provider, is queued again after a backoff that doubles with each attempt, and is
+ * recorded as failed only after {@code scoring.jobs.max-attempts} attempts; other errors fail it at
+ * once.
+ *
+ * <p>On shutdown, workers stop taking jobs and the batches being scored get
+ * {@code scoring.jobs.shutdown-grace-ms} to finish. A batch still running after that is interrupted
+ * and its results are not recorded, so its jobs are not failed by the shutdown.
+ *
+ * <p>On startup, jobs submitted but not finished before a restart are queued again in submission
+ * order; finished jobs are kept for {@code scoring.jobs.retention-hours}. The log is compacted to
+ * its live records on startup and whenever it fills up.
+ */
+@Service
+public class ScoringJobQueue {
+
+    /**
+     * @param queued jobs waiting for a worker
+     * @param running jobs being scored
+     * @param completed jobs scored since startup
+     * @param failed jobs that failed since startup
+     * @param oldestWaitMs how long the oldest queued job has waited
+     * @param drainedLastMinute jobs finished in the last minute
+     * @param logBytes bytes used in the job log
+     * @param logCapacity bytes mapped for the job log
+     */
+    public record Stats(int queued, int running, long completed, long failed, long oldestWaitMs,
+                        int drainedLastMinute, long logBytes, long logCapacity) {
+    }
+
+    private static final Logger log = LoggerFactory.getLogger(ScoringJobQueue.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Value("${scoring.jobs.path:data/scoring_jobs.log}")
+    private String path;
+
+    @Value("${scoring.jobs.workers:2}")
+    private int workers;
+
+    @Value("${scoring.jobs.batch-size:8}")
+    private int batchSize;
+
+    @Value("${scoring.jobs.max-queued:10000}")
+    private int maxQueued;
+
+    @Value("${scoring.jobs.retention-hours:24}")
+    private long retentionHours;
+
+    @Value("${scoring.jobs.log-capacity-mb:16}")
+    private long logCapacityMb;
+
+    @Value("${scoring.jobs.max-attempts:5}")
+    private int maxAttempts;
+
+    @Value("${scoring.jobs.retry-backoff-ms:1000}")
+    private long retryBackoffMs;
+
+    @Value("${scoring.jobs.max-retry-backoff-ms:60000}")
+    private long maxRetryBackoffMs;
+
+    @Value("${scoring.jobs.shutdown-grace-ms:30000}")
+    private long shutdownGraceMs;
+
+    @Autowired
+    private IeltsScoringService scoringService;
+
+    @Autowired
+    private VectorStoreInitializer storeInitializer;
+
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final BlockingQueue<Job> queue = new LinkedBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+    private final Deque<Long> drained = new ArrayDeque<>();
+    private final Timer waitTimer;
+    private final Counter completed;
+    private final Counter failed;
+    private final Counter retried;
+    private JobLog jobLog;
+    private ExecutorService workerPool;
+    private volatile boolean stopping;
+
+    public ScoringJobQueue(MeterRegistry registry) {
+        Gauge.builder("scoring.jobs.queued", queue, BlockingQueue::size)
+                .description("Scoring jobs waiting for a worker").register(registry);
+        Gauge.builder("scoring.jobs.running", running, AtomicInteger::get)
+                .description("Scoring jobs being scored").register(registry);
+        TimeGauge.builder("scoring.jobs.oldest.wait", this, TimeUnit.MILLISECONDS, ScoringJobQueue::oldestWaitMs)
+                .description("How long the oldest queued scoring job has waited").register(registry);
+        waitTimer = Timer.builder("scoring.jobs.wait")
+                .description("Time from submitting a scoring job until a worker takes it")
+                .publishPercentileHistogram()
+                .register(registry);
+        completed = Counter.builder("scoring.jobs.finished").tag("outcome", "completed")
+                .description("Scoring jobs finished, whose rate is the drain rate").register(registry);
+        failed = Counter.builder("scoring.jobs.finished").tag("outcome", "failed")
+                .description("Scoring jobs finished, whose rate is the drain rate").register(registry);
+        retried = Counter.builder("scoring.jobs.retried")
+                .description("Scoring job attempts that failed with a transient error and were queued again")
+                .register(registry);
+    }
+
+    /**
+     * Replays the job log, queues the unfinished jobs again and starts the workers.
+     */
+    @PostConstruct
+    public void start() throws IOException {
+        Path file = Paths.get(path).toAbsolutePath().normalize();
+        Map<String, Job> replayed = new LinkedHashMap<>();
+        jobLog = JobLog.open(file, logCapacityMb << 20, entry -> replay(entry, replayed));
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours);
+        replayed.values().removeIf(job -> job.isDone() && job.completedAt < cutoff);
+        jobs.putAll(replayed);
+        replayed.values().stream().filter(job -> !job.isDone()).forEach(queue::add);
+        synchronized (this) {
+            jobLog.rewrite(liveEntries());
+        }
+        log.info("Scoring jobs: {} queued, {} finished, log at {}",
+                queue.size(), jobs.size() - queue.size(), file);
+
+        AtomicInteger threadCount = new AtomicInteger();
+        workerPool = Executors.newFixedThreadPool(Math.max(1, workers), runnable -> {
+            Thread thread = new Thread(runnable, "scoring-job-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < Math.max(1, workers); i++) workerPool.execute(this::drain);
+    }
+
+    @PreDestroy
+    public void stop() throws IOException, InterruptedException {
+        stopping = true;
+        workerPool.shutdown();
+        if (!workerPool.awaitTermination(shutdownGraceMs, TimeUnit.MILLISECONDS)) {
+            workerPool.shutdownNow();
+            workerPool.awaitTermination(5, TimeUnit.SECONDS);
+        }
+        // Jobs still running are not finished in the log and run again after a restart
+        synchronized (this) {
+            jobLog.close();
+        }
+    }
+
+    /**
+     * Records a submission durably and queues it.
+     * @return the queued job
+     * @throws ScoringExecutor.OverloadedException if {@code scoring.jobs.max-queued} jobs are waiting
+     */
+    public ScoringJob submit(EssayRequest request) {
+        if (queue.size() >= maxQueued) {
+            throw new ScoringExecutor.OverloadedException("Too many scoring jobs queued", Duration.ofSeconds(30));
+        }
+        Job job = new Job(UUID.randomUUID().toString(), sequence.getAndIncrement(), request,
+                System.currentTimeMillis());
+        try {
+            synchronized (this) {
+                append(submitted(job));
+                jobs.put(job.id, job);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not record the scoring job", e);
+        }
+        queue.add(job);
+        return job.view();
+    }
+
+    /**
+     * @return the job, or null if it is unknown or expired
+     */
+    public ScoringJob get(String id) {
+        Job job = jobs.get(id);
+        return job != null ? job.view() : null;
+    }
+
+    /**
+     * @return a future completed with the job once it has ended, or null if the job is unknown
+     */
+    public CompletableFuture<ScoringJob> whenDone(String id) {
+        Job job = jobs.get(id);
+        return job != null ? job.done : null;
+    }
+
+    public Stats stats() {
+        long now = System.currentTimeMillis();
+        int drainedLastMinute;
+        synchronized (drained) {
+            pruneDrained(now);
+            drainedLastMinute = drained.size();
+        }
+        long logBytes;
+        long logCapacity;
+        synchronized (this) {
+            logBytes = jobLog.size();
+            logCapacity = jobLog.capacity();
+        }
+        return new Stats(queue.size(), running.get(), (long) completed.count(), (long) failed.count(),
+                (long) oldestWaitMs(), drainedLastMinute, logBytes, logCapacity);
+    }
+
+    private void drain() {
+        try {
+            while (!stopping && !Thread.currentThread().isInterrupted()) {
+                // Queued jobs are not urgent: score them against the reference essays
+                if (storeInitializer.getState() == VectorStoreInitializer.State.LOADING) {
+                    Thread.sleep(500);
+                    continue;
+                }
+                // Polled rather than taken, so a stopping queue's idle workers exit
+                Job first = queue.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                List<Job> batch = new ArrayList<>(batchSize);
+                batch.add(first);
+                queue.drainTo(batch, Math.max(0, batchSize - 1));
+                run(batch);
+                pruneExpired();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(List<Job> batch) {
+        long now = System.currentTimeMillis();
+        for (Job job : batch) {
+            job.status = ScoringJob.Status.RUNNING;
+            if (job.attempts++ == 0) waitTimer.record(now - job.submittedAt, TimeUnit.MILLISECONDS);
+        }
+        running.addAndGet(batch.size());
+        try {
+            List<BatchEvaluationItem> results;
+            try {
+                results = scoringService.scoreEssays(batch.stream().map(job -> job.request).toList());
+            } catch (RuntimeException e) {
+                String error = "Evaluation failed: " + e.getMessage();
+                boolean retryable = ScoringExecutor.isTransient(e);
+                results = batch.stream()
+                        .map(job -> new BatchEvaluationItem(0, null, error, retryable))
+                        .toList();
+            }
+            if (Thread.currentThread().isInterrupted()) {
+                // Stopped past the grace period: the errors are the interruption's, not the jobs'
+                log.warn("Scoring of {} jobs was interrupted by shutdown; they run again after a restart",
+                        batch.size());
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                BatchEvaluationItem result = results.get(i);
+                if (result.retryable() && batch.get(i).attempts < maxAttempts) {
+                    retry(batch.get(i), result.error());
+                } else {
+                    finish(batch.get(i), result.evaluation(), result.error());
+                }
+            }
+        } finally {
+            running.addAndGet(-batch.size());
+        }
+    }
+
+    /**
+     * Queues the job again once its backoff has passed. It is not finished in the log, so a restart
+     * during the backoff queues it again too.
+     */
+    private void retry(Job job, String error) {
+        long backoff = Math.min(maxRetryBackoffMs, retryBackoffMs << Math.min(job.attempts - 1, 20));
+        log.warn("Scoring job {} failed on attempt {} of {}, retrying in {} ms: {}",
+                job.id, job.attempts, maxAttempts, backoff, error);
+        retried.increment();
+        job.status = ScoringJob.Status.QUEUED;
+        CompletableFuture.delayedExecutor(backoff, TimeUnit.MILLISECONDS).execute(() -> queue.add(job));
+    }
+
+    private void finish(Job job, EvaluationResponse evaluation, String error) {
+        long now = System.currentTimeMillis();
+        if (evaluation == null && error == null) error = "Evaluation failed";
+        // Counted before the job is completed, so whoever awaits it sees the stats include it
+        (evaluation != null ? completed : failed).increment();
+        synchronized (drained) {
+            drained.addLast(now);
+            pruneDrained(now);
+        }
+        try {
+            synchronized (this) {
+                append(evaluation != null
+                        ? new JobLog.Entry(JobLog.COMPLETED, job.id, now, MAPPER.writeValueAsBytes(evaluation))
+                        : new JobLog.Entry(JobLog.FAILED, job.id, now, error.getBytes(StandardCharsets.UTF_8)));
+                job.finish(now, evaluation, error);
+            }
+        } catch (IOException e) {
+            // Answered from memory; the job runs again after a restart
+            log.warn("Could not record the result of scoring job {}: {}", job.id, e.getMessage());
+            job.finish(now, evaluation, error);
+        }
+    }
+
+    /**
+     * Appends a record, compacting the log when it is full. Callers hold the lock, so a compaction
+     * sees every record appended before it.
+     */
+    private void append(JobLog.Entry entry) throws IOException {
+        if (jobLog.append(entry)) return;
+        pruneExpired();
+        jobLog.rewrite(liveEntries());
+        if (!jobLog.append(entry)) throw new IOException("The record does not fit the job log");
+    }
+
+    /**
+     * @return the records of the retained jobs, in submission order
+     */
+    private List<JobLog.Entry> liveEntries() throws IOException {
+        List<Job> live = new ArrayList<>(jobs.values());
+        live.sort(Comparator.comparingLong(job -> job.sequence));
+        List<JobLog.Entry> entries = new ArrayList<>(live.size() * 2);
+        for (Job job : live) {
+            entries.add(submitted(job));
+            if (job.status == ScoringJob.Status.COMPLETED) {
+                entries.add(new JobLog.Entry(JobLog.COMPLETED, job.id, job.completedAt,
+                        MAPPER.writeValueAsBytes(job.evaluation)));
+            } else if (job.status == ScoringJob.Status.FAILED) {
+                entries.add(new JobLog.Entry(JobLog.FAILED, job.id, job.completedAt,
+                        job.error.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        return entries;
+    }
+
+    private static JobLog.Entry submitted(Job job) throws IOException {
+        return new JobLog.Entry(JobLog.SUBMITTED, job.id, job.submittedAt, MAPPER.writeValueAsBytes(job.request));
+    }
+
+    private void replay(JobLog.Entry entry, Map<String, Job> replayed) {
+        try {
+            if (entry.type() == JobLog.SUBMITTED) {
+                replayed.put(entry.jobId(), new Job(entry.jobId(), sequence.getAndIncrement(),
+                        MAPPER.readValue(entry.body(), EssayRequest.class), entry.time()));
+                return;
+            }
+            Job job = replayed.get(entry.jobId());
+            if (job == null) return;
+            if (entry.type() == JobLog.COMPLETED) {
+                job.finish(entry.time(), MAPPER.readValue(entry.body(), EvaluationResponse.class), null);
+            } else if (entry.type() == JobLog.FAILED) {
+                job.finish(entry.time(), null, new String(entry.body(), StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            log.warn("Skipping unreadable record of scoring job {}: {}", entry.jobId(), e.getMessage());
+        }
+    }
+
+    private void pruneExpired() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours);
+        jobs.values().removeIf(job -> job.isDone() && job.completedAt < cutoff);
+    }
+
+    private void pruneDrained(long now) {
+        while (!drained.isEmpty() && drained.peekFirst() < now - TimeUnit.MINUTES.toMillis(1)) drained.pollFirst();
+    }
+
+    private double oldestWaitMs() {
+        Job oldest = queue.peek();
+        return oldest != null ? Math.max(0, System.currentTimeMillis() - oldest.submittedAt) : 0;
+    }
+
+    private static final class Job {
+        final String id;
+        final long sequence;
+        final EssayRequest request;
+        final long submittedAt;
+        final CompletableFuture<ScoringJob> done = new CompletableFuture<>();
+        volatile ScoringJob.Status status = ScoringJob.Status.QUEUED;
+        volatile int attempts;
+        volatile long completedAt;
+        volatile EvaluationResponse evaluation;
+        volatile String error;
+
+        Job(String id, long sequence, EssayRequest request, long submittedAt) {
+            this.id = id;
+            this.sequence = sequence;
+            this.request = request;
+            this.submittedAt = submittedAt;
+        }
+
+        boolean isDone() {
+            return status == ScoringJob.Status.COMPLETED || status == ScoringJob.Status.FAILED;
+        }
+
+        void finish(long time, EvaluationResponse evaluation, String error) {
+            this.completedAt = time;
+            this.evaluation = evaluation;
+            this.error = error;
+            this.status = evaluation != null ? ScoringJob.Status.COMPLETED : ScoringJob.Status.FAILED;
+            done.complete(view());
+        }
+
+        ScoringJob view() {
+            return new ScoringJob(id, status, Instant.ofEpochMilli(submittedAt),
+                    isDone() ? Instant.ofEpochMilli(completedAt) : null, evaluation, error);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.nc.IELTSChecker.services;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.ai.chat.metadata.Usage;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Latency and throughput meters of the scoring pipeline, published through Actuator
+ * ({@code /actuator/prometheus}).
+ *
+ * <p>Each stage of an evaluation has a timer with a percentile histogram under
+ * {@code scoring.stage.duration}, tagged by stage, and failed runs are counted under
+ * {@code scoring.stage.errors}. Answered requests are counted by outcome
+ * under {@code scoring.evaluations}, which gives the throughput.
+ */
+@Component
+public class ScoringMetrics {
+
+    /**
+     * The timed stages of an evaluation.
+     */
+    public enum Stage { PRESCORE, EMBEDDING, RETRIEVAL, PROMPT, LLM, PARSE }
+
+    /**
+     * How a scoring request was answered: by a new evaluation, from the evaluation cache, with the
+     * fallback response because the answer was unparseable, with an error, or by the
+     * {@link BandPreScorer} without calling the LLM.
+     */
+    public enum Outcome { SCORED, CACHED, FALLBACK, FAILED, PRESCORED }
+
+    private final Map<Stage, Timer> stages = new EnumMap<>(Stage.class);
+    private final Map<Stage, Counter> stageErrors = new EnumMap<>(Stage.class);
+    private final Map<Outcome, Counter> outcomes = new EnumMap<>(Outcome.class);
+    private final Counter promptTokens;
+    private final Counter completionTokens;
+    private final DistributionSummary retrievedExamples;
+    private final Counter parseFailures;
+    private final Counter fallbackResponses;
+    private final Counter questionMatches;
+    private final Counter degradedRetrievals;
+
+    public ScoringMetrics(MeterRegistry registry) {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, Timer.builder("scoring.stage.duration")
+                    .description("Duration of one stage of an essay evaluation")
+                    .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(registry));
+            stageErrors.put(stage, Counter.builder("scoring.stage.errors")
+                    .description("Runs of one stage of an essay evaluation that failed")
+                    .tag("stage", stage.name().toLowerCase(Locale.ROOT))
+                    .register(registry));
+        }
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, Counter.builder("scoring.evaluations")
+                    .description("Answered scoring requests")
+                    .tag("outcome", outcome.name().toLowerCase(Locale.ROOT))
+                    .register(registry));
+        }
+        promptTokens = Counter.builder("scoring.llm.tokens").tag("type", "prompt")
+                .description("Tokens sent to and received from the chat model").register(registry);
+        completionTokens = Counter.builder("scoring.llm.tokens").tag("type", "completion")
+                .description("Tokens sent to and received from the chat model").register(registry);
+        retrievedExamples = DistributionSummary.builder("scoring.retrieval.examples")
+                .description("Reference essays retrieved for one evaluation")
+                .register(registry);
+        parseFailures = Counter.builder("scoring.parse.failures")
+                .description("Model answers that could not be parsed as an evaluation")
+                .register(registry);
+        fallbackResponses = Counter.builder("scoring.fallback.responses")
+                .description("Default minimum-score responses returned instead of an evaluation")
+                .register(registry);
+        questionMatches = Counter.builder("scoring.retrieval.question.matches")
+                .description("Retrievals answered from essays on the same question, without an embedding call")
+                .register(registry);
+        degradedRetrievals = Counter.builder("scoring.retrieval.degraded")
+                .description("Evaluations scored without reference essays while the vector store was loading")
+                .register(registry);
+    }
+
+    /**
+     * Runs and times one stage; failed runs are timed too, and counted.
+     */
+    public <T> T time(Stage stage, Supplier<T> work) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = work.get();
+            failed = false;
+            return result;
+        } finally {
+            record(stage, System.nanoTime() - start);
+            if (failed) stageFailed(stage);
+        }
+    }
+
+    /**
+     * Records a stage that was timed by the caller.
+     */
+    public void record(Stage stage, long nanos) {
+        stages.get(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a failed run of a stage that was timed by the caller.
+     */
+    public void stageFailed(Stage stage) {
+        stageErrors.get(stage).increment();
+    }
+
+    public void evaluation(Outcome outcome) {
+        outcomes.get(outcome).increment();
+    }
+
+    /**
+     * Adds the token usage reported by the chat model, if it reported any.
+     */
+    public void tokens(Usage usage) {
+        if (usage == null) return;
+        if (usage.getPromptTokens() != null) promptTokens.increment(usage.getPromptTokens());
+        if (usage.getCompletionTokens() != null) completionTokens.increment(usage.getCompletionTokens());
+    }
+
+    public void retrieved(int examples) {
+        retrievedExamples.record(examples);
+    }
+
+    public void parseFailure() {
+        parseFailures.increment();
+    }
+
+    public void fallbackResponse() {
+        fallbackResponses.increment();
+    }
+
+    public void questionMatch() {
+        questionMatches.increment();
+    }
+
+    public void degradedRetrieval() {
+        degradedRetrievals.increment();
+    }
+}
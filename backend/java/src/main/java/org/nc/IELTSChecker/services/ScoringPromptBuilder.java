@@ -0,0 +1,134 @@
+package org.nc.IELTSChecker.services;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Assembles scoring prompts within a token budget.
+ *
+ * <p>The rubric and output format come first and never change, so providers that cache prompt
+ * prefixes can reuse them across requests. Reference essays follow as compact summaries (see
+ * {@link ExemplarSummarizer}), most relevant first, and the submission comes last. When the budget
+ * runs out, the least relevant examples are dropped and the last one that still fits in part is
+ * trimmed; the submission itself is never cut.
+ */
+@Component
+public class ScoringPromptBuilder {
+
+    static final String RUBRIC = """
+            You are an experienced IELTS examiner. Evaluate the essay at the end of this prompt based on IELTS Writing Task 2 criteria.
+
+            Scoring Criteria:
+            1. Task Response (TR): Address all parts, develop position, support ideas
+            2. Coherence & Cohesion (CC): Logical organization, paragraphing, linking devices
+            3. Lexical Resource (LR): Vocabulary range, accuracy, collocations
+            4. Grammatical Range & Accuracy (GRA): Sentence structures, grammar, punctuation
+
+            Provide evaluation in this exact JSON format:
+            {
+              "taskResponse": [score 1-9],
+              "coherenceCohesion": [score 1-9],
+              "lexicalResource": [score 1-9],
+              "grammaticalRangeAccuracy": [score 1-9],
+              "overallBand": [score 1-9],
+              "examinerFeedback": "[detailed feedback]",
+              "suggestions": {
+                "taskResponse": "[specific suggestions]",
+                "coherenceCohesion": "[specific suggestions]",
+                "lexicalResource": "[specific suggestions]",
+                "grammaticalRangeAccuracy": "[specific suggestions]"
+              }
+            }
+
+            """;
+
+    private static final String EXAMPLES_HEADER = "Scored Example Essays for Reference:\n";
+    private static final String CLOSING = "Reply with the JSON evaluation only.\n";
+    private static final int MIN_EXAMPLE_TOKENS = 40;
+
+    private final int maxTokens;
+    private final TokenCountEstimator tokenCounter = new JTokkitTokenCountEstimator();
+
+    /**
+     * @param maxTokens budget for the whole prompt
+     */
+    public ScoringPromptBuilder(@Value("${scoring.prompt.max-tokens:2500}") int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * Builds the scoring prompt.
+     * @param question the task question
+     * @param essay the cleaned essay to evaluate
+     * @param examples the retrieved reference essays
+     * @return the prompt, within the budget unless the submission alone exceeds it
+     */
+    public String build(String question, String essay, List<Document> examples) {
+        String submission = "Question: " + question + "\n\nEssay to evaluate:\n" + essay + "\n\n" + CLOSING;
+        int remaining = maxTokens - countTokens(RUBRIC) - countTokens(submission) - countTokens(EXAMPLES_HEADER);
+
+        List<String> included = new ArrayList<>();
+        for (Document example : byRelevance(examples)) {
+            if (remaining < MIN_EXAMPLE_TOKENS) break;
+            String block = "Example " + (included.size() + 1) + " ---\n" + ExemplarSummarizer.summaryOf(example) + "\n\n";
+            int tokens = countTokens(block);
+            if (tokens > remaining) {
+                block = trimToTokens(block, remaining);
+                tokens = countTokens(block);
+                if (tokens > remaining) break;
+            }
+            included.add(block);
+            remaining -= tokens;
+        }
+
+        StringBuilder prompt = new StringBuilder(RUBRIC);
+        if (!included.isEmpty()) {
+            prompt.append(EXAMPLES_HEADER);
+            included.forEach(prompt::append);
+        }
+        prompt.append(submission);
+        return prompt.toString();
+    }
+
+    /**
+     * @return the estimated number of tokens of the text
+     */
+    public int countTokens(String text) {
+        return tokenCounter.estimate(text);
+    }
+
+    private static List<Document> byRelevance(List<Document> examples) {
+        return examples.stream()
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing((Document document) ->
+                        document.getScore() == null ? 0.0 : document.getScore()).reversed())
+                .toList();
+    }
+
+    /**
+     * Cuts the text at the longest word prefix that fits the budget.
+     */
+    private String trimToTokens(String text, int budget) {
+        String[] words = text.split(" ");
+        int low = 0;
+        int high = words.length;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (countTokens(String.join(" ", Arrays.copyOf(words, mid)) + " ...\n\n") <= budget) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return String.join(" ", Arrays.copyOf(words, low)) + " ...\n\n";
+    }
+}
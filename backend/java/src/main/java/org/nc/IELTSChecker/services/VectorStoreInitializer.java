@@ -0,0 +1,200 @@
+package org.nc.IELTSChecker.services;
+
+import jakarta.annotation.PreDestroy;
+import org.nc.IELTSChecker.embedding.CachingEmbeddingModel;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import org.nc.IELTSChecker.store.SimpleVectorStoreJsonConverter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Brings the vector store up on a background thread once the application has started, so the
+ * HTTP server accepts requests while the store is mapped or built: installs the prebuilt index on
+ * a fresh instance, converts a legacy JSON store, maps the store file, then syncs it with the
+ * dataset ({@code ingest.dataset}).
+ *
+ * <p>The store counts as ready once it holds embeddings of the current model's dimensions, which
+ * for an existing or prebuilt store is right after mapping, before the dataset sync. Its state is
+ * the {@code vectorStore} health indicator, part of the readiness group. Whenever the store
+ * becomes ready or its corpus has changed, the exemplar sets of the stored questions are ranked
+ * up front, so that submissions on them are served from memory.
+ *
+ * <p>The store can be ready while the dataset sync is still writing to it, so
+ * {@link VectorStoreReloader} waits for {@link #awaitStartup() the whole sequence} before it stages a copy.
+ *
+ * <p>A read-only store belongs to another instance, so it is only mapped; until that instance has
+ * written the file, the store stays loading and {@link VectorStoreReloader} maps it once it appears.
+ */
+@Service
+public class VectorStoreInitializer {
+
+    public enum State { LOADING, READY, FAILED }
+
+    @Value("${vector.store.legacy-json-path:data/vector_store.json}")
+    private String legacyJsonPath;
+
+    @Value("${vector.store.prebuilt-location:classpath:/prebuilt/}")
+    private String prebuiltLocation;
+
+    @Autowired
+    private MappedVectorStore vectorStore;
+
+    @Autowired
+    private CsvIeltsTask2Loader loader;
+
+    @Autowired
+    private CachingEmbeddingModel embeddingModel;
+
+    private volatile State state = State.LOADING;
+    private volatile String failure;
+    private final CountDownLatch startupDone = new CountDownLatch(1);
+    private Thread thread;
+
+    @EventListener(ApplicationStartedEvent.class)
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(this::initialize, "vector-store-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (thread != null) thread.interrupt();
+    }
+
+    /**
+     * Runs the whole startup sequence on the calling thread.
+     */
+    void initialize() {
+        try {
+            startUp();
+        } finally {
+            startupDone.countDown();
+        }
+    }
+
+    /**
+     * Blocks until the startup sequence, including the dataset sync, has finished or failed.
+     */
+    void awaitStartup() throws InterruptedException {
+        startupDone.await();
+    }
+
+    private void startUp() {
+        long start = System.nanoTime();
+        if (vectorStore.isReadOnly()) {
+            try {
+                vectorStore.load();
+                if (usable()) {
+                    ready(start);
+                } else {
+                    System.out.println("Waiting for the shared vector store file: "
+                            + vectorStore.getStoreFile().getAbsolutePath());
+                }
+            } catch (Exception e) {
+                System.err.println("Error loading vector store: " + e.getMessage());
+            }
+            return;
+        }
+
+        try {
+            File storeFile = vectorStore.getStoreFile();
+            PrebuiltIndex.Manifest installed = PrebuiltIndex.install(prebuiltLocation, storeFile,
+                    embeddingModel.getModelId(), embeddingModel.dimensions());
+            if (installed != null) {
+                System.out.println("Installed prebuilt vector store (" + installed.documents() + " documents) at: "
+                        + storeFile.getAbsolutePath());
+            }
+
+            File legacyJsonFile = Paths.get(legacyJsonPath).toAbsolutePath().normalize().toFile();
+            if (!storeFile.exists() && legacyJsonFile.exists() && legacyJsonFile.length() > 0) {
+                int converted = SimpleVectorStoreJsonConverter.convert(legacyJsonFile, storeFile);
+                System.out.println("Converted " + converted + " documents from legacy JSON store: "
+                        + legacyJsonFile.getAbsolutePath());
+            }
+
+            // Maps the store file if there is one and replays batches committed since it was written
+            vectorStore.load();
+            if (vectorStore.size() > 0) {
+                System.out.println("Mapped existing vector store from: "
+                        + storeFile.getAbsolutePath() + " (" + vectorStore.size() + " documents)");
+            }
+            if (usable()) ready(start);
+        } catch (Exception e) {
+            System.err.println("Error loading vector store: " + e.getMessage());
+        }
+
+        try {
+            loader.loadCsvEssays();
+            System.out.println("IELTS Dataset data loaded successfully");
+            if (state != State.READY) ready(start);
+            else precomputeExemplars();
+        } catch (Exception e) {
+            System.err.println("Failed to load IELTS essay data: " + e.getMessage());
+            if (state != State.READY) {
+                failure = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+                state = State.FAILED;
+            }
+        }
+    }
+
+    /**
+     * Re-checks readiness after the store was reloaded.
+     */
+    void reloaded() {
+        if (usable()) {
+            failure = null;
+            state = State.READY;
+            precomputeExemplars();
+        }
+    }
+
+    private boolean usable() {
+        return vectorStore.size() > 0 && vectorStore.dimensions() == embeddingModel.dimensions();
+    }
+
+    private void ready(long start) {
+        state = State.READY;
+        System.out.printf("Vector store ready with %d documents after %d ms%n",
+                vectorStore.size(), (System.nanoTime() - start) / 1_000_000);
+        precomputeExemplars();
+    }
+
+    private void precomputeExemplars() {
+        long start = System.nanoTime();
+        int questions = vectorStore.precomputeQuestionExemplars();
+        System.out.printf("Ranked exemplars of %d stored questions in %d ms%n",
+                questions, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return true once searches run against the dataset's reference essays
+     */
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    /**
+     * @return out of service while loading, up with the document count once ready, down with the error
+     */
+    public Health health() {
+        return switch (state) {
+            case LOADING -> Health.outOfService().withDetail("state", "loading").build();
+            case READY -> Health.up().withDetail("documents", vectorStore.size()).build();
+            case FAILED -> Health.down().withDetail("error", failure).build();
+        };
+    }
+}
@@ -0,0 +1,196 @@
+package org.nc.IELTSChecker.services;
+
+import jakarta.annotation.PreDestroy;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationStartedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rebuilds the vector store in the background when asked through the admin endpoint or when a
+ * watched file changes, and swaps the result in without interrupting searches.
+ *
+ * <p>A writable store is copied to a staging file next to it, the copy is synced with the dataset
+ * (only new or changed rows are embedded) and compacted, then it
+ * {@link MappedVectorStore#replaceWith replaces} the live store; the watcher follows the dataset
+ * file. A reload first waits for the {@link VectorStoreInitializer}'s dataset sync, which keeps
+ * writing to the live store after it is ready, so from then on the reloader is the store's only
+ * writer. A read-only store, shared with the instance that writes it, is remapped instead, and the
+ * watcher follows the store file.
+ *
+ * <p>Requests made while a reload runs, or while the startup sync runs, are folded into one more
+ * reload after it.
+ */
+@Service
+public class VectorStoreReloader {
+
+    public enum State { IDLE, RUNNING }
+
+    /**
+     * @param reloads the number of completed reloads
+     * @param lastReload when the last reload completed, or null
+     * @param lastError why the last reload failed, or null if it succeeded
+     * @param documents the number of documents in the live store
+     */
+    public record Status(State state, boolean readOnly, long reloads, Instant lastReload, String lastError,
+                         int documents) {
+    }
+
+    @Value("${vector.store.watch:true}")
+    private boolean watch;
+
+    @Value("${vector.store.watch.quiet-period-ms:2000}")
+    private long quietPeriodMs;
+
+    @Autowired
+    private MappedVectorStore vectorStore;
+
+    @Autowired
+    private CsvIeltsTask2Loader loader;
+
+    @Autowired
+    private VectorStoreInitializer initializer;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "vector-store-reload");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private final AtomicLong reloads = new AtomicLong();
+    private volatile boolean running;
+    private volatile Instant lastReload;
+    private volatile String lastError;
+    private Thread watcher;
+
+    /**
+     * Queues a reload, unless one is already queued.
+     * @param reason what triggered it, for the log
+     * @return false while a writable store is still being loaded at startup, which already picks up the dataset
+     */
+    public boolean requestReload(String reason) {
+        if (!vectorStore.isReadOnly() && initializer.getState() == VectorStoreInitializer.State.LOADING) return false;
+        if (queued.compareAndSet(false, true)) executor.execute(() -> run(reason));
+        return true;
+    }
+
+    public Status status() {
+        return new Status(running ? State.RUNNING : State.IDLE, vectorStore.isReadOnly(), reloads.get(), lastReload,
+                lastError, vectorStore.size());
+    }
+
+    private void run(String reason) {
+        try {
+            initializer.awaitStartup();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        queued.set(false);
+        running = true;
+        long start = System.nanoTime();
+        try {
+            reload();
+            reloads.incrementAndGet();
+            lastReload = Instant.now();
+            lastError = null;
+            initializer.reloaded();
+            System.out.printf("Reloaded vector store (%s): %d documents in %d ms%n",
+                    reason, vectorStore.size(), (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            lastError = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+            System.err.println("Vector store reload failed (" + reason + "): " + lastError);
+        } finally {
+            running = false;
+        }
+    }
+
+    /**
+     * Runs one reload on the calling thread.
+     */
+    void reload() throws Exception {
+        if (vectorStore.isReadOnly()) {
+            vectorStore.load();
+            return;
+        }
+        File storeFile = vectorStore.getStoreFile();
+        MappedVectorStore staged = vectorStore.stage(new File(storeFile.getParentFile(), storeFile.getName() + ".staging"));
+        loader.loadCsvEssays(staged);
+        vectorStore.replaceWith(staged);
+    }
+
+    @EventListener(ApplicationStartedEvent.class)
+    public synchronized void startWatching() {
+        if (!watch || watcher != null) return;
+        Path file = watchedFile();
+        if (file == null) return;
+        watcher = new Thread(() -> watch(file), "vector-store-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        System.out.println("Watching for changes to: " + file);
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (watcher != null) watcher.interrupt();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the store file of a read-only store, otherwise the dataset if it is a file that can change
+     */
+    private Path watchedFile() {
+        if (vectorStore.isReadOnly()) return vectorStore.getStoreFile().toPath().toAbsolutePath();
+        Resource dataset = loader.getDataset();
+        try {
+            return dataset.isFile() ? dataset.getFile().toPath().toAbsolutePath() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Requests a reload whenever the file is created or modified, once its directory has been quiet
+     * for the quiet period, so a file still being copied is read once complete.
+     */
+    private void watch(Path file) {
+        try (WatchService service = file.getFileSystem().newWatchService()) {
+            file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // An overflow has no file name: events were lost, so the file may have changed
+                    Object name = event.context();
+                    if (name == null || file.getFileName().equals(name)) changed = true;
+                }
+                key.reset();
+                if (!changed) continue;
+
+                WatchKey next;
+                while ((next = service.poll(quietPeriodMs, TimeUnit.MILLISECONDS)) != null) {
+                    next.pollEvents();
+                    next.reset();
+                }
+                requestReload("changed " + file.getFileName());
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Cannot watch " + file + ": " + e.getMessage());
+        }
+    }
+}
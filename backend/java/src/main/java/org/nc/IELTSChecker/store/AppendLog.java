@@ -0,0 +1,234 @@
+package org.nc.IELTSChecker.store;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of store mutations made since the store file was last written.
+ *
+ * <p>Each batch of additions or deletions is one frame {@code [int length][int crc32][payload]},
+ * forced to disk before the batch becomes visible. On open, frames are replayed in order and a torn
+ * or corrupt tail (a crash mid-write) is truncated, so the store resumes from the last committed
+ * batch. The first frame records the fingerprint of the store file the log applies to; a log left
+ * behind by a compaction that finished writing the new store file is discarded.
+ */
+final class AppendLog implements Closeable {
+
+    /**
+     * Receives replayed batches.
+     */
+    interface Replay {
+        void added(List<String> ids, List<String> texts, List<Map<String, Object>> metadata, List<float[]> vectors);
+
+        void deleted(List<String> ids);
+    }
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+    private static final byte HEADER = 0;
+    private static final byte ADD = 1;
+    private static final byte DELETE = 2;
+    private static final int FRAME_OVERHEAD = 2 * Integer.BYTES;
+
+    private final Path file;
+    private final FileChannel channel;
+
+    private AppendLog(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens (or creates) the log, replaying every intact frame that applies to the given store file.
+     * @param file the log file
+     * @param baseFingerprint fingerprint of the mapped store file, 0 when there is none
+     * @param replay receives the replayed batches
+     * @return the open log, positioned for appending
+     */
+    static AppendLog open(Path file, long baseFingerprint, Replay replay) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        AppendLog log = new AppendLog(file, channel);
+        long end = log.replay(baseFingerprint, replay);
+        if (end < 0) {
+            log.reset(baseFingerprint);
+        } else {
+            channel.truncate(end);
+            channel.position(end);
+        }
+        return log;
+    }
+
+    /**
+     * @return the size of the log in bytes
+     */
+    long size() throws IOException {
+        return channel.size();
+    }
+
+    Path file() {
+        return file;
+    }
+
+    /**
+     * Durably appends a batch of additions.
+     */
+    void appendAdds(List<String> ids, List<String> texts, List<Map<String, Object>> metadata,
+                    List<float[]> vectors) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(ids.size() * 3);
+        int length = 1 + Integer.BYTES;
+        for (int i = 0; i < ids.size(); i++) {
+            byte[] id = ids.get(i).getBytes(StandardCharsets.UTF_8);
+            byte[] text = (texts.get(i) == null ? "" : texts.get(i)).getBytes(StandardCharsets.UTF_8);
+            byte[] json = MAPPER.writeValueAsBytes(metadata.get(i) == null ? Map.of() : metadata.get(i));
+            encoded.add(id);
+            encoded.add(text);
+            encoded.add(json);
+            length += 4 * Integer.BYTES + id.length + text.length + json.length + vectors.get(i).length * Float.BYTES;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(ADD).putInt(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            for (int k = 0; k < 3; k++) {
+                byte[] bytes = encoded.get(i * 3 + k);
+                payload.putInt(bytes.length).put(bytes);
+            }
+            float[] vector = vectors.get(i);
+            payload.putInt(vector.length);
+            for (float value : vector) payload.putFloat(value);
+        }
+        writeFrame(payload);
+    }
+
+    /**
+     * Durably appends a batch of deletions.
+     */
+    void appendDeletes(Collection<String> ids) throws IOException {
+        List<byte[]> encoded = new ArrayList<>(ids.size());
+        int length = 1 + Integer.BYTES;
+        for (String id : ids) {
+            byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            length += Integer.BYTES + bytes.length;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(DELETE).putInt(encoded.size());
+        for (byte[] bytes : encoded) payload.putInt(bytes.length).put(bytes);
+        writeFrame(payload);
+    }
+
+    /**
+     * Empties the log after its contents were folded into a new store file.
+     * @param baseFingerprint fingerprint of the new store file
+     */
+    void reset(long baseFingerprint) throws IOException {
+        channel.truncate(0);
+        channel.position(0);
+        ByteBuffer payload = ByteBuffer.allocate(1 + Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(HEADER).putLong(baseFingerprint);
+        writeFrame(payload);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeFrame(ByteBuffer payload) throws IOException {
+        payload.flip();
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_OVERHEAD + payload.remaining()).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(payload.remaining()).putInt((int) crc.getValue()).put(payload).flip();
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * @return the end of the last intact frame, or -1 if the log is empty or belongs to another store file
+     */
+    private long replay(long baseFingerprint, Replay replay) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        boolean headerSeen = false;
+        ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_OVERHEAD).order(ByteOrder.LITTLE_ENDIAN);
+        while (position + FRAME_OVERHEAD <= size) {
+            frameHeader.clear();
+            channel.read(frameHeader, position);
+            int length = frameHeader.getInt(0);
+            int expectedCrc = frameHeader.getInt(Integer.BYTES);
+            if (length <= 0 || position + FRAME_OVERHEAD + length > size) break;
+
+            ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+            while (payload.hasRemaining()) {
+                if (channel.read(payload, position + FRAME_OVERHEAD + payload.position()) < 0) break;
+            }
+            payload.flip();
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != expectedCrc) break;
+
+            byte type = payload.get();
+            if (!headerSeen) {
+                if (type != HEADER || payload.getLong() != baseFingerprint) return -1;
+                headerSeen = true;
+            } else if (type == ADD) {
+                replayAdds(payload, replay);
+            } else if (type == DELETE) {
+                replayDeletes(payload, replay);
+            }
+            position += FRAME_OVERHEAD + length;
+        }
+        return headerSeen ? position : -1;
+    }
+
+    private static void replayAdds(ByteBuffer payload, Replay replay) throws IOException {
+        int count = payload.getInt();
+        List<String> ids = new ArrayList<>(count);
+        List<String> texts = new ArrayList<>(count);
+        List<Map<String, Object>> metadata = new ArrayList<>(count);
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(readString(payload));
+            texts.add(readString(payload));
+            byte[] json = new byte[payload.getInt()];
+            payload.get(json);
+            metadata.add(MAPPER.readValue(json, METADATA_TYPE));
+            float[] vector = new float[payload.getInt()];
+            payload.asFloatBuffer().get(vector);
+            payload.position(payload.position() + vector.length * Float.BYTES);
+            vectors.add(vector);
+        }
+        replay.added(ids, texts, metadata, vectors);
+    }
+
+    private static void replayDeletes(ByteBuffer payload, Replay replay) {
+        int count = payload.getInt();
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) ids.add(readString(payload));
+        replay.deleted(ids);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,231 @@
+package org.nc.IELTSChecker.store;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
+
+/**
+ * Row numbers of a {@link MappedVectorStore} grouped by their {@code band} metadata, so that
+ * searches restricted to some bands only touch those rows.
+ *
+ * <p>Each distinct band value has a growable {@code int[]} of rows in ascending order. Rows whose
+ * band is missing or not a number share one extra partition, which is always searched with the
+ * full filter. Like {@link LexicalIndex}, rows are appended in order by one writer while readers
+ * pass the size of their snapshot and ignore later rows.
+ */
+public final class BandPartitions {
+
+    static final String KEY = "band";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private double[] bands = new double[0];
+    private int[][] rows = new int[0][];
+    private int[] counts = new int[0];
+    private int[] unknownRows = new int[16];
+    private int unknownCount;
+    private int size;
+
+    /**
+     * @return the number of rows partitioned so far
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the next row to the partition of its band.
+     * @param row the row number, equal to {@link #size()}
+     * @param band the band metadata value, or null
+     */
+    public void add(int row, Object band) {
+        lock.writeLock().lock();
+        try {
+            if (row != size) throw new IllegalArgumentException("Expected row " + size + " but got " + row);
+            double value = parse(band);
+            if (Double.isNaN(value)) {
+                if (unknownCount == unknownRows.length) unknownRows = Arrays.copyOf(unknownRows, unknownCount * 2);
+                unknownRows[unknownCount++] = row;
+            } else {
+                int partition = partition(value);
+                if (counts[partition] == rows[partition].length) {
+                    rows[partition] = Arrays.copyOf(rows[partition], counts[partition] * 2);
+                }
+                rows[partition][counts[partition]++] = row;
+            }
+            size = row + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the distinct numeric band values, ascending
+     */
+    public double[] bands() {
+        lock.readLock().lock();
+        try {
+            double[] sorted = bands.clone();
+            Arrays.sort(sorted);
+            return sorted;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param test selects band values
+     * @param rowLimit rows at or beyond this number are left out
+     * @return the rows of every partition whose band passes the test, ascending
+     */
+    public int[] rows(DoublePredicate test, int rowLimit) {
+        lock.readLock().lock();
+        try {
+            int total = 0;
+            for (int partition = 0; partition < bands.length; partition++) {
+                if (test.test(bands[partition])) total += counts[partition];
+            }
+            int[] selected = new int[total];
+            int count = 0;
+            for (int partition = 0; partition < bands.length; partition++) {
+                if (!test.test(bands[partition])) continue;
+                for (int i = 0; i < counts[partition] && rows[partition][i] < rowLimit; i++) {
+                    selected[count++] = rows[partition][i];
+                }
+            }
+            selected = Arrays.copyOf(selected, count);
+            Arrays.sort(selected);
+            return selected;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the rows without a numeric band, ascending
+     */
+    public int[] unknownRows(int rowLimit) {
+        lock.readLock().lock();
+        try {
+            int count = 0;
+            while (count < unknownCount && unknownRows[count] < rowLimit) count++;
+            return Arrays.copyOf(unknownRows, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int partition(double band) {
+        for (int i = 0; i < bands.length; i++) {
+            if (Double.compare(bands[i], band) == 0) return i;
+        }
+        int partition = bands.length;
+        bands = Arrays.copyOf(bands, partition + 1);
+        rows = Arrays.copyOf(rows, partition + 1);
+        counts = Arrays.copyOf(counts, partition + 1);
+        bands[partition] = band;
+        rows[partition] = new int[16];
+        return partition;
+    }
+
+    private static double parse(Object band) {
+        if (band instanceof Number number) return number.doubleValue();
+        if (band == null) return Double.NaN;
+        try {
+            return Double.parseDouble(band.toString().trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * The part of a filter expression that constrains the band, as a test on band values.
+     * @param test the band values that can match, or null if the filter does not restrict the band
+     * @param complete true if a row with a numeric band matches the filter exactly when its band
+     *                 passes the test, so the filter need not be evaluated on it
+     */
+    record Constraint(DoublePredicate test, boolean complete) {
+
+        private static final Constraint NONE = new Constraint(null, false);
+
+        /**
+         * Pushes down {@code ==}, {@code in} and the comparisons on {@code band} with numeric values,
+         * combined with AND or OR. Anything else is left to the per-row filter.
+         */
+        static Constraint of(Filter.Expression expression) {
+            if (expression == null) return NONE;
+            return switch (expression.type()) {
+                case AND -> {
+                    Constraint left = of(operand(expression.left()));
+                    Constraint right = of(operand(expression.right()));
+                    boolean complete = left.complete && right.complete;
+                    if (left.test == null) yield new Constraint(right.test, false);
+                    if (right.test == null) yield new Constraint(left.test, false);
+                    yield new Constraint(left.test.and(right.test), complete);
+                }
+                case OR -> {
+                    Constraint left = of(operand(expression.left()));
+                    Constraint right = of(operand(expression.right()));
+                    if (left.test == null || right.test == null) yield NONE;
+                    yield new Constraint(left.test.or(right.test), left.complete && right.complete);
+                }
+                case EQ -> compare(expression, c -> c == 0);
+                case GT -> compare(expression, c -> c > 0);
+                case GTE -> compare(expression, c -> c >= 0);
+                case LT -> compare(expression, c -> c < 0);
+                case LTE -> compare(expression, c -> c <= 0);
+                case IN -> in(expression);
+                default -> NONE;
+            };
+        }
+
+        private static Constraint compare(Filter.Expression expression, IntPredicate test) {
+            if (!isBand(expression) || !(value(expression) instanceof Number number)) return NONE;
+            double value = number.doubleValue();
+            return new Constraint(band -> test.test(Double.compare(band, value)), true);
+        }
+
+        private static Constraint in(Filter.Expression expression) {
+            if (!isBand(expression) || !(value(expression) instanceof Collection<?> values)) return NONE;
+            double[] accepted = new double[values.size()];
+            int count = 0;
+            for (Object value : values) {
+                if (!(value instanceof Number number)) return NONE;
+                accepted[count++] = number.doubleValue();
+            }
+            return new Constraint(band -> {
+                for (double value : accepted) {
+                    if (Double.compare(band, value) == 0) return true;
+                }
+                return false;
+            }, true);
+        }
+
+        private static boolean isBand(Filter.Expression expression) {
+            if (!(expression.left() instanceof Filter.Key key)) return false;
+            String name = key.key();
+            if (name.length() > 1 && (name.startsWith("'") || name.startsWith("\""))) {
+                name = name.substring(1, name.length() - 1);
+            }
+            return KEY.equals(name);
+        }
+
+        private static Object value(Filter.Expression expression) {
+            return expression.right() instanceof Filter.Value value ? value.value() : null;
+        }
+
+        private static Filter.Expression operand(Filter.Operand operand) {
+            if (operand instanceof Filter.Group group) return group.content();
+            if (operand instanceof Filter.Expression expression) return expression;
+            throw new IllegalArgumentException("Expected a filter expression but got " + operand);
+        }
+    }
+}
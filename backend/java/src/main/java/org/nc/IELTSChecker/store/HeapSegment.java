@@ -0,0 +1,111 @@
+package org.nc.IELTSChecker.store;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-heap rows added since the store file was last written.
+ * Instances are never mutated once published: {@link #append} writes past the visible size of the
+ * shared arrays (or copies them when they are full) and returns a new instance.
+ */
+final class HeapSegment implements VectorSegment {
+
+    private final int dimensions;
+    private final int size;
+    private final float[] vectors;
+    private final float[] norms;
+    private final String[] ids;
+    private final String[] texts;
+    private final Object[] metadata;
+
+    private HeapSegment(int dimensions, int size, float[] vectors, float[] norms,
+                        String[] ids, String[] texts, Object[] metadata) {
+        this.dimensions = dimensions;
+        this.size = size;
+        this.vectors = vectors;
+        this.norms = norms;
+        this.ids = ids;
+        this.texts = texts;
+        this.metadata = metadata;
+    }
+
+    static HeapSegment empty(int dimensions) {
+        return new HeapSegment(dimensions, 0, new float[0], new float[0],
+                new String[0], new String[0], new Object[0]);
+    }
+
+    /**
+     * Returns a segment holding this segment's rows followed by the given ones.
+     * Must only be called by the single writer that owns the latest segment.
+     */
+    HeapSegment append(List<String> newIds, List<String> newTexts,
+                       List<Map<String, Object>> newMetadata, List<float[]> newVectors) {
+        int added = newIds.size();
+        int required = size + added;
+        int capacity = ids.length;
+
+        float[] v = vectors;
+        float[] n = norms;
+        String[] i = ids;
+        String[] t = texts;
+        Object[] m = metadata;
+        if (required > capacity) {
+            int newCapacity = Math.max(required, Math.max(16, capacity + (capacity >> 1)));
+            v = Arrays.copyOf(vectors, newCapacity * dimensions);
+            n = Arrays.copyOf(norms, newCapacity);
+            i = Arrays.copyOf(ids, newCapacity);
+            t = Arrays.copyOf(texts, newCapacity);
+            m = Arrays.copyOf(metadata, newCapacity);
+        }
+
+        for (int k = 0; k < added; k++) {
+            float[] vector = newVectors.get(k);
+            int row = size + k;
+            System.arraycopy(vector, 0, v, row * dimensions, dimensions);
+            n[row] = VectorMath.norm(vector);
+            i[row] = newIds.get(k);
+            t[row] = newTexts.get(k);
+            m[row] = Collections.unmodifiableMap(new HashMap<>(newMetadata.get(k)));
+        }
+        return new HeapSegment(dimensions, required, v, n, i, t, m);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public void readVector(int row, float[] target) {
+        System.arraycopy(vectors, row * dimensions, target, 0, dimensions);
+    }
+
+    @Override
+    public float norm(int row) {
+        return norms[row];
+    }
+
+    @Override
+    public String id(int row) {
+        return ids[row];
+    }
+
+    @Override
+    public String text(int row) {
+        return texts[row];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> metadata(int row) {
+        return (Map<String, Object>) metadata[row];
+    }
+}
@@ -0,0 +1,418 @@
+package org.nc.IELTSChecker.store;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Hierarchical Navigable Small World graph over the rows of a {@link MappedVectorStore}
+ * (Malkov &amp; Yashunin). Nodes are store row numbers and similarity is cosine, so vectors are
+ * read straight from the store instead of being copied into the index.
+ *
+ * <p>Adjacency lists are kept in primitive arrays: one flat {@code int[]} for level 0 and a small
+ * array per node for the upper levels. The index is not thread-safe; the store serialises inserts
+ * and lets searches run concurrently with each other.
+ */
+public final class HnswIndex {
+
+    /**
+     * @param m neighbours per node on the upper levels (level 0 keeps twice as many)
+     * @param efConstruction candidate list size while inserting
+     * @param efSearch candidate list size while searching; raised to topK when smaller
+     */
+    public record Settings(int m, int efConstruction, int efSearch) {
+        public Settings {
+            if (m < 2) throw new IllegalArgumentException("HNSW m must be at least 2");
+            if (efConstruction < 1 || efSearch < 1) throw new IllegalArgumentException("HNSW ef must be positive");
+        }
+    }
+
+    private static final int MAGIC = 0x31574E48; // "HNW1"
+
+    private final Settings settings;
+    private final int maxConnections;
+    private final int maxConnections0;
+    private final double levelMultiplier;
+    private final Random random = new Random(42);
+    private final ThreadLocal<VisitedSet> visitedSets = ThreadLocal.withInitial(VisitedSet::new);
+
+    private int size;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int[] levels = new int[0];
+    private int[] level0 = new int[0];
+    private int[][] upper = new int[0][];
+
+    // Insert-only scratch space; inserts are serialised by the store
+    private float[] insertVector;
+    private float[] scratchVector;
+    private float[][] selectedVectors;
+
+    public HnswIndex(Settings settings) {
+        this.settings = settings;
+        this.maxConnections = settings.m();
+        this.maxConnections0 = settings.m() * 2;
+        this.levelMultiplier = 1.0 / Math.log(settings.m());
+    }
+
+    public Settings settings() {
+        return settings;
+    }
+
+    /**
+     * @return the number of rows in the graph; rows {@code 0..size-1} are indexed
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Inserts the next row. Rows must be added in order, starting at 0.
+     * @param row the row number, equal to {@link #size()}
+     * @param vectors access to the row's embedding and those already in the graph
+     */
+    public void add(int row, VectorSource vectors) {
+        if (row != size) throw new IllegalArgumentException("Expected row " + size + " but got " + row);
+        int dimensions = vectors.dimensions();
+        if (insertVector == null || insertVector.length != dimensions) {
+            insertVector = new float[dimensions];
+            scratchVector = new float[dimensions];
+            selectedVectors = new float[maxConnections0 + 1][dimensions];
+        }
+
+        int level = randomLevel();
+        ensureCapacity(row + 1);
+        levels[row] = level;
+        level0[row * (maxConnections0 + 1)] = 0;
+        upper[row] = level > 0 ? new int[level * (maxConnections + 1)] : null;
+
+        if (entryPoint < 0) {
+            entryPoint = row;
+            maxLevel = level;
+            size = row + 1;
+            return;
+        }
+
+        float[] query = insertVector;
+        vectors.readVector(row, query);
+        float queryNorm = vectors.norm(row);
+        VisitedSet visited = visitedSets.get();
+        VectorSource.Scorer scorer = vectors.scorer(query, queryNorm);
+
+        int current = entryPoint;
+        float currentScore = scorer.score(current);
+        for (int l = maxLevel; l > level; l--) {
+            current = greedy(scorer, current, currentScore, l);
+            currentScore = scorer.score(current);
+        }
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            ScoredHeap found = searchLayer(scorer, current, currentScore, settings.efConstruction(), l, visited);
+            int count = found.size();
+            int[] candidates = new int[count];
+            float[] scores = new float[count];
+            drainDescending(found, candidates, scores);
+
+            int limit = l == 0 ? maxConnections0 : maxConnections;
+            int[] selected = selectNeighbours(candidates, scores, count, limit, vectors);
+            setNeighbours(row, l, selected, selected.length);
+            for (int neighbour : selected) {
+                connect(neighbour, row, l, vectors);
+            }
+            current = candidates[0];
+            currentScore = scores[0];
+        }
+
+        size = row + 1;
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = row;
+        }
+    }
+
+    /**
+     * Finds approximate nearest neighbours of the query.
+     * Safe to call from several threads as long as no insert runs at the same time.
+     * @param query the query embedding
+     * @param queryNorm its L2 norm
+     * @param ef the candidate list size
+     * @param vectors access to the indexed embeddings, or to approximations of them
+     * @return up to {@code ef} candidates, worst at the top of the heap, scored by {@code vectors}
+     */
+    ScoredHeap search(float[] query, float queryNorm, int ef, VectorSource vectors) {
+        if (entryPoint < 0) return ScoredHeap.minHeap(1);
+        VectorSource.Scorer scorer = vectors.scorer(query, queryNorm);
+        int current = entryPoint;
+        float currentScore = scorer.score(current);
+        for (int l = maxLevel; l > 0; l--) {
+            current = greedy(scorer, current, currentScore, l);
+            currentScore = scorer.score(current);
+        }
+        return searchLayer(scorer, current, currentScore, ef, 0, visitedSets.get());
+    }
+
+    /**
+     * Writes the graph next to the store file.
+     * @param file the index file to create or replace
+     * @param fingerprint identifies the store file the row numbers refer to
+     */
+    public void write(Path file, long fingerprint) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(settings.m());
+            out.writeInt(settings.efConstruction());
+            out.writeLong(fingerprint);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            for (int node = 0; node < size; node++) {
+                out.writeInt(levels[node]);
+                for (int l = 0; l <= levels[node]; l++) {
+                    int[] array = l == 0 ? level0 : upper[node];
+                    int offset = offset(node, l);
+                    int count = array[offset];
+                    out.writeInt(count);
+                    for (int i = 1; i <= count; i++) {
+                        out.writeInt(array[offset + i]);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a graph written by {@link #write}.
+     * @param file the index file
+     * @param settings the settings the caller wants; m and efConstruction must match the file
+     * @param fingerprint the fingerprint of the current store file
+     * @return the graph, or null if the file is missing or was built for other settings or another store file
+     */
+    public static HnswIndex read(Path file, Settings settings, long fingerprint) throws IOException {
+        if (!Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != settings.m() || in.readInt() != settings.efConstruction()
+                    || in.readLong() != fingerprint) {
+                return null;
+            }
+            HnswIndex index = new HnswIndex(settings);
+            int size = in.readInt();
+            index.ensureCapacity(size);
+            index.entryPoint = in.readInt();
+            index.maxLevel = in.readInt();
+            for (int node = 0; node < size; node++) {
+                int level = in.readInt();
+                index.levels[node] = level;
+                index.upper[node] = level > 0 ? new int[level * (index.maxConnections + 1)] : null;
+                for (int l = 0; l <= level; l++) {
+                    int[] array = l == 0 ? index.level0 : index.upper[node];
+                    int offset = index.offset(node, l);
+                    int count = in.readInt();
+                    array[offset] = count;
+                    for (int i = 1; i <= count; i++) {
+                        array[offset + i] = in.readInt();
+                    }
+                }
+            }
+            index.size = size;
+            return index;
+        }
+    }
+
+    private int greedy(VectorSource.Scorer scorer, int current, float currentScore, int level) {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] array = level == 0 ? level0 : upper[current];
+            int offset = offset(current, level);
+            int count = array[offset];
+            for (int i = 1; i <= count; i++) {
+                int candidate = array[offset + i];
+                float score = scorer.score(candidate);
+                if (score > currentScore) {
+                    currentScore = score;
+                    current = candidate;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    private ScoredHeap searchLayer(VectorSource.Scorer scorer, int entry, float entryScore, int ef, int level,
+                                   VisitedSet visited) {
+        visited.reset(size + 1);
+        ScoredHeap candidates = ScoredHeap.maxHeap(ef * 2);
+        ScoredHeap results = ScoredHeap.minHeap(ef + 1);
+        candidates.push(entry, entryScore);
+        results.push(entry, entryScore);
+        visited.add(entry);
+
+        while (!candidates.isEmpty()) {
+            int current = candidates.peekNode();
+            float currentScore = candidates.peekScore();
+            if (results.size() >= ef && currentScore < results.peekScore()) break;
+            candidates.pop();
+
+            int[] array = level == 0 ? level0 : upper[current];
+            int offset = offset(current, level);
+            int count = array[offset];
+            for (int i = 1; i <= count; i++) {
+                int neighbour = array[offset + i];
+                if (!visited.add(neighbour)) continue;
+                float score = scorer.score(neighbour);
+                if (results.size() < ef || score > results.peekScore()) {
+                    candidates.push(neighbour, score);
+                    results.push(neighbour, score);
+                    if (results.size() > ef) results.pop();
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Keeps a candidate only if it is closer to the base node than to every neighbour already kept,
+     * which spreads links across clusters instead of wasting them on near-duplicates.
+     */
+    private int[] selectNeighbours(int[] candidates, float[] scores, int count, int limit, VectorSource vectors) {
+        if (count <= limit) {
+            return Arrays.copyOf(candidates, count);
+        }
+        int[] selected = new int[limit];
+        int selectedCount = 0;
+        for (int i = 0; i < count && selectedCount < limit; i++) {
+            float[] candidateVector = selectedVectors[selectedCount];
+            vectors.readVector(candidates[i], candidateVector);
+            float candidateNorm = vectors.norm(candidates[i]);
+            boolean keep = true;
+            for (int j = 0; j < selectedCount; j++) {
+                float between = VectorMath.cosine(candidateVector, candidateNorm,
+                        selectedVectors[j], vectors.norm(selected[j]));
+                if (between > scores[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) selected[selectedCount++] = candidates[i];
+        }
+        return Arrays.copyOf(selected, selectedCount);
+    }
+
+    /**
+     * Adds a back-link from {@code node} to {@code newNeighbour}, pruning the list when it is full.
+     */
+    private void connect(int node, int newNeighbour, int level, VectorSource vectors) {
+        int[] array = level == 0 ? level0 : upper[node];
+        int offset = offset(node, level);
+        int count = array[offset];
+        int limit = level == 0 ? maxConnections0 : maxConnections;
+        if (count < limit) {
+            array[offset + 1 + count] = newNeighbour;
+            array[offset] = count + 1;
+            return;
+        }
+
+        float[] base = new float[vectors.dimensions()];
+        vectors.readVector(node, base);
+        float baseNorm = vectors.norm(node);
+        int total = count + 1;
+        int[] candidates = new int[total];
+        float[] scores = new float[total];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = array[offset + 1 + i];
+        }
+        candidates[count] = newNeighbour;
+        for (int i = 0; i < total; i++) {
+            scores[i] = similarity(base, baseNorm, candidates[i], vectors, scratchVector);
+        }
+        sortDescending(candidates, scores, total);
+        int[] selected = selectNeighbours(candidates, scores, total, limit, vectors);
+        setNeighbours(node, level, selected, selected.length);
+    }
+
+    private void setNeighbours(int node, int level, int[] neighbours, int count) {
+        int[] array = level == 0 ? level0 : upper[node];
+        int offset = offset(node, level);
+        array[offset] = count;
+        System.arraycopy(neighbours, 0, array, offset + 1, count);
+    }
+
+    private int offset(int node, int level) {
+        return level == 0 ? node * (maxConnections0 + 1) : (level - 1) * (maxConnections + 1);
+    }
+
+    private static float similarity(float[] query, float queryNorm, int node, VectorSource vectors, float[] scratch) {
+        return vectors.similarity(query, queryNorm, node, scratch);
+    }
+
+    private int randomLevel() {
+        return (int) Math.floor(-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= levels.length) return;
+        int capacity = Math.max(required, Math.max(16, levels.length + (levels.length >> 1)));
+        levels = Arrays.copyOf(levels, capacity);
+        level0 = Arrays.copyOf(level0, capacity * (maxConnections0 + 1));
+        upper = Arrays.copyOf(upper, capacity);
+    }
+
+    private static void drainDescending(ScoredHeap heap, int[] nodes, float[] scores) {
+        for (int i = heap.size() - 1; i >= 0; i--) {
+            nodes[i] = heap.peekNode();
+            scores[i] = heap.peekScore();
+            heap.pop();
+        }
+    }
+
+    private static void sortDescending(int[] nodes, float[] scores, int count) {
+        for (int i = 1; i < count; i++) {
+            int node = nodes[i];
+            float score = scores[i];
+            int j = i - 1;
+            while (j >= 0 && scores[j] < score) {
+                nodes[j + 1] = nodes[j];
+                scores[j + 1] = scores[j];
+                j--;
+            }
+            nodes[j + 1] = node;
+            scores[j + 1] = score;
+        }
+    }
+
+    /**
+     * Epoch-stamped visited marks, reused across searches on the same thread.
+     */
+    private static final class VisitedSet {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        void reset(int capacity) {
+            if (marks.length < capacity) {
+                marks = new int[Math.max(capacity, marks.length * 2)];
+                epoch = 0;
+            }
+            if (++epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        /**
+         * @return true if the node had not been visited yet
+         */
+        boolean add(int node) {
+            if (marks[node] == epoch) return false;
+            marks[node] = epoch;
+            return true;
+        }
+    }
+}
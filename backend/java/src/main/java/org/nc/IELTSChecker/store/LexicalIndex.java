@@ -0,0 +1,513 @@
+package org.nc.IELTSChecker.store;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over the rows of a {@link MappedVectorStore}, scored with BM25.
+ *
+ * <p>Texts are split into lower-cased runs of letters and digits. Every term has a postings list
+ * of row numbers and term frequencies in two growable {@code int[]}s, and every row keeps its
+ * sorted term ids and frequencies, so that ranking a few given rows does not walk the postings. The question of every row
+ * is also indexed on its own, so that a submission on a question that is already stored (IELTS
+ * prompts are reused a lot) is found by its words alone, without embedding it.
+ *
+ * <p>Rows are appended in order, like {@link HnswIndex}. One thread may add rows while others
+ * search; readers pass the size of the snapshot they work on and ignore rows beyond it.
+ */
+public final class LexicalIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+    private static final int MAX_TOKEN = 64;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(Accumulator::new);
+
+    private final TermDictionary terms = new TermDictionary();
+    private int[][] postingRows = new int[0][];
+    private int[][] postingFrequencies = new int[0][];
+    private int[] postingSizes = new int[0];
+    private int[] documentLengths = new int[0];
+    private int[][] rowTerms = new int[0][];
+    private int[][] rowFrequencies = new int[0][];
+    private long totalLength;
+    private int size;
+
+    private final TermDictionary questionKeys = new TermDictionary();
+    private int[][] questionTerms = new int[0][];
+    private int[][] questionRows = new int[0][];
+    private int[] questionRowCounts = new int[0];
+    private int[][] questionPostings = new int[0][];
+    private int[] questionPostingSizes = new int[0];
+
+    /**
+     * @return the number of rows in the index; rows {@code 0..size-1} are indexed
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Indexes the next row.
+     * @param row the row number, equal to {@link #size()}
+     * @param question the question the essay answers, or null
+     * @param text the full document text
+     */
+    public void add(int row, String question, String text) {
+        lock.writeLock().lock();
+        try {
+            if (row != size) throw new IllegalArgumentException("Expected row " + size + " but got " + row);
+            ensureRowCapacity(row + 1);
+
+            List<String> tokens = tokenize(text);
+            int[] ids = new int[tokens.size()];
+            for (int i = 0; i < ids.length; i++) ids[i] = termId(tokens.get(i));
+            Arrays.sort(ids);
+            int[] distinct = new int[ids.length];
+            int[] frequencies = new int[ids.length];
+            int count = 0;
+            for (int i = 0; i < ids.length; ) {
+                int end = i;
+                while (end < ids.length && ids[end] == ids[i]) end++;
+                appendPosting(ids[i], row, end - i);
+                distinct[count] = ids[i];
+                frequencies[count++] = end - i;
+                i = end;
+            }
+            rowTerms[row] = Arrays.copyOf(distinct, count);
+            rowFrequencies[row] = Arrays.copyOf(frequencies, count);
+            documentLengths[row] = ids.length;
+            totalLength += ids.length;
+
+            if (question != null) addQuestion(question);
+            size = row + 1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ranks rows by BM25 against the query.
+     * @param query the query text
+     * @param topK the maximum number of results
+     * @param rowLimit rows at or beyond this number are ignored
+     * @param excluded rows to skip, such as deleted ones
+     * @param allowed if not null, only these rows are considered; they are scored one by one
+     * @return the best rows with their BM25 scores; rows sharing no term with the query are left out
+     */
+    public TopK search(String query, int topK, int rowLimit, BitSet excluded, BitSet allowed) {
+        TopK top = new TopK(topK);
+        lock.readLock().lock();
+        try {
+            int limit = Math.min(rowLimit, size);
+            if (limit == 0) return top;
+            QueryTerms queryTerms = queryTerms(query);
+            if (allowed != null) {
+                for (int row = allowed.nextSetBit(0); row >= 0 && row < limit; row = allowed.nextSetBit(row + 1)) {
+                    if (excluded != null && excluded.get(row)) continue;
+                    float score = score(queryTerms, row);
+                    if (score > 0 && top.accepts(score)) top.offer(row, score);
+                }
+                return top;
+            }
+
+            Accumulator accumulator = accumulators.get();
+            accumulator.reset(limit);
+            float averageLength = averageLength();
+            for (int i = 0; i < queryTerms.count; i++) {
+                int term = queryTerms.ids[i];
+                float weight = queryTerms.weights[i];
+                int[] rows = postingRows[term];
+                int[] frequencies = postingFrequencies[term];
+                for (int p = 0; p < postingSizes[term]; p++) {
+                    int row = rows[p];
+                    if (row >= limit) break;
+                    accumulator.add(row, weight * termWeight(frequencies[p], row, averageLength));
+                }
+            }
+            for (int i = 0; i < accumulator.touchedCount; i++) {
+                int row = accumulator.touched[i];
+                if (excluded != null && excluded.get(row)) continue;
+                float score = accumulator.scores[row];
+                if (top.accepts(score)) top.offer(row, score);
+            }
+            return top;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Scores one row by merging the sorted query terms with the row's sorted terms.
+     */
+    private float score(QueryTerms queryTerms, int row) {
+        int[] terms = rowTerms[row];
+        int[] frequencies = rowFrequencies[row];
+        float averageLength = averageLength();
+        float score = 0;
+        int q = 0;
+        int r = 0;
+        while (q < queryTerms.count && r < terms.length) {
+            int queryTerm = queryTerms.ids[q];
+            if (queryTerm < terms[r]) {
+                q++;
+            } else if (queryTerm > terms[r]) {
+                r++;
+            } else {
+                score += queryTerms.weights[q] * termWeight(frequencies[r], row, averageLength);
+                q++;
+                r++;
+            }
+        }
+        return score;
+    }
+
+    private float idf(int term) {
+        int postings = postingSizes[term];
+        return (float) Math.log(1 + (size - postings + 0.5) / (postings + 0.5));
+    }
+
+    private float termWeight(int frequency, int row, float averageLength) {
+        float norm = K1 * (1 - B + B * documentLengths[row] / averageLength);
+        return frequency * (K1 + 1) / (frequency + norm);
+    }
+
+    private float averageLength() {
+        return Math.max(1f, (float) totalLength / size);
+    }
+
+    /**
+     * The known terms of a query, as sorted distinct ids with their query frequency times IDF.
+     */
+    private record QueryTerms(int[] ids, float[] weights, int count) {
+    }
+
+    /**
+     * Looks the query words up without creating a string per word: they are lower-cased into a
+     * buffer and matched against the dictionary by their {@link String#hashCode()}.
+     */
+    private QueryTerms queryTerms(String query) {
+        int[] ids = new int[16];
+        int known = 0;
+        char[] token = new char[MAX_TOKEN];
+        int length = 0;
+        int hash = 0;
+        for (int i = 0; i <= query.length(); i++) {
+            char c = i < query.length() ? query.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (length < MAX_TOKEN) {
+                    char lower = Character.toLowerCase(c);
+                    token[length++] = lower;
+                    hash = 31 * hash + lower;
+                } else {
+                    length = MAX_TOKEN + 1;
+                }
+                continue;
+            }
+            if (length == 0) continue;
+            int id = length > MAX_TOKEN ? -1 : terms.get(token, length, hash);
+            if (id >= 0) {
+                if (known == ids.length) ids = Arrays.copyOf(ids, known * 2);
+                ids[known++] = id;
+            }
+            length = 0;
+            hash = 0;
+        }
+        Arrays.sort(ids, 0, known);
+        float[] weights = new float[known];
+        int count = 0;
+        for (int i = 0; i < known; ) {
+            int end = i;
+            while (end < known && ids[end] == ids[i]) end++;
+            ids[count] = ids[i];
+            weights[count++] = (end - i) * idf(ids[i]);
+            i = end;
+        }
+        return new QueryTerms(ids, weights, count);
+    }
+
+    /**
+     * Finds the rows written for the same question: an exact match after lower-casing and
+     * collapsing punctuation, otherwise the stored question sharing the largest part of its words.
+     * @param question the submitted question
+     * @param minSimilarity the minimum Jaccard similarity of the word sets for a near-exact match
+     * @param rowLimit rows at or beyond this number are ignored
+     * @return the rows of the best matching question, or an empty array
+     */
+    public int[] questionRows(String question, double minSimilarity, int rowLimit) {
+        int match = questionId(question, minSimilarity);
+        return match < 0 ? new int[0] : rowsOfQuestion(match, rowLimit);
+    }
+
+    /**
+     * Canonicalizes a submitted question to a stored one, matched as by {@link #questionRows}.
+     * @return the number of the stored question, or -1 if none matches
+     */
+    public int questionId(String question, double minSimilarity) {
+        List<String> tokens = tokenize(question);
+        if (tokens.isEmpty()) return -1;
+        lock.readLock().lock();
+        try {
+            int match = questionKeys.get(String.join(" ", tokens));
+            return match >= 0 ? match : similarQuestion(tokens, minSimilarity);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param questionId a number from {@link #questionId}, below {@link #questionCount()}
+     * @param rowLimit rows at or beyond this number are ignored
+     * @return the rows written for the stored question, in row order
+     */
+    public int[] rowsOfQuestion(int questionId, int rowLimit) {
+        lock.readLock().lock();
+        try {
+            int[] rows = questionRows[questionId];
+            int count = 0;
+            while (count < questionRowCounts[questionId] && rows[count] < rowLimit) count++;
+            return Arrays.copyOf(rows, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of distinct questions indexed
+     */
+    public int questionCount() {
+        lock.readLock().lock();
+        try {
+            return questionKeys.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int similarQuestion(List<String> tokens, double minSimilarity) {
+        Set<String> distinct = new HashSet<>(tokens);
+        int[] overlaps = new int[questionTerms.length];
+        int best = -1;
+        double bestSimilarity = minSimilarity;
+        for (String token : distinct) {
+            int term = terms.get(token);
+            if (term < 0 || term >= questionPostingSizes.length) continue;
+            int[] questions = questionPostings[term];
+            for (int i = 0; i < questionPostingSizes[term]; i++) overlaps[questions[i]]++;
+        }
+        for (int candidate = 0; candidate < overlaps.length; candidate++) {
+            if (overlaps[candidate] == 0) continue;
+            int union = distinct.size() + questionTerms[candidate].length - overlaps[candidate];
+            double similarity = (double) overlaps[candidate] / union;
+            if (similarity >= bestSimilarity) {
+                best = candidate;
+                bestSimilarity = similarity;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Splits text into lower-cased runs of letters and digits.
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null) return tokens;
+        StringBuilder token = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (!token.isEmpty()) {
+                // Longer runs are not words, and queries skip them too
+                if (token.length() <= MAX_TOKEN) tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private int termId(String token) {
+        int id = terms.get(token);
+        if (id >= 0) return id;
+        id = terms.add(token);
+        if (id == postingRows.length) {
+            int capacity = Math.max(16, id * 2);
+            postingRows = Arrays.copyOf(postingRows, capacity);
+            postingFrequencies = Arrays.copyOf(postingFrequencies, capacity);
+            postingSizes = Arrays.copyOf(postingSizes, capacity);
+        }
+        postingRows[id] = new int[2];
+        postingFrequencies[id] = new int[2];
+        return id;
+    }
+
+    private void appendPosting(int term, int row, int frequency) {
+        int count = postingSizes[term];
+        if (count == postingRows[term].length) {
+            postingRows[term] = Arrays.copyOf(postingRows[term], count * 2);
+            postingFrequencies[term] = Arrays.copyOf(postingFrequencies[term], count * 2);
+        }
+        postingRows[term][count] = row;
+        postingFrequencies[term][count] = frequency;
+        postingSizes[term] = count + 1;
+    }
+
+    /**
+     * Records the row being added under its question, registering the question and its words the
+     * first time it is seen.
+     */
+    private void addQuestion(String question) {
+        List<String> tokens = tokenize(question);
+        String key = String.join(" ", tokens);
+        int id = questionKeys.get(key);
+        if (id < 0) {
+            id = questionKeys.add(key);
+            if (id == questionTerms.length) {
+                int capacity = Math.max(16, id * 2);
+                questionTerms = Arrays.copyOf(questionTerms, capacity);
+                questionRows = Arrays.copyOf(questionRows, capacity);
+                questionRowCounts = Arrays.copyOf(questionRowCounts, capacity);
+            }
+            int[] ids = tokens.stream().mapToInt(this::termId).distinct().toArray();
+            questionTerms[id] = ids;
+            questionRows[id] = new int[2];
+            for (int term : ids) appendQuestionPosting(term, id);
+        }
+        int count = questionRowCounts[id];
+        if (count == questionRows[id].length) questionRows[id] = Arrays.copyOf(questionRows[id], count * 2);
+        questionRows[id][count] = size;
+        questionRowCounts[id] = count + 1;
+    }
+
+    private void appendQuestionPosting(int term, int question) {
+        if (term >= questionPostings.length) {
+            int capacity = Math.max(term + 1, questionPostings.length * 2);
+            questionPostings = Arrays.copyOf(questionPostings, capacity);
+            questionPostingSizes = Arrays.copyOf(questionPostingSizes, capacity);
+        }
+        if (questionPostings[term] == null) questionPostings[term] = new int[2];
+        int count = questionPostingSizes[term];
+        if (count == questionPostings[term].length) {
+            questionPostings[term] = Arrays.copyOf(questionPostings[term], count * 2);
+        }
+        questionPostings[term][count] = question;
+        questionPostingSizes[term] = count + 1;
+    }
+
+    private void ensureRowCapacity(int capacity) {
+        if (capacity <= documentLengths.length) return;
+        int newCapacity = Math.max(capacity, documentLengths.length * 2);
+        documentLengths = Arrays.copyOf(documentLengths, newCapacity);
+        rowTerms = Arrays.copyOf(rowTerms, newCapacity);
+        rowFrequencies = Arrays.copyOf(rowFrequencies, newCapacity);
+    }
+
+    /**
+     * Open-addressing map from strings to dense ids, without boxing.
+     */
+    private static final class TermDictionary {
+        private String[] keys = new String[1024];
+        private int[] ids = new int[1024];
+        private int count;
+
+        int get(String key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key.hashCode()) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot].equals(key)) return ids[slot];
+            }
+            return -1;
+        }
+
+        /**
+         * Looks up the key held in {@code chars[0..length)}, whose string hash code is {@code hash}.
+         */
+        int get(char[] chars, int length, int hash) {
+            int mask = keys.length - 1;
+            for (int slot = mix(hash) & mask; keys[slot] != null; slot = (slot + 1) & mask) {
+                if (keys[slot].length() == length && keys[slot].hashCode() == hash && matches(keys[slot], chars)) {
+                    return ids[slot];
+                }
+            }
+            return -1;
+        }
+
+        private static boolean matches(String key, char[] chars) {
+            for (int i = 0; i < key.length(); i++) {
+                if (key.charAt(i) != chars[i]) return false;
+            }
+            return true;
+        }
+
+        int size() {
+            return count;
+        }
+
+        /**
+         * Adds a key that is not in the map yet.
+         * @return its id, equal to the number of keys added before it
+         */
+        int add(String key) {
+            if ((count + 1) * 2 > keys.length) resize();
+            int mask = keys.length - 1;
+            int slot = mix(key.hashCode()) & mask;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            ids[slot] = count;
+            return count++;
+        }
+
+        private void resize() {
+            String[] oldKeys = keys;
+            int[] oldIds = ids;
+            keys = new String[oldKeys.length * 2];
+            ids = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == null) continue;
+                int slot = mix(oldKeys[i].hashCode()) & mask;
+                while (keys[slot] != null) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                ids[slot] = oldIds[i];
+            }
+        }
+
+        private static int mix(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+
+    /**
+     * Per-thread BM25 score accumulators, reset by clearing only the rows a query touched.
+     */
+    private static final class Accumulator {
+        private float[] scores = new float[0];
+        private int[] touched = new int[0];
+        private int touchedCount;
+
+        void reset(int capacity) {
+            for (int i = 0; i < touchedCount; i++) scores[touched[i]] = 0;
+            touchedCount = 0;
+            if (scores.length < capacity) {
+                scores = new float[Math.max(capacity, scores.length * 2)];
+                touched = new int[scores.length];
+            }
+        }
+
+        void add(int row, float score) {
+            if (scores[row] == 0) touched[touchedCount++] = row;
+            scores[row] += score;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package org.nc.IELTSChecker.store;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read-only memory mapping of a file region that may be larger than 2 GB.
+ * The region is split into chunks of {@code chunkSize} bytes, each mapped separately.
+ */
+final class MappedRegion {
+
+    private static final long DEFAULT_CHUNK_SIZE = 1L << 30;
+
+    private final MappedByteBuffer[] chunks;
+    private final FloatBuffer[] floatViews;
+    private final long chunkSize;
+    private final long length;
+
+    private MappedRegion(MappedByteBuffer[] chunks, long chunkSize, long length) {
+        this.chunks = chunks;
+        this.floatViews = new FloatBuffer[chunks.length];
+        for (int i = 0; i < chunks.length; i++) {
+            floatViews[i] = chunks[i].asFloatBuffer();
+        }
+        this.chunkSize = chunkSize;
+        this.length = length;
+    }
+
+    static MappedRegion map(FileChannel channel, long offset, long length) throws IOException {
+        return map(channel, offset, length, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Maps a region of the channel.
+     * @param chunkSize the size of each mapping; callers pick a multiple of their record size
+     *                  so that fixed-size records never straddle two chunks
+     */
+    static MappedRegion map(FileChannel channel, long offset, long length, long chunkSize) throws IOException {
+        int count = (int) Math.max(1, (length + chunkSize - 1) / chunkSize);
+        MappedByteBuffer[] chunks = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = i * chunkSize;
+            long size = Math.max(0, Math.min(chunkSize, length - start));
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset + start, size);
+            chunks[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new MappedRegion(chunks, chunkSize, length);
+    }
+
+    long length() {
+        return length;
+    }
+
+    int getInt(long position) {
+        MappedByteBuffer chunk = chunks[(int) (position / chunkSize)];
+        int local = (int) (position % chunkSize);
+        if (local + Integer.BYTES <= chunk.limit()) return chunk.getInt(local);
+        byte[] bytes = new byte[Integer.BYTES];
+        readBytes(position, bytes, 0, bytes.length);
+        return (bytes[0] & 0xFF) | (bytes[1] & 0xFF) << 8 | (bytes[2] & 0xFF) << 16 | (bytes[3] & 0xFF) << 24;
+    }
+
+    long getLong(long position) {
+        MappedByteBuffer chunk = chunks[(int) (position / chunkSize)];
+        return chunk.getLong((int) (position % chunkSize));
+    }
+
+    float getFloat(long position) {
+        MappedByteBuffer chunk = chunks[(int) (position / chunkSize)];
+        return chunk.getFloat((int) (position % chunkSize));
+    }
+
+    /**
+     * Bulk-copies consecutive floats that lie within a single chunk.
+     * The position must be 4-byte aligned relative to the start of the region.
+     */
+    void readFloats(long position, float[] target, int count) {
+        FloatBuffer view = floatViews[(int) (position / chunkSize)];
+        view.get((int) ((position % chunkSize) / Float.BYTES), target, 0, count);
+    }
+
+    /**
+     * Copies bytes, following the data across chunk boundaries when needed.
+     */
+    void readBytes(long position, byte[] target, int offset, int length) {
+        while (length > 0) {
+            MappedByteBuffer chunk = chunks[(int) (position / chunkSize)];
+            int local = (int) (position % chunkSize);
+            int n = Math.min(length, chunk.limit() - local);
+            chunk.get(local, target, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+}
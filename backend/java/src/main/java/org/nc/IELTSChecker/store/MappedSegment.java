@@ -0,0 +1,177 @@
+package org.nc.IELTSChecker.store;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.nc.IELTSChecker.store.StoreFileFormat.*;
+
+/**
+ * Rows of a store file mapped read-only into memory.
+ * Embeddings are read straight from the mapping; ids, text and metadata are decoded on demand,
+ * so the heap cost of an open file does not depend on the number of rows.
+ */
+final class MappedSegment implements VectorSegment {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+
+    private final File file;
+    private final long fingerprint;
+    private final int dimensions;
+    private final int size;
+    private final MappedRegion vectors;
+    private final MappedRegion norms;
+    private final MappedRegion index;
+    private final MappedRegion records;
+
+    private MappedSegment(File file, long fingerprint, int dimensions, int size, MappedRegion vectors,
+                          MappedRegion norms, MappedRegion index, MappedRegion records) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.dimensions = dimensions;
+        this.size = size;
+        this.vectors = vectors;
+        this.norms = norms;
+        this.index = index;
+        this.records = records;
+    }
+
+    /**
+     * Maps a store file written by {@link StoreFileWriter}.
+     * @param file the store file
+     * @return the mapped segment
+     * @throws IOException if the file cannot be read or is not a store file
+     */
+    static MappedSegment open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // read the full header
+            }
+            if (header.hasRemaining() || header.getInt(MAGIC_POS) != MAGIC) {
+                throw new IOException("Not a vector store file: " + file.getAbsolutePath());
+            }
+            int version = header.getInt(VERSION_POS);
+            if (version != VERSION && version != VERSION_WITHOUT_ID) {
+                throw new IOException("Unsupported vector store file version " + version);
+            }
+
+            int dimensions = header.getInt(DIMENSIONS_POS);
+            int count = header.getInt(COUNT_POS);
+            long normsOffset = header.getLong(NORMS_OFFSET_POS);
+            long indexOffset = header.getLong(INDEX_OFFSET_POS);
+            long recordsOffset = header.getLong(RECORDS_OFFSET_POS);
+            long fileLength = header.getLong(FILE_LENGTH_POS);
+            if (fileLength != channel.size()) {
+                throw new IOException("Truncated vector store file: " + file.getAbsolutePath());
+            }
+
+            long rowBytes = (long) Math.max(dimensions, 1) * Float.BYTES;
+            long vectorChunk = Math.max(1, (1L << 30) / rowBytes) * rowBytes;
+            MappedRegion vectors = MappedRegion.map(channel, HEADER_SIZE, normsOffset - HEADER_SIZE, vectorChunk);
+            MappedRegion norms = MappedRegion.map(channel, normsOffset, (long) count * Float.BYTES);
+            MappedRegion index = MappedRegion.map(channel, indexOffset, (long) count * Long.BYTES);
+            MappedRegion records = MappedRegion.map(channel, recordsOffset, fileLength - recordsOffset);
+            long fingerprint = version == VERSION_WITHOUT_ID ? checksum(channel) : header.getLong(STORE_ID_POS);
+            return new MappedSegment(file, fingerprint, dimensions, count, vectors, norms, index, records);
+        }
+    }
+
+    File file() {
+        return file;
+    }
+
+    /**
+     * Identifies this file's contents for sidecar files that refer to its row numbers: the random
+     * id the writer put in the header, so a rebuilt file never matches the sidecars of another.
+     */
+    long fingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Stands in for the id of files written before it existed: a CRC-32 of every byte, with the
+     * length in the high half.
+     */
+    private static long checksum(FileChannel channel) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        long position = 0;
+        int read;
+        while ((read = channel.read(buffer, position)) > 0) {
+            buffer.flip();
+            crc.update(buffer);
+            buffer.clear();
+            position += read;
+        }
+        return position << 32 ^ crc.getValue();
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public void readVector(int row, float[] target) {
+        vectors.readFloats((long) row * dimensions * Float.BYTES, target, dimensions);
+    }
+
+    @Override
+    public float norm(int row) {
+        return norms.getFloat((long) row * Float.BYTES);
+    }
+
+    @Override
+    public String id(int row) {
+        return readString(recordStart(row));
+    }
+
+    @Override
+    public String text(int row) {
+        long position = recordStart(row);
+        position += Integer.BYTES + records.getInt(position);
+        return readString(position);
+    }
+
+    @Override
+    public Map<String, Object> metadata(int row) {
+        long position = recordStart(row);
+        position += Integer.BYTES + records.getInt(position);
+        position += Integer.BYTES + records.getInt(position);
+        int length = records.getInt(position);
+        byte[] json = new byte[length];
+        records.readBytes(position + Integer.BYTES, json, 0, length);
+        try {
+            return MAPPER.readValue(json, METADATA_TYPE);
+        } catch (IOException e) {
+            throw new IllegalStateException("Corrupt metadata for row " + row + " in " + file, e);
+        }
+    }
+
+    private long recordStart(int row) {
+        return index.getLong((long) row * Long.BYTES);
+    }
+
+    private String readString(long position) {
+        int length = records.getInt(position);
+        byte[] bytes = new byte[length];
+        records.readBytes(position + Integer.BYTES, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,1134 @@
+package org.nc.IELTSChecker.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingOptionsBuilder;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * {@link VectorStore} backed by a compact binary file that is memory-mapped at startup.
+ *
+ * <p>Embeddings live in one contiguous float32 section of the file and are scanned straight from
+ * the mapping; text and metadata sit in a separate section and are only decoded for results.
+ * Documents added after the file was opened are kept on the heap and appended to a write-ahead
+ * log ({@code <store>.log}) until {@link #save()} compacts them into a new file and maps it in
+ * their place, so ingestion costs one append per batch instead of a full rewrite.
+ *
+ * <p>Readers work on an immutable {@link Snapshot}; writers build a new snapshot and publish it
+ * through a volatile field, so searches never block on ingestion.
+ *
+ * <p>When HNSW settings are given, unfiltered searches go through an {@link HnswIndex} that is
+ * persisted next to the store file ({@code <store>.hnsw}); filtered searches and rows not yet in
+ * the graph are scanned exactly.
+ *
+ * <p>Every snapshot also carries a BM25 {@link LexicalIndex} over the text and question of its
+ * rows, for keyword search, question lookup and {@link #hybridSearch hybrid} retrieval, and the
+ * rows grouped by band ({@link BandPartitions}): filters on {@code band} are pushed down so that a
+ * filtered search only scans the matching partitions, and {@link #stratifiedSearch} picks the
+ * nearest essays of each band range. Each snapshot keeps the {@link #questionExemplars exemplar set}
+ * of every stored question it has served, so they are recomputed only when the corpus changes.
+ *
+ * <p>With quantization enabled, the rows of the store file also get compact {@link QuantizedVectors}
+ * codes on the heap, persisted next to it ({@code <store>.codes}). Exhaustive scans and graph
+ * traversal then rank those rows by their codes, and only the best {@code topK * rescoreFactor}
+ * candidates are rescored with the full-precision vectors read from the mapping, so the float32
+ * section is barely touched by searches and need not stay resident.
+ *
+ * <p>{@link #load()} prepares a new mapping with its codes and graph before publishing anything, so
+ * it doubles as a hot reload. A changed corpus is ingested into a {@link #stage staged copy} that is
+ * then {@link #replaceWith swapped in}; other instances can map the same file {@code readOnly} and
+ * reload it when it is replaced, since store files are only ever replaced by an atomic rename.
+ */
+public class MappedVectorStore implements VectorStore {
+
+    private final EmbeddingModel embeddingModel;
+    private final File storeFile;
+    private final HnswIndex.Settings hnswSettings;
+    private final QuantizedVectors.Settings quantization;
+    private final boolean readOnly;
+    private final Object writeLock = new Object();
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private static final Logger log = LoggerFactory.getLogger(MappedVectorStore.class);
+    private static final int RRF_K = 60;
+    private static final int RRF_CANDIDATES_PER_RESULT = 4;
+
+    private volatile Snapshot snapshot = Snapshot.empty();
+    private volatile HnswIndex index;
+    private AppendLog appendLog;
+
+    public MappedVectorStore(EmbeddingModel embeddingModel, File storeFile) {
+        this(embeddingModel, storeFile, null);
+    }
+
+    /**
+     * @param embeddingModel the model used to embed added documents and queries
+     * @param storeFile the binary store file
+     * @param hnswSettings the HNSW parameters, or null to always search exhaustively
+     */
+    public MappedVectorStore(EmbeddingModel embeddingModel, File storeFile, HnswIndex.Settings hnswSettings) {
+        this(embeddingModel, storeFile, hnswSettings, null);
+    }
+
+    /**
+     * @param embeddingModel the model used to embed added documents and queries
+     * @param storeFile the binary store file
+     * @param hnswSettings the HNSW parameters, or null to always search exhaustively
+     * @param quantization the code type for rows of the store file, or null to search full-precision vectors only
+     */
+    public MappedVectorStore(EmbeddingModel embeddingModel, File storeFile, HnswIndex.Settings hnswSettings,
+                             QuantizedVectors.Settings quantization) {
+        this(embeddingModel, storeFile, hnswSettings, quantization, false);
+    }
+
+    /**
+     * @param embeddingModel the model used to embed added documents and queries
+     * @param storeFile the binary store file
+     * @param hnswSettings the HNSW parameters, or null to always search exhaustively
+     * @param quantization the code type for rows of the store file, or null to search full-precision vectors only
+     * @param readOnly map a store file written by another instance: nothing is ever written next to
+     *                 it, a graph or codes missing there are kept in memory only, and the writer's
+     *                 log is ignored, so only compacted changes are seen
+     */
+    public MappedVectorStore(EmbeddingModel embeddingModel, File storeFile, HnswIndex.Settings hnswSettings,
+                             QuantizedVectors.Settings quantization, boolean readOnly) {
+        this.embeddingModel = embeddingModel;
+        this.storeFile = storeFile;
+        this.hnswSettings = hnswSettings;
+        this.quantization = quantization != null && quantization.enabled() ? quantization : null;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Maps the store file, replacing anything held in memory, then replays the write-ahead log
+     * so that batches committed after the file was last written are restored.
+     * The file is mapped and its codes and graph read or built before the store switches to it in
+     * one step; searches keep running on the previous mapping meanwhile and in-flight ones finish on it.
+     * @throws IOException if the file exists but cannot be mapped
+     */
+    public void load() throws IOException {
+        synchronized (writeLock) {
+            closeLog();
+            if (storeFile.exists() && storeFile.length() > 0) {
+                MappedSegment base = MappedSegment.open(storeFile);
+                Snapshot loaded = indexedSnapshot(base, loadOrBuildCodes(base));
+                publish(loaded, loadOrBuildIndex(base, loaded));
+            } else {
+                publish(Snapshot.empty(), null);
+            }
+            if (!readOnly) openLog();
+        }
+    }
+
+    /**
+     * Copies the store file with its graph and codes to another location and opens the copy with
+     * the same settings, so that it can be updated off to the side while this store keeps serving
+     * searches, then swapped in with {@link #replaceWith}. Uncompacted changes are saved first.
+     * @param stagingFile where to put the copy; replaced with its sidecar files if it exists
+     * @return the opened copy
+     * @throws IOException if the files cannot be copied
+     */
+    public MappedVectorStore stage(File stagingFile) throws IOException {
+        checkWritable();
+        MappedVectorStore staged = new MappedVectorStore(embeddingModel, stagingFile, hnswSettings, quantization);
+        staged.clear();
+        synchronized (writeLock) {
+            if (hasUncompactedChanges()) save();
+            if (storeFile.exists()) {
+                copyIfExists(indexFile(), staged.indexFile());
+                copyIfExists(codesFile(), staged.codesFile());
+                Files.copy(storeFile.toPath(), stagingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        staged.load();
+        return staged;
+    }
+
+    /**
+     * Replaces this store with a compacted store built elsewhere, typically by {@link #stage}: its
+     * graph, codes and file are moved over this store's, the file last and atomically, then mapped
+     * as by {@link #load()}. The staged store must not be used afterwards.
+     * @param staged the store to take over
+     * @throws IOException if the files cannot be moved or mapped
+     */
+    public void replaceWith(MappedVectorStore staged) throws IOException {
+        checkWritable();
+        if (staged.hasUncompactedChanges()) {
+            throw new IllegalStateException("Staged vector store has changes that were not saved");
+        }
+        synchronized (writeLock) {
+            synchronized (staged.writeLock) {
+                staged.closeLog();
+                Files.deleteIfExists(staged.logFile());
+                // Sidecars carry the fingerprint of their store file, so they may land before it
+                moveIfExists(staged.indexFile(), indexFile());
+                moveIfExists(staged.codesFile(), codesFile());
+                Files.move(staged.storeFile.toPath(), storeFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                staged.publish(Snapshot.empty(), null);
+            }
+            load();
+        }
+    }
+
+    private static void copyIfExists(Path source, Path target) throws IOException {
+        if (Files.exists(source)) Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void moveIfExists(Path source, Path target) throws IOException {
+        if (Files.exists(source)) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Compacts the store: writes all live documents to a new store file, atomically replaces the
+     * old one, maps it and empties the write-ahead log.
+     * Searches running against the previous mapping are unaffected.
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException {
+        checkWritable();
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            try (StoreFileWriter writer = new StoreFileWriter(storeFile, current.dimensions())) {
+                float[] vector = new float[current.dimensions()];
+                for (int row = 0; row < current.size(); row++) {
+                    if (current.deleted.get(row)) continue;
+                    VectorSegment segment = current.segment(row);
+                    int local = current.local(row);
+                    segment.readVector(local, vector);
+                    writer.append(segment.id(local), segment.text(local), segment.metadata(local), vector);
+                }
+                writer.commit();
+            }
+            MappedSegment base = MappedSegment.open(storeFile);
+            // Without deletions the rows keep their numbers, so the lexical index, partitions and codes still apply
+            QuantizedVectors codes = null;
+            if (quantization != null) {
+                codes = current.deleted.isEmpty() && current.codes != null
+                        ? current.codes.extend(base, base.size())
+                        : buildCodes(base);
+                codes.write(codesFile(), base.fingerprint());
+            }
+            Snapshot compacted = current.deleted.isEmpty()
+                    ? new Snapshot(base, HeapSegment.empty(base.dimensions()), new BitSet(), current.lexical,
+                            current.partitions, codes)
+                    : indexedSnapshot(base, codes);
+            HnswIndex compactedIndex = index;
+            if (hnswSettings != null && (compactedIndex == null || !current.deleted.isEmpty())) {
+                // Compaction renumbered the rows, so the graph has to be rebuilt
+                compactedIndex = buildIndex(compacted, null);
+            }
+            publish(compacted, compactedIndex);
+
+            if (compactedIndex != null) {
+                indexLock.readLock().lock();
+                try {
+                    compactedIndex.write(indexFile(), base.fingerprint());
+                } finally {
+                    indexLock.readLock().unlock();
+                }
+            }
+
+            if (appendLog == null) openLog();
+            appendLog.reset(base.fingerprint());
+        }
+    }
+
+    /**
+     * Removes every document together with the store file, its index and its log, so the store can
+     * be filled again with embeddings of different dimensions.
+     * @throws IOException if the files cannot be deleted
+     */
+    public void clear() throws IOException {
+        checkWritable();
+        synchronized (writeLock) {
+            closeLog();
+            Files.deleteIfExists(storeFile.toPath());
+            Files.deleteIfExists(indexFile());
+            Files.deleteIfExists(codesFile());
+            Files.deleteIfExists(logFile());
+            publish(Snapshot.empty(), null);
+            openLog();
+        }
+    }
+
+    /**
+     * @return true if documents were added or deleted since the store file was last written
+     */
+    public boolean hasUncompactedChanges() {
+        Snapshot current = snapshot;
+        return current.pending.size() > 0 || !current.deleted.isEmpty();
+    }
+
+    /**
+     * @return the ids of all live documents
+     */
+    public Set<String> ids() {
+        Snapshot current = snapshot;
+        Set<String> ids = new HashSet<>(current.size() * 2);
+        for (int row = 0; row < current.size(); row++) {
+            if (!current.deleted.get(row)) ids.add(current.segment(row).id(current.local(row)));
+        }
+        return ids;
+    }
+
+    public File getStoreFile() {
+        return storeFile;
+    }
+
+    public HnswIndex.Settings getHnswSettings() {
+        return hnswSettings;
+    }
+
+    public QuantizedVectors.Settings getQuantization() {
+        return quantization;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * @return the heap size of the quantized codes in bytes, or 0 without quantization
+     */
+    public long quantizedBytes() {
+        QuantizedVectors codes = snapshot.codes;
+        return codes == null ? 0 : codes.bytes();
+    }
+
+    /**
+     * @return the number of live documents
+     */
+    public int size() {
+        Snapshot current = snapshot;
+        return current.size() - current.deleted.cardinality();
+    }
+
+    public int dimensions() {
+        return snapshot.dimensions();
+    }
+
+    @Override
+    public String getName() {
+        return "MappedVectorStore";
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        Objects.requireNonNull(documents, "Documents list cannot be null");
+        if (documents.isEmpty()) return;
+        checkWritable();
+
+        List<float[]> embeddings = embeddingModel.embed(documents,
+                EmbeddingOptionsBuilder.builder().build(), new TokenCountBatchingStrategy());
+        add(documents, embeddings);
+    }
+
+    /**
+     * Adds documents whose embeddings have already been computed.
+     * The batch is forced to the write-ahead log before it becomes visible to searches.
+     * @param documents the documents
+     * @param embeddings one embedding per document, in the same order
+     */
+    public void add(List<Document> documents, List<float[]> embeddings) {
+        if (documents.size() != embeddings.size()) {
+            throw new IllegalArgumentException("Expected one embedding per document");
+        }
+        if (documents.isEmpty()) return;
+        checkWritable();
+
+        List<String> ids = new ArrayList<>(documents.size());
+        List<String> texts = new ArrayList<>(documents.size());
+        List<Map<String, Object>> metadata = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            ids.add(document.getId());
+            texts.add(document.getText());
+            metadata.add(document.getMetadata());
+        }
+
+        synchronized (writeLock) {
+            int dimensions = snapshot.dimensions() > 0 ? snapshot.dimensions() : embeddings.get(0).length;
+            for (float[] embedding : embeddings) {
+                if (embedding.length != dimensions) {
+                    throw new IllegalArgumentException("Expected embeddings with " + dimensions
+                            + " dimensions but got " + embedding.length);
+                }
+            }
+            try {
+                if (appendLog == null) openLog();
+                appendLog.appendAdds(ids, texts, metadata, embeddings);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write to the vector store log", e);
+            }
+            applyAdds(ids, texts, metadata, embeddings);
+        }
+    }
+
+    @Override
+    public void delete(List<String> idList) {
+        Set<String> ids = new HashSet<>(idList);
+        deleteMatching(ids::contains, null);
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        deleteMatching(null, filterExpression);
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        if (snapshot.size() == 0) return List.of();
+        float[] query = embeddingModel.embed(request.getQuery());
+        return similaritySearch(query, request.getTopK(), request.getSimilarityThreshold(),
+                request.getFilterExpression());
+    }
+
+    /**
+     * Searches with a precomputed query embedding.
+     * @param query the query embedding
+     * @param topK the maximum number of results
+     * @param similarityThreshold the minimum cosine similarity of a result
+     * @param filterExpression an optional metadata filter
+     * @return the matching documents, most similar first, with their score set
+     */
+    public List<Document> similaritySearch(float[] query, int topK, double similarityThreshold,
+                                           Filter.Expression filterExpression) {
+        Snapshot current = snapshot;
+        if (current.size() == 0 || topK <= 0) return List.of();
+        if (query.length != current.dimensions()) {
+            throw new IllegalArgumentException("Query has " + query.length + " dimensions but the store has "
+                    + current.dimensions());
+        }
+
+        if (index != null && filterExpression == null) {
+            return indexedSearch(query, topK, similarityThreshold);
+        }
+        return exactSearch(current, query, topK, similarityThreshold, filterExpression);
+    }
+
+    /**
+     * Scores every live row; used for filtered searches, stores without an index, and as the
+     * reference the HNSW recall is measured against. With quantization, rows of the store file are
+     * ranked by their codes and only the best candidates are scored at full precision.
+     */
+    public List<Document> exactSearch(float[] query, int topK, double similarityThreshold,
+                                      Filter.Expression filterExpression) {
+        Snapshot current = snapshot;
+        if (current.size() == 0 || topK <= 0) return List.of();
+        return exactSearch(current, query, topK, similarityThreshold, filterExpression);
+    }
+
+    /**
+     * Ranks documents by BM25 against the query text, without embedding it.
+     * @param query the query text
+     * @param topK the maximum number of results
+     * @return the matching documents, best first, with their BM25 score set
+     */
+    public List<Document> lexicalSearch(String query, int topK) {
+        Snapshot current = snapshot;
+        if (current.size() == 0 || topK <= 0) return List.of();
+        TopK top = current.lexical.search(query, topK, current.size(), current.deleted, null);
+        return toLexicalDocuments(current, top);
+    }
+
+    /**
+     * Finds documents written for the same question, exactly or nearly: lower-case and punctuation
+     * differences are ignored, and otherwise the stored question with the most words in common is
+     * taken if its word sets have at least the given Jaccard similarity.
+     * The matches are ranked by BM25 against the query text.
+     * @param question the question to look up
+     * @param query the text the matches are ranked against
+     * @param topK the maximum number of results
+     * @param minSimilarity the minimum word-set similarity of a near-exact match
+     * @return the matching documents, best first, with their BM25 score set; empty if no question matched
+     */
+    public List<Document> questionMatches(String question, String query, int topK, double minSimilarity) {
+        Snapshot current = snapshot;
+        if (current.size() == 0 || topK <= 0) return List.of();
+        int[] rows = current.lexical.questionRows(question, minSimilarity, current.size());
+        if (rows.length == 0) return List.of();
+        BitSet allowed = new BitSet(current.size());
+        for (int row : rows) allowed.set(row);
+        allowed.andNot(current.deleted);
+        TopK top = current.lexical.search(query, topK, current.size(), current.deleted, allowed);
+        float[] scores = new float[top.size()];
+        int[] ranked = top.drainDescending(scores);
+        List<Document> matches = new ArrayList<>(topK);
+        for (int i = 0; i < ranked.length; i++) {
+            matches.add(current.lexicalDocument(ranked[i], scores[i]));
+            allowed.clear(ranked[i]);
+        }
+        // Matches sharing no word with the query score nothing but still answer the question
+        for (int row = allowed.nextSetBit(0); row >= 0 && matches.size() < topK; row = allowed.nextSetBit(row + 1)) {
+            matches.add(current.lexicalDocument(row, 0f));
+        }
+        return matches;
+    }
+
+    /**
+     * Serves the reference essays of the stored question a submission was written for, matched as by
+     * {@link #questionMatches}, without ranking them against the submission. The set is ranked once
+     * per question and snapshot: its first essays cover the bands of the question's essays, from the
+     * highest and lowest inwards, then each band contributes in turn.
+     * @param question the question to look up
+     * @param topK the maximum number of results
+     * @param minSimilarity the minimum word-set similarity of a near-exact match
+     * @return the exemplars, best first, with descending scores set; empty if no question matched
+     */
+    public List<Document> questionExemplars(String question, int topK, double minSimilarity) {
+        Snapshot current = snapshot;
+        if (current.size() == 0 || topK <= 0) return List.of();
+        int questionId = current.lexical.questionId(question, minSimilarity);
+        if (questionId < 0) return List.of();
+        List<Document> exemplars = current.exemplars(questionId);
+        return exemplars.subList(0, Math.min(topK, exemplars.size()));
+    }
+
+    /**
+     * Ranks the exemplar sets of all stored questions ahead of the first lookups.
+     * @return the number of questions with exemplars
+     */
+    public int precomputeQuestionExemplars() {
+        Snapshot current = snapshot;
+        int questions = 0;
+        for (int questionId = 0; questionId < current.lexical.questionCount(); questionId++) {
+            if (!current.exemplars(questionId).isEmpty()) questions++;
+        }
+        return questions;
+    }
+
+    /**
+     * Fuses vector and BM25 results with reciprocal-rank fusion: each document scores
+     * {@code sum(1 / (60 + rank))} over the two result lists, so documents found by both rank
+     * first and either list alone still fills the result when the other is empty.
+     * @param query the query text, for BM25
+     * @param embedding the query embedding
+     * @param topK the maximum number of results
+     * @param similarityThreshold the minimum cosine similarity of a vector result
+     * @return the fused documents, best first, with the fusion score set
+     */
+    public List<Document> hybridSearch(String query, float[] embedding, int topK, double similarityThreshold) {
+        if (topK <= 0) return List.of();
+        int candidates = topK * RRF_CANDIDATES_PER_RESULT;
+        List<Document> vector = similaritySearch(embedding, candidates, similarityThreshold, null);
+        List<Document> lexical = lexicalSearch(query, candidates);
+
+        Map<String, Document> documents = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        for (List<Document> ranking : List.of(vector, lexical)) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                documents.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (RRF_K + rank + 1), Double::sum);
+            }
+        }
+        return documents.values().stream()
+                .sorted(Comparator.comparingDouble((Document document) -> scores.get(document.getId())).reversed())
+                .limit(topK)
+                .map(document -> document.mutate().score(scores.get(document.getId())).build())
+                .toList();
+    }
+
+    /**
+     * Finds the nearest documents within each band range, for a set of examples that spans the
+     * band scale instead of clustering at the level of the nearest essays. Only the rows of the
+     * requested bands are scanned.
+     * @param query the query embedding
+     * @param strata the lower bounds of the band ranges; each range is one band wide
+     * @param perStratum the maximum number of results per range
+     * @param similarityThreshold the minimum cosine similarity of a result
+     * @return the results of each range in the order of {@code strata}, most similar first within a range
+     */
+    public List<Document> stratifiedSearch(float[] query, double[] strata, int perStratum,
+                                           double similarityThreshold) {
+        Snapshot current = snapshot;
+        if (current.size() == 0 || perStratum <= 0) return List.of();
+        if (query.length != current.dimensions()) {
+            throw new IllegalArgumentException("Query has " + query.length + " dimensions but the store has "
+                    + current.dimensions());
+        }
+        float queryNorm = VectorMath.norm(query);
+        List<Document> results = new ArrayList<>(strata.length * perStratum);
+        for (double stratum : strata) {
+            TopK top = new TopK(perStratum);
+            int[] rows = current.partitions.rows(band -> band >= stratum && band < stratum + 1, current.size());
+            scanRows(current, rows, query, queryNorm, similarityThreshold, null, top);
+            results.addAll(toDocuments(current, top));
+        }
+        return results;
+    }
+
+    /**
+     * Scans only the band partitions a filter can match, and evaluates the filter per row only
+     * where the band test does not already decide it.
+     */
+    private List<Document> exactSearch(Snapshot current, float[] query, int topK, double similarityThreshold,
+                                       Filter.Expression filterExpression) {
+        TopK top = new TopK(topK);
+        float queryNorm = VectorMath.norm(query);
+        BandPartitions.Constraint constraint = BandPartitions.Constraint.of(filterExpression);
+        if (constraint.test() == null) {
+            scan(current, 0, query, queryNorm, similarityThreshold, filterExpression, top);
+        } else {
+            int[] rows = current.partitions.rows(constraint.test(), current.size());
+            scanRows(current, rows, query, queryNorm, similarityThreshold,
+                    constraint.complete() ? null : filterExpression, top);
+            scanRows(current, current.partitions.unknownRows(current.size()), query, queryNorm,
+                    similarityThreshold, filterExpression, top);
+        }
+        return toDocuments(current, top);
+    }
+
+    private List<Document> indexedSearch(float[] query, int topK, double similarityThreshold) {
+        float queryNorm = VectorMath.norm(query);
+        TopK top = new TopK(topK);
+        indexLock.readLock().lock();
+        try {
+            // Read the snapshot and graph under the lock so that every row in the graph is visible in it
+            Snapshot current = snapshot;
+            HnswIndex graph = index;
+            if (graph == null) return exactSearch(current, query, topK, similarityThreshold, null);
+            int ef = Math.max(graph.settings().efSearch(), topK + current.deleted.cardinality());
+            ScoredHeap candidates = graph.search(query, queryNorm, ef, current.searchSource);
+            // Scores of rows with codes are approximate; the best of them are rescored below
+            TopK approximate = current.codes == null ? null : new TopK(topK * rescoreFactor());
+            for (int i = 0; i < candidates.size(); i++) {
+                int row = candidates.nodeAt(i);
+                float score = candidates.scoreAt(i);
+                if (current.deleted.get(row)) continue;
+                if (approximate != null && row < current.baseSize) {
+                    approximate.offer(row, score);
+                } else if (score >= similarityThreshold) {
+                    top.offer(row, score);
+                }
+            }
+            if (approximate != null) {
+                rescore(current, approximate, new float[current.dimensions()], query, queryNorm, similarityThreshold, top);
+            }
+            scan(current, graph.size(), query, queryNorm, similarityThreshold, null, top);
+            return toDocuments(current, top);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private void scan(Snapshot current, int fromRow, float[] query, float queryNorm, double similarityThreshold,
+                      Filter.Expression filterExpression, TopK top) {
+        float[] vector = new float[current.dimensions()];
+        int row = fromRow;
+        if (current.codes != null && row < current.baseSize) {
+            TopK candidates = new TopK(top.capacity() * rescoreFactor());
+            VectorSource.Scorer scorer = current.codes.scorer(query, queryNorm);
+            for (; row < current.baseSize; row++) {
+                offerCandidate(current, scorer, row, filterExpression, candidates);
+            }
+            rescore(current, candidates, vector, query, queryNorm, similarityThreshold, top);
+        }
+        for (; row < current.size(); row++) {
+            offer(current, row, vector, query, queryNorm, similarityThreshold, filterExpression, top);
+        }
+    }
+
+    private void scanRows(Snapshot current, int[] rows, float[] query, float queryNorm, double similarityThreshold,
+                          Filter.Expression filterExpression, TopK top) {
+        float[] vector = new float[current.dimensions()];
+        if (current.codes == null) {
+            for (int row : rows) {
+                offer(current, row, vector, query, queryNorm, similarityThreshold, filterExpression, top);
+            }
+            return;
+        }
+        TopK candidates = new TopK(top.capacity() * rescoreFactor());
+        VectorSource.Scorer scorer = current.codes.scorer(query, queryNorm);
+        for (int row : rows) {
+            if (row < current.baseSize) {
+                offerCandidate(current, scorer, row, filterExpression, candidates);
+            } else {
+                offer(current, row, vector, query, queryNorm, similarityThreshold, filterExpression, top);
+            }
+        }
+        rescore(current, candidates, vector, query, queryNorm, similarityThreshold, top);
+    }
+
+    private int rescoreFactor() {
+        return quantization == null ? 1 : quantization.rescoreFactor();
+    }
+
+    /**
+     * Ranks a row of the store file by its code. The similarity threshold is left to {@link #rescore},
+     * since the approximate score may fall on the wrong side of it.
+     */
+    private static void offerCandidate(Snapshot current, VectorSource.Scorer scorer, int row,
+                                       Filter.Expression filterExpression, TopK candidates) {
+        if (current.deleted.get(row)) return;
+        float score = scorer.score(row);
+        if (!candidates.accepts(score)) return;
+        if (filterExpression != null && !MetadataFilter.matches(filterExpression, current.base.metadata(row))) return;
+        candidates.offer(row, score);
+    }
+
+    /**
+     * Scores candidates ranked by their codes again with their full-precision vectors.
+     */
+    private static void rescore(Snapshot current, TopK candidates, float[] vector, float[] query, float queryNorm,
+                                double similarityThreshold, TopK top) {
+        int[] rows = candidates.drainDescending(new float[candidates.size()]);
+        for (int row : rows) {
+            current.base.readVector(row, vector);
+            float score = VectorMath.cosine(query, queryNorm, vector, current.base.norm(row));
+            if (score >= similarityThreshold) top.offer(row, score);
+        }
+    }
+
+    private static void offer(Snapshot current, int row, float[] vector, float[] query, float queryNorm,
+                              double similarityThreshold, Filter.Expression filterExpression, TopK top) {
+        if (current.deleted.get(row)) return;
+        VectorSegment segment = current.segment(row);
+        int local = current.local(row);
+        segment.readVector(local, vector);
+        float score = VectorMath.cosine(query, queryNorm, vector, segment.norm(local));
+        if (score < similarityThreshold || !top.accepts(score)) return;
+        if (filterExpression != null && !MetadataFilter.matches(filterExpression, segment.metadata(local))) return;
+        top.offer(row, score);
+    }
+
+    private List<Document> toDocuments(Snapshot current, TopK top) {
+        float[] scores = new float[top.size()];
+        int[] rows = top.drainDescending(scores);
+        List<Document> results = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            results.add(current.document(rows[i], scores[i]));
+        }
+        return results;
+    }
+
+    private List<Document> toLexicalDocuments(Snapshot current, TopK top) {
+        float[] scores = new float[top.size()];
+        int[] rows = top.drainDescending(scores);
+        List<Document> results = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            results.add(current.lexicalDocument(rows[i], scores[i]));
+        }
+        return results;
+    }
+
+    /**
+     * Builds the snapshot of a freshly mapped store file, indexing the text, question and band of
+     * every row in one pass.
+     */
+    private static Snapshot indexedSnapshot(MappedSegment base, QuantizedVectors codes) {
+        long start = System.nanoTime();
+        LexicalIndex lexical = new LexicalIndex();
+        BandPartitions partitions = new BandPartitions();
+        for (int row = 0; row < base.size(); row++) {
+            Map<String, Object> metadata = base.metadata(row);
+            lexical.add(row, question(metadata), base.text(row));
+            partitions.add(row, metadata.get(BandPartitions.KEY));
+        }
+        log.info("Built lexical index and band partitions over {} documents in {} ms",
+                base.size(), (System.nanoTime() - start) / 1_000_000);
+        return new Snapshot(base, HeapSegment.empty(base.dimensions()), new BitSet(), lexical, partitions, codes);
+    }
+
+    private static String question(Map<String, Object> metadata) {
+        Object question = metadata == null ? null : metadata.get("question");
+        return question == null ? null : question.toString();
+    }
+
+    private Path indexFile() {
+        return storeFile.toPath().resolveSibling(storeFile.getName() + ".hnsw");
+    }
+
+    private Path codesFile() {
+        return storeFile.toPath().resolveSibling(storeFile.getName() + ".codes");
+    }
+
+    /**
+     * Reads the persisted codes if they were built for this store file with the configured settings,
+     * otherwise builds and persists them.
+     * @return the codes, or null without quantization
+     */
+    private QuantizedVectors loadOrBuildCodes(MappedSegment base) throws IOException {
+        if (quantization == null) return null;
+        QuantizedVectors loaded = QuantizedVectors.read(codesFile(), quantization, base.dimensions(), base.fingerprint());
+        if (loaded != null && loaded.size() == base.size()) return loaded;
+        QuantizedVectors codes = buildCodes(base);
+        if (!readOnly) codes.write(codesFile(), base.fingerprint());
+        return codes;
+    }
+
+    private QuantizedVectors buildCodes(MappedSegment base) {
+        long start = System.nanoTime();
+        QuantizedVectors codes = QuantizedVectors.build(quantization, base, base.size());
+        log.info("Quantized {} vectors to {} codes in {} ms: {} KB on the heap instead of {} KB",
+                base.size(), quantization.type(), (System.nanoTime() - start) / 1_000_000, codes.bytes() / 1024,
+                4L * base.size() * (base.dimensions() + 1) / 1024);
+        return codes;
+    }
+
+    /**
+     * Reads the persisted graph if it was built for this store file, otherwise rebuilds and persists it.
+     * @param rows the snapshot of the store file, not yet published
+     * @return the graph, or null without HNSW settings
+     */
+    private HnswIndex loadOrBuildIndex(MappedSegment base, Snapshot rows) throws IOException {
+        if (hnswSettings == null) return null;
+        HnswIndex loaded = HnswIndex.read(indexFile(), hnswSettings, base.fingerprint());
+        if (loaded != null && loaded.size() == base.size()) return loaded;
+        return buildIndex(rows, base);
+    }
+
+    /**
+     * Builds a graph over all rows of a snapshot that is not published yet, so searches are not
+     * held up meanwhile, and persists it when it covers a store file.
+     */
+    private HnswIndex buildIndex(Snapshot rows, MappedSegment base) throws IOException {
+        long start = System.nanoTime();
+        HnswIndex built = new HnswIndex(hnswSettings);
+        for (int row = 0; row < rows.size(); row++) {
+            built.add(row, rows);
+        }
+        log.info("Built HNSW index over {} vectors in {} ms",
+                built.size(), (System.nanoTime() - start) / 1_000_000);
+        if (base != null && !readOnly) built.write(indexFile(), base.fingerprint());
+        return built;
+    }
+
+    /**
+     * Switches to a snapshot together with the graph over its rows. Indexed searches read both
+     * under the index lock, so they never pair a graph with the rows of another file.
+     */
+    private void publish(Snapshot next, HnswIndex nextIndex) {
+        indexLock.writeLock().lock();
+        try {
+            snapshot = next;
+            index = nextIndex;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) throw new UnsupportedOperationException("Vector store is read-only: " + storeFile);
+    }
+
+    private void replaceIndex(HnswIndex newIndex) {
+        indexLock.writeLock().lock();
+        try {
+            index = newIndex;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts rows that are in the snapshot but not yet in the graph. Called with the write lock held.
+     */
+    private void indexPendingRows() {
+        indexLock.writeLock().lock();
+        try {
+            Snapshot current = snapshot;
+            for (int row = index.size(); row < current.size(); row++) {
+                index.add(row, current);
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private void deleteMatching(Predicate<String> idMatcher, Filter.Expression filterExpression) {
+        checkWritable();
+        synchronized (writeLock) {
+            Snapshot current = snapshot;
+            List<String> ids = new ArrayList<>();
+            for (int row = 0; row < current.size(); row++) {
+                if (current.deleted.get(row)) continue;
+                VectorSegment segment = current.segment(row);
+                int local = current.local(row);
+                String id = segment.id(local);
+                boolean matches = idMatcher != null
+                        ? idMatcher.test(id)
+                        : MetadataFilter.matches(filterExpression, segment.metadata(local));
+                if (matches) ids.add(id);
+            }
+            if (ids.isEmpty()) return;
+            try {
+                if (appendLog == null) openLog();
+                appendLog.appendDeletes(ids);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write to the vector store log", e);
+            }
+            applyDeletes(ids);
+        }
+    }
+
+    /**
+     * Publishes a snapshot with the given rows appended. Called with the write lock held.
+     */
+    private void applyAdds(List<String> ids, List<String> texts, List<Map<String, Object>> metadata,
+                           List<float[]> embeddings) {
+        Snapshot current = snapshot;
+        int dimensions = current.dimensions() > 0 ? current.dimensions() : embeddings.get(0).length;
+        HeapSegment pending = current.pending.dimensions() == dimensions
+                ? current.pending
+                : HeapSegment.empty(dimensions);
+        for (int i = 0; i < ids.size(); i++) {
+            Map<String, Object> rowMetadata = metadata.get(i);
+            current.lexical.add(current.size() + i, question(rowMetadata), texts.get(i));
+            current.partitions.add(current.size() + i, rowMetadata == null ? null : rowMetadata.get(BandPartitions.KEY));
+        }
+        snapshot = new Snapshot(current.base, pending.append(ids, texts, metadata, embeddings), current.deleted,
+                current.lexical, current.partitions, current.codes);
+        if (hnswSettings != null) {
+            if (index == null) replaceIndex(new HnswIndex(hnswSettings));
+            indexPendingRows();
+        }
+    }
+
+    /**
+     * Publishes a snapshot with the given ids marked deleted. Called with the write lock held.
+     */
+    private void applyDeletes(Collection<String> idList) {
+        Set<String> ids = idList instanceof Set<String> set ? set : new HashSet<>(idList);
+        Snapshot current = snapshot;
+        BitSet deleted = (BitSet) current.deleted.clone();
+        for (int row = 0; row < current.size(); row++) {
+            if (!deleted.get(row) && ids.contains(current.segment(row).id(current.local(row)))) deleted.set(row);
+        }
+        snapshot = new Snapshot(current.base, current.pending, deleted, current.lexical, current.partitions,
+                current.codes);
+    }
+
+    private Path logFile() {
+        return storeFile.toPath().resolveSibling(storeFile.getName() + ".log");
+    }
+
+    /**
+     * Opens the write-ahead log, replaying batches committed since the store file was written.
+     * Called with the write lock held.
+     */
+    private void openLog() throws IOException {
+        Files.createDirectories(logFile().toAbsolutePath().getParent());
+        Snapshot current = snapshot;
+        long fingerprint = current.base == null ? 0 : current.base.fingerprint();
+        int[] replayed = new int[2];
+        appendLog = AppendLog.open(logFile(), fingerprint, new AppendLog.Replay() {
+            @Override
+            public void added(List<String> ids, List<String> texts, List<Map<String, Object>> metadata,
+                              List<float[]> vectors) {
+                applyAdds(ids, texts, metadata, vectors);
+                replayed[0] += ids.size();
+            }
+
+            @Override
+            public void deleted(List<String> ids) {
+                applyDeletes(ids);
+                replayed[1] += ids.size();
+            }
+        });
+        if (replayed[0] > 0 || replayed[1] > 0) {
+            log.info("Replayed vector store log: {} added, {} deleted", replayed[0], replayed[1]);
+        }
+    }
+
+    private void closeLog() throws IOException {
+        if (appendLog != null) {
+            appendLog.close();
+            appendLog = null;
+        }
+    }
+
+    /**
+     * Immutable view of the store: the mapped file, rows added since, and deleted row numbers.
+     * Rows are numbered across both segments, mapped rows first.
+     * The lexical index and band partitions are shared with later snapshots of the same numbering
+     * and may hold rows beyond {@link #size()}, which searches on this snapshot ignore.
+     * Codes, when present, cover exactly the rows of the store file.
+     */
+    private static final class Snapshot implements VectorSource {
+
+        final MappedSegment base;
+        final HeapSegment pending;
+        final BitSet deleted;
+        final LexicalIndex lexical;
+        final BandPartitions partitions;
+        final QuantizedVectors codes;
+        final int baseSize;
+        /** What searches traverse the graph over: rows of the store file by their codes, if any. */
+        final VectorSource searchSource;
+        /** Ranked exemplar sets by question number; a new snapshot starts without any. */
+        private final Map<Integer, List<Document>> exemplars = new ConcurrentHashMap<>();
+
+        Snapshot(MappedSegment base, HeapSegment pending, BitSet deleted, LexicalIndex lexical,
+                 BandPartitions partitions, QuantizedVectors codes) {
+            this.base = base;
+            this.pending = pending;
+            this.deleted = deleted;
+            this.lexical = lexical;
+            this.partitions = partitions;
+            this.codes = codes;
+            this.baseSize = base == null ? 0 : base.size();
+            this.searchSource = codes == null ? this : new VectorSource() {
+                @Override
+                public int dimensions() {
+                    return Snapshot.this.dimensions();
+                }
+
+                @Override
+                public void readVector(int row, float[] target) {
+                    if (row < baseSize) codes.readVector(row, target);
+                    else pending.readVector(row - baseSize, target);
+                }
+
+                @Override
+                public float norm(int row) {
+                    return row < baseSize ? codes.norm(row) : pending.norm(row - baseSize);
+                }
+
+                @Override
+                public float similarity(float[] query, float queryNorm, int row, float[] scratch) {
+                    return row < baseSize
+                            ? codes.similarity(query, queryNorm, row, scratch)
+                            : Snapshot.this.similarity(query, queryNorm, row, scratch);
+                }
+
+                @Override
+                public Scorer scorer(float[] query, float queryNorm) {
+                    Scorer coded = codes.scorer(query, queryNorm);
+                    Scorer full = Snapshot.this.scorer(query, queryNorm);
+                    return row -> row < baseSize ? coded.score(row) : full.score(row);
+                }
+            };
+        }
+
+        static Snapshot empty() {
+            return new Snapshot(null, HeapSegment.empty(0), new BitSet(), new LexicalIndex(), new BandPartitions(),
+                    null);
+        }
+
+        int size() {
+            return baseSize + pending.size();
+        }
+
+        @Override
+        public int dimensions() {
+            if (base != null && base.size() > 0) return base.dimensions();
+            return pending.dimensions();
+        }
+
+        @Override
+        public void readVector(int row, float[] target) {
+            segment(row).readVector(local(row), target);
+        }
+
+        @Override
+        public float norm(int row) {
+            return segment(row).norm(local(row));
+        }
+
+        VectorSegment segment(int row) {
+            return row < baseSize ? base : pending;
+        }
+
+        int local(int row) {
+            return row < baseSize ? row : row - baseSize;
+        }
+
+        Document document(int row, float score) {
+            return document(row, score, true);
+        }
+
+        List<Document> exemplars(int questionId) {
+            return exemplars.computeIfAbsent(questionId, this::rankExemplars);
+        }
+
+        private List<Document> rankExemplars(int questionId) {
+            TreeMap<Double, ArrayDeque<Integer>> rowsByBand = new TreeMap<>();
+            for (int row : lexical.rowsOfQuestion(questionId, size())) {
+                if (!deleted.get(row)) rowsByBand.computeIfAbsent(band(row), band -> new ArrayDeque<>()).add(row);
+            }
+            // The highest band first, then each time the band farthest from those taken; no band last
+            List<Double> known = rowsByBand.keySet().stream().filter(band -> !Double.isNaN(band)).toList();
+            List<Double> order = new ArrayList<>(rowsByBand.size());
+            if (!known.isEmpty()) order.add(known.get(known.size() - 1));
+            while (order.size() < known.size()) {
+                double next = Double.NaN;
+                double widestGap = -1;
+                for (double band : known) {
+                    if (order.contains(band)) continue;
+                    double gap = Double.MAX_VALUE;
+                    for (double other : order) gap = Math.min(gap, Math.abs(band - other));
+                    if (gap > widestGap) {
+                        next = band;
+                        widestGap = gap;
+                    }
+                }
+                order.add(next);
+            }
+            if (rowsByBand.containsKey(Double.NaN)) order.add(Double.NaN);
+
+            List<ArrayDeque<Integer>> groups = new ArrayList<>(order.size());
+            for (double band : order) groups.add(rowsByBand.get(band));
+            List<Integer> ranked = new ArrayList<>();
+            while (!groups.isEmpty()) {
+                for (Iterator<ArrayDeque<Integer>> it = groups.iterator(); it.hasNext(); ) {
+                    ArrayDeque<Integer> group = it.next();
+                    ranked.add(group.poll());
+                    if (group.isEmpty()) it.remove();
+                }
+            }
+            List<Document> documents = new ArrayList<>(ranked.size());
+            for (int i = 0; i < ranked.size(); i++) {
+                documents.add(lexicalDocument(ranked.get(i), 1f / (i + 1)));
+            }
+            return List.copyOf(documents);
+        }
+
+        private double band(int row) {
+            Object band = segment(row).metadata(local(row)).get(BandPartitions.KEY);
+            if (band == null) return Double.NaN;
+            try {
+                return Double.parseDouble(band.toString().trim());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        /**
+         * A BM25 result, which has no cosine distance.
+         */
+        Document lexicalDocument(int row, float score) {
+            return document(row, score, false);
+        }
+
+        private Document document(int row, float score, boolean withDistance) {
+            VectorSegment segment = segment(row);
+            int local = local(row);
+            Map<String, Object> metadata = new HashMap<>(segment.metadata(local));
+            if (withDistance) metadata.put("distance", 1.0 - score);
+            return Document.builder()
+                    .id(segment.id(local))
+                    .text(segment.text(local))
+                    .metadata(metadata)
+                    .score((double) score)
+                    .build();
+        }
+    }
+}
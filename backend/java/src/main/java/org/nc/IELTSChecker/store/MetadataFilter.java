@@ -0,0 +1,113 @@
+package org.nc.IELTSChecker.store;
+
+import org.springframework.ai.vectorstore.filter.Filter;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.IntPredicate;
+
+/**
+ * Evaluates Spring AI filter expressions directly against a metadata map,
+ * without going through the SpEL conversion used by {@code SimpleVectorStore}.
+ * Numbers are compared by value, so {@code word_count > 250} works whether the
+ * stored value is an Integer, a Double or a numeric string.
+ */
+public final class MetadataFilter {
+
+    private MetadataFilter() {
+    }
+
+    /**
+     * @param expression the filter expression, or null to match everything
+     * @param metadata the document metadata
+     * @return true if the metadata satisfies the expression
+     */
+    public static boolean matches(Filter.Expression expression, Map<String, Object> metadata) {
+        if (expression == null) return true;
+        return switch (expression.type()) {
+            case AND -> matches(operand(expression.left()), metadata) && matches(operand(expression.right()), metadata);
+            case OR -> matches(operand(expression.left()), metadata) || matches(operand(expression.right()), metadata);
+            case NOT -> !matches(operand(expression.left()), metadata);
+            case EQ -> valueEquals(metadata.get(key(expression)), value(expression));
+            case NE -> !valueEquals(metadata.get(key(expression)), value(expression));
+            case GT -> compare(expression, metadata, c -> c > 0);
+            case GTE -> compare(expression, metadata, c -> c >= 0);
+            case LT -> compare(expression, metadata, c -> c < 0);
+            case LTE -> compare(expression, metadata, c -> c <= 0);
+            case IN -> contains(value(expression), metadata.get(key(expression)));
+            case NIN -> !contains(value(expression), metadata.get(key(expression)));
+        };
+    }
+
+    private static Filter.Expression operand(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) return group.content();
+        if (operand instanceof Filter.Expression expression) return expression;
+        throw new IllegalArgumentException("Expected a filter expression but got " + operand);
+    }
+
+    private static String key(Filter.Expression expression) {
+        if (expression.left() instanceof Filter.Key key) {
+            String name = key.key();
+            // The text parser keeps quotes around keys such as 'word_count'
+            if (name.length() > 1 && (name.startsWith("'") || name.startsWith("\""))) {
+                name = name.substring(1, name.length() - 1);
+            }
+            return name;
+        }
+        throw new IllegalArgumentException("Expected a metadata key but got " + expression.left());
+    }
+
+    private static Object value(Filter.Expression expression) {
+        if (expression.right() instanceof Filter.Value value) return value.value();
+        throw new IllegalArgumentException("Expected a value but got " + expression.right());
+    }
+
+    private static boolean valueEquals(Object actual, Object expected) {
+        if (actual instanceof Number || expected instanceof Number) {
+            Double a = asNumber(actual);
+            Double b = asNumber(expected);
+            if (a != null && b != null) return Double.compare(a, b) == 0;
+        }
+        if (actual == null || expected == null) return actual == expected;
+        return Objects.equals(actual.toString(), expected.toString());
+    }
+
+    /**
+     * Compares the metadata value with the expression value; missing values never match.
+     */
+    private static boolean compare(Filter.Expression expression, Map<String, Object> metadata, IntPredicate test) {
+        Object actual = metadata.get(key(expression));
+        Object expected = value(expression);
+        if (actual == null || expected == null) return false;
+        if (actual instanceof Number || expected instanceof Number) {
+            Double a = asNumber(actual);
+            Double b = asNumber(expected);
+            if (a != null && b != null) return test.test(Double.compare(a, b));
+        }
+        return test.test(actual.toString().compareTo(expected.toString()));
+    }
+
+    /**
+     * Band scores are stored as strings such as "6.5", so numeric comparisons accept numeric strings too.
+     */
+    private static Double asNumber(Object value) {
+        if (value instanceof Number number) return number.doubleValue();
+        if (value == null) return null;
+        try {
+            return Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static boolean contains(Object values, Object actual) {
+        if (values instanceof Collection<?> collection) {
+            for (Object candidate : collection) {
+                if (valueEquals(actual, candidate)) return true;
+            }
+            return false;
+        }
+        return valueEquals(actual, values);
+    }
+}
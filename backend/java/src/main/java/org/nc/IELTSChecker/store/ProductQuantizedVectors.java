@@ -0,0 +1,277 @@
+package org.nc.IELTSChecker.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Product quantization (Jégou et al.): the unit-length embedding is cut into sub-vectors and each
+ * is replaced by the index of its nearest centroid among up to 256 learned by k-means on a sample
+ * of the rows, so a row costs one byte per sub-vector. With four dimensions per sub-vector that is
+ * a sixteenth of the size of float32 vectors.
+ *
+ * <p>A query is scored through a table of its dot products with every centroid, built once per
+ * query, so each row costs one lookup per sub-vector.
+ */
+final class ProductQuantizedVectors extends QuantizedVectors {
+
+    private static final int MAX_CENTROIDS = 256;
+    private static final int TRAINING_SAMPLE = 8192;
+    private static final int ITERATIONS = 10;
+
+    private final int subspaces;
+    private final int centroids;
+    private final int[] starts;
+    /**
+     * Per sub-vector, its centroids stored dimension by dimension: component {@code d} of centroid
+     * {@code c} is at {@code d * centroids + c}, so distance loops run over contiguous centroids.
+     */
+    private final float[][] codebooks;
+    private final byte[] codes;
+
+    private ProductQuantizedVectors(int dimensions, int size, float[] norms, int centroids, float[][] codebooks,
+                                    byte[] codes) {
+        super(dimensions, size, norms);
+        this.subspaces = codebooks.length;
+        this.centroids = centroids;
+        this.starts = starts(dimensions, subspaces);
+        this.codebooks = codebooks;
+        this.codes = codes;
+    }
+
+    /**
+     * @param requested the configured number of sub-vectors, or 0 for the default
+     * @return the number of sub-vectors used for the given dimensions
+     */
+    static int subspaces(int dimensions, int requested) {
+        int subspaces = requested > 0 ? requested : dimensions / 4;
+        return Math.max(1, Math.min(subspaces, dimensions));
+    }
+
+    /**
+     * Learns the codebooks on a sample of the first rows, then encodes them.
+     */
+    static ProductQuantizedVectors train(VectorSource source, int rows, int requestedSubspaces) {
+        int dimensions = source.dimensions();
+        int subspaces = subspaces(dimensions, requestedSubspaces);
+        int[] starts = starts(dimensions, subspaces);
+
+        int sampleSize = Math.min(rows, TRAINING_SAMPLE);
+        float[][] sample = new float[sampleSize][dimensions];
+        for (int i = 0; i < sampleSize; i++) {
+            int row = (int) ((long) i * rows / sampleSize);
+            source.readVector(row, sample[i]);
+            normalize(sample[i]);
+        }
+        int centroids = Math.max(1, Math.min(MAX_CENTROIDS, sampleSize));
+        float[][] codebooks = new float[subspaces][];
+        IntStream.range(0, subspaces).parallel().forEach(m ->
+                codebooks[m] = kMeans(sample, starts[m], starts[m + 1] - starts[m], centroids));
+        return new ProductQuantizedVectors(dimensions, 0, new float[0], centroids, codebooks, new byte[0])
+                .extend(source, rows);
+    }
+
+    @Override
+    public ProductQuantizedVectors extend(VectorSource source, int rows) {
+        byte[] extended = Arrays.copyOf(codes, codeLength(rows, subspaces));
+        float[] extendedNorms = Arrays.copyOf(norms, rows);
+        float[][] centroidSquares = centroidSquares();
+        ThreadLocal<float[]> vectors = ThreadLocal.withInitial(() -> new float[dimensions]);
+        ThreadLocal<float[]> distances = ThreadLocal.withInitial(() -> new float[centroids]);
+        IntStream.range(size, rows).parallel().forEach(row -> {
+            float[] vector = vectors.get();
+            source.readVector(row, vector);
+            normalize(vector);
+            float squares = 0f;
+            for (int m = 0; m < subspaces; m++) {
+                int centroid = nearest(vector, starts[m], starts[m + 1] - starts[m], codebooks[m],
+                        centroidSquares[m], centroids, distances.get());
+                extended[row * subspaces + m] = (byte) centroid;
+                squares += centroidSquares[m][centroid];
+            }
+            extendedNorms[row] = (float) Math.sqrt(squares);
+        });
+        return new ProductQuantizedVectors(dimensions, rows, extendedNorms, centroids, codebooks, extended);
+    }
+
+    @Override
+    public Scorer scorer(float[] query, float queryNorm) {
+        float[] table = new float[subspaces * centroids];
+        for (int m = 0; m < subspaces; m++) {
+            int start = starts[m];
+            int length = starts[m + 1] - start;
+            float[] codebook = codebooks[m];
+            int offset = m * centroids;
+            for (int d = 0; d < length; d++) {
+                float component = query[start + d];
+                int base = d * centroids;
+                for (int c = 0; c < centroids; c++) {
+                    table[offset + c] += component * codebook[base + c];
+                }
+            }
+        }
+        return row -> {
+            float norm = norms[row];
+            if (queryNorm == 0f || norm == 0f) return 0f;
+            int offset = row * subspaces;
+            float dot = 0f;
+            for (int m = 0; m < subspaces; m++) {
+                dot += table[m * centroids + (codes[offset + m] & 0xFF)];
+            }
+            return dot / (queryNorm * norm);
+        };
+    }
+
+    @Override
+    public void readVector(int row, float[] target) {
+        int offset = row * subspaces;
+        for (int m = 0; m < subspaces; m++) {
+            int centroid = codes[offset + m] & 0xFF;
+            for (int d = starts[m]; d < starts[m + 1]; d++) {
+                target[d] = codebooks[m][(d - starts[m]) * centroids + centroid];
+            }
+        }
+    }
+
+    @Override
+    public long bytes() {
+        return codes.length + 4L * norms.length + 4L * centroids * dimensions;
+    }
+
+    @Override
+    Type type() {
+        return Type.PQ;
+    }
+
+    @Override
+    int parameter() {
+        return subspaces;
+    }
+
+    @Override
+    void writeCodes(DataOutputStream out) throws IOException {
+        out.writeInt(centroids);
+        for (float[] codebook : codebooks) {
+            for (float value : codebook) out.writeFloat(value);
+        }
+        out.write(codes, 0, size * subspaces);
+    }
+
+    static ProductQuantizedVectors readCodes(DataInputStream in, int dimensions, int size, float[] norms,
+                                             int subspaces) throws IOException {
+        int centroids = in.readInt();
+        int[] starts = starts(dimensions, subspaces);
+        float[][] codebooks = new float[subspaces][];
+        for (int m = 0; m < subspaces; m++) {
+            codebooks[m] = new float[centroids * (starts[m + 1] - starts[m])];
+            for (int i = 0; i < codebooks[m].length; i++) codebooks[m][i] = in.readFloat();
+        }
+        byte[] codes = new byte[codeLength(size, subspaces)];
+        in.readFully(codes);
+        return new ProductQuantizedVectors(dimensions, size, norms, centroids, codebooks, codes);
+    }
+
+    private static int[] starts(int dimensions, int subspaces) {
+        int[] starts = new int[subspaces + 1];
+        for (int m = 0; m <= subspaces; m++) {
+            starts[m] = (int) ((long) m * dimensions / subspaces);
+        }
+        return starts;
+    }
+
+    private float[][] centroidSquares() {
+        float[][] squares = new float[subspaces][];
+        for (int m = 0; m < subspaces; m++) {
+            squares[m] = squares(codebooks[m], starts[m + 1] - starts[m], centroids);
+        }
+        return squares;
+    }
+
+    private static float[] squares(float[] codebook, int length, int centroids) {
+        float[] squares = new float[centroids];
+        for (int d = 0; d < length; d++) {
+            int base = d * centroids;
+            for (int c = 0; c < centroids; c++) {
+                squares[c] += codebook[base + c] * codebook[base + c];
+            }
+        }
+        return squares;
+    }
+
+    /**
+     * @param distances scratch space for one distance per centroid
+     * @return the centroid closest in Euclidean distance to one sub-vector
+     */
+    private static int nearest(float[] vector, int start, int length, float[] codebook, float[] squares,
+                               int centroids, float[] distances) {
+        // |x - c|^2 without the |x|^2 term, which is the same for every centroid
+        System.arraycopy(squares, 0, distances, 0, centroids);
+        for (int d = 0; d < length; d++) {
+            float component = -2f * vector[start + d];
+            int base = d * centroids;
+            for (int c = 0; c < centroids; c++) {
+                distances[c] += component * codebook[base + c];
+            }
+        }
+        int best = 0;
+        for (int c = 1; c < centroids; c++) {
+            if (distances[c] < distances[best]) best = c;
+        }
+        return best;
+    }
+
+    /**
+     * Lloyd's k-means on one sub-vector of the sample, seeded with distinct sample points.
+     * A centroid that loses all its points keeps its position.
+     */
+    private static float[] kMeans(float[][] sample, int start, int length, int centroids) {
+        float[] codebook = new float[centroids * length];
+        int[] order = IntStream.range(0, sample.length).toArray();
+        Random random = new Random(42L + start);
+        for (int i = order.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = order[i];
+            order[i] = order[j];
+            order[j] = swap;
+        }
+        for (int c = 0; c < centroids; c++) {
+            for (int d = 0; d < length; d++) codebook[d * centroids + c] = sample[order[c]][start + d];
+        }
+
+        int[] assignment = new int[sample.length];
+        float[] distances = new float[centroids];
+        float[] sums = new float[centroids * length];
+        int[] counts = new int[centroids];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+            float[] squares = squares(codebook, length, centroids);
+            boolean changed = iteration == 0;
+            for (int i = 0; i < sample.length; i++) {
+                int centroid = nearest(sample[i], start, length, codebook, squares, centroids, distances);
+                if (centroid != assignment[i]) changed = true;
+                assignment[i] = centroid;
+            }
+            if (!changed) break;
+
+            Arrays.fill(sums, 0f);
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < sample.length; i++) {
+                for (int d = 0; d < length; d++) sums[d * centroids + assignment[i]] += sample[i][start + d];
+                counts[assignment[i]]++;
+            }
+            for (int c = 0; c < centroids; c++) {
+                if (counts[c] == 0) continue;
+                for (int d = 0; d < length; d++) codebook[d * centroids + c] = sums[d * centroids + c] / counts[c];
+            }
+        }
+        return codebook;
+    }
+
+    private static void normalize(float[] vector) {
+        float norm = VectorMath.norm(vector);
+        if (norm == 0f) return;
+        for (int i = 0; i < vector.length; i++) vector[i] /= norm;
+    }
+}
@@ -0,0 +1,185 @@
+package org.nc.IELTSChecker.store;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+
+/**
+ * Compact codes of the embeddings of a store file, held on the heap so that searches rank rows
+ * without reading the full-precision vectors, which stay in the mapped file and are only read to
+ * rescore the best candidates.
+ *
+ * <p>Codes approximate the unit-length embedding; {@link #norm} is the length of the decoded code,
+ * so cosine similarities against a code need no extra correction. As a {@link VectorSource} the
+ * codes decode on read, which lets the HNSW graph be traversed over them as well.
+ */
+public abstract sealed class QuantizedVectors implements VectorSource
+        permits ScalarQuantizedVectors, ProductQuantizedVectors {
+
+    public enum Type { NONE, INT8, PQ }
+
+    /**
+     * @param type the code type; {@link Type#NONE} keeps only full-precision vectors
+     * @param rescoreFactor candidates rescored with full-precision vectors per requested result; 0 for
+     *                      the type's default, which keeps recall@5 of the synthetic benchmark in
+     *                      {@code QuantizedVectorsTests} at 0.99 or more (4 for int8, 16 for PQ)
+     * @param subspaces product quantization sub-vectors (one byte each); 0 for a quarter of the dimensions
+     */
+    public record Settings(Type type, int rescoreFactor, int subspaces) {
+        public Settings {
+            if (rescoreFactor < 0) throw new IllegalArgumentException("Rescore factor must not be negative");
+            if (subspaces < 0) throw new IllegalArgumentException("Subspaces must not be negative");
+            if (rescoreFactor == 0) rescoreFactor = type == Type.PQ ? 16 : 4;
+        }
+
+        public static Settings of(String type, int rescoreFactor, int subspaces) {
+            return new Settings(Type.valueOf(type.trim().toUpperCase(Locale.ROOT)), rescoreFactor, subspaces);
+        }
+
+        public boolean enabled() {
+            return type != Type.NONE;
+        }
+    }
+
+    private static final int MAGIC = 0x31435651; // "QVC1"
+
+    final int dimensions;
+    final int size;
+    final float[] norms;
+
+    QuantizedVectors(int dimensions, int size, float[] norms) {
+        this.dimensions = dimensions;
+        this.size = size;
+        this.norms = norms;
+    }
+
+    /**
+     * Encodes the first rows of a vector source.
+     * @param settings the code type and its parameters
+     * @param source the full-precision vectors
+     * @param rows the number of rows to encode
+     * @return the codes
+     */
+    public static QuantizedVectors build(Settings settings, VectorSource source, int rows) {
+        return switch (settings.type()) {
+            case INT8 -> ScalarQuantizedVectors.encode(source, rows);
+            case PQ -> ProductQuantizedVectors.train(source, rows, settings.subspaces());
+            case NONE -> throw new IllegalArgumentException("Quantization is disabled");
+        };
+    }
+
+    /**
+     * Encodes rows appended to the source since these codes were built, with the same parameters
+     * (for product quantization, the same codebooks).
+     * @param source the full-precision vectors, whose first {@link #size()} rows are already encoded
+     * @param rows the number of rows to cover
+     * @return new codes for all rows; this instance is unchanged
+     */
+    public abstract QuantizedVectors extend(VectorSource source, int rows);
+
+    /**
+     * @return a scorer of approximate cosine similarities against the codes, for use by one thread
+     */
+    @Override
+    public abstract Scorer scorer(float[] query, float queryNorm);
+
+    /**
+     * @return the heap size of the codes, norms and codebooks in bytes
+     */
+    public abstract long bytes();
+
+    /**
+     * @return the number of encoded rows
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public float norm(int row) {
+        return norms[row];
+    }
+
+    abstract Type type();
+
+    /**
+     * @return the parameter the codes were built with that must match the settings on reading
+     */
+    abstract int parameter();
+
+    abstract void writeCodes(DataOutputStream out) throws IOException;
+
+    /**
+     * Writes the codes next to the store file.
+     * @param file the codes file to create or replace
+     * @param fingerprint identifies the store file the row numbers refer to
+     */
+    public void write(Path file, long fingerprint) throws IOException {
+        Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(type().ordinal());
+            out.writeInt(parameter());
+            out.writeLong(fingerprint);
+            out.writeInt(dimensions);
+            out.writeInt(size);
+            for (int row = 0; row < size; row++) {
+                out.writeFloat(norms[row]);
+            }
+            writeCodes(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads codes written by {@link #write}.
+     * @param file the codes file
+     * @param settings the settings the caller wants; the type and subspaces must match the file
+     * @param dimensions the dimensions of the store file
+     * @param fingerprint the fingerprint of the current store file
+     * @return the codes, or null if the file is missing or was built for other settings or another store file
+     */
+    public static QuantizedVectors read(Path file, Settings settings, int dimensions, long fingerprint)
+            throws IOException {
+        if (!Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != settings.type().ordinal()) return null;
+            int parameter = in.readInt();
+            if (in.readLong() != fingerprint || in.readInt() != dimensions) return null;
+            if (settings.type() == Type.PQ && parameter != ProductQuantizedVectors.subspaces(dimensions, settings.subspaces())) {
+                return null;
+            }
+            int size = in.readInt();
+            float[] norms = new float[size];
+            for (int row = 0; row < size; row++) {
+                norms[row] = in.readFloat();
+            }
+            return switch (settings.type()) {
+                case INT8 -> ScalarQuantizedVectors.readCodes(in, dimensions, size, norms);
+                case PQ -> ProductQuantizedVectors.readCodes(in, dimensions, size, norms, parameter);
+                case NONE -> null;
+            };
+        }
+    }
+
+    /**
+     * Checks that the codes fit in one array.
+     */
+    static int codeLength(long rows, int bytesPerRow) {
+        long length = rows * bytesPerRow;
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many rows to quantize: " + rows + " x " + bytesPerRow + " bytes");
+        }
+        return (int) length;
+    }
+}
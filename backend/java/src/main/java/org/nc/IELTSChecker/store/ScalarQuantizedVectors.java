@@ -0,0 +1,108 @@
+package org.nc.IELTSChecker.store;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * One signed byte per dimension: each row is scaled so that its largest component maps to 127.
+ * Cosine similarity does not depend on the scale, so only the codes and their norms are kept,
+ * a quarter of the size of float32 vectors. Scans quantize the query the same way and compare codes
+ * with an integer dot product, which the JIT vectorizes.
+ */
+final class ScalarQuantizedVectors extends QuantizedVectors {
+
+    private final byte[] codes;
+
+    private ScalarQuantizedVectors(int dimensions, int size, float[] norms, byte[] codes) {
+        super(dimensions, size, norms);
+        this.codes = codes;
+    }
+
+    static ScalarQuantizedVectors encode(VectorSource source, int rows) {
+        return new ScalarQuantizedVectors(source.dimensions(), 0, new float[0], new byte[0]).extend(source, rows);
+    }
+
+    @Override
+    public ScalarQuantizedVectors extend(VectorSource source, int rows) {
+        byte[] extended = Arrays.copyOf(codes, codeLength(rows, dimensions));
+        float[] extendedNorms = Arrays.copyOf(norms, rows);
+        float[] vector = new float[dimensions];
+        for (int row = size; row < rows; row++) {
+            source.readVector(row, vector);
+            extendedNorms[row] = encode(vector, extended, row * dimensions);
+        }
+        return new ScalarQuantizedVectors(dimensions, rows, extendedNorms, extended);
+    }
+
+    /**
+     * @return the norm of the written codes
+     */
+    private static float encode(float[] vector, byte[] target, int offset) {
+        float max = 0f;
+        for (float value : vector) max = Math.max(max, Math.abs(value));
+        if (max == 0f) return 0f;
+        float scale = 127f / max;
+        float squares = 0f;
+        for (int i = 0; i < vector.length; i++) {
+            int code = Math.round(vector[i] * scale);
+            target[offset + i] = (byte) code;
+            squares += code * code;
+        }
+        return (float) Math.sqrt(squares);
+    }
+
+    @Override
+    public Scorer scorer(float[] query, float queryNorm) {
+        byte[] queryCodes = new byte[dimensions];
+        float queryCodesNorm = encode(query, queryCodes, 0);
+        return row -> {
+            float norm = norms[row];
+            if (queryCodesNorm == 0f || norm == 0f) return 0f;
+            return VectorMath.dot(queryCodes, codes, row * dimensions) / (queryCodesNorm * norm);
+        };
+    }
+
+    @Override
+    public float similarity(float[] query, float queryNorm, int row, float[] scratch) {
+        float norm = norms[row];
+        if (queryNorm == 0f || norm == 0f) return 0f;
+        return VectorMath.dot(query, codes, row * dimensions) / (queryNorm * norm);
+    }
+
+    @Override
+    public void readVector(int row, float[] target) {
+        int offset = row * dimensions;
+        for (int i = 0; i < dimensions; i++) {
+            target[i] = codes[offset + i];
+        }
+    }
+
+    @Override
+    public long bytes() {
+        return codes.length + 4L * norms.length;
+    }
+
+    @Override
+    Type type() {
+        return Type.INT8;
+    }
+
+    @Override
+    int parameter() {
+        return 0;
+    }
+
+    @Override
+    void writeCodes(DataOutputStream out) throws IOException {
+        out.write(codes, 0, size * dimensions);
+    }
+
+    static ScalarQuantizedVectors readCodes(DataInputStream in, int dimensions, int size, float[] norms)
+            throws IOException {
+        byte[] codes = new byte[codeLength(size, dimensions)];
+        in.readFully(codes);
+        return new ScalarQuantizedVectors(dimensions, size, norms, codes);
+    }
+}
@@ -0,0 +1,105 @@
+package org.nc.IELTSChecker.store;
+
+import java.util.Arrays;
+
+/**
+ * Growable binary heap of (node, score) pairs on primitive arrays,
+ * ordered either best-first (max-heap) or worst-first (min-heap).
+ */
+final class ScoredHeap {
+
+    private final boolean maxHeap;
+    private int[] nodes;
+    private float[] scores;
+    private int size;
+
+    ScoredHeap(int capacity, boolean maxHeap) {
+        this.maxHeap = maxHeap;
+        this.nodes = new int[Math.max(capacity, 4)];
+        this.scores = new float[Math.max(capacity, 4)];
+    }
+
+    static ScoredHeap maxHeap(int capacity) {
+        return new ScoredHeap(capacity, true);
+    }
+
+    static ScoredHeap minHeap(int capacity) {
+        return new ScoredHeap(capacity, false);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    int peekNode() {
+        return nodes[0];
+    }
+
+    float peekScore() {
+        return scores[0];
+    }
+
+    int nodeAt(int index) {
+        return nodes[index];
+    }
+
+    float scoreAt(int index) {
+        return scores[index];
+    }
+
+    void push(int node, float score) {
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        nodes[size] = node;
+        scores[size] = score;
+        int index = size++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(index, parent)) break;
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    /**
+     * Removes the top entry; read it first with {@link #peekNode()} and {@link #peekScore()}.
+     */
+    void pop() {
+        size--;
+        nodes[0] = nodes[size];
+        scores[0] = scores[size];
+        int index = 0;
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) return;
+            int child = left;
+            if (left + 1 < size && before(left + 1, left)) child = left + 1;
+            if (!before(child, index)) return;
+            swap(index, child);
+            index = child;
+        }
+    }
+
+    private boolean before(int a, int b) {
+        return maxHeap ? scores[a] > scores[b] : scores[a] < scores[b];
+    }
+
+    private void swap(int a, int b) {
+        int node = nodes[a];
+        nodes[a] = nodes[b];
+        nodes[b] = node;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
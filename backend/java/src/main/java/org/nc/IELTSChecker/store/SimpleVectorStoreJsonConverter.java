@@ -0,0 +1,93 @@
+package org.nc.IELTSChecker.store;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Converts a {@code SimpleVectorStore} JSON file into the binary format read by {@link MappedVectorStore}.
+ * The JSON is streamed one document at a time, so the whole file is never held in memory.
+ *
+ * <p>Usage: {@code SimpleVectorStoreJsonConverter <vector_store.json> <vector_store.bin>}
+ */
+public final class SimpleVectorStoreJsonConverter {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private SimpleVectorStoreJsonConverter() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: SimpleVectorStoreJsonConverter <vector_store.json> <vector_store.bin>");
+            System.exit(1);
+        }
+        int count = convert(new File(args[0]), new File(args[1]));
+        System.out.printf("Converted %d documents to %s%n", count, args[1]);
+    }
+
+    /**
+     * Converts the JSON store to a binary store file.
+     * @param jsonFile the file written by {@code SimpleVectorStore.save}
+     * @param storeFile the binary file to create or replace
+     * @return the number of converted documents
+     * @throws IOException if the JSON cannot be read or the store cannot be written
+     */
+    public static int convert(File jsonFile, File storeFile) throws IOException {
+        JsonFactory factory = MAPPER.getFactory();
+        try (JsonParser parser = factory.createParser(jsonFile);
+             StoreFileWriter writer = new StoreFileWriter(storeFile, 0)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object of documents in " + jsonFile);
+            }
+            // { "<id>": { "id": ..., "text": ..., "metadata": {...}, "embedding": [...] }, ... }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.currentName();
+                parser.nextToken();
+                readDocument(parser, key, writer);
+            }
+            writer.commit();
+            return writer.count();
+        }
+    }
+
+    private static void readDocument(JsonParser parser, String key, StoreFileWriter writer) throws IOException {
+        String id = key;
+        String text = "";
+        Map<String, Object> metadata = Map.of();
+        float[] embedding = new float[0];
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+                case "id" -> id = parser.getValueAsString();
+                case "text", "content" -> text = parser.getValueAsString();
+                case "metadata" -> metadata = MAPPER.readValue(parser, MAPPER.getTypeFactory()
+                        .constructMapType(Map.class, String.class, Object.class));
+                case "embedding" -> embedding = readFloats(parser, token);
+                default -> parser.skipChildren();
+            }
+        }
+        writer.append(id, text, metadata, embedding);
+    }
+
+    private static float[] readFloats(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.START_ARRAY) {
+            throw new IOException("Expected an embedding array at " + parser.currentLocation());
+        }
+        float[] values = new float[1536];
+        int size = 0;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = parser.getFloatValue();
+        }
+        return Arrays.copyOf(values, size);
+    }
+}
@@ -0,0 +1,35 @@
+package org.nc.IELTSChecker.store;
+
+/**
+ * Layout of the binary vector store file. All numbers are little-endian.
+ *
+ * <pre>
+ * header    64 bytes   magic, version, dimensions, count, the offsets below and a random id
+ * vectors   count * dimensions float32, row-major, starting at byte 64
+ * norms     count float32
+ * index     count int64, offset of each record relative to the records section
+ * records   per row: int32 length + UTF-8 id, int32 length + UTF-8 text,
+ *           int32 length + UTF-8 JSON metadata
+ * </pre>
+ */
+final class StoreFileFormat {
+
+    static final int MAGIC = 0x31535649; // "IVS1"
+    static final int VERSION = 2;
+    /** Version 1 files have no id; their fingerprint is a checksum of the whole file. */
+    static final int VERSION_WITHOUT_ID = 1;
+    static final int HEADER_SIZE = 64;
+
+    static final int MAGIC_POS = 0;
+    static final int VERSION_POS = 4;
+    static final int DIMENSIONS_POS = 8;
+    static final int COUNT_POS = 12;
+    static final int NORMS_OFFSET_POS = 16;
+    static final int INDEX_OFFSET_POS = 24;
+    static final int RECORDS_OFFSET_POS = 32;
+    static final int FILE_LENGTH_POS = 40;
+    static final int STORE_ID_POS = 48;
+
+    private StoreFileFormat() {
+    }
+}
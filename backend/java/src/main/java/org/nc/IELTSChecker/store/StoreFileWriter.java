@@ -0,0 +1,205 @@
+package org.nc.IELTSChecker.store;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.nc.IELTSChecker.store.StoreFileFormat.*;
+
+/**
+ * Streams rows into a new store file.
+ * Vectors go straight to the target's vector section while records are spooled to a side file;
+ * {@link #commit()} appends norms, index and records, writes the header and atomically replaces the target.
+ * Nothing is visible at the target path until commit succeeds. Every committed file gets a random
+ * id in its header, which sidecar files and the write-ahead log record to tell which file they belong to.
+ */
+public final class StoreFileWriter implements Closeable {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final SecureRandom IDS = new SecureRandom();
+
+    private final Path target;
+    private final Path tempFile;
+    private final Path recordsFile;
+    private final FileChannel channel;
+    private final FileChannel recordsChannel;
+    private final ByteBuffer vectorBuffer;
+    private int dimensions;
+    private int count;
+    private long recordsLength;
+    private float[] norms = new float[1024];
+    private long[] offsets = new long[1024];
+    private boolean committed;
+
+    /**
+     * @param target the store file to (re)place on commit
+     * @param dimensions the embedding size, or 0 to take it from the first row
+     */
+    public StoreFileWriter(File target, int dimensions) throws IOException {
+        this.target = target.toPath();
+        Path directory = this.target.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        this.tempFile = Files.createTempFile(directory, target.getName(), ".tmp");
+        this.recordsFile = Files.createTempFile(directory, target.getName(), ".records");
+        this.channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        this.recordsChannel = FileChannel.open(recordsFile, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        this.channel.position(HEADER_SIZE);
+        this.vectorBuffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        this.dimensions = dimensions;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Appends one row.
+     * @param id the document id
+     * @param text the document text
+     * @param metadata the document metadata, serialized as JSON
+     * @param vector the embedding
+     */
+    public void append(String id, String text, Map<String, Object> metadata, float[] vector) throws IOException {
+        append(id, text, MAPPER.writeValueAsBytes(metadata == null ? Map.of() : metadata), vector);
+    }
+
+    /**
+     * Appends one row whose metadata is already serialized.
+     */
+    public void append(String id, String text, byte[] metadataJson, float[] vector) throws IOException {
+        if (dimensions == 0) dimensions = vector.length;
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions but got " + vector.length
+                    + " for document " + id);
+        }
+
+        for (float value : vector) {
+            if (vectorBuffer.remaining() < Float.BYTES) flushVectors();
+            vectorBuffer.putFloat(value);
+        }
+
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(3 * Integer.BYTES + idBytes.length + textBytes.length + metadataJson.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        record.putInt(idBytes.length).put(idBytes);
+        record.putInt(textBytes.length).put(textBytes);
+        record.putInt(metadataJson.length).put(metadataJson);
+        record.flip();
+
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+            norms = Arrays.copyOf(norms, count * 2);
+        }
+        offsets[count] = recordsLength;
+        norms[count] = VectorMath.norm(vector);
+        count++;
+
+        while (record.hasRemaining()) {
+            recordsLength += recordsChannel.write(record);
+        }
+    }
+
+    /**
+     * Finishes the file and moves it over the target.
+     */
+    public void commit() throws IOException {
+        flushVectors();
+
+        long normsOffset = channel.position();
+        ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < Float.BYTES) drain(buffer);
+            buffer.putFloat(norms[i]);
+        }
+        drain(buffer);
+
+        long indexOffset = align(channel.position());
+        channel.position(indexOffset);
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < Long.BYTES) drain(buffer);
+            buffer.putLong(offsets[i]);
+        }
+        drain(buffer);
+
+        long recordsOffset = channel.position();
+        long copied = 0;
+        while (copied < recordsLength) {
+            copied += recordsChannel.transferTo(copied, recordsLength - copied, channel);
+        }
+        long fileLength = recordsOffset + recordsLength;
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC_POS, MAGIC);
+        header.putInt(VERSION_POS, VERSION);
+        header.putInt(DIMENSIONS_POS, dimensions);
+        header.putInt(COUNT_POS, count);
+        header.putLong(NORMS_OFFSET_POS, normsOffset);
+        header.putLong(INDEX_OFFSET_POS, indexOffset);
+        header.putLong(RECORDS_OFFSET_POS, recordsOffset);
+        header.putLong(FILE_LENGTH_POS, fileLength);
+        header.putLong(STORE_ID_POS, newStoreId());
+        channel.write(header, 0);
+        channel.force(true);
+        closeChannels();
+
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+    }
+
+    /**
+     * Discards the temporary files unless the writer was committed.
+     */
+    @Override
+    public void close() throws IOException {
+        closeChannels();
+        Files.deleteIfExists(recordsFile);
+        if (!committed) Files.deleteIfExists(tempFile);
+    }
+
+    private void flushVectors() throws IOException {
+        drain(vectorBuffer);
+    }
+
+    private void drain(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void closeChannels() throws IOException {
+        if (channel.isOpen()) channel.close();
+        if (recordsChannel.isOpen()) recordsChannel.close();
+    }
+
+    private static long newStoreId() {
+        long id;
+        do {
+            id = IDS.nextLong();
+        } while (id == 0); // 0 stands for "no store file" in the write-ahead log
+        return id;
+    }
+
+    private static long align(long position) {
+        return (position + Long.BYTES - 1) & ~(long) (Long.BYTES - 1);
+    }
+}
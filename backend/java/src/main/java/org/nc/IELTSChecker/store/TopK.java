@@ -0,0 +1,109 @@
+package org.nc.IELTSChecker.store;
+
+/**
+ * Fixed-capacity min-heap of (row, score) pairs backed by primitive arrays.
+ * Keeps the best {@code capacity} rows seen so far without boxing.
+ */
+public final class TopK {
+
+    private final int[] rows;
+    private final float[] scores;
+    private int size;
+
+    public TopK(int capacity) {
+        this.rows = new int[Math.max(capacity, 1)];
+        this.scores = new float[Math.max(capacity, 1)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return rows.length;
+    }
+
+    public boolean isFull() {
+        return size == rows.length;
+    }
+
+    /**
+     * @return the lowest score kept so far, or negative infinity while the heap is not full
+     */
+    public float minScore() {
+        return isFull() ? scores[0] : Float.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return true if a candidate with this score would be kept
+     */
+    public boolean accepts(float score) {
+        return !isFull() || score > scores[0];
+    }
+
+    /**
+     * Offers a candidate, replacing the current minimum when the heap is full.
+     * @param row the row id
+     * @param score the candidate score
+     */
+    public void offer(int row, float score) {
+        if (size < rows.length) {
+            rows[size] = row;
+            scores[size] = score;
+            siftUp(size++);
+        } else if (score > scores[0]) {
+            rows[0] = row;
+            scores[0] = score;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * Drains the heap into arrays sorted by descending score.
+     * @return the rows, best first; scores are written to {@code scoresOut} when it is not null
+     */
+    public int[] drainDescending(float[] scoresOut) {
+        int count = size;
+        int[] sortedRows = new int[count];
+        for (int i = count - 1; i >= 0; i--) {
+            sortedRows[i] = rows[0];
+            if (scoresOut != null) scoresOut[i] = scores[0];
+            size--;
+            rows[0] = rows[size];
+            scores[0] = scores[size];
+            siftDown(0);
+        }
+        return sortedRows;
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[parent] <= scores[index]) break;
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        while (true) {
+            int left = 2 * index + 1;
+            if (left >= size) return;
+            int smallest = left;
+            int right = left + 1;
+            if (right < size && scores[right] < scores[left]) smallest = right;
+            if (scores[index] <= scores[smallest]) return;
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        int row = rows[a];
+        rows[a] = rows[b];
+        rows[b] = row;
+        float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+    }
+}
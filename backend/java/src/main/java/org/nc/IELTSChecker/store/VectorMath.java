@@ -0,0 +1,90 @@
+package org.nc.IELTSChecker.store;
+
+/**
+ * Primitive float-vector helpers shared by the store and its indexes.
+ * The loops are unrolled with independent accumulators so the JIT can keep several lanes busy.
+ */
+public final class VectorMath {
+
+    private VectorMath() {
+    }
+
+    /**
+     * Dot product of two vectors of equal length.
+     * @param a first vector
+     * @param b second vector
+     * @return the dot product
+     */
+    public static float dot(float[] a, float[] b) {
+        int length = a.length;
+        int i = 0;
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Dot product of a float vector with signed byte codes.
+     * @param a the vector
+     * @param codes the codes
+     * @param offset the position of the first of {@code a.length} codes
+     * @return the dot product
+     */
+    public static float dot(float[] a, byte[] codes, int offset) {
+        int length = a.length;
+        int i = 0;
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        for (; i + 3 < length; i += 4) {
+            s0 += a[i] * codes[offset + i];
+            s1 += a[i + 1] * codes[offset + i + 1];
+            s2 += a[i + 2] * codes[offset + i + 2];
+            s3 += a[i + 3] * codes[offset + i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[i] * codes[offset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Dot product of two runs of signed byte codes. Kept as one plain loop, which the JIT turns
+     * into a vectorized reduction.
+     * @param a the first codes, all of them used
+     * @param codes the second codes
+     * @param offset the position of the first of {@code a.length} codes
+     * @return the dot product
+     */
+    public static int dot(byte[] a, byte[] codes, int offset) {
+        int sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * codes[offset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Euclidean norm of a vector.
+     * @param a the vector
+     * @return the L2 norm
+     */
+    public static float norm(float[] a) {
+        return (float) Math.sqrt(dot(a, a));
+    }
+
+    /**
+     * Cosine similarity given precomputed norms.
+     * @return the similarity, or 0 when either norm is 0
+     */
+    public static float cosine(float[] a, float normA, float[] b, float normB) {
+        if (normA == 0f || normB == 0f) return 0f;
+        return dot(a, b) / (normA * normB);
+    }
+}
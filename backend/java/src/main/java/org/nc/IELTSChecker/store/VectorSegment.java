@@ -0,0 +1,26 @@
+package org.nc.IELTSChecker.store;
+
+import java.util.Map;
+
+/**
+ * A read-only run of stored rows: one embedding plus its id, text and metadata per row.
+ */
+interface VectorSegment extends VectorSource {
+
+    int size();
+
+    int dimensions();
+
+    /**
+     * Copies the embedding of a row into {@code target}, which must hold {@link #dimensions()} floats.
+     */
+    void readVector(int row, float[] target);
+
+    float norm(int row);
+
+    String id(int row);
+
+    String text(int row);
+
+    Map<String, Object> metadata(int row);
+}
@@ -0,0 +1,39 @@
+package org.nc.IELTSChecker.store;
+
+/**
+ * Random access to stored embeddings by row number.
+ */
+interface VectorSource {
+
+    int dimensions();
+
+    void readVector(int row, float[] target);
+
+    float norm(int row);
+
+    /**
+     * Similarity of one query to rows, with any per-query preparation done once.
+     */
+    interface Scorer {
+        float score(int row);
+    }
+
+    /**
+     * @param query the query embedding
+     * @param queryNorm its norm
+     * @return a scorer for this query, for use by one thread
+     */
+    default Scorer scorer(float[] query, float queryNorm) {
+        float[] scratch = new float[dimensions()];
+        return row -> similarity(query, queryNorm, row, scratch);
+    }
+
+    /**
+     * Cosine similarity of a query with one row.
+     * @param scratch a buffer of {@link #dimensions()} floats the row may be read into
+     */
+    default float similarity(float[] query, float queryNorm, int row, float[] scratch) {
+        readVector(row, scratch);
+        return VectorMath.cosine(query, queryNorm, scratch, norm(row));
+    }
+}
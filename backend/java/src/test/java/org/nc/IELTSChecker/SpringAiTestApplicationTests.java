@@ -1,11 +1,28 @@
 package org.nc.IELTSChecker;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
 
 @SpringBootTest
 class SpringAiTestApplicationTests {
 
+    @TempDir
+    static Path dataDir;
+
+    // Keeps the files the application writes out of the working directory
+    @DynamicPropertySource
+    static void dataPaths(DynamicPropertyRegistry registry) {
+        registry.add("scoring.jobs.path", () -> dataDir.resolve("scoring_jobs.log").toString());
+        registry.add("embedding.cache.path", () -> dataDir.resolve("embedding_cache.bin").toString());
+        registry.add("vector.store.path", () -> dataDir.resolve("vector_store.bin").toString());
+        registry.add("vector.store.legacy-json-path", () -> dataDir.resolve("vector_store.json").toString());
+    }
+
     @Test
     void contextLoads() {
     }
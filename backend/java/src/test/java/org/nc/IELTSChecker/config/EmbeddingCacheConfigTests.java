@@ -0,0 +1,35 @@
+package org.nc.IELTSChecker.config;
+
+import org.junit.jupiter.api.Test;
+import org.nc.IELTSChecker.embedding.CachingEmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+class EmbeddingCacheConfigTests {
+
+    @Test
+    void theLocalProviderOnlyStartsInADevOrTestProfile() throws Exception {
+        EmbeddingCacheConfig config = new EmbeddingCacheConfig();
+        ReflectionTestUtils.setField(config, "provider", "local");
+        ReflectionTestUtils.setField(config, "localDimensions", 64);
+        ReflectionTestUtils.setField(config, "corpus", new ClassPathResource("data/ielts_writing_dataset.csv"));
+        ReflectionTestUtils.setField(config, "maxEntries", 100L);
+        ObjectProvider<OpenAiEmbeddingModel> remote = mock();
+
+        IllegalStateException error = assertThrows(IllegalStateException.class,
+                () -> config.cachingEmbeddingModel(remote, new MockEnvironment()));
+        assertTrue(error.getMessage().contains("development and tests only"));
+
+        MockEnvironment test = new MockEnvironment();
+        test.setActiveProfiles("test");
+        try (CachingEmbeddingModel model = config.cachingEmbeddingModel(remote, test)) {
+            assertEquals(64, model.embed("Some people think technology makes life more complex.").length);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.nc.IELTSChecker.controllers;
+
+import org.junit.jupiter.api.Test;
+import org.nc.IELTSChecker.dto.EssayRequest;
+import org.nc.IELTSChecker.dto.EvaluationEvent;
+import org.nc.IELTSChecker.services.BandPreScorer;
+import org.nc.IELTSChecker.services.IeltsScoringService;
+import org.nc.IELTSChecker.services.ScoringExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.bean.override.mockito.MockitoBean;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import reactor.core.publisher.Flux;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+@WebMvcTest(ChatController.class)
+class ChatControllerTests {
+
+    private static final String BODY = """
+            {"question": "Some people think technology makes children less creative. Discuss.",
+             "essay": "%s", "taskType": "2"}
+            """.formatted("Technology is everywhere in modern childhood. ".repeat(10));
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @MockitoBean
+    IeltsScoringService scoringService;
+
+    @MockitoBean
+    ScoringExecutor scoringExecutor;
+
+    @MockitoBean
+    BandPreScorer preScorer;
+
+    @Test
+    void streamsEvaluationEventsOverHttp() throws Exception {
+        when(scoringService.streamEssay(any(EssayRequest.class))).thenReturn(Flux.just(
+                new EvaluationEvent("score", "taskResponse", 6.0),
+                new EvaluationEvent("feedback", "examinerFeedback", "Clear position.")));
+
+        MvcResult result = mockMvc.perform(post("/ai/scoreEssay/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(BODY))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(content().string(containsString("event:score\ndata:{\"type\":\"score\",\"field\":\"taskResponse\",\"value\":6.0}")))
+                .andExpect(content().string(containsString("event:feedback\n")));
+    }
+
+    @Test
+    void answersValidationErrorsWithOneErrorEvent() throws Exception {
+        MvcResult result = mockMvc.perform(post("/ai/scoreEssay/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"question\": \"Too short\", \"essay\": \"A short essay.\"}"))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isBadRequest())
+                .andExpect(content().contentTypeCompatibleWith(MediaType.TEXT_EVENT_STREAM))
+                .andExpect(content().string(containsString("event:error\n")))
+                .andExpect(content().string(containsString("Essay content must be between 100 and 1000 characters")));
+        verifyNoInteractions(scoringService);
+    }
+}
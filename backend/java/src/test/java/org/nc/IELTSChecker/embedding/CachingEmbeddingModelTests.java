@@ -0,0 +1,124 @@
+package org.nc.IELTSChecker.embedding;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingEmbeddingModelTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void onlyEmbedsUnseenTextsAndSurvivesRestart() throws Exception {
+        CountingModel delegate = new CountingModel();
+        Path file = tempDir.resolve("cache.bin");
+
+        try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test-model", 100, file)) {
+            List<float[]> first = cache.embed(List.of("technology in schools", "public transport", "technology in schools"));
+            assertEquals(2, delegate.texts.size());
+            assertArrayEquals(first.get(0), first.get(2));
+
+            // Whitespace differences map to the same entry
+            float[] again = cache.embed("  technology \n in   schools ");
+            assertArrayEquals(first.get(0), again);
+            assertEquals(2, delegate.texts.size());
+
+            List<float[]> mixed = cache.embed(List.of("public transport", "city planning"));
+            assertEquals(List.of("technology in schools", "public transport", "city planning"), delegate.texts);
+            assertArrayEquals(first.get(1), mixed.get(0));
+            assertArrayEquals(CountingModel.vector("city planning"), mixed.get(1));
+            assertEquals(3, cache.stats().misses());
+        }
+
+        CountingModel restarted = new CountingModel();
+        try (CachingEmbeddingModel cache = new CachingEmbeddingModel(restarted, "test-model", 100, file)) {
+            assertEquals(3, cache.stats().diskEntries());
+            assertArrayEquals(CountingModel.vector("public transport"), cache.embed("public transport"));
+            assertTrue(restarted.texts.isEmpty());
+            assertEquals(1, cache.stats().diskHits());
+
+            MeterRegistry registry = new SimpleMeterRegistry();
+            cache.bindTo(registry);
+            assertEquals(1, registry.get("embedding.cache.lookups").tag("result", "disk_hit").functionCounter().count());
+            assertEquals(3, registry.get("embedding.cache.disk.entries").gauge().value());
+            assertEquals(1, registry.get("cache.size").tag("cache", "embeddings").gauge().value());
+
+            // A different model id never reuses another model's vectors
+            try (CachingEmbeddingModel other = new CachingEmbeddingModel(restarted, "other-model", 100, file)) {
+                other.embed("public transport");
+                assertEquals(List.of("public transport"), restarted.texts);
+            }
+        }
+    }
+
+    @Test
+    void anUnreadableDiskTierFallsBackToTheModel() throws Exception {
+        Path file = tempDir.resolve("cache.bin");
+        try (CachingEmbeddingModel cache = new CachingEmbeddingModel(new CountingModel(), "test-model", 100, file)) {
+            cache.embed("public transport");
+        }
+
+        CountingModel restarted = new CountingModel();
+        CachingEmbeddingModel cache = new CachingEmbeddingModel(restarted, "test-model", 100, file);
+        // Reads from the on-disk tier now fail, as they would on a bad disk
+        ((EmbeddingDiskCache) ReflectionTestUtils.getField(cache, "disk")).close();
+        assertArrayEquals(CountingModel.vector("public transport"), cache.embed("public transport"));
+        assertEquals(List.of("public transport"), restarted.texts);
+        assertEquals(1, cache.stats().misses());
+    }
+
+    @Test
+    void boundsTheMemoryTier() throws Exception {
+        CountingModel delegate = new CountingModel();
+        try (CachingEmbeddingModel cache = new CachingEmbeddingModel(delegate, "test-model", 10, null)) {
+            for (int i = 0; i < 200; i++) {
+                cache.embed("essay " + i);
+            }
+            CachingEmbeddingModel.Stats stats = cache.stats();
+            assertEquals(200, stats.misses());
+            assertTrue(stats.evictions() > 0);
+            assertTrue(stats.memoryEntries() <= 10, "memory entries " + stats.memoryEntries());
+        }
+    }
+
+    /**
+     * Records every text it is asked to embed.
+     */
+    private static class CountingModel implements EmbeddingModel {
+        final List<String> texts = new ArrayList<>();
+
+        @Override
+        public EmbeddingResponse call(EmbeddingRequest request) {
+            List<Embedding> embeddings = new ArrayList<>();
+            List<String> batch = request.getInstructions();
+            for (int i = 0; i < batch.size(); i++) {
+                embeddings.add(new Embedding(vector(batch.get(i)), i));
+                texts.add(batch.get(i));
+            }
+            return new EmbeddingResponse(embeddings);
+        }
+
+        @Override
+        public float[] embed(Document document) {
+            return embed(document.getText());
+        }
+
+        static float[] vector(String text) {
+            return new float[]{text.length(), text.hashCode(), 1f};
+        }
+    }
+}
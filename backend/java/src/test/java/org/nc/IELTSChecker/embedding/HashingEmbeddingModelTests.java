@@ -0,0 +1,251 @@
+package org.nc.IELTSChecker.embedding;
+
+import com.opencsv.CSVReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nc.IELTSChecker.services.CsvIeltsTask2Loader;
+import org.nc.IELTSChecker.services.EssayPreprocessor;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.openai.api.OpenAiApi;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class HashingEmbeddingModelTests {
+
+    private static final int TOP_K = 5;
+    /**
+     * How much worse than the remote model the local one may place the bands of the retrieved essays.
+     */
+    private static final double BAND_ERROR_MARGIN = 0.05;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void embedsDeterministicallyIntoUnitVectors() {
+        HashingEmbeddingModel model = HashingEmbeddingModel.fit(List.of(
+                "Some people think museums should be free.",
+                "Governments should spend more on public transport.",
+                "Children should learn a foreign language at primary school."), 128);
+
+        float[] first = model.embed("Public transport should be free for everyone.");
+        assertArrayEquals(first, model.embed("Public transport should be free for everyone."));
+        assertEquals(128, first.length);
+        assertEquals(1.0, dot(first, first), 1e-5);
+
+        float[] related = model.embed("Should governments make public transportation free?");
+        float[] unrelated = model.embed("Children learn languages quickly at primary school.");
+        assertTrue(dot(first, related) > dot(first, unrelated));
+        assertEquals(model.getModelId(), HashingEmbeddingModel.fit(List.of(
+                "Some people think museums should be free.",
+                "Governments should spend more on public transport.",
+                "Children should learn a foreign language at primary school."), 128).getModelId());
+    }
+
+    @Test
+    void retrievesEssaysOnTheSamePromptAndOfSimilarBand() throws Exception {
+        Dataset dataset = Dataset.load();
+        HashingEmbeddingModel model = HashingEmbeddingModel.fit(dataset.corpus, 384);
+
+        Quality local = Quality.measure(model, dataset);
+        Quality random = Quality.random(dataset);
+        System.out.printf("Local embeddings:  %s%nRandom neighbours: %s%nMean-band baseline: band error %.3f%n",
+                local, random, Quality.meanBandError(dataset));
+
+        assertTrue(local.samePromptPrecision > 5 * random.samePromptPrecision);
+        assertTrue(local.bandError < random.bandError);
+    }
+
+    /**
+     * Compares the local model with the remote one on the same leave-one-out retrieval task: the
+     * essays the local model retrieves may be at most {@link #BAND_ERROR_MARGIN} further from the
+     * essay's band than the remote model's. Needs OPENAI_API_KEY; remote vectors are cached in a
+     * temporary directory.
+     */
+    @Test
+    void comparesWithRemoteEmbeddings() throws Exception {
+        String apiKey = System.getenv("OPENAI_API_KEY");
+        assumeTrue(apiKey != null && !apiKey.isBlank(), "OPENAI_API_KEY is not set");
+
+        Dataset dataset = Dataset.load();
+        Quality local = Quality.measure(HashingEmbeddingModel.fit(dataset.corpus, 384), dataset);
+        try (CachingEmbeddingModel remote = new CachingEmbeddingModel(
+                new OpenAiEmbeddingModel(OpenAiApi.builder().apiKey(apiKey).build()),
+                "text-embedding-ada-002", 10_000, tempDir.resolve("embedding_cache.bin"))) {
+            Quality reference = Quality.measure(remote, dataset);
+            System.out.printf("Local embeddings:  %s%nRemote embeddings: %s%nTop-%d overlap: %.3f%n",
+                    local, reference, TOP_K, overlap(local.neighbours, reference.neighbours));
+
+            assertTrue(local.bandError <= reference.bandError + BAND_ERROR_MARGIN,
+                    "local band error " + local.bandError + ", remote " + reference.bandError);
+        }
+    }
+
+    /**
+     * The Task 2 rows as the loader stores them, and the queries scoring would send for them.
+     */
+    private record Dataset(List<String> corpus, List<Document> documents, List<String> queries) {
+
+        static Dataset load() throws Exception {
+            CsvIeltsTask2Loader loader = new CsvIeltsTask2Loader();
+            EssayPreprocessor preprocessor = new EssayPreprocessor();
+            ReflectionTestUtils.setField(loader, "preprocessor", preprocessor);
+
+            List<String> corpus = new ArrayList<>();
+            List<Document> documents = new ArrayList<>();
+            List<String> queries = new ArrayList<>();
+            try (CSVReader reader = new CSVReader(new InputStreamReader(
+                    HashingEmbeddingModelTests.class.getResourceAsStream("/data/ielts_writing_dataset.csv"),
+                    StandardCharsets.UTF_8))) {
+                reader.readNext();
+                int lineNumber = 1;
+                for (String[] line : reader) {
+                    lineNumber++;
+                    if (line.length >= 4) corpus.add(line[1] + "\n" + line[2] + "\n" + line[3]);
+                    Document document = loader.parseRow(line, lineNumber);
+                    if (document == null) continue;
+                    documents.add(document);
+                    queries.add(line[1].trim() + "\n" + preprocessor.cleanEssay(line[2].trim()));
+                }
+            }
+            return new Dataset(corpus, documents, queries);
+        }
+
+        String question(int row) {
+            return (String) documents.get(row).getMetadata().get("question");
+        }
+
+        double band(int row) {
+            return Double.parseDouble((String) documents.get(row).getMetadata().get("band"));
+        }
+    }
+
+    /**
+     * Leave-one-out retrieval quality: each essay's query against all other essays.
+     * @param samePromptPrecision share of the top results written for the same question
+     * @param bandError mean distance between an essay's band and the mean band of its top results
+     */
+    private record Quality(double samePromptPrecision, double bandError, int[][] neighbours) {
+
+        static Quality measure(EmbeddingModel model, Dataset dataset) {
+            int size = dataset.documents.size();
+            float[][] documents = new float[size][];
+            float[][] queries = new float[size][];
+            for (int i = 0; i < size; i++) {
+                documents[i] = normalized(model.embed(dataset.documents.get(i)));
+                queries[i] = normalized(model.embed(dataset.queries.get(i)));
+            }
+            int[][] neighbours = new int[size][];
+            for (int i = 0; i < size; i++) {
+                neighbours[i] = topK(queries[i], documents, i);
+            }
+            return of(dataset, neighbours);
+        }
+
+        static Quality random(Dataset dataset) {
+            int size = dataset.documents.size();
+            java.util.Random random = new java.util.Random(42);
+            int[][] neighbours = new int[size][TOP_K];
+            for (int i = 0; i < size; i++) {
+                for (int k = 0; k < TOP_K; k++) {
+                    int other;
+                    do {
+                        other = random.nextInt(size);
+                    } while (other == i);
+                    neighbours[i][k] = other;
+                }
+            }
+            return of(dataset, neighbours);
+        }
+
+        /**
+         * The band error of predicting every essay's band as the mean band of all the others,
+         * which retrieval has to beat to say anything about an essay's band.
+         */
+        static double meanBandError(Dataset dataset) {
+            int size = dataset.documents.size();
+            double total = 0;
+            for (int i = 0; i < size; i++) total += dataset.band(i);
+            double error = 0;
+            for (int i = 0; i < size; i++) {
+                error += Math.abs(dataset.band(i) - (total - dataset.band(i)) / (size - 1));
+            }
+            return error / size;
+        }
+
+        private static Quality of(Dataset dataset, int[][] neighbours) {
+            double samePrompt = 0;
+            double bandError = 0;
+            for (int i = 0; i < neighbours.length; i++) {
+                double bands = 0;
+                for (int other : neighbours[i]) {
+                    if (Objects.equals(dataset.question(i), dataset.question(other))) samePrompt++;
+                    bands += dataset.band(other);
+                }
+                bandError += Math.abs(dataset.band(i) - bands / neighbours[i].length);
+            }
+            return new Quality(samePrompt / (neighbours.length * TOP_K), bandError / neighbours.length, neighbours);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("same-prompt precision@%d %.3f, band error %.3f", TOP_K, samePromptPrecision, bandError);
+        }
+    }
+
+    private static int[] topK(float[] query, float[][] documents, int exclude) {
+        int[] best = new int[TOP_K];
+        float[] scores = new float[TOP_K];
+        java.util.Arrays.fill(scores, Float.NEGATIVE_INFINITY);
+        for (int row = 0; row < documents.length; row++) {
+            if (row == exclude) continue;
+            float score = dot(query, documents[row]);
+            if (score <= scores[TOP_K - 1]) continue;
+            int position = TOP_K - 1;
+            while (position > 0 && scores[position - 1] < score) {
+                scores[position] = scores[position - 1];
+                best[position] = best[position - 1];
+                position--;
+            }
+            scores[position] = score;
+            best[position] = row;
+        }
+        return best;
+    }
+
+    private static double overlap(int[][] first, int[][] second) {
+        double shared = 0;
+        for (int i = 0; i < first.length; i++) {
+            for (int a : first[i]) {
+                for (int b : second[i]) {
+                    if (a == b) shared++;
+                }
+            }
+        }
+        return shared / (first.length * TOP_K);
+    }
+
+    private static float[] normalized(float[] vector) {
+        float norm = (float) Math.sqrt(dot(vector, vector));
+        float[] result = vector.clone();
+        for (int i = 0; i < result.length; i++) result[i] /= norm;
+        return result;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) sum += a[i] * b[i];
+        return sum;
+    }
+}
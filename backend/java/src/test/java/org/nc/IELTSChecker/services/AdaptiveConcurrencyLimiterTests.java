@@ -0,0 +1,51 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpClientErrorException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveConcurrencyLimiterTests {
+
+    @Test
+    void growsByAboutOnePerWindowOfFastCalls() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(4, 1, 1000, Duration.ofSeconds(1));
+        // A window of four fast calls at limit 4 adds about one, not four
+        for (int i = 0; i < 4; i++) {
+            limiter.acquire();
+            limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertEquals(4, limiter.getLimit());
+        limiter.acquire();
+        limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(5, limiter.getLimit());
+
+        // Additive increase: 500 completions raise the limit by about sqrt(2 * 500), not by 500
+        for (int i = 0; i < 500; i++) {
+            limiter.acquire();
+            limiter.onSuccess(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        assertTrue(limiter.getLimit() > 25 && limiter.getLimit() < 40, "limit " + limiter.getLimit());
+
+        limiter.acquire();
+        limiter.onThrottled();
+        assertTrue(limiter.getLimit() < 20, "limit " + limiter.getLimit());
+    }
+
+    @Test
+    void onlyStructuredRateLimitResponsesCountAsThrottling() {
+        assertTrue(AdaptiveConcurrencyLimiter.isRateLimited(new IllegalStateException("wrapped",
+                new NonTransientAiException("429 - {\"error\": \"Rate limit reached\"}"))));
+        assertTrue(AdaptiveConcurrencyLimiter.isRateLimited(
+                HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", null, null, null)));
+        // A 429 or "rate limit" inside an error body, such as the essay text or a token count, is not throttling
+        assertFalse(AdaptiveConcurrencyLimiter.isRateLimited(
+                new NonTransientAiException("400 - {\"error\": \"an essay of 429 words on the rate limit\"}")));
+        assertFalse(AdaptiveConcurrencyLimiter.isRateLimited(new IllegalStateException("request 4291 failed")));
+    }
+}
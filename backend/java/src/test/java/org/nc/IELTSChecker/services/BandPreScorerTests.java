@@ -0,0 +1,84 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.nc.IELTSChecker.dto.EvaluationResponse;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BandPreScorerTests {
+
+    private static final String QUESTION = "Some people believe that university students should pay the full cost "
+            + "of their education. To what extent do you agree or disagree?";
+
+    private static BandPreScorer preScorer;
+
+    @BeforeAll
+    static void train() {
+        preScorer = new BandPreScorer();
+        ReflectionTestUtils.setField(preScorer, "dataset", new ClassPathResource("data/ielts_writing_dataset.csv"));
+        ReflectionTestUtils.setField(preScorer, "lambda", 1.0);
+        ReflectionTestUtils.setField(preScorer, "shortCircuit", true);
+        ReflectionTestUtils.setField(preScorer, "shortCircuitMaxWords", 150);
+        ReflectionTestUtils.setField(preScorer, "shortCircuitMinQuestionOverlap", 0.2);
+        ReflectionTestUtils.setField(preScorer, "preprocessor", new EssayPreprocessor());
+        preScorer.train();
+    }
+
+    @Test
+    void ridgeRegressionRecoversALinearRelation() {
+        Random random = new Random(1);
+        double[][] x = new double[200][];
+        double[] y = new double[200];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = new double[]{random.nextDouble() * 10, random.nextGaussian(), 3};
+            y[i] = 2 + 0.5 * x[i][0] - x[i][1];
+        }
+        BandPreScorer.RidgeModel model = BandPreScorer.RidgeModel.fit(x, y, 1e-6);
+        assertEquals(2 + 0.5 * 4 + 1, model.predict(new double[]{4, -1, 3}), 1e-4);
+
+        BandPreScorer.Accuracy accuracy = BandPreScorer.crossValidate(x, y, 1e-6, 5);
+        assertEquals(200, accuracy.essays());
+        assertTrue(accuracy.meanAbsoluteError() < 0.3);
+        assertTrue(accuracy.meanAbsoluteError() < accuracy.baselineMeanAbsoluteError());
+    }
+
+    @Test
+    void reportsAnErrorBelowThatOfGuessingTheMeanBand() {
+        BandPreScorer.Report report = preScorer.report();
+        assertEquals(793, report.essays());
+        // The bundled dataset only has overall bands
+        assertEquals(List.of("taskResponse", "coherenceCohesion", "lexicalResource", "grammaticalRangeAccuracy"),
+                report.fromOverall());
+        BandPreScorer.Accuracy overall = report.accuracy().get("overallBand");
+        assertTrue(overall.meanAbsoluteError() < overall.baselineMeanAbsoluteError(), overall.toString());
+        assertTrue(overall.withinHalfBand() > 0.5, overall.toString());
+    }
+
+    @Test
+    void shortCircuitsOnlyEssaysFarUnderLengthOrOffTheQuestion() {
+        String onTopic = ("Many people argue that university students should pay the full cost of their education, "
+                + "because graduates usually earn more. However, free education benefits the whole society, since "
+                + "educated citizens contribute to the economy. ").repeat(5);
+        assertNull(preScorer.shortCircuit(QUESTION, onTopic));
+        EvaluationResponse estimate = preScorer.estimate(QUESTION, onTopic);
+        assertTrue(estimate.overallBand() >= 1 && estimate.overallBand() <= 9);
+        assertEquals(0, estimate.overallBand() * 2 % 1);
+
+        EvaluationResponse tooShort = preScorer.shortCircuit(QUESTION,
+                "Students should pay for university because it is expensive for the government.");
+        assertNotNull(tooShort);
+        assertTrue(tooShort.taskResponse() <= 2, tooShort.toString());
+        assertTrue(tooShort.examinerFeedback().contains("not sent for a full evaluation"));
+        assertTrue(tooShort.suggestions().get("taskResponse").contains("at least 250 words"));
+
+        String offTopic = ("My favourite holiday was a trip to the mountains with my family, where we walked every "
+                + "day, cooked dinner together and watched the stars at night. ").repeat(6);
+        assertNotNull(preScorer.shortCircuit(QUESTION, offTopic));
+    }
+}
@@ -0,0 +1,147 @@
+package org.nc.IELTSChecker.services;
+
+import com.opencsv.CSVReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EssayPreprocessorTests {
+
+    private final EssayPreprocessor preprocessor = new EssayPreprocessor();
+
+    @Test
+    void matchesTheRegexRulesOnTheWholeDataset() throws Exception {
+        int rows = 0;
+        try (CSVReader reader = new CSVReader(new InputStreamReader(
+                getClass().getResourceAsStream("/data/ielts_writing_dataset.csv"), StandardCharsets.UTF_8))) {
+            for (String[] line : reader) {
+                for (String field : line) {
+                    assertEquivalent(field);
+                    assertEquivalent(field.trim());
+                }
+                rows++;
+            }
+        }
+        assertTrue(rows > 1000);
+    }
+
+    @Test
+    void measuresTheFeaturesOfTheNormalizedEssay() {
+        EssayFeatures features = preprocessor.features("Do children learn more from games?",
+                "Children  learn a lot. However , games teach children patience, focus and teamwork! "
+                        + "On the other hand they waste time");
+
+        assertEquals(19, features.wordCount());
+        assertEquals(18 / 19.0, features.typeTokenRatio(), 1e-9);
+        assertEquals(19 / 3.0, features.meanSentenceLength(), 1e-9);
+        assertEquals(Math.sqrt(26 / 9.0), features.sentenceLengthStdDev(), 1e-9);
+        // "however" and "on the other hand"
+        assertEquals(200 / 19.0, features.linkingDevicesPer100Words(), 1e-9);
+        // "children", "learn" and "games" but not "more"
+        assertEquals(1, features.questionOverlap(), 1e-9);
+        assertEquals(5 / 19.0, features.longWordRatio(), 1e-9);
+        assertEquals(2 / 3.0, features.commasPerSentence(), 1e-9);
+        assertEquals(1, preprocessor.features(null, "").questionOverlap());
+    }
+
+    @Test
+    void matchesTheRegexRulesOnEdgeCases() {
+        List<String> samples = List.of("", " ", "\t\n", "word", " word", "word ", "  two  words  ",
+                "a , b . c ;d :e !f ?g", " .leading", "trailing .", "a \t\n\u000B\f\r b", "\u0001 x \u0002",
+                "\u001C\u001Dgap", "x y", "Discuss. Agree, disagree", "To What Extent do you agree?",
+                "Some DISAGREE with the VIEW that ...", "didiscussscuss the point", "dis agree",
+                "İstanbul grows, discuss", "Σ ΟΔΟΣ, discuss");
+        for (String sample : samples) {
+            assertEquivalent(sample);
+        }
+
+        Random random = new Random(42);
+        String[] pieces = {" ", "  ", "\t", "\n", "\u000B", "\u0001", " ", ".", ",", "?", "!", ";", ":",
+                "a", "B", "agree", "dis", "view", "Opinion", "to what extent", "advant", "ages", "İ", "é"};
+        for (int i = 0; i < 20_000; i++) {
+            StringBuilder sample = new StringBuilder();
+            int count = random.nextInt(12);
+            for (int j = 0; j < count; j++) {
+                sample.append(pieces[random.nextInt(pieces.length)]);
+            }
+            assertEquivalent(sample.toString());
+        }
+    }
+
+    @Test
+    void shinglesIgnoreCaseSpacingAndPunctuation() {
+        long[] shingles = preprocessor.shingles("One two three four five six. One two three four five!");
+        // "one two three four five" occurs twice but is one shingle
+        assertEquals(6, shingles.length);
+        assertArrayEquals(shingles, preprocessor.shingles("ONE two,  three four five six one two three four five"));
+        assertEquals(1, preprocessor.shingles("Too short").length);
+        assertEquals(0, preprocessor.shingles(" -- ").length);
+    }
+
+    @Test
+    void followsTheDefaultLocaleLikeStringToLowerCase() {
+        Locale previous = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.forLanguageTag("tr"));
+            assertEquivalent("IT IS IMPORTANT, discuss");
+        } finally {
+            Locale.setDefault(previous);
+        }
+    }
+
+    @Test
+    void returnsAlreadyCleanTextUnchanged() {
+        String clean = "Already clean text, with punctuation.";
+        assertSame(clean, preprocessor.cleanEssay(clean));
+    }
+
+    private void assertEquivalent(String text) {
+        String cleaned = Reference.cleanEssay(text);
+        assertEquals(cleaned, preprocessor.cleanEssay(text), () -> "cleanEssay of [" + text + "]");
+        assertEquals(Reference.countWords(text), preprocessor.countWords(text), () -> "countWords of [" + text + "]");
+        assertEquals(Reference.countWords(cleaned), preprocessor.normalize(text).wordCount(),
+                () -> "normalize of [" + text + "]");
+        assertEquals(Reference.extractMainTopic(text), preprocessor.extractMainTopic(text),
+                () -> "extractMainTopic of [" + text + "]");
+    }
+
+    /**
+     * The regular expression implementation the preprocessor replaced.
+     */
+    private static final class Reference {
+
+        private static final Pattern WHITESPACE_PATTERN = Pattern.compile("\\s+");
+        private static final Pattern PUNCTUATION_PATTERN = Pattern.compile("\\s([.,;:!?])");
+        private static final List<String> QUESTION_WORDS = List.of(
+                "discuss", "to what extent", "advantages", "disadvantages",
+                "opinion", "view", "agree", "disagree");
+
+        static String cleanEssay(String essay) {
+            String cleaned = WHITESPACE_PATTERN.matcher(essay).replaceAll(" ");
+            cleaned = PUNCTUATION_PATTERN.matcher(cleaned).replaceAll("$1");
+            return cleaned.trim();
+        }
+
+        static int countWords(String text) {
+            if (text.isEmpty()) return 0;
+            return text.split("\\s+").length;
+        }
+
+        static String extractMainTopic(String question) {
+            String lowercase = question.toLowerCase();
+            for (String word : QUESTION_WORDS) {
+                lowercase = lowercase.replace(word, "");
+            }
+            String[] sentences = lowercase.split("[.,]");
+            String firstSentence = sentences.length > 0 ? sentences[0] : "";
+            return firstSentence.trim().isEmpty() ? "general" : firstSentence.trim();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.nc.IELTSChecker.dto.BatchEvaluationItem;
+import org.nc.IELTSChecker.dto.EssayRequest;
+import org.nc.IELTSChecker.dto.EvaluationEvent;
+import org.nc.IELTSChecker.dto.EvaluationResponse;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.test.util.ReflectionTestUtils;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class IeltsScoringServiceTests {
+
+    private static final String QUESTION = "Some people think technology makes children less creative. Discuss.";
+    private static final String ESSAY = "Technology is everywhere in modern childhood. ".repeat(10);
+    private static final String ANSWER = """
+            {"taskResponse": 6, "coherenceCohesion": 6.5, "lexicalResource": 6, "grammaticalRangeAccuracy": 7,
+             "overallBand": 6.5, "examinerFeedback": "Clear position.", "suggestions": {"taskResponse": "Add examples."}}
+            """;
+
+    private OpenAiChatModel chatModel;
+    private IeltsScoringService service;
+    private ScoringExecutor scoringExecutor;
+    private SimpleMeterRegistry registry;
+    private VectorStoreInitializer storeInitializer;
+    private BandPreScorer preScorer;
+
+    @BeforeEach
+    void setUp() {
+        chatModel = mock(OpenAiChatModel.class);
+        VectorStore vectorStore = mock(VectorStore.class);
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of());
+
+        service = new IeltsScoringService(chatModel);
+        ReflectionTestUtils.setField(service, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(service, "preprocessor", new EssayPreprocessor());
+        ReflectionTestUtils.setField(service, "evaluationCacheSize", 100L);
+        ReflectionTestUtils.setField(service, "evaluationCacheTtlMinutes", 60L);
+        ReflectionTestUtils.setField(service, "batchConcurrency", 4);
+        scoringExecutor = new ScoringExecutor(new ScoringExecutor.Settings(4, 10, 8, Duration.ofSeconds(1),
+                Duration.ofSeconds(5), Duration.ofSeconds(5), Duration.ofSeconds(5)));
+        ReflectionTestUtils.setField(service, "scoringExecutor", scoringExecutor);
+        ReflectionTestUtils.setField(service, "promptBuilder", new ScoringPromptBuilder(2500));
+        registry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(service, "metrics", new ScoringMetrics(registry));
+        storeInitializer = mock(VectorStoreInitializer.class);
+        when(storeInitializer.isReady()).thenReturn(true);
+        ReflectionTestUtils.setField(service, "storeInitializer", storeInitializer);
+        ReflectionTestUtils.setField(service, "degradedWhileLoading", true);
+        preScorer = mock(BandPreScorer.class);
+        ReflectionTestUtils.setField(service, "preScorer", preScorer);
+        service.initEvaluationCache();
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdownBatchExecutor();
+        scoringExecutor.close();
+    }
+
+    @Test
+    void concurrentIdenticalRequestsShareOneModelCall() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return response(ANSWER);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<EvaluationResponse>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                // Whitespace differences still count as the same submission
+                String essay = i % 2 == 0 ? ESSAY : "  " + ESSAY.replace(" ", "  ");
+                results.add(executor.submit(() -> service.scoreEssay(new EssayRequest(QUESTION, essay, "2"))));
+            }
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<EvaluationResponse> result : results) {
+                assertEquals(6.5, result.get(5, TimeUnit.SECONDS).overallBand());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        service.scoreEssay(new EssayRequest(QUESTION, ESSAY, "2"));
+        verify(chatModel, times(1)).call(any(Prompt.class));
+
+        service.scoreEssay(new EssayRequest(QUESTION, ESSAY, "1"));
+        verify(chatModel, times(2)).call(any(Prompt.class));
+    }
+
+    @Test
+    void scoresWithoutReferencesAndDoesNotCacheWhileTheStoreIsLoading() {
+        VectorStore vectorStore = mock(VectorStore.class);
+        ReflectionTestUtils.setField(service, "vectorStore", vectorStore);
+        when(storeInitializer.isReady()).thenReturn(false);
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> response(ANSWER));
+
+        EssayRequest request = new EssayRequest(QUESTION, ESSAY, "2");
+        assertEquals(6.5, service.scoreEssay(request).overallBand());
+        assertEquals(6.5, service.scoreEssay(request).overallBand());
+        verify(chatModel, times(2)).call(any(Prompt.class));
+        verifyNoInteractions(vectorStore);
+        assertEquals(2.0, registry.get("scoring.retrieval.degraded").counter().count());
+
+        // Once the store is ready the essay is scored again, with reference essays
+        when(storeInitializer.isReady()).thenReturn(true);
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of());
+        service.scoreEssay(request);
+        verify(chatModel, times(3)).call(any(Prompt.class));
+        verify(vectorStore).similaritySearch(any(SearchRequest.class));
+
+        when(storeInitializer.isReady()).thenReturn(false);
+        ReflectionTestUtils.setField(service, "degradedWhileLoading", false);
+        assertThrows(ScoringExecutor.OverloadedException.class,
+                () -> service.scoreEssay(new EssayRequest(QUESTION, ESSAY + " Another.", "2")));
+    }
+
+    @Test
+    void batchEmbedsOnceAndKeepsOrderWithPerItemErrors() {
+        MappedVectorStore vectorStore = mock(MappedVectorStore.class);
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation ->
+                invocation.<List<String>>getArgument(0).stream().map(text -> new float[]{text.length()}).toList());
+        when(vectorStore.hybridSearch(anyString(), any(float[].class), anyInt(), anyDouble())).thenReturn(List.of());
+        ReflectionTestUtils.setField(service, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(service, "embeddingModel", embeddingModel);
+
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+            String prompt = invocation.<Prompt>getArgument(0).getContents();
+            if (prompt.contains("essay 3")) throw new IllegalStateException("model unavailable");
+            return response(ANSWER);
+        });
+
+        List<EssayRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            requests.add(new EssayRequest(QUESTION, "This is essay " + i + ". " + ESSAY, "2"));
+        }
+        List<BatchEvaluationItem> results = service.scoreEssays(requests);
+
+        assertEquals(6, results.size());
+        for (int i = 0; i < 6; i++) {
+            assertEquals(i, results.get(i).index());
+            if (i == 3) {
+                assertNull(results.get(i).evaluation());
+                assertTrue(results.get(i).error().contains("model unavailable"));
+            } else {
+                assertEquals(6.5, results.get(i).evaluation().overallBand());
+            }
+        }
+        verify(embeddingModel, times(1)).embed(anyList());
+        verify(vectorStore, times(6)).hybridSearch(anyString(), any(float[].class), anyInt(), anyDouble());
+    }
+
+    @Test
+    void aFailedBatchEmbeddingFallsBackToOneCallPerEssay() {
+        MappedVectorStore vectorStore = mock(MappedVectorStore.class);
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyList())).thenThrow(new IllegalArgumentException("invalid input"));
+        when(embeddingModel.embed(anyString())).thenAnswer(invocation -> {
+            String query = invocation.getArgument(0);
+            if (query.contains("essay 1")) throw new IllegalArgumentException("invalid input");
+            return new float[]{query.length()};
+        });
+        when(vectorStore.hybridSearch(anyString(), any(float[].class), anyInt(), anyDouble())).thenReturn(List.of());
+        ReflectionTestUtils.setField(service, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(service, "embeddingModel", embeddingModel);
+        when(chatModel.call(any(Prompt.class))).thenReturn(response(ANSWER));
+
+        List<EssayRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(new EssayRequest(QUESTION, "This is essay " + i + ". " + ESSAY, "2"));
+        }
+        List<BatchEvaluationItem> results = service.scoreEssays(requests);
+
+        assertEquals(6.5, results.get(0).evaluation().overallBand());
+        assertTrue(results.get(1).error().contains("invalid input"));
+        assertFalse(results.get(1).retryable());
+        assertEquals(6.5, results.get(2).evaluation().overallBand());
+        verify(embeddingModel, times(3)).embed(anyString());
+    }
+
+    @Test
+    void batchItemsTheProviderFailedWithAServerErrorAreRetryable() {
+        MappedVectorStore vectorStore = mock(MappedVectorStore.class);
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        when(embeddingModel.embed(anyList())).thenAnswer(invocation ->
+                invocation.<List<String>>getArgument(0).stream().map(text -> new float[]{text.length()}).toList());
+        when(vectorStore.hybridSearch(anyString(), any(float[].class), anyInt(), anyDouble())).thenReturn(List.of());
+        ReflectionTestUtils.setField(service, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(service, "embeddingModel", embeddingModel);
+        // How Spring AI's OpenAI client reports a 5xx and a 4xx answer
+        when(chatModel.call(any(Prompt.class))).thenAnswer(invocation -> {
+            String prompt = invocation.<Prompt>getArgument(0).getContents();
+            if (prompt.contains("essay 1")) throw new TransientAiException("502 - Bad Gateway");
+            if (prompt.contains("essay 2")) throw new NonTransientAiException("400 - {\"error\": \"invalid request\"}");
+            return response(ANSWER);
+        });
+
+        List<EssayRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            requests.add(new EssayRequest(QUESTION, "This is essay " + i + ". " + ESSAY, "2"));
+        }
+        List<BatchEvaluationItem> results = service.scoreEssays(requests);
+
+        assertEquals(6.5, results.get(0).evaluation().overallBand());
+        assertTrue(results.get(1).error().contains("502"));
+        assertTrue(results.get(1).retryable());
+        assertTrue(results.get(2).error().contains("400"));
+        assertFalse(results.get(2).retryable());
+    }
+
+    @Test
+    void essaysOnAStoredQuestionAreRetrievedWithoutEmbedding() {
+        MappedVectorStore vectorStore = mock(MappedVectorStore.class);
+        EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+        Document reference = new Document("ref", "Band 7 essay on technology", Map.of("band", "7.0"));
+        when(vectorStore.questionExemplars(eq(QUESTION), anyInt(), anyDouble())).thenReturn(List.of(reference));
+        ReflectionTestUtils.setField(service, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(service, "embeddingModel", embeddingModel);
+        ReflectionTestUtils.setField(service, "minQuestionMatches", 1);
+        when(chatModel.call(any(Prompt.class))).thenReturn(response(ANSWER));
+
+        service.scoreEssay(new EssayRequest(QUESTION, ESSAY, "2"));
+        service.scoreEssays(List.of(new EssayRequest(QUESTION, "Another essay. " + ESSAY, "2")));
+
+        verifyNoInteractions(embeddingModel);
+        verify(vectorStore, never()).hybridSearch(anyString(), any(float[].class), anyInt(), anyDouble());
+        verify(vectorStore, never()).questionMatches(anyString(), anyString(), anyInt(), anyDouble());
+        assertEquals(2.0, registry.get("scoring.retrieval.question.matches").counter().count());
+    }
+
+    @Test
+    void streamsScoresBeforeTheAnswerIsComplete() {
+        List<ChatResponse> chunks = new ArrayList<>();
+        for (int i = 0; i < ANSWER.length(); i += 7) {
+            chunks.add(response(ANSWER.substring(i, Math.min(ANSWER.length(), i + 7))));
+        }
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.fromIterable(chunks));
+
+        List<EvaluationEvent> events = service.streamEssay(new EssayRequest(QUESTION, ESSAY, "2"))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertEquals(new EvaluationEvent("score", "taskResponse", 6.0), events.get(0));
+        assertEquals(List.of("taskResponse", "coherenceCohesion", "lexicalResource", "grammaticalRangeAccuracy",
+                        "overallBand"),
+                events.stream().filter(event -> event.type().equals("score")).map(EvaluationEvent::field).toList());
+        assertEquals("Clear position.", events.stream().filter(event -> event.type().equals("feedback"))
+                .map(event -> (String) event.value()).reduce("", String::concat));
+        EvaluationEvent result = events.get(events.size() - 1);
+        assertEquals("result", result.type());
+        assertEquals(6.5, ((EvaluationResponse) result.value()).overallBand());
+
+        // The streamed evaluation is cached for blocking and streaming callers alike
+        assertEquals(6.5, service.scoreEssay(new EssayRequest(QUESTION, ESSAY, "2")).overallBand());
+        verify(chatModel, never()).call(any(Prompt.class));
+    }
+
+    @Test
+    void streamsTheProvisionalEstimateFirstAndShortCircuitsWhatThePreScorerAnswers() {
+        EvaluationResponse estimate = new EvaluationResponse(5.5, 6, 6, 6, 6, "Provisional estimate.", Map.of());
+        when(preScorer.isTrained()).thenReturn(true);
+        when(preScorer.estimate(eq(QUESTION), anyString())).thenReturn(estimate);
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.just(response(ANSWER)));
+
+        List<EvaluationEvent> events = service.streamEssay(new EssayRequest(QUESTION, ESSAY, "2"))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        assertEquals(new EvaluationEvent("provisional", null, estimate), events.get(0));
+        assertEquals(6.5, ((EvaluationResponse) events.get(events.size() - 1).value()).overallBand());
+
+        String shortEssay = "Technology is bad for children.";
+        EvaluationResponse preScored = new EvaluationResponse(2, 2, 2, 2, 2, "Too short.", Map.of());
+        when(preScorer.shortCircuit(eq(QUESTION), anyString())).thenReturn(preScored);
+        assertSame(preScored, service.scoreEssay(new EssayRequest(QUESTION, shortEssay, "2")));
+        List<EvaluationEvent> replayed = service.streamEssay(new EssayRequest(QUESTION, shortEssay, "2"))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+        assertSame(preScored, replayed.get(replayed.size() - 1).value());
+
+        verify(chatModel, never()).call(any(Prompt.class));
+        verify(chatModel, times(1)).stream(any(Prompt.class));
+        assertEquals(2, registry.get("scoring.evaluations").tag("outcome", "prescored").counter().count());
+        assertEquals(1, registry.get("scoring.stage.duration").tag("stage", "prescore").timer().count());
+    }
+
+    @Test
+    void unparseableAnswersAreNotCached() {
+        when(chatModel.call(any(Prompt.class))).thenReturn(response("not json"), response(ANSWER));
+
+        EvaluationResponse failed = service.scoreEssay(new EssayRequest(QUESTION, ESSAY, "2"));
+        assertEquals(1.0, failed.overallBand());
+
+        EvaluationResponse retried = service.scoreEssay(new EssayRequest(QUESTION, ESSAY, "2"));
+        assertEquals(6.5, retried.overallBand());
+        verify(chatModel, times(2)).call(any(Prompt.class));
+
+        assertEquals(1, registry.get("scoring.parse.failures").counter().count());
+        assertEquals(1, registry.get("scoring.fallback.responses").counter().count());
+        assertEquals(1, registry.get("scoring.evaluations").tag("outcome", "scored").counter().count());
+        assertEquals(2, registry.get("scoring.stage.duration").tag("stage", "llm").timer().count());
+    }
+
+    private static ChatResponse response(String text) {
+        return new ChatResponse(List.of(new Generation(new AssistantMessage(text))));
+    }
+}
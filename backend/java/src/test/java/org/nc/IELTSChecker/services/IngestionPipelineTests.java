@@ -0,0 +1,71 @@
+package org.nc.IELTSChecker.services;
+
+import com.opencsv.CSVReader;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.http.HttpStatus;
+
+import java.io.StringReader;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionPipelineTests {
+
+    @Test
+    void writesEveryRowOnceAndRecoversFromThrottling() throws Exception {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 1000; i++) csv.append(i % 10 == 0 ? "skip" : "keep").append(",row ").append(i).append('\n');
+
+        AtomicInteger calls = new AtomicInteger();
+        EmbeddingModel model = new EmbeddingModel() {
+            @Override
+            public EmbeddingResponse call(EmbeddingRequest request) {
+                if (calls.incrementAndGet() == 3) {
+                    throw HttpClientErrorException.create(HttpStatus.TOO_MANY_REQUESTS, "Too Many Requests", null, null, null);
+                }
+                List<Embedding> embeddings = new ArrayList<>();
+                for (int i = 0; i < request.getInstructions().size(); i++) embeddings.add(new Embedding(new float[]{1f, i}, i));
+                return new EmbeddingResponse(embeddings);
+            }
+
+            @Override
+            public float[] embed(Document document) {
+                return new float[]{1f, 0f};
+            }
+        };
+
+        Set<String> written = ConcurrentHashMap.newKeySet();
+        IngestionPipeline pipeline = new IngestionPipeline(model,
+                new IngestionPipeline.Settings(32, 2, 50, 200, 4, Duration.ofSeconds(5)));
+        IngestionPipeline.Report report = pipeline.run(new CSVReader(new StringReader(csv.toString())),
+                (line, lineNumber) -> line[0].equals("keep") ? new Document(line[1]) : null,
+                (documents, embeddings) -> {
+                    assertEquals(documents.size(), embeddings.size());
+                    documents.forEach(document -> assertTrue(written.add(document.getText())));
+                });
+
+        assertEquals(900, written.size());
+        assertEquals(100, report.skipped());
+        assertEquals(1, report.throttled());
+        assertEquals(900, report.stages().get(3).items());
+    }
+
+    @Test
+    void rejectsSettingsThatCannotSizeTheQueues() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new IngestionPipeline.Settings(32, 2, 0, 200, 4, Duration.ofSeconds(5)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new IngestionPipeline.Settings(32, 2, 300, 200, 4, Duration.ofSeconds(5)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new IngestionPipeline.Settings(0, 2, 50, 200, 4, Duration.ofSeconds(5)));
+    }
+}
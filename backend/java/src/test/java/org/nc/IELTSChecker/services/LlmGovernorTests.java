@@ -0,0 +1,86 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.Test;
+import org.nc.IELTSChecker.services.LlmGovernor.Priority;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LlmGovernorTests {
+
+    @Test
+    void admitsWaitingInteractiveCallsBeforeBatchCalls() throws Exception {
+        LlmGovernor governor = new LlmGovernor(settings(1, 0, 0, Duration.ZERO));
+        LlmGovernor.Permit first = governor.acquire(Priority.BATCH, 0);
+
+        List<Priority> admitted = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> batch = CompletableFuture.runAsync(() -> admit(governor, Priority.BATCH, admitted));
+        awaitQueued(governor, 1);
+        CompletableFuture<Void> interactive =
+                CompletableFuture.runAsync(() -> admit(governor, Priority.INTERACTIVE, admitted));
+        awaitQueued(governor, 2);
+
+        first.onSuccess();
+        CompletableFuture.allOf(batch, interactive).join();
+        assertEquals(List.of(Priority.INTERACTIVE, Priority.BATCH), admitted);
+        assertEquals(0, governor.getInFlight());
+    }
+
+    @Test
+    void waitsForTheTokenBudgetToRefill() {
+        // 6000 tokens a minute refill 100 a second
+        LlmGovernor governor = new LlmGovernor(settings(4, 6000, 0, Duration.ZERO));
+        governor.acquire(Priority.INTERACTIVE, 5990).onSuccess();
+
+        long start = System.nanoTime();
+        governor.acquire(Priority.INTERACTIVE, 60).onSuccess();
+        long waitedMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(waitedMs >= 400, "Admitted after " + waitedMs + " ms");
+    }
+
+    @Test
+    void rejectsCallsTheBudgetCannotAdmitInTime() {
+        LlmGovernor governor = new LlmGovernor(settings(4, 0, 60, Duration.ZERO));
+        for (int i = 0; i < 60; i++) governor.acquire(Priority.INTERACTIVE, 0).onSuccess();
+
+        assertThrows(ScoringExecutor.OverloadedException.class, () -> governor.acquire(Priority.INTERACTIVE, 0));
+        assertEquals(1, governor.getRejected());
+    }
+
+    @Test
+    void throttlingHalvesTheLimitAndPausesAdmission() {
+        LlmGovernor governor = new LlmGovernor(settings(8, 0, 0, Duration.ofMillis(300)));
+        governor.acquire(Priority.INTERACTIVE, 0).onThrottled();
+        assertEquals(4, governor.getLimit());
+        assertEquals(1, governor.getThrottled());
+
+        long start = System.nanoTime();
+        governor.acquire(Priority.BATCH, 0).onSuccess();
+        long waitedMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(waitedMs >= 250, "Admitted after " + waitedMs + " ms");
+    }
+
+    private static void admit(LlmGovernor governor, Priority priority, List<Priority> admitted) {
+        LlmGovernor.Permit permit = governor.acquire(priority, 0);
+        admitted.add(priority);
+        permit.onSuccess();
+    }
+
+    private static void awaitQueued(LlmGovernor governor, int queued) throws InterruptedException {
+        for (int i = 0; i < 200 && governor.getQueued() < queued; i++) Thread.sleep(10);
+        assertEquals(queued, governor.getQueued());
+    }
+
+    /**
+     * An adaptive limit starting at its maximum, with half a second of wait for interactive calls.
+     */
+    private static LlmGovernor.Settings settings(int concurrency, int tokensPerMinute, int requestsPerMinute,
+                                                 Duration throttleCooldown) {
+        return new LlmGovernor.Settings(concurrency, 1, concurrency, Duration.ofSeconds(10), tokensPerMinute,
+                requestsPerMinute, 0, 10, Duration.ofMillis(500), Duration.ofSeconds(5), throttleCooldown, 1);
+    }
+}
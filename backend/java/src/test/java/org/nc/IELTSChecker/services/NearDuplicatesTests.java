@@ -0,0 +1,93 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.ClassPathResource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearDuplicatesTests {
+
+    private static final String ESSAY = "Some people believe that governments should spend more money on public "
+            + "transport than on roads. In my opinion, investing in buses and trains reduces traffic, cuts pollution "
+            + "and gives everyone access to work and education, although roads remain important in rural areas "
+            + "where few services run. Firstly, a single bus can replace dozens of private cars during the rush hour. "
+            + "Secondly, electric trains produce far less carbon dioxide than vehicles burning petrol or diesel. "
+            + "Finally, cheap fares allow students and older people to travel independently every day.";
+    private static final String EDITED = ESSAY.replace("In my opinion", "In my view").replace("Finally", "Lastly");
+    private static final String UNRELATED = "It is often argued that roads deserve the larger share of the budget, "
+            + "because most goods travel by lorry and most families own a car. I partly agree with this view, "
+            + "but I think railways should not be neglected, since they connect cities quickly and safely.";
+
+    private final EssayPreprocessor preprocessor = new EssayPreprocessor();
+
+    @Test
+    void findsAnEditedCopyButNotAnotherEssayOnTheSamePrompt() {
+        int[] essay = signature(ESSAY);
+        int[] edited = signature(EDITED);
+        int[] unrelated = signature(UNRELATED);
+        assertTrue(NearDuplicates.similarity(essay, edited) >= 0.8);
+        assertTrue(NearDuplicates.similarity(essay, unrelated) < 0.2);
+        assertNull(NearDuplicates.signature(preprocessor.shingles(" ... ")));
+
+        NearDuplicates index = new NearDuplicates(0.8);
+        assertNull(index.add("a", essay));
+        assertEquals("a", index.add("b", edited));
+        assertNull(index.add("c", unrelated));
+        assertEquals(2, index.size());
+
+        Document first = document("a", essay);
+        Document copy = document("b", edited);
+        Document other = document("c", unrelated);
+        Document unsigned = new Document("d", "An essay stored before signatures existed", Map.of());
+        assertEquals(List.of(first, other, unsigned),
+                NearDuplicates.distinct(List.of(first, copy, other, unsigned), 5, 0.8));
+        assertEquals(List.of(first, other), NearDuplicates.distinct(List.of(first, copy, other, unsigned), 2, 0.8));
+        assertArrayEquals(essay, NearDuplicates.decode(NearDuplicates.encode(essay)));
+        assertNull(NearDuplicates.decode("not a signature"));
+    }
+
+    @Test
+    void collapsesRepeatsAndNearDuplicatesOfTheSameBandIntoTheFirstRow() throws Exception {
+        String csv = "Task_Type,Question,Essay,Examiner_Commen,Task_Response,Coherence_Cohesion,"
+                + "Lexical_Resource,Range_Accuracy,Overall\n"
+                + row(ESSAY, "6.5") + row(UNRELATED, "6.5") + row(EDITED, "6.5") + row(ESSAY, "6.5")
+                + row(EDITED, "7.5") + "1,A Task 1 chart,Some description,,,,,,6\n";
+        CsvIeltsTask2Loader loader = new CsvIeltsTask2Loader(preprocessor);
+        Map<Integer, Integer> plan = loader.planRows(new ByteArrayResource(csv.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(Map.of(2, 3, 3, 1, 6, 1), plan);
+
+        String[] line = {"2", "Should governments fund public transport?", ESSAY, "", "", "", "", "", "6.5"};
+        Document representative = loader.parseRow(line, 2, 3);
+        assertEquals(3, representative.getMetadata().get(NearDuplicates.COUNT_METADATA_KEY));
+        assertNotNull(NearDuplicates.decode(representative.getMetadata().get(NearDuplicates.METADATA_KEY)));
+        assertNotEquals(loader.rowId(line), representative.getId());
+        assertEquals(loader.rowId(line), loader.parseRow(line, 2).getId());
+    }
+
+    @Test
+    void storesEveryDistinctRowOfTheDatasetOnce() throws Exception {
+        CsvIeltsTask2Loader loader = new CsvIeltsTask2Loader(preprocessor);
+        Map<Integer, Integer> plan = loader.planRows(new ClassPathResource("data/ielts_writing_dataset.csv"));
+        // 793 Task 2 rows, of which 82 repeat an earlier row word for word and none is an edited copy
+        assertEquals(793, plan.values().stream().mapToInt(Integer::intValue).sum());
+        assertEquals(711, plan.size());
+    }
+
+    private int[] signature(String essay) {
+        return NearDuplicates.signature(preprocessor.shingles(essay));
+    }
+
+    private static Document document(String id, int[] signature) {
+        return new Document(id, "Essay " + id, Map.of(NearDuplicates.METADATA_KEY, NearDuplicates.encode(signature)));
+    }
+
+    private static String row(String essay, String band) {
+        return "2,\"Should governments fund public transport?\",\"" + essay + "\",Good,,,,," + band + "\n";
+    }
+}
@@ -0,0 +1,95 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartialJsonScannerTests {
+
+    private static final String ANSWER = """
+            ```json
+            {
+              "taskResponse": 6,
+              "coherenceCohesion": 6.5,
+              "examinerFeedback": "A \\"clear\\" position,\\nwell supported \\u2013 mostly.",
+              "tags": [1, {"x": true}, []],
+              "suggestions": {"taskResponse": "Add examples.", "lexicalResource": "Vary vocabulary."},
+              "overallBand": 6.5
+            }
+            ```
+            """;
+
+    @Test
+    void reportsTheSameValuesForAnyChunking() {
+        List<String> whole = scan(List.of(ANSWER));
+        assertEquals(List.of(
+                "scalar [taskResponse] 6",
+                "scalar [coherenceCohesion] 6.5",
+                "string [examinerFeedback] A \"clear\" position,\nwell supported \u2013 mostly.",
+                "scalar [tags] 1",
+                "scalar [tags, x] true",
+                "string [suggestions, taskResponse] Add examples.",
+                "string [suggestions, lexicalResource] Vary vocabulary.",
+                "scalar [overallBand] 6.5"), whole);
+
+        for (int size = 1; size < 40; size++) {
+            List<String> chunks = new ArrayList<>();
+            for (int i = 0; i < ANSWER.length(); i += size) {
+                chunks.add(ANSWER.substring(i, Math.min(ANSWER.length(), i + size)));
+            }
+            assertEquals(whole, scan(chunks), "chunk size " + size);
+        }
+    }
+
+    @Test
+    void forwardsStringValuesBeforeTheyAreClosed() {
+        List<String> parts = new ArrayList<>();
+        PartialJsonScanner scanner = new PartialJsonScanner(new PartialJsonScanner.Listener() {
+            @Override
+            public void onScalar(List<String> path, String value) {
+            }
+
+            @Override
+            public void onStringPart(List<String> path, String part) {
+                parts.add(part);
+            }
+        });
+        scanner.feed("{\"examinerFeedback\": \"The essay ");
+        assertEquals(List.of("The essay "), parts);
+        scanner.feed("answers the question.\"}");
+        assertEquals(List.of("The essay ", "answers the question."), parts);
+        assertTrue(scanner.isFinished());
+    }
+
+    /**
+     * Scans the chunks and merges string parts per value, so results compare across chunkings.
+     */
+    private static List<String> scan(List<String> chunks) {
+        List<String> values = new ArrayList<>();
+        PartialJsonScanner scanner = new PartialJsonScanner(new PartialJsonScanner.Listener() {
+            private List<String> stringPath;
+
+            @Override
+            public void onScalar(List<String> path, String value) {
+                stringPath = null;
+                values.add("scalar " + path + " " + value);
+            }
+
+            @Override
+            public void onStringPart(List<String> path, String part) {
+                if (path.equals(stringPath)) {
+                    values.set(values.size() - 1, values.get(values.size() - 1) + part);
+                } else {
+                    stringPath = path;
+                    values.add("string " + path + " " + part);
+                }
+            }
+        });
+        chunks.forEach(scanner::feed);
+        assertTrue(scanner.isFinished());
+        return values;
+    }
+}
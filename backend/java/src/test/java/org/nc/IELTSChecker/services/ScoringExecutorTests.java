@@ -0,0 +1,175 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.retry.NonTransientAiException;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScoringExecutorTests {
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private ScoringExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        executor.close();
+    }
+
+    @Test
+    void rejectsRequestsBeyondThreadsAndQueue() {
+        executor = new ScoringExecutor(settings(2, 2, 8, Duration.ofSeconds(5)));
+        List<CompletableFuture<String>> accepted = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            accepted.add(executor.submit(this::blockUntilReleased));
+        }
+
+        CompletableFuture<String> rejected = executor.submit(this::blockUntilReleased);
+        CompletionException error = assertThrows(CompletionException.class, rejected::join);
+        assertInstanceOf(ScoringExecutor.OverloadedException.class, error.getCause());
+        assertEquals(1, executor.getRejected());
+
+        release.countDown();
+        accepted.forEach(future -> assertEquals("done", future.join()));
+    }
+
+    @Test
+    void bulkheadCapsConcurrentChatCallsAndHoldsPermitsOfTimedOutCalls() throws Exception {
+        executor = new ScoringExecutor(settings(8, 8, 2, Duration.ofMillis(200)));
+        List<CompletableFuture<String>> chats = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            chats.add(executor.submit(() -> executor.chat(this::blockUntilReleased)));
+        }
+        // Both callers time out, but their calls still occupy the bulkhead
+        for (CompletableFuture<String> chat : chats) {
+            CompletionException error = assertThrows(CompletionException.class, chat::join);
+            assertInstanceOf(ScoringExecutor.StageTimeoutException.class, error.getCause());
+        }
+        assertEquals(2, executor.getActiveLlmCalls());
+        assertThrows(ScoringExecutor.OverloadedException.class, () -> executor.chat(() -> "unused"));
+        assertThrows(ScoringExecutor.OverloadedException.class,
+                () -> executor.chatStream(() -> Flux.just("unused")).blockLast());
+
+        release.countDown();
+        for (int i = 0; i < 50 && executor.getActiveLlmCalls() > 0; i++) Thread.sleep(10);
+        assertEquals(0, executor.getActiveLlmCalls());
+        assertEquals("ok", executor.chat(() -> "ok"));
+        assertEquals(List.of("a", "b"), executor.chatStream(() -> Flux.just("a", "b")).collectList().block());
+        assertEquals(0, executor.getActiveLlmCalls());
+    }
+
+    @Test
+    void timedOutStagesKeepTheirThreadsAndFurtherStagesAreRejected() throws Exception {
+        executor = new ScoringExecutor(settings(1, 1, 2, Duration.ofSeconds(5)));
+        assertThrows(ScoringExecutor.StageTimeoutException.class, () -> executor.embedding(this::blockUntilReleased));
+
+        // The abandoned call still holds the only stage thread, so the next stage waits in the queue
+        CompletableFuture<String> queued = executor.submit(() -> executor.retrieval(() -> "found"));
+        for (int i = 0; i < 50 && executor.getQueuedStages() == 0; i++) Thread.sleep(10);
+        assertEquals(1, executor.getQueuedStages());
+        assertThrows(ScoringExecutor.OverloadedException.class, () -> executor.embedding(() -> "unused"));
+        assertEquals(1, executor.getRejected());
+
+        release.countDown();
+        assertEquals("found", queued.join());
+    }
+
+    @Test
+    void streamedChatMustFinishWithinTheTimeout() {
+        executor = new ScoringExecutor(settings(2, 2, 2, Duration.ofSeconds(1)));
+        Flux<Long> slow = executor.chatStream(() -> Flux.interval(Duration.ofMillis(100)));
+        assertThrows(ScoringExecutor.StageTimeoutException.class, slow::blockLast);
+        assertEquals(0, executor.getActiveLlmCalls());
+    }
+
+    @Test
+    void queuesThrottledChatCallsAgain() {
+        LlmGovernor governor = new LlmGovernor(new LlmGovernor.Settings(4, 1, 4, Duration.ofSeconds(10), 0, 0, 0,
+                10, Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofMillis(20), 1));
+        executor = new ScoringExecutor(settings(2, 2, 4, Duration.ofSeconds(1)), governor);
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals("ok", executor.chat(LlmGovernor.Priority.INTERACTIVE, 100, () -> {
+            if (calls.incrementAndGet() == 1) throw rateLimited();
+            return "ok";
+        }));
+        assertEquals(List.of("a"), executor.chatStream(LlmGovernor.Priority.BATCH, 100, () ->
+                calls.incrementAndGet() == 3 ? Flux.<String>error(rateLimited()) : Flux.just("a"))
+                .collectList().block());
+        assertEquals(2, governor.getThrottled());
+
+        // Still throttled after the retry: a 503 for the client, not a bare failure
+        assertThrows(ScoringExecutor.OverloadedException.class, () -> executor.chat(
+                LlmGovernor.Priority.INTERACTIVE, 100, () -> {
+                    throw rateLimited();
+                }));
+        assertEquals(0, executor.getActiveLlmCalls());
+    }
+
+    @Test
+    void retriesThrottledStreamsOffTheThreadThatDeliveredThe429() {
+        List<String> admittingThreads = new CopyOnWriteArrayList<>();
+        LlmGovernor governor = new LlmGovernor(new LlmGovernor.Settings(4, 1, 4, Duration.ofSeconds(10), 0, 0, 0,
+                10, Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofMillis(20), 1)) {
+            @Override
+            public Permit acquire(Priority priority, int promptTokens) {
+                admittingThreads.add(Thread.currentThread().getName());
+                return super.acquire(priority, promptTokens);
+            }
+        };
+        executor = new ScoringExecutor(settings(2, 2, 4, Duration.ofSeconds(1)), governor);
+        // Stands in for the HTTP client's event loop, which delivers the provider's 429
+        Scheduler eventLoop = Schedulers.newSingle("event-loop");
+        AtomicInteger calls = new AtomicInteger();
+        try {
+            assertEquals(List.of("a"), executor.chatStream(LlmGovernor.Priority.INTERACTIVE, 100, () ->
+                    (calls.incrementAndGet() == 1 ? Flux.<String>error(rateLimited())
+                            : Flux.just("a")).subscribeOn(eventLoop))
+                    .collectList().block());
+        } finally {
+            eventLoop.dispose();
+        }
+
+        assertEquals(2, admittingThreads.size());
+        assertTrue(admittingThreads.stream().noneMatch(name -> name.startsWith("event-loop")),
+                admittingThreads.toString());
+    }
+
+    private String blockUntilReleased() {
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            // Timed-out stages are interrupted; keep running like a call that ignores interrupts
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return "done";
+    }
+
+    private static ScoringExecutor.Settings settings(int threads, int queue, int llmCalls, Duration chatTimeout) {
+        return new ScoringExecutor.Settings(threads, queue, llmCalls, Duration.ofMillis(50),
+                Duration.ofSeconds(1), Duration.ofSeconds(1), chatTimeout);
+    }
+
+    private static NonTransientAiException rateLimited() {
+        // What Spring AI's retry handling throws for a 429 answer
+        return new NonTransientAiException("429 - {\"error\": \"Rate limit reached\"}");
+    }
+}
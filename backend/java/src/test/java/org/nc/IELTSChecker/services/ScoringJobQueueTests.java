@@ -0,0 +1,256 @@
+package org.nc.IELTSChecker.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nc.IELTSChecker.dto.BatchEvaluationItem;
+import org.nc.IELTSChecker.dto.EssayRequest;
+import org.nc.IELTSChecker.dto.EvaluationResponse;
+import org.nc.IELTSChecker.dto.ScoringJob;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.channels.FileChannel;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+class ScoringJobQueueTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void requeuesUnfinishedJobsAfterARestartAndScoresThemInOneBatch() throws Exception {
+        VectorStoreInitializer loading = mock(VectorStoreInitializer.class);
+        when(loading.getState()).thenReturn(VectorStoreInitializer.State.LOADING);
+        IeltsScoringService scoringService = mock(IeltsScoringService.class);
+        ScoringJobQueue first = queue(scoringService, loading);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 3; i++) ids.add(first.submit(request(i)).id());
+        assertEquals(ScoringJob.Status.QUEUED, first.get(ids.get(0)).status());
+        assertEquals(3, first.stats().queued());
+        first.stop();
+        verifyNoInteractions(scoringService);
+
+        VectorStoreInitializer ready = mock(VectorStoreInitializer.class);
+        when(ready.getState()).thenReturn(VectorStoreInitializer.State.READY);
+        when(scoringService.scoreEssays(anyList())).thenAnswer(invocation -> {
+            List<EssayRequest> requests = invocation.getArgument(0);
+            List<BatchEvaluationItem> items = new ArrayList<>();
+            for (int i = 0; i < requests.size(); i++) {
+                items.add(i == 1 ? BatchEvaluationItem.failure(i, "Evaluation failed: boom")
+                        : BatchEvaluationItem.success(i, evaluation()));
+            }
+            return items;
+        });
+        ScoringJobQueue second = queue(scoringService, ready);
+        ScoringJob done = second.whenDone(ids.get(2)).get(5, TimeUnit.SECONDS);
+        assertEquals(ScoringJob.Status.COMPLETED, done.status());
+        assertEquals(6.5, done.evaluation().overallBand());
+        assertEquals(ScoringJob.Status.FAILED, second.whenDone(ids.get(1)).get(5, TimeUnit.SECONDS).status());
+        verify(scoringService, times(1)).scoreEssays(argThat(requests -> requests.size() == 3));
+        assertEquals(3, second.stats().drainedLastMinute());
+        second.stop();
+
+        // Finished jobs are answered from the log after another restart, without scoring them again
+        ScoringJobQueue third = queue(scoringService, ready);
+        assertEquals(ScoringJob.Status.COMPLETED, third.get(ids.get(0)).status());
+        assertEquals("Evaluation failed: boom", third.get(ids.get(1)).error());
+        assertEquals(0, third.stats().queued());
+        third.stop();
+        verify(scoringService, times(1)).scoreEssays(anyList());
+    }
+
+    @Test
+    void queuesTransientFailuresAgainUpToTheAttemptCap() throws Exception {
+        VectorStoreInitializer ready = mock(VectorStoreInitializer.class);
+        when(ready.getState()).thenReturn(VectorStoreInitializer.State.READY);
+        IeltsScoringService scoringService = mock(IeltsScoringService.class);
+        AtomicInteger attempts = new AtomicInteger();
+        when(scoringService.scoreEssays(anyList())).thenAnswer(invocation -> {
+            EssayRequest request = invocation.<List<EssayRequest>>getArgument(0).get(0);
+            if (request.essay().contains("number 0") && attempts.incrementAndGet() < 3) {
+                throw new ScoringExecutor.OverloadedException("The model provider is throttling requests");
+            }
+            return List.of(request.essay().contains("number 1")
+                    ? BatchEvaluationItem.retryableFailure(0, "Evaluation failed: embedding timed out")
+                    : BatchEvaluationItem.success(0, evaluation()));
+        });
+        ScoringJobQueue queue = queue(scoringService, ready);
+
+        ScoringJob recovered = queue.whenDone(queue.submit(request(0)).id()).get(5, TimeUnit.SECONDS);
+        assertEquals(ScoringJob.Status.COMPLETED, recovered.status());
+        assertEquals(3, attempts.get());
+
+        ScoringJob exhausted = queue.whenDone(queue.submit(request(1)).id()).get(5, TimeUnit.SECONDS);
+        assertEquals(ScoringJob.Status.FAILED, exhausted.status());
+        assertEquals("Evaluation failed: embedding timed out", exhausted.error());
+        // Two throttled attempts of the first job and three failed attempts of the second
+        verify(scoringService, times(3 + 3)).scoreEssays(anyList());
+        assertEquals(1, queue.stats().failed());
+        queue.stop();
+    }
+
+    @Test
+    void queuesAJobAgainWhenTheProviderAnswersWithAServerError() throws Exception {
+        VectorStoreInitializer ready = mock(VectorStoreInitializer.class);
+        when(ready.getState()).thenReturn(VectorStoreInitializer.State.READY);
+        IeltsScoringService scoringService = mock(IeltsScoringService.class);
+        CountDownLatch scored = new CountDownLatch(1);
+        when(scoringService.scoreEssays(anyList())).thenAnswer(invocation -> {
+            scored.countDown();
+            // What Spring AI's OpenAI client throws for a 5xx answer
+            throw new TransientAiException("503 - {\"error\": \"The engine is currently overloaded\"}");
+        });
+        ScoringJobQueue queue = queue(scoringService, ready);
+        ReflectionTestUtils.setField(queue, "retryBackoffMs", 60_000L);
+        ReflectionTestUtils.setField(queue, "maxRetryBackoffMs", 60_000L);
+
+        String id = queue.submit(request(0)).id();
+        assertTrue(scored.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100 && queue.get(id).status() != ScoringJob.Status.QUEUED; i++) Thread.sleep(10);
+        assertEquals(ScoringJob.Status.QUEUED, queue.get(id).status());
+        assertEquals(0, queue.stats().failed());
+        queue.stop();
+    }
+
+    @Test
+    void shutdownLetsTheRunningBatchFinishAndDoesNotFailAnInterruptedOne() throws Exception {
+        VectorStoreInitializer ready = mock(VectorStoreInitializer.class);
+        when(ready.getState()).thenReturn(VectorStoreInitializer.State.READY);
+        CountDownLatch scoring = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IeltsScoringService scoringService = mock(IeltsScoringService.class);
+        when(scoringService.scoreEssays(anyList())).thenAnswer(invocation -> {
+            scoring.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                // Like a stage whose wait is interrupted: the item fails, with a permanent-looking error
+                Thread.currentThread().interrupt();
+                return List.of(BatchEvaluationItem.failure(0, "Evaluation failed: interrupted"));
+            }
+            return List.of(BatchEvaluationItem.success(0, evaluation()));
+        });
+
+        // Within the grace period, the running batch finishes and is recorded
+        ScoringJobQueue first = queue(scoringService, ready);
+        String finished = first.submit(request(0)).id();
+        assertTrue(scoring.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> stopped = CompletableFuture.runAsync(() -> {
+            try {
+                first.stop();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertFalse(stopped.isDone());
+        release.countDown();
+        stopped.get(5, TimeUnit.SECONDS);
+
+        // Past the grace period, the batch is interrupted and its result is not recorded
+        ScoringJobQueue second = queue(scoringService, ready);
+        assertEquals(ScoringJob.Status.COMPLETED, second.get(finished).status());
+        CountDownLatch blocked = new CountDownLatch(1);
+        when(scoringService.scoreEssays(anyList())).thenAnswer(invocation -> {
+            blocked.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return List.of(BatchEvaluationItem.failure(0, "Evaluation failed: interrupted"));
+        });
+        ReflectionTestUtils.setField(second, "shutdownGraceMs", 200L);
+        String interrupted = second.submit(request(1)).id();
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        second.stop();
+        assertNotEquals(ScoringJob.Status.FAILED, second.get(interrupted).status());
+        assertEquals(0, second.stats().failed());
+
+        VectorStoreInitializer loading = mock(VectorStoreInitializer.class);
+        when(loading.getState()).thenReturn(VectorStoreInitializer.State.LOADING);
+        ScoringJobQueue third = queue(scoringService, loading);
+        assertEquals(ScoringJob.Status.QUEUED, third.get(interrupted).status());
+        assertEquals(ScoringJob.Status.COMPLETED, third.get(finished).status());
+        third.stop();
+    }
+
+    @Test
+    void jobLogSkipsATornRecordAndCompactsToLiveRecords() throws Exception {
+        Path file = tempDir.resolve("jobs.log");
+        try (JobLog log = JobLog.open(file, 4096, entry -> fail("The new log is empty"))) {
+            int appended = 0;
+            while (log.append(entry(JobLog.SUBMITTED, "job-" + appended))) appended++;
+            assertTrue(appended > 10);
+            log.rewrite(List.of(entry(JobLog.SUBMITTED, "job-0"), entry(JobLog.COMPLETED, "job-0")));
+            assertTrue(log.append(entry(JobLog.SUBMITTED, "job-1")));
+        }
+
+        // A crash mid-write leaves a header whose payload does not match its checksum
+        long end;
+        try (JobLog log = JobLog.open(file, 4096, entry -> { })) {
+            end = log.size();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{40, 0, 0, 0, 1, 2, 3, 4, 9, 9}), end);
+        }
+        List<String> replayed = new ArrayList<>();
+        try (JobLog log = JobLog.open(file, 4096, entry -> replayed.add(entry.type() + ":" + entry.jobId()))) {
+            assertEquals(end, log.size());
+            assertTrue(log.append(entry(JobLog.FAILED, "job-1")));
+        }
+        replayed.clear();
+        try (JobLog log = JobLog.open(file, 4096, entry -> replayed.add(entry.type() + ":" + entry.jobId()))) {
+            assertEquals(List.of("1:job-0", "2:job-0", "1:job-1", "3:job-1"), replayed);
+            // The record appended over the torn one is kept
+            assertTrue(log.size() > end);
+        }
+    }
+
+    private ScoringJobQueue queue(IeltsScoringService scoringService, VectorStoreInitializer initializer)
+            throws Exception {
+        ScoringJobQueue queue = new ScoringJobQueue(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(queue, "path", tempDir.resolve("data/scoring_jobs.log").toString());
+        ReflectionTestUtils.setField(queue, "workers", 1);
+        ReflectionTestUtils.setField(queue, "batchSize", 8);
+        ReflectionTestUtils.setField(queue, "maxQueued", 100);
+        ReflectionTestUtils.setField(queue, "retentionHours", 24L);
+        ReflectionTestUtils.setField(queue, "logCapacityMb", 1L);
+        ReflectionTestUtils.setField(queue, "maxAttempts", 3);
+        ReflectionTestUtils.setField(queue, "retryBackoffMs", 20L);
+        ReflectionTestUtils.setField(queue, "maxRetryBackoffMs", 100L);
+        ReflectionTestUtils.setField(queue, "shutdownGraceMs", 5000L);
+        ReflectionTestUtils.setField(queue, "scoringService", scoringService);
+        ReflectionTestUtils.setField(queue, "storeInitializer", initializer);
+        queue.start();
+        return queue;
+    }
+
+    private static JobLog.Entry entry(byte type, String id) {
+        return new JobLog.Entry(type, id, System.currentTimeMillis(), "x".repeat(200).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static EssayRequest request(int i) {
+        return new EssayRequest("Some people think that technology makes life more complex. Discuss.",
+                "Essay number " + i + " argues that technology simplifies daily life. ".repeat(5), "2");
+    }
+
+    private static EvaluationResponse evaluation() {
+        return new EvaluationResponse(6.5, 6.5, 6.5, 6.5, 6.5, "Clear position.", Map.of());
+    }
+}
@@ -0,0 +1,72 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScoringPromptBuilderTests {
+
+    private static final String QUESTION = "Some people think technology makes children less creative. Discuss both views.";
+    private static final String ESSAY = "Children today grow up surrounded by screens. ".repeat(40);
+
+    @Test
+    void keepsTheMostRelevantExamplesWithinTheBudget() {
+        List<Document> examples = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            examples.add(example("doc" + i, 0.70 + i * 0.05, "example" + i));
+        }
+
+        ScoringPromptBuilder generous = new ScoringPromptBuilder(10_000);
+        String full = generous.build(QUESTION, ESSAY, examples);
+        assertTrue(full.startsWith(ScoringPromptBuilder.RUBRIC));
+        assertTrue(full.endsWith("Reply with the JSON evaluation only.\n"));
+        // Highest similarity first
+        assertTrue(full.indexOf("example4") < full.indexOf("example3"));
+        assertTrue(full.contains("example0"));
+
+        int budget = generous.countTokens(full) - 120;
+        ScoringPromptBuilder tight = new ScoringPromptBuilder(budget);
+        String trimmed = tight.build(QUESTION, ESSAY, examples);
+        assertTrue(tight.countTokens(trimmed) <= budget);
+        assertTrue(trimmed.contains("example4"));
+        assertFalse(trimmed.contains("example0"));
+        assertTrue(trimmed.contains(ESSAY.trim()));
+
+        // The submission is never cut, even when it alone exceeds the budget
+        String minimal = new ScoringPromptBuilder(100).build(QUESTION, ESSAY, examples);
+        assertFalse(minimal.contains("Example 1"));
+        assertTrue(minimal.contains(ESSAY.trim()));
+    }
+
+    @Test
+    void derivesSummariesForDocumentsStoredWithoutOne() {
+        String content = String.format(
+                "IELTS Writing Task 2 Essay (Band 7.0)%n%nQuestion:%n%s%n%nEssay:%n%s%n%nExaminer Comments:%n%s%n%nScores:%n- Overall: 7.0",
+                QUESTION, "First sentence of the essay. Middle part. Final conclusion here.",
+                "Well organised. Some errors remain. Good range.");
+        Document legacy = new Document("legacy", content, Map.of());
+
+        String summary = ExemplarSummarizer.summaryOf(legacy);
+        assertEquals("""
+                Band 7.0
+                Question: Some people think technology makes children less creative. Discuss both views.
+                Opening: First sentence of the essay.
+                Closing: Final conclusion here.
+                Examiner: Well organised. Some errors remain.""", summary);
+    }
+
+    private static Document example(String id, double score, String marker) {
+        Map<String, Object> metadata = new HashMap<>();
+        metadata.put(ExemplarSummarizer.METADATA_KEY, ExemplarSummarizer.summarize("6.5", QUESTION,
+                marker + " opens the essay with a long sentence about screens and creativity in schools today. "
+                        + "The body develops both views. " + marker + " closes with a clear opinion.",
+                "Clear position throughout. Range of vocabulary is adequate."));
+        return Document.builder().id(id).text("unused").metadata(metadata).score(score).build();
+    }
+}
@@ -0,0 +1,130 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nc.IELTSChecker.embedding.CachingEmbeddingModel;
+import org.nc.IELTSChecker.embedding.HashingEmbeddingModel;
+import org.nc.IELTSChecker.store.HnswIndex;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class VectorStoreInitializerTests {
+
+    private static final String[] TOPICS = {"technology", "education", "environment", "health", "transport", "crime"};
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void installsThePrebuiltIndexAndIsReadyBeforeTheDatasetSync() throws Exception {
+        Path csv = writeDataset(tempDir.resolve("dataset.csv"), 30);
+        PrebuiltIndex.Manifest manifest = PrebuiltIndex.build(new FileSystemResource(csv), tempDir.resolve("prebuilt"), 64);
+        assertEquals(30, manifest.documents());
+
+        CachingEmbeddingModel model = localModel(csv, 64);
+        assertEquals(manifest.modelId(), model.getModelId());
+        File storeFile = tempDir.resolve("data/vector_store.bin").toFile();
+        MappedVectorStore vectorStore = new MappedVectorStore(model, storeFile, new HnswIndex.Settings(16, 200, 64));
+
+        // The dataset sync blocks until released, so readiness is observed before it finishes
+        CountDownLatch syncStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CsvIeltsTask2Loader loader = mock(CsvIeltsTask2Loader.class);
+        doAnswer(invocation -> {
+            syncStarted.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(loader).loadCsvEssays();
+
+        VectorStoreInitializer initializer = initializer(vectorStore, loader, model, tempDir.resolve("prebuilt"));
+        assertEquals(VectorStoreInitializer.State.LOADING, initializer.getState());
+        assertEquals(Status.OUT_OF_SERVICE, initializer.health().getStatus());
+
+        initializer.start();
+        assertTrue(syncStarted.await(5, TimeUnit.SECONDS));
+        assertTrue(initializer.isReady());
+        assertEquals(Status.UP, initializer.health().getStatus());
+        assertEquals(30, initializer.health().getDetails().get("documents"));
+        assertTrue(Files.exists(tempDir.resolve("data/vector_store.bin.hnsw")));
+        release.countDown();
+        initializer.stop();
+
+        // The installed store answers searches like the one it was built from
+        assertEquals(5, vectorStore.similaritySearch(model.embed("technology essay 3"), 5, -1, null).size());
+    }
+
+    @Test
+    void skipsAPrebuiltIndexOfAnotherModelAndReportsALoadFailure() throws Exception {
+        Path csv = writeDataset(tempDir.resolve("dataset.csv"), 10);
+        PrebuiltIndex.build(new FileSystemResource(csv), tempDir.resolve("prebuilt"), 64);
+
+        CachingEmbeddingModel model = localModel(csv, 32);
+        File storeFile = tempDir.resolve("data/vector_store.bin").toFile();
+        MappedVectorStore vectorStore = new MappedVectorStore(model, storeFile);
+        CsvIeltsTask2Loader loader = mock(CsvIeltsTask2Loader.class);
+        doThrow(new IllegalStateException("embedding service unavailable")).when(loader).loadCsvEssays();
+
+        VectorStoreInitializer initializer = initializer(vectorStore, loader, model, tempDir.resolve("prebuilt"));
+        initializer.initialize();
+
+        assertFalse(storeFile.exists());
+        assertEquals(VectorStoreInitializer.State.FAILED, initializer.getState());
+        assertEquals(Status.DOWN, initializer.health().getStatus());
+        assertEquals("embedding service unavailable", initializer.health().getDetails().get("error"));
+    }
+
+    @Test
+    void isReadyAfterTheDatasetSyncFillsAnEmptyStore() throws Exception {
+        Path csv = writeDataset(tempDir.resolve("dataset.csv"), 10);
+        CachingEmbeddingModel model = localModel(csv, 32);
+        MappedVectorStore vectorStore = new MappedVectorStore(model, tempDir.resolve("vector_store.bin").toFile());
+        CsvIeltsTask2Loader loader = mock(CsvIeltsTask2Loader.class);
+
+        VectorStoreInitializer initializer = initializer(vectorStore, loader, model, tempDir.resolve("missing"));
+        initializer.initialize();
+
+        verify(loader).loadCsvEssays();
+        assertTrue(initializer.isReady());
+    }
+
+    private static VectorStoreInitializer initializer(MappedVectorStore vectorStore, CsvIeltsTask2Loader loader,
+                                                      CachingEmbeddingModel model, Path prebuilt) {
+        VectorStoreInitializer initializer = new VectorStoreInitializer();
+        ReflectionTestUtils.setField(initializer, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(initializer, "loader", loader);
+        ReflectionTestUtils.setField(initializer, "embeddingModel", model);
+        ReflectionTestUtils.setField(initializer, "legacyJsonPath", prebuilt.resolveSibling("none.json").toString());
+        ReflectionTestUtils.setField(initializer, "prebuiltLocation", prebuilt.toUri().toString());
+        return initializer;
+    }
+
+    private static CachingEmbeddingModel localModel(Path csv, int dimensions) throws Exception {
+        HashingEmbeddingModel local = HashingEmbeddingModel.fit(
+                CsvIeltsTask2Loader.corpusTexts(new FileSystemResource(csv)), dimensions);
+        return new CachingEmbeddingModel(local, local.getModelId(), 100, null);
+    }
+
+    private static Path writeDataset(Path file, int rows) throws Exception {
+        StringBuilder csv = new StringBuilder("Task_Type,Question,Essay,Examiner_Commen,Task_Response,"
+                + "Coherence_Cohesion,Lexical_Resource,Range_Accuracy,Overall\n");
+        for (int i = 0; i < rows; i++) {
+            String topic = TOPICS[i % TOPICS.length];
+            csv.append(String.format("2,\"Discuss the role of %s in society.\",\"This %s essay %d argues that %s "
+                            + "matters because people rely on it every day.\",\"Clear position.\",6,6,6,6,%d.5\n",
+                    topic, topic, i, topic, 5 + i % 4));
+        }
+        Files.writeString(file, csv);
+        return file;
+    }
+}
@@ -0,0 +1,164 @@
+package org.nc.IELTSChecker.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.InOrder;
+import org.nc.IELTSChecker.embedding.CachingEmbeddingModel;
+import org.nc.IELTSChecker.embedding.HashingEmbeddingModel;
+import org.nc.IELTSChecker.store.HnswIndex;
+import org.nc.IELTSChecker.store.MappedVectorStore;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class VectorStoreReloaderTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void rebuildsAndSwapsInTheStoreWhenTheWatchedDatasetChanges() throws Exception {
+        Path csv = writeDataset(tempDir.resolve("dataset.csv"), 0, 20);
+        HashingEmbeddingModel model = HashingEmbeddingModel.fit(
+                CsvIeltsTask2Loader.corpusTexts(new FileSystemResource(csv)), 32);
+        MappedVectorStore vectorStore = new MappedVectorStore(model, tempDir.resolve("data/vector_store.bin").toFile(),
+                new HnswIndex.Settings(8, 50, 32));
+        vectorStore.load();
+        CsvIeltsTask2Loader loader = loader(csv, vectorStore, model);
+        loader.loadCsvEssays();
+        assertEquals(20, vectorStore.size());
+
+        VectorStoreInitializer initializer = mock(VectorStoreInitializer.class);
+        when(initializer.getState()).thenReturn(VectorStoreInitializer.State.LOADING);
+        VectorStoreReloader reloader = new VectorStoreReloader();
+        ReflectionTestUtils.setField(reloader, "watch", true);
+        ReflectionTestUtils.setField(reloader, "quietPeriodMs", 200L);
+        ReflectionTestUtils.setField(reloader, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(reloader, "loader", loader);
+        ReflectionTestUtils.setField(reloader, "initializer", initializer);
+
+        // The startup sync already reads the latest dataset
+        assertFalse(reloader.requestReload("test"));
+        when(initializer.getState()).thenReturn(VectorStoreInitializer.State.READY);
+
+        reloader.startWatching();
+        try {
+            Thread.sleep(200);
+            // Five rows replaced by ten new ones
+            writeDataset(csv, 5, 30);
+            long deadline = System.currentTimeMillis() + 20_000;
+            while (reloader.status().reloads() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(50);
+        } finally {
+            reloader.stop();
+        }
+
+        VectorStoreReloader.Status status = reloader.status();
+        assertEquals(1, status.reloads());
+        assertNull(status.lastError());
+        assertEquals(25, status.documents());
+        assertEquals(25, vectorStore.size());
+        assertFalse(vectorStore.hasUncompactedChanges());
+        assertFalse(Files.exists(tempDir.resolve("data/vector_store.bin.staging")));
+        verify(initializer).reloaded();
+
+        // The swapped-in file is what a restart maps
+        MappedVectorStore reopened = new MappedVectorStore(model, vectorStore.getStoreFile());
+        reopened.load();
+        assertEquals(vectorStore.ids(), reopened.ids());
+    }
+
+    @Test
+    void aReloadRequestedDuringTheStartupSyncRunsAfterIt() throws Exception {
+        Path csv = writeDataset(tempDir.resolve("dataset.csv"), 0, 20);
+        HashingEmbeddingModel model = HashingEmbeddingModel.fit(
+                CsvIeltsTask2Loader.corpusTexts(new FileSystemResource(csv)), 32);
+        MappedVectorStore vectorStore = new MappedVectorStore(model, tempDir.resolve("data/vector_store.bin").toFile());
+        vectorStore.load();
+        loader(csv, vectorStore, model).loadCsvEssays();
+        vectorStore.save();
+        writeDataset(csv, 5, 30);
+
+        // The startup sync blocks until released, while the store it writes to is already ready
+        CountDownLatch syncStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CsvIeltsTask2Loader loader = spy(loader(csv, vectorStore, model));
+        doAnswer(invocation -> {
+            syncStarted.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(loader).loadCsvEssays();
+
+        VectorStoreInitializer initializer = new VectorStoreInitializer();
+        ReflectionTestUtils.setField(initializer, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(initializer, "loader", loader);
+        ReflectionTestUtils.setField(initializer, "embeddingModel",
+                new CachingEmbeddingModel(model, model.getModelId(), 100, null));
+        ReflectionTestUtils.setField(initializer, "legacyJsonPath", tempDir.resolve("none.json").toString());
+        ReflectionTestUtils.setField(initializer, "prebuiltLocation", tempDir.resolve("prebuilt").toUri().toString());
+        VectorStoreReloader reloader = new VectorStoreReloader();
+        ReflectionTestUtils.setField(reloader, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(reloader, "loader", loader);
+        ReflectionTestUtils.setField(reloader, "initializer", initializer);
+
+        initializer.start();
+        try {
+            assertTrue(syncStarted.await(5, TimeUnit.SECONDS));
+            assertTrue(initializer.isReady());
+            assertTrue(reloader.requestReload("test"));
+            assertTrue(reloader.requestReload("test again"));
+            Thread.sleep(300);
+            verify(loader, never()).loadCsvEssays(any(MappedVectorStore.class));
+
+            release.countDown();
+            long deadline = System.currentTimeMillis() + 20_000;
+            while (reloader.status().reloads() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            Thread.sleep(200);
+        } finally {
+            release.countDown();
+            reloader.stop();
+        }
+
+        // One reload after the sync, which had already applied the new dataset to the live store
+        assertEquals(1, reloader.status().reloads());
+        assertNull(reloader.status().lastError());
+        InOrder order = inOrder(loader);
+        order.verify(loader).loadCsvEssays(vectorStore);
+        order.verify(loader).loadCsvEssays(any(MappedVectorStore.class));
+        assertEquals(25, vectorStore.size());
+        MappedVectorStore reopened = new MappedVectorStore(model, vectorStore.getStoreFile());
+        reopened.load();
+        assertEquals(vectorStore.ids(), reopened.ids());
+    }
+
+    private static CsvIeltsTask2Loader loader(Path csv, MappedVectorStore vectorStore, HashingEmbeddingModel model) {
+        CsvIeltsTask2Loader loader = new CsvIeltsTask2Loader(new EssayPreprocessor());
+        ReflectionTestUtils.setField(loader, "csvFile", new FileSystemResource(csv));
+        ReflectionTestUtils.setField(loader, "queueCapacity", 16);
+        ReflectionTestUtils.setField(loader, "preprocessThreads", 1);
+        ReflectionTestUtils.setField(loader, "initialBatchSize", 10);
+        ReflectionTestUtils.setField(loader, "maxBatchSize", 50);
+        ReflectionTestUtils.setField(loader, "maxEmbeddingConcurrency", 1);
+        ReflectionTestUtils.setField(loader, "targetLatencyMs", 5000L);
+        ReflectionTestUtils.setField(loader, "vectorStore", vectorStore);
+        ReflectionTestUtils.setField(loader, "embeddingModel", model);
+        return loader;
+    }
+
+    private static Path writeDataset(Path file, int from, int to) throws Exception {
+        StringBuilder csv = new StringBuilder("Task_Type,Question,Essay,Examiner_Commen,Task_Response,"
+                + "Coherence_Cohesion,Lexical_Resource,Range_Accuracy,Overall\n");
+        for (int i = from; i < to; i++) {
+            csv.append(String.format("2,\"Is topic %d important?\",\"Essay %d argues that topic %d matters to "
+                    + "everyone.\",\"Clear position.\",6,6,6,6,%d.0\n", i % 7, i, i % 7, 5 + i % 4));
+        }
+        Files.writeString(file, csv);
+        return file;
+    }
+}
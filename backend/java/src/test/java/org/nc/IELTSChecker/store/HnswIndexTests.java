@@ -0,0 +1,116 @@
+package org.nc.IELTSChecker.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Recall of the HNSW search against the exhaustive scan, on clustered synthetic embeddings.
+ * The printed table is the recall-vs-exact report for the chosen settings.
+ */
+class HnswIndexTests {
+
+    private static final int DOCUMENTS = 10_000;
+    private static final int DIMENSIONS = 128;
+    private static final int QUERIES = 200;
+    private static final int TOP_K = 5;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recallAgainstExactSearch() throws Exception {
+        Random random = new Random(7);
+        float[][] centroids = new float[50][];
+        for (int i = 0; i < centroids.length; i++) centroids[i] = gaussian(random, 1f);
+
+        List<Document> documents = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            documents.add(new Document("doc-" + i, "essay " + i, Map.of("band", String.valueOf(4 + i % 6))));
+            embeddings.add(perturb(centroids[random.nextInt(centroids.length)], random, 0.6f));
+        }
+
+        File file = tempDir.resolve("store.bin").toFile();
+        MappedVectorStore builder = new MappedVectorStore(new StubEmbeddingModel(), file,
+                new HnswIndex.Settings(16, 100, 64));
+        builder.add(documents, embeddings);
+        builder.save();
+        assertTrue(Files.exists(tempDir.resolve("store.bin.hnsw")));
+
+        float[][] queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = perturb(centroids[random.nextInt(centroids.length)], random, 0.6f);
+        }
+
+        System.out.printf("HNSW recall@%d vs exact scan (%d docs, %d dims, M=16, efConstruction=100)%n",
+                TOP_K, DOCUMENTS, DIMENSIONS);
+        System.out.println("efSearch  recall  exact-us  hnsw-us");
+        double recallAt64 = 0;
+        for (int efSearch : new int[]{16, 32, 64, 128}) {
+            // Reuses the persisted graph: efSearch is not part of the index file
+            MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), file,
+                    new HnswIndex.Settings(16, 100, efSearch));
+            store.load();
+
+            int hits = 0;
+            long exactNanos = 0;
+            long hnswNanos = 0;
+            for (float[] query : queries) {
+                long t0 = System.nanoTime();
+                Set<String> exact = ids(store.exactSearch(query, TOP_K, -1, null));
+                long t1 = System.nanoTime();
+                Set<String> approximate = ids(store.similaritySearch(query, TOP_K, -1, null));
+                long t2 = System.nanoTime();
+                exactNanos += t1 - t0;
+                hnswNanos += t2 - t1;
+                approximate.retainAll(exact);
+                hits += approximate.size();
+            }
+            double recall = hits / (double) (QUERIES * TOP_K);
+            if (efSearch == 64) recallAt64 = recall;
+            System.out.printf("%8d  %6.3f  %8d  %7d%n", efSearch, recall,
+                    exactNanos / QUERIES / 1000, hnswNanos / QUERIES / 1000);
+        }
+        assertTrue(recallAt64 >= 0.95, "recall@5 at efSearch=64 was " + recallAt64);
+    }
+
+    @Test
+    void indexesRowsAddedAfterLoadAndSkipsDeletedRows() throws Exception {
+        File file = tempDir.resolve("small.bin").toFile();
+        MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), file, new HnswIndex.Settings(4, 20, 10));
+        store.add(List.of(new Document("a", "technology in schools", Map.of()),
+                new Document("b", "public transport", Map.of())));
+        store.save();
+        store.add(List.of(new Document("c", "technology at home", Map.of())));
+        store.delete(List.of("a"));
+
+        List<Document> results = store.similaritySearch(StubEmbeddingModel.vector("technology"), 3, 0.1, null);
+        assertEquals(List.of("c"), results.stream().map(Document::getId).toList());
+    }
+
+    private static Set<String> ids(List<Document> documents) {
+        Set<String> ids = new HashSet<>();
+        documents.forEach(document -> ids.add(document.getId()));
+        return ids;
+    }
+
+    private static float[] gaussian(Random random, float scale) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) vector[i] = (float) random.nextGaussian() * scale;
+        return vector;
+    }
+
+    private static float[] perturb(float[] centroid, Random random, float noise) {
+        float[] vector = gaussian(random, noise);
+        for (int i = 0; i < DIMENSIONS; i++) vector[i] += centroid[i];
+        return vector;
+    }
+}
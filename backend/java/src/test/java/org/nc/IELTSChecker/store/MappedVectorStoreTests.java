@@ -0,0 +1,331 @@
+package org.nc.IELTSChecker.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.SimpleVectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedVectorStoreTests {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void searchesAddedDocumentsAndSurvivesSaveAndReload() throws Exception {
+        File file = tempDir.resolve("store.bin").toFile();
+        MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), file);
+        store.add(List.of(
+                new Document("a", "technology in schools", Map.of("band", "6.5")),
+                new Document("b", "public transport funding", Map.of("band", "7.0")),
+                new Document("c", "technology and children", Map.of("band", "8.0"))));
+
+        List<Document> beforeSave = search(store, "technology", "band >= 7");
+        store.save();
+        MappedVectorStore reloaded = new MappedVectorStore(new StubEmbeddingModel(), file);
+        reloaded.load();
+
+        assertEquals(3, reloaded.size());
+        List<Document> afterReload = search(reloaded, "technology", "band >= 7");
+        assertEquals(List.of("c"), afterReload.stream().map(Document::getId).toList());
+        assertEquals(beforeSave.get(0).getScore(), afterReload.get(0).getScore(), 1e-6);
+        assertEquals("8.0", afterReload.get(0).getMetadata().get("band"));
+
+        reloaded.delete(List.of("c"));
+        assertTrue(search(reloaded, "technology", "band >= 7").isEmpty());
+    }
+
+    @Test
+    void replaysUncompactedLogAndDropsTornTail() throws Exception {
+        File file = tempDir.resolve("store.bin").toFile();
+        MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), file);
+        store.load();
+        store.add(List.of(new Document("a", "technology in schools", Map.of("band", "6.5"))));
+        store.save();
+        store.add(List.of(new Document("b", "public transport funding", Map.of("band", "7.0"))));
+        store.delete(List.of("a"));
+
+        // Simulate a crash part-way through writing the next batch
+        Path log = tempDir.resolve("store.bin.log");
+        Files.write(log, new byte[]{42, 0, 0, 0, 1, 2}, StandardOpenOption.APPEND);
+
+        MappedVectorStore reopened = new MappedVectorStore(new StubEmbeddingModel(), file);
+        reopened.load();
+        assertEquals(Set.of("b"), reopened.ids());
+        assertTrue(reopened.hasUncompactedChanges());
+
+        reopened.add(List.of(new Document("c", "technology and children", Map.of("band", "8.0"))));
+        reopened.save();
+        MappedVectorStore compacted = new MappedVectorStore(new StubEmbeddingModel(), file);
+        compacted.load();
+        assertEquals(Set.of("b", "c"), compacted.ids());
+        assertFalse(compacted.hasUncompactedChanges());
+    }
+
+    @Test
+    void ignoresLogOfAnotherFileWithTheSameShape() throws Exception {
+        File file = tempDir.resolve("store.bin").toFile();
+        MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), file);
+        store.load();
+        store.add(List.of(new Document("a", "technology in schools", Map.of("band", "6.5"))));
+        store.save();
+        store.add(List.of(new Document("b", "public transport funding", Map.of("band", "7.0"))));
+        Path log = tempDir.resolve("store.bin.log");
+        Path staleLog = Files.copy(log, tempDir.resolve("stale.log"));
+
+        // Rebuild the file with the same length, row count and dimensions, then put the old log back
+        try (StoreFileWriter writer = new StoreFileWriter(file, 0)) {
+            writer.append("a", "technology in schools", Map.of("band", "6.5"),
+                    StubEmbeddingModel.vector("technology in schools"));
+            writer.commit();
+        }
+        Files.copy(staleLog, log, StandardCopyOption.REPLACE_EXISTING);
+
+        MappedVectorStore reopened = new MappedVectorStore(new StubEmbeddingModel(), file);
+        reopened.load();
+        assertEquals(Set.of("a"), reopened.ids());
+        assertFalse(reopened.hasUncompactedChanges());
+    }
+
+    @Test
+    void convertsSimpleVectorStoreJson() throws Exception {
+        StubEmbeddingModel embeddingModel = new StubEmbeddingModel();
+        SimpleVectorStore simple = SimpleVectorStore.builder(embeddingModel).build();
+        simple.add(List.of(
+                new Document("a", "technology in schools", Map.of("band", "6.5", "word_count", 270)),
+                new Document("b", "public transport funding", Map.of("band", "7.0", "word_count", 310))));
+        File json = tempDir.resolve("store.json").toFile();
+        simple.save(json);
+
+        File binary = tempDir.resolve("store.bin").toFile();
+        assertEquals(2, SimpleVectorStoreJsonConverter.convert(json, binary));
+
+        MappedVectorStore store = new MappedVectorStore(embeddingModel, binary);
+        store.load();
+        List<Document> expected = simple.similaritySearch(SearchRequest.builder().query("transport").topK(2).build());
+        List<Document> actual = store.similaritySearch(SearchRequest.builder().query("transport").topK(2).build());
+        assertEquals(expected.stream().map(Document::getId).toList(), actual.stream().map(Document::getId).toList());
+        assertEquals(310, actual.get(0).getMetadata().get("word_count"));
+    }
+
+    @Test
+    void findsEssaysOnTheSameQuestionAndFusesKeywordAndVectorResults() throws Exception {
+        File file = tempDir.resolve("store.bin").toFile();
+        MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), file);
+        store.load();
+        String transport = "Should governments spend more on public transport?";
+        store.add(List.of(
+                new Document("a", "Essay on transport: buses and trains", Map.of("question", transport)),
+                new Document("b", "Essay on transport: cycling lanes", Map.of("question", transport)),
+                new Document("c", "Essay on museums and free entry", Map.of("question", "Should museums be free?")),
+                new Document("d", "Essay on transport: roads", Map.of("question", transport))));
+        store.delete(List.of("d"));
+
+        assertEquals(List.of("b", "a"), ids(store.questionMatches(
+                "should governments spend more on public transport", "cycling", 5, 0.9)));
+        assertEquals(Set.of("a", "b"), Set.copyOf(ids(store.questionMatches(
+                "Should the government spend more on public transport?", "essay", 5, 0.6))));
+        assertTrue(store.questionMatches("Is technology good for children?", "essay", 5, 0.9).isEmpty());
+
+        assertEquals(List.of("c"), ids(store.lexicalSearch("free museums", 5)));
+        // Nothing passes the similarity threshold, so the keyword results fill the hybrid result
+        List<Document> hybrid = store.hybridSearch("museums", StubEmbeddingModel.vector("unrelated"), 5, 0.99);
+        assertEquals(List.of("c"), ids(hybrid));
+
+        // Compaction renumbers the rows after the deletion; the index has to follow
+        store.save();
+        assertEquals(List.of("a", "b"), ids(store.questionMatches(transport, "buses", 5, 0.9)));
+        store.add(List.of(new Document("e", "Essay on transport: trams", Map.of("question", transport))));
+        assertEquals(List.of("e"), ids(store.questionMatches(transport, "trams", 1, 0.9)));
+
+        MappedVectorStore reloaded = new MappedVectorStore(new StubEmbeddingModel(), file);
+        reloaded.load();
+        assertEquals(List.of("e"), ids(reloaded.lexicalSearch("trams", 5)));
+    }
+
+    @Test
+    void servesPrecomputedExemplarsSpreadOverTheBandsUntilTheCorpusChanges() throws Exception {
+        MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), tempDir.resolve("store.bin").toFile());
+        store.load();
+        String transport = "Should governments spend more on public transport?";
+        List<Document> essays = new ArrayList<>();
+        String[] bands = {"6.0", "6.0", "8.0", "5.0", "7.0", "6.5", "8.0"};
+        for (int i = 0; i < bands.length; i++) {
+            essays.add(new Document("t" + i, "Essay " + i + " on transport", Map.of("question", transport, "band", bands[i])));
+        }
+        essays.add(new Document("m", "Essay on museums", Map.of("question", "Should museums be free?", "band", "7.0")));
+        store.add(essays);
+        assertEquals(2, store.precomputeQuestionExemplars());
+
+        // The highest and lowest band first, then the band farthest from both, then each band in turn
+        List<Document> exemplars = store.questionExemplars("should governments spend more on public transport", 10, 0.9);
+        assertEquals(List.of("t2", "t3", "t5", "t0", "t4", "t6", "t1"), ids(exemplars));
+        assertTrue(exemplars.get(0).getScore() > exemplars.get(1).getScore());
+        assertEquals(List.of("t2", "t3"), ids(store.questionExemplars(
+                "Should the government spend more on public transport?", 2, 0.6)));
+        assertTrue(store.questionExemplars("Is technology good for children?", 5, 0.9).isEmpty());
+
+        store.delete(List.of("t3"));
+        store.add(List.of(new Document("t7", "Essay on trams", Map.of("question", transport, "band", "4.5"))));
+        assertEquals(List.of("t2", "t7", "t0"), ids(store.questionExemplars(transport, 3, 0.9)));
+    }
+
+    @Test
+    void pushesBandFiltersDownToPartitionsWithoutChangingResults() throws Exception {
+        File file = tempDir.resolve("store.bin").toFile();
+        MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), file);
+        store.load();
+        String[] words = {"technology", "schools", "transport", "museums", "children", "cities", "health"};
+        Object[] bands = {"5.0", "5.5", "6.0", "6.5", "7.0", "7.5", "8.0", 9, "n/a", null};
+        java.util.Random random = new java.util.Random(42);
+        List<Document> documents = new java.util.ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 4; w++) text.append(words[random.nextInt(words.length)]).append(' ');
+            Map<String, Object> metadata = new java.util.HashMap<>();
+            Object band = bands[random.nextInt(bands.length)];
+            if (band != null) metadata.put("band", band);
+            metadata.put("word_count", 200 + random.nextInt(200));
+            documents.add(new Document("d" + i, text.toString(), metadata));
+        }
+        store.add(documents.subList(0, 200));
+        store.save();
+        store.add(documents.subList(200, 300));
+        store.delete(List.of("d3", "d250"));
+
+        FilterExpressionTextParser parser = new FilterExpressionTextParser();
+        for (String filter : List.of("band == 7", "band >= 6.5", "band < 6", "band in [5, 8.0, 9]",
+                "band >= 6 && word_count > 300", "band == 5 || band == 9", "band == 7 || word_count > 350",
+                "band != 7", "band == '7.0'", "word_count <= 250")) {
+            Filter.Expression expression = parser.parse(filter);
+            float[] query = StubEmbeddingModel.vector("technology schools children");
+            List<String> expected = documents.stream()
+                    .filter(document -> !Set.of("d3", "d250").contains(document.getId()))
+                    .filter(document -> MetadataFilter.matches(expression, document.getMetadata()))
+                    .sorted(java.util.Comparator.comparingDouble((Document document) ->
+                            -cosine(query, StubEmbeddingModel.vector(document.getText())))
+                            .thenComparing(Document::getId))
+                    .map(Document::getId)
+                    .toList();
+            List<Document> actual = store.similaritySearch(query, expected.size() + 1, -1, expression);
+            assertEquals(Set.copyOf(expected), Set.copyOf(ids(actual)), filter);
+        }
+    }
+
+    @Test
+    void stratifiedSearchReturnsTheNearestEssaysOfEachBandRange() throws Exception {
+        MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), tempDir.resolve("store.bin").toFile());
+        store.load();
+        store.add(List.of(
+                new Document("5a", "technology in schools", Map.of("band", "5.0")),
+                new Document("5b", "technology and schools and children", Map.of("band", "5.5")),
+                new Document("6a", "public transport", Map.of("band", "6.0")),
+                new Document("7a", "technology in schools today", Map.of("band", "7.5")),
+                new Document("7b", "museums", Map.of("band", "7.0")),
+                new Document("9a", "technology in schools", Map.of("band", "9.0"))));
+
+        List<Document> results = store.stratifiedSearch(StubEmbeddingModel.vector("technology in schools"),
+                new double[]{5, 6, 7, 8}, 1, 0.1);
+
+        assertEquals(List.of("5a", "7a"), ids(results));
+        assertEquals(2, store.stratifiedSearch(StubEmbeddingModel.vector("technology in schools"),
+                new double[]{5}, 2, 0.1).size());
+    }
+
+    @Test
+    void swapsInAStagedCopyWhileSearchesRunAndSharesTheFileReadOnly() throws Exception {
+        File file = tempDir.resolve("store.bin").toFile();
+        HnswIndex.Settings hnsw = new HnswIndex.Settings(8, 50, 32);
+        MappedVectorStore live = new MappedVectorStore(new StubEmbeddingModel(), file, hnsw);
+        live.load();
+        live.add(documents(0, 300));
+        live.save();
+        MappedVectorStore shared = new MappedVectorStore(new StubEmbeddingModel(), file, hnsw, null, true);
+        shared.load();
+        assertEquals(300, shared.size());
+        assertThrows(UnsupportedOperationException.class, () -> shared.add(documents(300, 301)));
+
+        // Searches of both stores run throughout the rebuild and the swaps
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        AtomicInteger searches = new AtomicInteger();
+        Thread searcher = new Thread(() -> {
+            float[] query = StubEmbeddingModel.vector("essay 42 about technology");
+            while (!done.get()) {
+                try {
+                    for (MappedVectorStore store : List.of(live, shared)) {
+                        List<Document> results = store.similaritySearch(query, 5, -1, null);
+                        if (results.size() != 5) throw new AssertionError("Expected 5 results, got " + results.size());
+                    }
+                    searches.incrementAndGet();
+                } catch (Throwable e) {
+                    failure.set(e);
+                    return;
+                }
+            }
+        });
+        searcher.start();
+
+        MappedVectorStore staged = live.stage(tempDir.resolve("store.bin.staging").toFile());
+        staged.add(documents(300, 400));
+        staged.delete(List.of("doc-0", "doc-1"));
+        staged.save();
+        assertEquals(300, live.size());
+        live.replaceWith(staged);
+        assertEquals(398, live.size());
+        shared.load();
+        assertEquals(398, shared.size());
+
+        while (searches.get() < 50 && failure.get() == null) Thread.sleep(10);
+        done.set(true);
+        searcher.join();
+        assertNull(failure.get());
+        assertFalse(Files.exists(tempDir.resolve("store.bin.staging")));
+        assertEquals(1.0, live.exactSearch(
+                StubEmbeddingModel.vector("essay 350 about technology"), 1, -1, null).get(0).getScore(), 1e-6);
+        assertFalse(live.ids().contains("doc-0"));
+        assertTrue(shared.ids().contains("doc-399"));
+    }
+
+    private static List<Document> documents(int from, int to) {
+        List<Document> documents = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            documents.add(new Document("doc-" + i, "essay " + i + " about technology", Map.of("band", "6.0")));
+        }
+        return documents;
+    }
+
+    private static float cosine(float[] a, float[] b) {
+        return VectorMath.cosine(a, VectorMath.norm(a), b, VectorMath.norm(b));
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+
+    private static List<Document> search(MappedVectorStore store, String query, String filter) {
+        return store.similaritySearch(SearchRequest.builder()
+                .query(query)
+                .topK(5)
+                .similarityThreshold(0.1)
+                .filterExpression(filter)
+                .build());
+    }
+}
@@ -0,0 +1,146 @@
+package org.nc.IELTSChecker.store;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.filter.FilterExpressionTextParser;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Recall of searches over quantized codes, rescored with full-precision vectors, against the
+ * exhaustive full-precision scan, on clustered synthetic embeddings. The printed table is the
+ * recall and memory report for each code type.
+ */
+class QuantizedVectorsTests {
+
+    private static final int DOCUMENTS = 10_000;
+    private static final int DIMENSIONS = 128;
+    private static final int QUERIES = 200;
+    private static final int TOP_K = 5;
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void recallAgainstFullPrecisionSearch() throws Exception {
+        Random random = new Random(7);
+        float[][] centroids = new float[50][];
+        for (int i = 0; i < centroids.length; i++) centroids[i] = gaussian(random, 1f);
+
+        List<Document> documents = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int i = 0; i < DOCUMENTS; i++) {
+            documents.add(new Document("doc-" + i, "essay " + i, Map.of("band", String.valueOf(4 + i % 6))));
+            embeddings.add(perturb(centroids[random.nextInt(centroids.length)], random, 0.6f));
+        }
+        File file = tempDir.resolve("store.bin").toFile();
+        MappedVectorStore reference = new MappedVectorStore(new StubEmbeddingModel(), file);
+        reference.add(documents, embeddings);
+        reference.save();
+
+        float[][] queries = new float[QUERIES][];
+        for (int i = 0; i < QUERIES; i++) {
+            queries[i] = perturb(centroids[random.nextInt(centroids.length)], random, 0.6f);
+        }
+        List<Set<String>> exact = new ArrayList<>();
+        for (float[] query : queries) exact.add(ids(reference.exactSearch(query, TOP_K, -1, null)));
+
+        System.out.printf("Recall@%d vs full-precision scan (%d docs, %d dims)%n", TOP_K, DOCUMENTS, DIMENSIONS);
+        System.out.println("codes  rescore  index  recall  heap-KB  reduction");
+        long fullBytes = 4L * DOCUMENTS * (DIMENSIONS + 1);
+        for (QuantizedVectors.Type type : new QuantizedVectors.Type[]{QuantizedVectors.Type.INT8, QuantizedVectors.Type.PQ}) {
+            for (int rescoreFactor : new int[]{1, 4, 8, 16}) {
+                for (HnswIndex.Settings hnsw : new HnswIndex.Settings[]{null, new HnswIndex.Settings(16, 100, 64)}) {
+                    MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), file, hnsw,
+                            new QuantizedVectors.Settings(type, rescoreFactor, 0));
+                    store.load();
+                    int hits = 0;
+                    for (int i = 0; i < QUERIES; i++) {
+                        Set<String> found = ids(store.similaritySearch(queries[i], TOP_K, -1, null));
+                        found.retainAll(exact.get(i));
+                        hits += found.size();
+                    }
+                    double recall = hits / (double) (QUERIES * TOP_K);
+                    double reduction = fullBytes / (double) store.quantizedBytes();
+                    System.out.printf("%-5s  %7d  %-5s  %6.3f  %7d  %8.1fx%n", type, rescoreFactor,
+                            hnsw == null ? "flat" : "hnsw", recall, store.quantizedBytes() / 1024, reduction);
+
+                    // Bounds at the default rescore factor; codebooks weigh on PQ's reduction at this size
+                    if (rescoreFactor == new QuantizedVectors.Settings(type, 0, 0).rescoreFactor()) {
+                        assertTrue(recall >= 0.99, type + " recall@5 with " + (hnsw == null ? "flat" : "hnsw")
+                                + " search was " + recall);
+                        assertTrue(reduction >= (type == QuantizedVectors.Type.INT8 ? 3.9 : 10), "reduction " + reduction);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void persistsCodesAndSearchesPendingDeletedAndFilteredRowsCorrectly() throws Exception {
+        Random random = new Random(3);
+        List<Document> documents = new ArrayList<>();
+        List<float[]> embeddings = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            documents.add(new Document("doc-" + i, "essay " + i, Map.of("band", 4 + i % 6)));
+            embeddings.add(gaussian(random, 1f));
+        }
+        File file = tempDir.resolve("codes.bin").toFile();
+        QuantizedVectors.Settings settings = new QuantizedVectors.Settings(QuantizedVectors.Type.PQ, 4, 32);
+        MappedVectorStore store = new MappedVectorStore(new StubEmbeddingModel(), file, null, settings);
+        store.add(documents, embeddings);
+        store.save();
+        assertTrue(Files.exists(tempDir.resolve("codes.bin.codes")));
+
+        float[] pendingVector = gaussian(random, 1f);
+        store.add(List.of(new Document("pending", "new essay", Map.of("band", 9))), List.of(pendingVector));
+        store.delete(List.of("doc-7"));
+
+        // Pending rows are scored at full precision; deleted rows are skipped
+        List<Document> results = store.similaritySearch(pendingVector, 3, -1, null);
+        assertEquals("pending", results.get(0).getId());
+        assertEquals(1.0, results.get(0).getScore(), 1e-5);
+        assertTrue(ids(store.similaritySearch(embeddings.get(7), 10, -1, null)).stream().noneMatch("doc-7"::equals));
+
+        // Scores of results are exact cosine similarities, and filters still apply
+        List<Document> filtered = store.similaritySearch(embeddings.get(12), 5, -1,
+                new FilterExpressionTextParser().parse("band == 4"));
+        assertEquals("doc-12", filtered.get(0).getId());
+        assertEquals(1.0, filtered.get(0).getScore(), 1e-5);
+        assertTrue(filtered.stream().allMatch(document -> ((Number) document.getMetadata().get("band")).intValue() == 4));
+
+        // Reloading reads the persisted codes and gives the same results
+        List<String> before = store.exactSearch(embeddings.get(99), 5, -1, null).stream().map(Document::getId).toList();
+        store.save();
+        long written = Files.getLastModifiedTime(tempDir.resolve("codes.bin.codes")).toMillis();
+        MappedVectorStore reloaded = new MappedVectorStore(new StubEmbeddingModel(), file, null, settings);
+        reloaded.load();
+        assertEquals(written, Files.getLastModifiedTime(tempDir.resolve("codes.bin.codes")).toMillis());
+        assertEquals(before, reloaded.exactSearch(embeddings.get(99), 5, -1, null).stream().map(Document::getId).toList());
+        assertEquals(500, reloaded.size());
+    }
+
+    private static Set<String> ids(List<Document> documents) {
+        Set<String> ids = new HashSet<>();
+        documents.forEach(document -> ids.add(document.getId()));
+        return ids;
+    }
+
+    private static float[] gaussian(Random random, float scale) {
+        float[] vector = new float[DIMENSIONS];
+        for (int i = 0; i < DIMENSIONS; i++) vector[i] = (float) random.nextGaussian() * scale;
+        return vector;
+    }
+
+    private static float[] perturb(float[] centroid, Random random, float noise) {
+        float[] vector = gaussian(random, noise);
+        for (int i = 0; i < DIMENSIONS; i++) vector[i] += centroid[i];
+        return vector;
+    }
+}
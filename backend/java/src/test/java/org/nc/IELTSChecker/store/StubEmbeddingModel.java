@@ -0,0 +1,46 @@
+package org.nc.IELTSChecker.store;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Deterministic offline embedding: each word is hashed into one of 64 buckets.
+ */
+class StubEmbeddingModel implements EmbeddingModel {
+
+    static final int DIMENSIONS = 64;
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        List<Embedding> embeddings = new ArrayList<>();
+        List<String> texts = request.getInstructions();
+        for (int i = 0; i < texts.size(); i++) {
+            embeddings.add(new Embedding(vector(texts.get(i)), i));
+        }
+        return new EmbeddingResponse(embeddings);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return vector(document.getText());
+    }
+
+    @Override
+    public int dimensions() {
+        return DIMENSIONS;
+    }
+
+    static float[] vector(String text) {
+        float[] vector = new float[DIMENSIONS];
+        for (String word : text.toLowerCase().split("\\W+")) {
+            if (!word.isEmpty()) vector[Math.floorMod(word.hashCode(), DIMENSIONS)] += 1f;
+        }
+        return vector;
+    }
+}